@@ -10,10 +10,13 @@ import com.thaiopensource.resolver.xml.ExternalDTDSubsetIdentifier;
 import com.thaiopensource.resolver.xml.ExternalEntityIdentifier;
 import com.thaiopensource.resolver.xml.ExternalIdentifier;
 import com.thaiopensource.resolver.xml.sax.SAXResolver;
+import com.thaiopensource.util.Equal;
 import org.apache.xml.resolver.Catalog;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * A Resolver that uses OASIS XML catalogs.
@@ -21,7 +24,67 @@ import java.util.List;
 public class CatalogResolver extends AbstractResolver {
   private final Catalog catalog;
   private boolean catalogLoaded = false;
-  private boolean hadCatalogError = false;
+  private volatile boolean hadCatalogError = false;
+  /**
+   * Maps a CacheKey to the resolved URI, or to NOT_FOUND.  The catalogs do not
+   * change once they have been loaded, so the results of lookups can be reused
+   * without going through the lock that protects the Catalog.
+   */
+  private final ConcurrentMap<CacheKey, String> cache = new ConcurrentHashMap<CacheKey, String>();
+  static private final String NOT_FOUND = new String("");
+  static private final int MAX_CACHE_SIZE = 10000;
+
+  static private class CacheKey {
+    private final Class<?> idClass;
+    private final String absoluteUri;
+    private final String uriReference;
+    private final String publicId;
+    private final String name;
+    private final int hashCode;
+
+    private CacheKey(Identifier id, String absoluteUri) {
+      this.idClass = id.getClass();
+      this.absoluteUri = absoluteUri;
+      this.uriReference = id.getUriReference();
+      if (id instanceof ExternalIdentifier) {
+        publicId = ((ExternalIdentifier)id).getPublicId();
+        if (id instanceof ExternalEntityIdentifier)
+          name = ((ExternalEntityIdentifier)id).getEntityName();
+        else if (id instanceof ExternalDTDSubsetIdentifier)
+          name = ((ExternalDTDSubsetIdentifier)id).getDoctypeName();
+        else
+          name = null;
+      }
+      else {
+        publicId = null;
+        name = null;
+      }
+      int hc = idClass.hashCode() ^ uriReference.hashCode();
+      if (absoluteUri != null)
+        hc = hc * 31 + absoluteUri.hashCode();
+      if (publicId != null)
+        hc = hc * 31 + publicId.hashCode();
+      if (name != null)
+        hc = hc * 31 + name.hashCode();
+      this.hashCode = hc;
+    }
+
+    public boolean equals(Object obj) {
+      if (!(obj instanceof CacheKey))
+        return false;
+      CacheKey other = (CacheKey)obj;
+      return (hashCode == other.hashCode
+              && idClass == other.idClass
+              && uriReference.equals(other.uriReference)
+              && Equal.equal(absoluteUri, other.absoluteUri)
+              && Equal.equal(publicId, other.publicId)
+              && Equal.equal(name, other.name));
+    }
+
+    public int hashCode() {
+      return hashCode;
+    }
+  }
 
   // Allow somebody to customize in a different way, but still use our resolve logic.
   public CatalogResolver(Catalog catalog) {
@@ -40,7 +103,7 @@ public class CatalogResolver extends AbstractResolver {
     this(catalogUris, new SAXResolver());
   }
   
-  public synchronized void resolve(Identifier id, Input input) throws IOException, ResolverException {
+  public void resolve(Identifier id, Input input) throws IOException, ResolverException {
     if (input.isResolved())
       return;
     if (hadCatalogError)
@@ -54,6 +117,20 @@ public class CatalogResolver extends AbstractResolver {
     catch (ResolverException e) {
       // ignore
     }
+    CacheKey key = new CacheKey(id, absoluteUri);
+    String resolved = cache.get(key);
+    if (resolved == null) {
+      resolved = lookup(id, absoluteUri);
+      if (resolved == null)
+        resolved = NOT_FOUND;
+      if (cache.size() < MAX_CACHE_SIZE)
+        cache.putIfAbsent(key, resolved);
+    }
+    if (resolved != NOT_FOUND)
+      input.setUri(resolved);
+  }
+
+  private synchronized String lookup(Identifier id, String absoluteUri) throws IOException, ResolverException {
     String resolved = null;
     boolean isExternalIdentifier = (id instanceof ExternalIdentifier);
     try {
@@ -84,7 +161,6 @@ public class CatalogResolver extends AbstractResolver {
       hadCatalogError = true;
       throw e.getResolverException();
     }
-    if (resolved != null)
-      input.setUri(resolved);
+    return resolved;
   }
 }
@@ -27,6 +27,21 @@ public class CatalogResolverTest {
     Assert.assertEquals(input.getUri(), "http://www.example.com/bar.xml");
   }
 
+  @Test
+  public void testResolveRepeated() throws IOException, ResolverException {
+    List<String> catalogs = new ArrayList<String>();
+    catalogs.add(resourceUri("catalog.xml"));
+    Resolver resolver = new CatalogResolver(catalogs, new SAXResolver(null));
+    for (int i = 0; i < 2; i++) {
+      Input input = new Input();
+      resolver.resolve(new ExternalIdentifier("foo.xml", "http://www.example.com/index.html", "The Great Foo"), input);
+      Assert.assertEquals(input.getUri(), "http://www.example.com/bar.xml");
+      input = new Input();
+      resolver.resolve(new ExternalIdentifier("foo.xml", "http://www.example.com/index.html", "The Lesser Foo"), input);
+      Assert.assertFalse(input.isResolved());
+    }
+  }
+
   static String resourceUri(String fileName) {
     String className = CatalogResolverTest.class.getName();
     int dotIndex = className.lastIndexOf('.');
@@ -17,6 +17,7 @@ import com.thaiopensource.util.Localizer;
 import com.thaiopensource.xml.dtd.om.Dtd;
 import com.thaiopensource.xml.dtd.parse.DtdParserImpl;
 import com.thaiopensource.xml.dtd.parse.ParseException;
+import com.thaiopensource.xml.em.EntityCache;
 import com.thaiopensource.xml.em.ResolverUriEntityManager;
 import com.thaiopensource.xml.util.Naming;
 import org.xml.sax.ErrorHandler;
@@ -27,6 +28,30 @@ import java.io.IOException;
 import java.util.Map;
 
 public class DtdInputFormat implements InputFormat {
+  /**
+   * The cache for the external entities, or null.
+   */
+  private final EntityCache entityCache;
+
+  /**
+   * Creates an input format that reads the external entities of each DTD afresh.
+   */
+  public DtdInputFormat() {
+    this(null);
+  }
+
+  /**
+   * Creates an input format that keeps the external entities of the DTDs that it
+   * loads in a cache, so that DTDs that use the same modules do not need to decode and
+   * tokenize them again.  The cache belongs to the caller, which can share it with
+   * other input formats or discard it.
+   *
+   * @param entityCache the cache; may be <code>null</code>, in which case no cache is used
+   */
+  public DtdInputFormat(EntityCache entityCache) {
+    this.entityCache = entityCache;
+  }
+
   static private class NamespaceDeclParamFactory implements ParamFactory {
     private final Map<String, String> prefixMap;
 
@@ -141,7 +166,9 @@ public class DtdInputFormat implements InputFormat {
     pp.setParamFactory(new NamespaceDeclParamFactory(options.prefixMap));
     pp.process(params, eh);
     try {
-      Dtd dtd = new DtdParserImpl().parse(uri, new ResolverUriEntityManager(resolver));
+      ResolverUriEntityManager em = new ResolverUriEntityManager(resolver);
+      em.setEntityCache(entityCache);
+      Dtd dtd = new DtdParserImpl().parse(uri, em);
       try {
         return new Converter(dtd, er, options).convert();
       }
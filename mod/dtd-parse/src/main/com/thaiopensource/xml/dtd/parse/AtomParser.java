@@ -1,6 +1,7 @@
 package com.thaiopensource.xml.dtd.parse;
 
-import java.util.Vector;
+import java.util.ArrayList;
+import java.util.List;
 
 import com.thaiopensource.xml.tok.Tokenizer;
 
@@ -8,10 +9,10 @@ class AtomParser {
   private final DtdBuilder db;
   private final AtomStream as;
   private final PrologParser pp;
-  private final Vector v;
+  private final List v;
   private Particle group;
 
-  AtomParser(DtdBuilder db, AtomStream as, PrologParser pp, Vector v) {
+  AtomParser(DtdBuilder db, AtomStream as, PrologParser pp, List v) {
     this.db = db;
     this.as = as;
     this.pp = pp;
@@ -42,7 +43,7 @@ class AtomParser {
       if (as.entity != null) {
 	d = new Decl(Decl.REFERENCE);
 	d.entity = as.entity;
-	v.addElement(d);
+	v.add(d);
 	int start = v.size();
 	new AtomParser(db, new AtomStream(as.entity.atoms), pp, v).parseDecls();
 	d.entity.setParsed(Entity.DECL_LEVEL, v, start, v.size());
@@ -76,13 +77,13 @@ class AtomParser {
 	    else
 	      throw new Error("unexpected decl type"); // should have been caught
 	    d = new Decl(type);
-	    d.params = new Vector();
+	    d.params = new ArrayList();
 	    new AtomParser(db, as, pp, d.params).parseParams();
 	  }
 	  break;
 	case Tokenizer.TOK_COND_SECT_OPEN:
 	  {
-	    Vector params = new Vector();
+	    List params = new ArrayList();
 	    // current token should be "["
 	    if (new AtomParser(db, as, pp, params).parseParams()) {
 	      d = new Decl(Decl.IGNORE_SECTION);
@@ -91,7 +92,7 @@ class AtomParser {
 	    }
 	    else {
 	      d = new Decl(Decl.INCLUDE_SECTION);
-	      d.decls = new Vector();
+	      d.decls = new ArrayList();
 	      new AtomParser(db, as, pp, d.decls).parseDecls();
 	    }
 	    d.params = params;
@@ -104,7 +105,7 @@ class AtomParser {
 	}
       }
       if (d != null)
-	v.addElement(d);
+	v.add(d);
     }
   }
 
@@ -121,17 +122,17 @@ class AtomParser {
 	  ppSaved = (PrologParser)pp.clone();
 	else
 	  ppSaved = null;
-	v.addElement(p);
+	v.add(p);
 	int start = v.size();
 	new AtomParser(db, new AtomStream(as.entity.atoms), pp, v).parseParams();
 	if (v.size() == start && pp.expectingAttributeName())
-	  v.addElement(new Param(Param.EMPTY_ATTRIBUTE_GROUP));
+	  v.add(new Param(Param.EMPTY_ATTRIBUTE_GROUP));
 	p.entity.setParsed(Entity.PARAM_LEVEL, v, start, v.size());
 	for (Entity overridden = p.entity.overrides;
 	     overridden != null;
 	     overridden = overridden.overrides) {
 	  if (overridden.atoms != null) {
-	    Vector tem = new Vector();
+	    List tem = new ArrayList();
 	    AtomParser ap = new AtomParser(db,
 					   new AtomStream(overridden.atoms),
 					   (PrologParser)ppSaved.clone(),
@@ -139,7 +140,7 @@ class AtomParser {
 	    try {
 	      ap.parseParams();
 	      if (tem.size() == 0 && ap.pp.expectingAttributeName())
-		tem.addElement(new Param(Param.EMPTY_ATTRIBUTE_GROUP));
+		tem.add(new Param(Param.EMPTY_ATTRIBUTE_GROUP));
 	      if (ap.pp.isCompatible(pp))
 		overridden.setParsed(Entity.PARAM_LEVEL, tem, 0, tem.size());
 	      else
@@ -253,19 +254,19 @@ class AtomParser {
 	}
       }
       if (p != null)
-	v.addElement(p);
+	v.add(p);
     }
     return false;
   }
 
   private Particle parseGroup() throws PrologSyntaxException {
     Particle g = new Particle(Particle.GROUP);
-    g.particles = new Vector();
+    g.particles = new ArrayList();
     new AtomParser(db, as, pp, g).parseParticles();
     int n = g.particles.size();
     int flags = 0;
     for (int i = 0; i < n; i++) {
-      switch (((Particle)g.particles.elementAt(i)).type) {
+      switch (((Particle)g.particles.get(i)).type) {
       case Particle.GROUP:
 	flags |= Entity.GROUP_CONTAINS_GROUP;
 	break;
@@ -287,7 +288,7 @@ class AtomParser {
       }
     }
     for (int i = 0; i < n; i++) {
-      Particle p = (Particle)g.particles.elementAt(i);
+      Particle p = (Particle)g.particles.get(i);
       if (p.type == Particle.REFERENCE)
 	p.entity.groupFlags |= flags;
     }
@@ -305,7 +306,7 @@ class AtomParser {
 	  ppSaved = (PrologParser)pp.clone();
 	else
 	  ppSaved = null;
-	v.addElement(p);
+	v.add(p);
 	int start = v.size();
 	new AtomParser(db, new AtomStream(as.entity.atoms), pp, group).parseParticles();
 	p.entity.setParsed(Entity.PARTICLE_LEVEL, v, start, v.size());
@@ -314,7 +315,7 @@ class AtomParser {
 	     overridden = overridden.overrides) {
 	  if (overridden.atoms != null) {
 	    Particle g = new Particle(Particle.GROUP);
-	    g.particles = new Vector();
+	    g.particles = new ArrayList();
 	    AtomParser ap = new AtomParser(db,
 					   new AtomStream(overridden.atoms),
 					   (PrologParser)ppSaved.clone(),
@@ -396,7 +397,7 @@ class AtomParser {
 	}
       }
       if (p != null)
-	v.addElement(p);
+	v.add(p);
     }
   }
 
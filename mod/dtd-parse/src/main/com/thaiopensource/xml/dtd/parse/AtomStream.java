@@ -1,6 +1,6 @@
 package com.thaiopensource.xml.dtd.parse;
 
-import java.util.Vector;
+import java.util.List;
 
 class AtomStream {
   int tokenType;
@@ -10,9 +10,9 @@ class AtomStream {
 
   private int i;
   private final int len;
-  private final Vector v;
+  private final List v;
 
-  AtomStream(Vector v) {
+  AtomStream(List v) {
     this.v = v;
     this.i = 0;
     this.len = v.size();
@@ -26,7 +26,7 @@ class AtomStream {
       tokenType = -1;
       return false;
     }
-    Atom a = (Atom)v.elementAt(i);
+    Atom a = (Atom)v.get(i);
     token = a.getToken();
     tokenType = a.getTokenType();
     entity = a.getEntity();
@@ -0,0 +1,67 @@
+package com.thaiopensource.xml.dtd.parse;
+
+/**
+ * Interns atoms by their token.  An atom can be looked up using a range
+ * of characters, so that a token that has already been seen does not
+ * need a new String.  The hash of a range is the same as the hash of the
+ * equivalent String.
+ */
+class AtomTable {
+  private Atom[] table = new Atom[256];
+  private int used = 0;
+
+  Atom get(char[] buf, int start, int end) {
+    int h = 0;
+    for (int i = start; i < end; i++)
+      h = 31*h + buf[i];
+    int mask = table.length - 1;
+    for (int i = mix(h) & mask; table[i] != null; i = (i + 1) & mask)
+      if (tokenEquals(table[i].getToken(), buf, start, end))
+	return table[i];
+    return null;
+  }
+
+  Atom get(String token) {
+    int mask = table.length - 1;
+    for (int i = mix(token.hashCode()) & mask; table[i] != null; i = (i + 1) & mask)
+      if (table[i].getToken().equals(token))
+	return table[i];
+    return null;
+  }
+
+  void add(Atom a) {
+    if (++used * 2 > table.length)
+      rehash();
+    insert(table, a);
+  }
+
+  private void rehash() {
+    Atom[] newTable = new Atom[table.length * 2];
+    for (int i = 0; i < table.length; i++)
+      if (table[i] != null)
+	insert(newTable, table[i]);
+    table = newTable;
+  }
+
+  private static void insert(Atom[] table, Atom a) {
+    int mask = table.length - 1;
+    int i = mix(a.getToken().hashCode()) & mask;
+    while (table[i] != null)
+      i = (i + 1) & mask;
+    table[i] = a;
+  }
+
+  private static boolean tokenEquals(String token, char[] buf, int start, int end) {
+    if (token.length() != end - start)
+      return false;
+    for (int i = 0; start < end; i++, start++)
+      if (token.charAt(i) != buf[start])
+	return false;
+    return true;
+  }
+
+  private static int mix(int h) {
+    h ^= (h >>> 20) ^ (h >>> 12);
+    return h ^ (h >>> 7) ^ (h >>> 4);
+  }
+}
@@ -25,8 +25,9 @@ import com.thaiopensource.xml.dtd.om.ParamDef;
 import com.thaiopensource.xml.dtd.om.ProcessingInstruction;
 import com.thaiopensource.xml.dtd.om.TopLevel;
 
-import java.util.Enumeration;
-import java.util.Vector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 
 class Decl {
   static final int REFERENCE = 0; // entity
@@ -45,10 +46,10 @@ class Decl {
   }
 
   final int type;
-  Vector params;
+  List params;
   String value;
   Entity entity;
-  Vector decls;
+  List decls;
 
   public boolean equals(Object obj) {
     if (obj == null || !(obj instanceof Decl))
@@ -65,7 +66,7 @@ class Decl {
       if (other.params.size() != n)
 	return false;
       for (int i = 0; i < n; i++)
-	if (!this.params.elementAt(i).equals(other.params.elementAt(i)))
+	if (!this.params.get(i).equals(other.params.get(i)))
 	  return false;
     }
     return true;
@@ -152,19 +153,19 @@ class Decl {
 
   IncludedSection createIncludedSection(DtdBuilder db) {
     Flag flag = Param.paramsToFlag(params);
-    Vector contents = declsToTopLevel(db, decls.elements());
+    List contents = declsToTopLevel(db, decls.iterator());
     TopLevel[] tem = new TopLevel[contents.size()];
     for (int i = 0; i < tem.length; i++)
-      tem[i] = (TopLevel)contents.elementAt(i);
+      tem[i] = (TopLevel)contents.get(i);
     return new IncludedSection(flag, tem);
   }
 
-  static Vector declsToTopLevel(DtdBuilder db, Enumeration decls) {
-    Vector v = new Vector();
+  static List declsToTopLevel(DtdBuilder db, Iterator decls) {
+    List v = new ArrayList();
     int level = 0;
-    while (decls.hasMoreElements()) {
+    while (decls.hasNext()) {
       TopLevel t = null;
-      Decl decl = (Decl)decls.nextElement();
+      Decl decl = (Decl)decls.next();
       switch (decl.type) {
       case COMMENT:
 	t = new Comment(decl.value);
@@ -203,16 +204,16 @@ class Decl {
 	break;
       }
       if (t != null)
-	v.addElement(t);
+	v.add(t);
     }
     return v;
   }
 
-  ExternalIdRef createExternalIdRef(DtdBuilder db, Enumeration decls) {
-    Vector v = declsToTopLevel(db, decls);
+  ExternalIdRef createExternalIdRef(DtdBuilder db, Iterator decls) {
+    List v = declsToTopLevel(db, decls);
     TopLevel[] tem = new TopLevel[v.size()];
     for (int i = 0; i < tem.length; i++)
-      tem[i] = (TopLevel)v.elementAt(i);
+      tem[i] = (TopLevel)v.get(i);
     return new ExternalIdRef(entity.name,
 			     entity.getExternalId(),
 			     entity.uri,
@@ -255,16 +256,16 @@ class Decl {
 			    db.lookupNotation(ps.value).getExternalId());
   }
 
-  static void examineElementNames(DtdBuilder db, Enumeration decls) {
-    while (decls.hasMoreElements()) {
-      Decl decl = (Decl)decls.nextElement();
+  static void examineElementNames(DtdBuilder db, Iterator decls) {
+    while (decls.hasNext()) {
+      Decl decl = (Decl)decls.next();
       switch (decl.type) {
       case ELEMENT:
       case ATTLIST:
-	Param.examineElementNames(db, decl.params.elements());
+	Param.examineElementNames(db, decl.params.iterator());
 	break;
       case INCLUDE_SECTION:
-	examineElementNames(db, decl.decls.elements());
+	examineElementNames(db, decl.decls.iterator());
 	break;
       }
     }
@@ -1,26 +1,29 @@
 package com.thaiopensource.xml.dtd.parse;
 
-import java.util.Hashtable;
-import java.util.Vector;
-import java.util.Enumeration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import com.thaiopensource.xml.tok.Tokenizer;
 
 class DtdBuilder {
-  private final Vector atoms;
-  private final Vector decls = new Vector();
+  private final List atoms;
+  private final List decls = new ArrayList();
 
-  private final Hashtable paramEntityTable = new Hashtable();
-  private final Hashtable generalEntityTable = new Hashtable();
-  private final Hashtable normalizedTable = new Hashtable();
-  private final Hashtable notationTable = new Hashtable();
-  private final Hashtable ambigNameTable = new Hashtable();
+  private final Map paramEntityTable = new LinkedHashMap();
+  private final Map generalEntityTable = new HashMap();
+  private final Map normalizedTable = new HashMap();
+  private final Map notationTable = new HashMap();
+  private final Map ambigNameTable = new HashMap();
 
-  DtdBuilder(Vector atoms) {
+  DtdBuilder(List atoms) {
     this.atoms = atoms;
   }
 
-  Vector getDecls() {
+  List getDecls() {
     return decls;
   }
 
@@ -74,9 +77,9 @@ class DtdBuilder {
   }
 
   void unexpandEntities() {
-    for (Enumeration e = paramEntityTable.elements();
-	 e.hasMoreElements();)
-      ((Entity)e.nextElement()).unexpandEntities();
+    for (Iterator e = paramEntityTable.values().iterator();
+	 e.hasNext();)
+      ((Entity)e.next()).unexpandEntities();
   }
   
   void createDecls() {
@@ -97,9 +100,9 @@ class DtdBuilder {
        assume it's a name spec, otherwise we take it to be a model
        group. */
 
-    for (Enumeration e = paramEntityTable.elements();
-	 e.hasMoreElements();) {
-      Entity ent = (Entity)e.nextElement();
+    for (Iterator e = paramEntityTable.values().iterator();
+	 e.hasNext();) {
+      Entity ent = (Entity)e.next();
       String name = ent.ambiguousNameSpec();
       if (name != null) {
 	Entity prevEnt = (Entity)ambigNameTable.get(name);
@@ -111,11 +114,11 @@ class DtdBuilder {
 	  ambigNameTable.put(name, ent);
       }
     }
-    Decl.examineElementNames(this, decls.elements());
+    Decl.examineElementNames(this, decls.iterator());
 
-    for (Enumeration e = paramEntityTable.elements();
-	 e.hasMoreElements();)
-      ((Entity)e.nextElement()).analyzeSemantic();
+    for (Iterator e = paramEntityTable.values().iterator();
+	 e.hasNext();)
+      ((Entity)e.next()).analyzeSemantic();
   }
 
   void noteElementName(String name, Entity entity) {
@@ -124,24 +127,24 @@ class DtdBuilder {
       cur.maybeNameSpec = false;
   }
 
-  Vector createTopLevel() {
-    return Decl.declsToTopLevel(this, decls.elements());
+  List createTopLevel() {
+    return Decl.declsToTopLevel(this, decls.iterator());
   }
 
   void dump() {
     dumpEntity("#doc", atoms);
   }
 
-  private static void dumpEntity(String name, Vector atoms) {
+  private static void dumpEntity(String name, List atoms) {
     System.out.println("<e name=\"" + name + "\">");
     dumpAtoms(atoms);
     System.out.println("</e>");
   }
 
-  private static void dumpAtoms(Vector v) {
+  private static void dumpAtoms(List v) {
     int n = v.size();
     for (int i = 0; i < n; i++) {
-      Atom a = (Atom)v.elementAt(i);
+      Atom a = (Atom)v.get(i);
       Entity e = a.getEntity();
       if (e != null)
 	dumpEntity(e.name, e.atoms);
@@ -1,6 +1,7 @@
 package com.thaiopensource.xml.dtd.parse;
 
-import java.util.Vector;
+import java.util.ArrayList;
+import java.util.List;
 
 import com.thaiopensource.xml.tok.Tokenizer;
 import com.thaiopensource.xml.em.ExternalId;
@@ -37,7 +38,11 @@ class Entity {
   Reference[] references;
   boolean open;
   String notationName;
-  Vector atoms;
+  List atoms;
+  // The tokens of text, recorded by Parser when text was first parsed
+  // as declarations; prologTokensText is the text they were recorded for.
+  int[] prologTokens;
+  char[] prologTokensText;
   boolean mustReparse;
   static final int NO_PROBLEM = 0;
   static final int INCONSISTENT_LEVEL_PROBLEM = 1;
@@ -92,7 +97,7 @@ class Entity {
 
   Decl decl;
 
-  Vector parsed;
+  List parsed;
 
   void inconsistentParse() {
     parsed = null;
@@ -100,7 +105,7 @@ class Entity {
     problem = INCONSISTENT_PARSE_PROBLEM;
   }
 
-  void setParsed(int level, Vector v, int start, int end) {
+  void setParsed(int level, List v, int start, int end) {
     if (referenceLevel < 0)
       return;
     if (level == referenceLevel) {
@@ -109,7 +114,7 @@ class Entity {
       return;
     }
     if (referenceLevel == NO_LEVEL) {
-      parsed = new Vector();
+      parsed = new ArrayList();
       appendSlice(parsed, v, start, end);
       referenceLevel = level;
       return;
@@ -120,7 +125,7 @@ class Entity {
 	  // For element name case, otherwise particle will be
 	  // ambiguous with model group.
 	  referenceLevel = PARAM_LEVEL;
-	  parsed = new Vector();
+	  parsed = new ArrayList();
 	  appendSlice(parsed, v, start, end);
 	  return;
 	}
@@ -135,12 +140,12 @@ class Entity {
     referenceLevel = INCONSISTENT_LEVEL;
   }
 
-  static boolean paramsParticlesConsistent(Vector params, int i,
-					   Vector particles, int j,
+  static boolean paramsParticlesConsistent(List params, int i,
+					   List particles, int j,
 					   int n) {
     for (int k = 0; k < n; k++)
-      if (!paramParticleConsistent((Param)params.elementAt(i + k),
-				   (Particle)particles.elementAt(j + k)))
+      if (!paramParticleConsistent((Param)params.get(i + k),
+				   (Particle)particles.get(j + k)))
 	return false;
     return true;
   }
@@ -182,7 +187,7 @@ class Entity {
 	return atomIndex;
       if (atomIndex >= nAtoms)
 	break;
-      Atom a = (Atom)atoms.elementAt(atomIndex);
+      Atom a = (Atom)atoms.get(atomIndex);
       len += a.getToken().length();
       if (len > ti)
 	break;
@@ -194,7 +199,7 @@ class Entity {
   void unexpandEntities() {
     if (references == null || atoms == null)
       return;
-    Vector newAtoms = null;
+    List newAtoms = null;
     int nCopiedAtoms = 0;
     for (int i = 0; i < references.length; i++) {
       int start = textIndexToAtomIndex(references[i].start);
@@ -204,11 +209,11 @@ class Entity {
 	  && !(start == end && atomMaybePasted(start))
 	  && atomsAreProperlyNested(start, end, true)) {
 	if (newAtoms == null)
-	  newAtoms = new Vector();
+	  newAtoms = new ArrayList();
 	appendSlice(newAtoms, atoms, nCopiedAtoms, start);
-	newAtoms.addElement(new Atom(references[i].entity));
+	newAtoms.add(new Atom(references[i].entity));
 	if (references[i].entity.atoms == null) {
-	  Vector tem = new Vector();
+	  List tem = new ArrayList();
 	  references[i].entity.atoms = tem;
 	  appendSlice(tem, atoms, start, end);
 	  references[i].entity.unexpandEntities();
@@ -220,17 +225,17 @@ class Entity {
 	       && atomsAreProperlyNested(start, end, false)) {
 	// This deals with a case like %foo;* by turning it into (%foo;)*.
 	if (newAtoms == null)
-	  newAtoms = new Vector();
-	Atom[] split = splitAtom((Atom)atoms.elementAt(end - 1));
+	  newAtoms = new ArrayList();
+	Atom[] split = splitAtom((Atom)atoms.get(end - 1));
 	appendSlice(newAtoms, atoms, nCopiedAtoms, start);
-	newAtoms.addElement(new Atom(Tokenizer.TOK_OPEN_PAREN, "("));
-	newAtoms.addElement(new Atom(references[i].entity));
-	newAtoms.addElement(split[1]);
+	newAtoms.add(new Atom(Tokenizer.TOK_OPEN_PAREN, "("));
+	newAtoms.add(new Atom(references[i].entity));
+	newAtoms.add(split[1]);
 	if (references[i].entity.atoms == null) {
-	  Vector tem = new Vector();
+	  List tem = new ArrayList();
 	  references[i].entity.atoms = tem;
 	  appendSlice(tem, atoms, start, end - 1);
-	  tem.addElement(split[0]);
+	  tem.add(split[0]);
 	  references[i].entity.unexpandEntities();
 	}
 	nCopiedAtoms = end;
@@ -277,7 +282,7 @@ class Entity {
 					 boolean allowConnectors) {
     int level = 0;
     for (int i = start; i < end; i++)
-      switch (((Atom)atoms.elementAt(i)).getTokenType()) {
+      switch (((Atom)atoms.get(i)).getTokenType()) {
       case Tokenizer.TOK_COND_SECT_OPEN:
       case Tokenizer.TOK_OPEN_PAREN:
       case Tokenizer.TOK_OPEN_BRACKET:
@@ -308,7 +313,7 @@ class Entity {
 
   private boolean atomMaybePasted(int i) {
     if (i > 0) {
-      switch (((Atom)atoms.elementAt(i - 1)).getTokenType()) {
+      switch (((Atom)atoms.get(i - 1)).getTokenType()) {
       case Tokenizer.TOK_NAME:
       case Tokenizer.TOK_PREFIXED_NAME:
       case Tokenizer.TOK_NMTOKEN:
@@ -316,7 +321,7 @@ class Entity {
       }
     }
     if (i < atoms.size()) {
-      switch (((Atom)atoms.elementAt(i)).getTokenType()) {
+      switch (((Atom)atoms.get(i)).getTokenType()) {
       case Tokenizer.TOK_NAME:
       case Tokenizer.TOK_PREFIXED_NAME:
       case Tokenizer.TOK_NAME_QUESTION:
@@ -329,19 +334,19 @@ class Entity {
     return false;
   }
 
-  static boolean sliceEqual(Vector v1, Vector v2, int start, int end) {
+  static boolean sliceEqual(List v1, List v2, int start, int end) {
     int n = v1.size();
     if (end - start != n)
       return false;
     for (int i = 0; i < n; i++)
-      if (!v1.elementAt(i).equals(v2.elementAt(start + i)))
+      if (!v1.get(i).equals(v2.get(start + i)))
 	return false;
     return true;
   }
 
-  static void appendSlice(Vector to, Vector from, int start, int end) {
+  static void appendSlice(List to, List from, int start, int end) {
     for (; start < end; start++)
-      to.addElement(from.elementAt(start));
+      to.add(from.get(start));
   }
 
   void analyzeSemantic() {
@@ -477,7 +482,7 @@ class Entity {
       return;
     }
     for (int i = 0; i < n; i++) {
-      switch (((Particle)parsed.elementAt(i)).type) {
+      switch (((Particle)parsed.get(i)).type) {
       case Particle.GROUP:
       case Particle.ELEMENT_NAME:
       case Particle.PCDATA:
@@ -529,12 +534,12 @@ class Entity {
     if (referenceLevel == PARTICLE_LEVEL)
       return Particle.particlesToEnumGroup(parsed);
     else
-      return Particle.particlesToEnumGroup(((Param)parsed.elementAt(0)).group.particles);
+      return Particle.particlesToEnumGroup(((Param)parsed.get(0)).group.particles);
   }
 
   NameSpec toNameSpec() {
     if (referenceLevel == PARTICLE_LEVEL)
-      return new Name(((Particle)parsed.elementAt(0)).value);
+      return new Name(((Particle)parsed.get(0)).value);
     else
       return Param.paramsToNameSpec(parsed);
   }
@@ -555,7 +560,7 @@ class Entity {
 	|| referenceLevel != PARTICLE_LEVEL
 	|| parsed.size() != 1)
       return null;
-    Particle p = (Particle)parsed.elementAt(0);
+    Particle p = (Particle)parsed.get(0);
     if (p.type != Particle.ELEMENT_NAME)
       return null;
     maybeNameSpec = true;
@@ -1,7 +1,8 @@
 package com.thaiopensource.xml.dtd.parse;
 
-import java.util.Vector;
-import java.util.Enumeration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 
 import com.thaiopensource.xml.dtd.om.*;
 
@@ -54,12 +55,12 @@ class Param {
     return true;
   }
 
-  static AttributeGroup paramsToAttributeGroup(Vector v) {
+  static AttributeGroup paramsToAttributeGroup(List v) {
     return paramsToAttributeGroup(new ParamStream(v, true));
   }
 
   static AttributeGroup paramsToAttributeGroup(ParamStream ps) {
-    Vector ag = new Vector();
+    List ag = new ArrayList();
     while (ps.advance()) {
       AttributeGroupMember agm = null;
       switch (ps.type) {
@@ -80,15 +81,15 @@ class Param {
 	}
       }
       if (agm != null)
-	ag.addElement(agm);
+	ag.add(agm);
     }
     AttributeGroupMember[] members = new AttributeGroupMember[ag.size()];
     for (int i = 0; i < members.length; i++)
-      members[i] = (AttributeGroupMember)ag.elementAt(i);
+      members[i] = (AttributeGroupMember)ag.get(i);
     return new AttributeGroup(members);
   }
 
-  static Datatype paramsToDatatype(Vector v) {
+  static Datatype paramsToDatatype(List v) {
     return paramsToDatatype(new ParamStream(v, true));
   }
 
@@ -118,7 +119,7 @@ class Param {
       return Particle.particlesToEnumGroup(ps.group.particles);
   }
 
-  static AttributeDefault paramsToAttributeDefault(Vector v) {
+  static AttributeDefault paramsToAttributeDefault(List v) {
     return paramsToAttributeDefault(new ParamStream(v, true));
   }
 
@@ -141,7 +142,7 @@ class Param {
     throw new Error();
   }
 
-  static ModelGroup paramsToModelGroup(Vector v) {
+  static ModelGroup paramsToModelGroup(List v) {
     return paramsToModelGroup(new ParamStream(v, true));
   }
 
@@ -160,7 +161,7 @@ class Param {
     throw new Error();
   }
 
-  static Flag paramsToFlag(Vector v) {
+  static Flag paramsToFlag(List v) {
     return paramsToFlag(new ParamStream(v, true));
   }
 
@@ -177,7 +178,7 @@ class Param {
     throw new Error();
   }
 
-  static NameSpec paramsToNameSpec(Vector v) {
+  static NameSpec paramsToNameSpec(List v) {
     return paramsToNameSpec(new ParamStream(v, true));
   }
 
@@ -197,15 +198,15 @@ class Param {
     throw new Error();
   }
 
-  static void examineElementNames(DtdBuilder db, Enumeration params) {
-    while (params.hasMoreElements()) {
-      Param param = (Param)params.nextElement();
+  static void examineElementNames(DtdBuilder db, Iterator params) {
+    while (params.hasNext()) {
+      Param param = (Param)params.next();
       switch (param.type) {
       case ELEMENT_NAME:
 	db.noteElementName(param.value, null);
 	break;
       case MODEL_GROUP:
-	Particle.examineElementNames(db, param.group.particles.elements());
+	Particle.examineElementNames(db, param.group.particles.iterator());
 	break;
       }
     }
@@ -1,6 +1,6 @@
 package com.thaiopensource.xml.dtd.parse;
 
-import java.util.Vector;
+import java.util.List;
 
 class ParamStream {
   int type;
@@ -9,22 +9,22 @@ class ParamStream {
   String value;
 
   private int i = 0;
-  private final Vector v;
+  private final List v;
   private final boolean showReferences;
 
-  ParamStream(Vector v) {
+  ParamStream(List v) {
     this.v = v;
     this.showReferences = false;
   }
 
-  ParamStream(Vector v, boolean showReferences) {
+  ParamStream(List v, boolean showReferences) {
     this.v = v;
     this.showReferences = showReferences;
   }
   
   boolean advance() {
     while (i < v.size()) {
-      Param p = (Param)v.elementAt(i++);
+      Param p = (Param)v.get(i++);
       type = p.type;
       entity = p.entity;
       group = p.group;
@@ -34,7 +34,7 @@ class ParamStream {
 	if (showReferences && entity.semantic > 0) {
 	  int level = 0;
 	  for (;;) {
-	    p = (Param)v.elementAt(i++);
+	    p = (Param)v.get(i++);
 	    if (p.type == Param.REFERENCE)
 	      level++;
 	    else if (p.type == Param.REFERENCE_END
@@ -16,8 +16,10 @@ import com.thaiopensource.xml.tok.Tokenizer;
 
 import java.io.IOException;
 import java.io.Reader;
-import java.util.Hashtable;
-import java.util.Vector;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 class Parser extends Token {
   static final Localizer localizer = new Localizer(Parser.class);
@@ -36,15 +38,27 @@ class Parser extends Token {
   // Some temporary buffers
   private final ReplacementTextBuffer valueBuf;
   private final DtdBuilder db;
-  private final Vector atoms = new Vector();
+  private final List atoms = new ArrayList();
   private final boolean isInternal;
   private final String baseUri;
   private final EntityManager entityManager;
   // for error messages
   private String location;
   
-  private final Hashtable atomTable;
-  private final Hashtable elementTable;
+  private final AtomTable atomTable;
+  private final Map elementTable;
+
+  // For the replacement text of an internal entity, the entity, and the
+  // tokens of the replacement text if they are known from a previous reference.
+  private final Entity entity;
+  // For an external entity whose complete text is available, the open entity,
+  // with which the tokens are kept.
+  private final OpenEntity openEntity;
+  private int[] cachedTokens;
+  private int cachedTokenIndex;
+  // The tokens seen so far, if they are to be cached.
+  private int[] recordedTokens;
+  private int recordedTokensLength;
 
   static class DeclState {
     Entity entity;
@@ -52,35 +66,33 @@ class Parser extends Token {
   }
 
   Parser(OpenEntity entity, EntityManager entityManager) {
-    this.in = entity.getReader();
     this.baseUri = entity.getBaseUri();
     this.location = entity.getLocation();
     this.entityManager = entityManager;
-    this.buf = new char[READSIZE * 2];
     this.valueBuf = new ReplacementTextBuffer();
-    this.bufEnd = 0;
     this.db = new DtdBuilder(atoms);
     this.isInternal = false;
-    this.elementTable = new Hashtable();
-    this.atomTable = new Hashtable();
+    this.elementTable = new HashMap();
+    this.atomTable = new AtomTable();
+    this.entity = null;
+    this.openEntity = initBuffer(entity);
   }
 
   private Parser(OpenEntity entity, Parser parent) {
-    this.in = entity.getReader();
     this.baseUri = entity.getBaseUri();
     this.location = entity.getLocation();
     this.entityManager = parent.entityManager;
     this.parent = parent;
-    this.buf = new char[READSIZE * 2];
     this.valueBuf = new ReplacementTextBuffer();
-    this.bufEnd = 0;
     this.db = parent.db;
     this.isInternal = false;
     this.elementTable = parent.elementTable;
     this.atomTable = parent.atomTable;
+    this.entity = null;
+    this.openEntity = initBuffer(entity);
   }
 
-  private Parser(char[] buf, String entityName, Parser parent) {
+  private Parser(char[] buf, Entity entity, Parser parent) {
     // this.internalEntityName = entityName;
     this.buf = buf;
     this.parent = parent;
@@ -93,6 +105,37 @@ class Parser extends Token {
     this.isInternal = true;
     this.elementTable = parent.elementTable;
     this.atomTable = parent.atomTable;
+    this.entity = entity;
+    this.openEntity = null;
+    if (entity.prologTokensText == buf)
+      this.cachedTokens = entity.prologTokens;
+    else
+      this.recordedTokens = new int[3*16];
+  }
+
+  /*
+   * If the complete text of an external entity is available, it is
+   * used as the buffer, and its tokens are recorded or replayed as for
+   * the replacement text of an internal entity.  Returns the open entity
+   * if so, and null if the entity is to be read from its Reader.
+   */
+  private OpenEntity initBuffer(OpenEntity entity) {
+    char[] text = entity.getText();
+    if (text == null) {
+      this.in = entity.getReader();
+      this.buf = new char[READSIZE * 2];
+      this.bufEnd = 0;
+      return null;
+    }
+    this.buf = text;
+    this.bufEnd = text.length;
+    this.bufEndStreamOffset = text.length;
+    Object tokens = entity.getParsedData();
+    if (tokens instanceof int[])
+      this.cachedTokens = (int[])tokens;
+    else
+      this.recordedTokens = new int[3*16];
+    return entity;
   }
 
   DtdBuilder parse() throws IOException {
@@ -286,7 +329,7 @@ class Parser extends Token {
     if (entity.notationName != null)
       fatal("UNPARSED_REF");
     if (entity.text != null)
-      return new Parser(entity.text, name, this);
+      return new Parser(entity.text, entity, this);
 
     OpenEntity openEntity
       = entityManager.open(new ExternalId(entity.systemId, entity.publicId, entity.baseUri),
@@ -430,6 +473,9 @@ class Parser extends Token {
     try {
       if (tokenizeProlog() != Tokenizer.TOK_XML_DECL) {
 	currentTokenStart = bufStart = 0;
+	// the token will be tokenized again
+	recordedTokensLength = 0;
+	cachedTokenIndex = 0;
 	return;
       }
       try {
@@ -446,16 +492,26 @@ class Parser extends Token {
 
   private final int tokenizeProlog()
        throws IOException, EmptyTokenException, EndOfPrologException {
+    if (cachedTokens != null) {
+      int tok = nextCachedToken();
+      if (tok >= 0)
+	return tok;
+    }
     for (;;) {
       try {
 	int tok = Tokenizer.tokenizeProlog(buf, bufStart, bufEnd, this);
 	currentTokenStart = bufStart;
 	bufStart = getTokenEnd();
+	if (recordedTokens != null)
+	  recordToken(tok);
 	return tok;
       }
       catch (EmptyTokenException e) {
-	if (!fill())
+	if (!fill()) {
+	  if (recordedTokens != null)
+	    saveRecordedTokens();
 	  throw e;
+	}
       }
       catch (PartialTokenException e) {
 	if (!fill()) {
@@ -468,6 +524,8 @@ class Parser extends Token {
 	if (!fill()) {
 	  currentTokenStart = bufStart;
 	  bufStart = bufEnd;
+	  if (recordedTokens != null)
+	    recordToken(e.getTokenType());
 	  return e.getTokenType();
 	}
       }
@@ -478,6 +536,66 @@ class Parser extends Token {
     }
   }
 
+  /*
+   * The tokens of the replacement text of an internal entity, or of the
+   * text of an external entity that is available in full, are
+   * recorded the first time the entity is tokenized, and are replayed
+   * when the entity is referenced again.  Each token is stored as its
+   * type, its end and the end of its name; a token starts where the
+   * previous one ended.
+   */
+
+  private int nextCachedToken() throws EmptyTokenException {
+    int i = cachedTokenIndex;
+    int start = i == 0 ? 0 : cachedTokens[i - 2];
+    if (start != bufStart) {
+      // the tokens were skipped by skipIgnoreSect
+      cachedTokens = null;
+      return -1;
+    }
+    if (i == cachedTokens.length)
+      throw new EmptyTokenException();
+    currentTokenStart = bufStart;
+    bufStart = cachedTokens[i + 1];
+    setTokenEnd(bufStart);
+    setNameEnd(cachedTokens[i + 2]);
+    cachedTokenIndex = i + 3;
+    return cachedTokens[i];
+  }
+
+  private void recordToken(int tok) {
+    if (currentTokenStart != (recordedTokensLength == 0
+			      ? 0
+			      : recordedTokens[recordedTokensLength - 2])) {
+      // the tokens were skipped by skipIgnoreSect
+      recordedTokens = null;
+      return;
+    }
+    if (recordedTokensLength == recordedTokens.length) {
+      int[] tem = new int[recordedTokens.length * 2];
+      System.arraycopy(recordedTokens, 0, tem, 0, recordedTokensLength);
+      recordedTokens = tem;
+    }
+    recordedTokens[recordedTokensLength++] = tok;
+    recordedTokens[recordedTokensLength++] = bufStart;
+    recordedTokens[recordedTokensLength++] = getNameEnd();
+  }
+
+  private void saveRecordedTokens() {
+    if (recordedTokensLength != 0
+	&& recordedTokens[recordedTokensLength - 2] != bufEnd)
+      return;
+    int[] tokens = new int[recordedTokensLength];
+    System.arraycopy(recordedTokens, 0, tokens, 0, recordedTokensLength);
+    if (entity != null) {
+      entity.prologTokens = tokens;
+      entity.prologTokensText = buf;
+    }
+    else
+      openEntity.setParsedData(tokens);
+    recordedTokens = null;
+  }
+
   private final void skipIgnoreSect() throws IOException {
     for (;;) {
       try {
@@ -500,8 +618,8 @@ class Parser extends Token {
     }
   }
 
-  private Vector tokenizeOverriddenEntity(char[] text) {
-    Vector v = new Vector();
+  private List tokenizeOverriddenEntity(char[] text) {
+    List v = new ArrayList();
     int level = 0;
     try {
       Token t = new Token();
@@ -538,8 +656,8 @@ class Parser extends Token {
 	    return null;
 	  break;
 	}
-	v.addElement(new Atom(tok,
-			      new String(text, start, tokenEnd - start)));
+	v.add(new Atom(tok,
+		       new String(text, start, tokenEnd - start)));
 	
 	start = tokenEnd;
       }
@@ -629,15 +747,15 @@ class Parser extends Token {
   }
 
   private void addAtom(Atom a) {
-    atoms.addElement(a);
+    atoms.add(a);
   }
 
   private void setLastAtomEntity(Entity e) {
-    Atom a = (Atom)atoms.elementAt(atoms.size() - 1);
-    atoms.setElementAt(new Atom(a.getTokenType(),
-				a.getToken(),
-				e),
-		       atoms.size() - 1);
+    Atom a = (Atom)atoms.get(atoms.size() - 1);
+    atoms.set(atoms.size() - 1,
+	      new Atom(a.getTokenType(),
+		       a.getToken(),
+		       e));
   }
 
   private final String bufferString(int start, int end) {
@@ -791,14 +909,29 @@ class Parser extends Token {
     }
     else if (end - start == 2 && buf[start] == '\r' && buf[start + 1] == '\n')
       token = "\n";
-    if (token == null)
-      token = bufferString(start, end);
-    Atom a = (Atom)atomTable.get(token);
+    if (token == null) {
+      if (!isInternal && hasCarriageReturn(start, end))
+	token = bufferString(start, end);
+      else {
+	Atom a = atomTable.get(buf, start, end);
+	if (a != null)
+	  return a;
+	token = new String(buf, start, end - start);
+      }
+    }
+    Atom a = atomTable.get(token);
     if (a == null) {
       a = new Atom(tok, token);
-      atomTable.put(token, a);
+      atomTable.add(a);
     }
     return a;
   }
 
+  private boolean hasCarriageReturn(int start, int end) {
+    for (; start < end; start++)
+      if (buf[start] == '\r')
+	return true;
+    return false;
+  }
+
 }
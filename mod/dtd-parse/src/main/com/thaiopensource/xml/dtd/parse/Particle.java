@@ -1,7 +1,8 @@
 package com.thaiopensource.xml.dtd.parse;
 
-import java.util.Vector;
-import java.util.Enumeration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 
 import com.thaiopensource.xml.dtd.om.*;
 
@@ -21,7 +22,7 @@ class Particle {
 
   final int type;
   char occur;			// * ? + or 0
-  Vector particles; 
+  List particles; 
   Entity entity;
   String value;
 
@@ -42,7 +43,7 @@ class Particle {
       if (other.particles.size() != n)
 	return false;
       for (int i = 0; i < n; i++)
-	if (!this.particles.elementAt(i).equals(other.particles.elementAt(i)))
+	if (!this.particles.get(i).equals(other.particles.get(i)))
 	  return false;
     }
     return true;
@@ -77,13 +78,13 @@ class Particle {
     return mg;
   }
 
-  static ModelGroup particlesToModelGroup(Vector v) {
-    Vector mgs = new Vector();
+  static ModelGroup particlesToModelGroup(List v) {
+    List mgs = new ArrayList();
     int len = v.size();
     boolean isSequence = false;
     for(int i = 0; i < len; i++) {
       ModelGroup mg = null;
-      Particle p = (Particle)v.elementAt(i);
+      Particle p = (Particle)v.get(i);
       switch (p.type) {
       case REFERENCE:
 	switch (p.entity.semantic) {
@@ -112,25 +113,25 @@ class Particle {
 	break;
       }
       if (mg != null)
-	mgs.addElement(mg);
+	mgs.add(mg);
     }
     if (mgs.size() == 0)
       return null;
     if (mgs.size() == 1)
-      return (ModelGroup)mgs.elementAt(0);
+      return (ModelGroup)mgs.get(0);
     ModelGroup[] tem = new ModelGroup[mgs.size()];
     for (int i = 0; i < tem.length; i++)
-      tem[i] = (ModelGroup)mgs.elementAt(i);
+      tem[i] = (ModelGroup)mgs.get(i);
     if (isSequence)
       return new Sequence(tem);
     else
       return new Choice(tem);
   }
 
-  private static int indexOfReferenceEnd(Vector v, int i) {
+  private static int indexOfReferenceEnd(List v, int i) {
     int level = 0;
     for (;;) {
-      Particle p = (Particle)v.elementAt(++i);
+      Particle p = (Particle)v.get(++i);
       if (p.type == REFERENCE)
 	level++;
       else if (p.type == REFERENCE_END
@@ -140,12 +141,12 @@ class Particle {
     return i;
   }
 
-  static EnumGroup particlesToEnumGroup(Vector v) {
+  static EnumGroup particlesToEnumGroup(List v) {
     int len = v.size();
-    Vector eg = new Vector();
+    List eg = new ArrayList();
     for(int i = 0; i < len; i++) {
       EnumGroupMember egm = null;
-      Particle p = (Particle)v.elementAt(i);
+      Particle p = (Particle)v.get(i);
       switch (p.type) {
       case REFERENCE:
 	if (p.entity.semantic == Entity.SEMANTIC_ENUM_GROUP) {
@@ -153,7 +154,7 @@ class Particle {
 				 p.entity.enumGroup);
 	  int level = 0;
 	  for (;;) {
-	    p = (Particle)v.elementAt(++i);
+	    p = (Particle)v.get(++i);
 	    if (p.type == REFERENCE)
 	      level++;
 	    else if (p.type == REFERENCE_END
@@ -167,18 +168,18 @@ class Particle {
 	break;
       }
       if (egm != null)
-	eg.addElement(egm);
+	eg.add(egm);
     }
     EnumGroupMember[] members = new EnumGroupMember[eg.size()];
     for (int i = 0; i < members.length; i++)
-      members[i] = (EnumGroupMember)eg.elementAt(i);
+      members[i] = (EnumGroupMember)eg.get(i);
     return new EnumGroup(members);
   }
 
-  static void examineElementNames(DtdBuilder db, Enumeration particles) {
+  static void examineElementNames(DtdBuilder db, Iterator particles) {
     Entity prevEntity = null;
-    while (particles.hasMoreElements()) {
-      Particle particle = (Particle)particles.nextElement();
+    while (particles.hasNext()) {
+      Particle particle = (Particle)particles.next();
       Entity curEntity = null;
       switch (particle.type) {
       case REFERENCE:
@@ -188,7 +189,7 @@ class Particle {
 	db.noteElementName(particle.value, prevEntity);
 	break;
       case GROUP:
-	examineElementNames(db, particle.particles.elements());
+	examineElementNames(db, particle.particles.iterator());
 	break;
       }
       prevEntity = curEntity;
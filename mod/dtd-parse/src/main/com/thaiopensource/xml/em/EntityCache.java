@@ -0,0 +1,181 @@
+package com.thaiopensource.xml.em;
+
+import com.thaiopensource.xml.util.EncodingMap;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of the decoded text of external entities.  An entity is
+ * identified by its resolved system identifier together with a digest of
+ * its bytes.  The bytes of an entity are always read, but they are decoded
+ * only if their digest differs from that of the cached text, so an entity
+ * whose content has changed is never taken from the cache.
+ * <p>
+ * Together with the text, a parser can keep data that it has derived from
+ * the text, such as its tokens, using <code>OpenEntity.setParsedData</code>.
+ * <p>
+ * A cache is used by an <code>EntityManager</code> after
+ * <code>EntityManager.setEntityCache</code> has been called. A cache may be
+ * shared by several entity managers, including entity managers used
+ * concurrently by different threads. The least recently used entities are
+ * discarded when the total length of the cached text exceeds a limit.
+ * The cache is kept only in memory; the caller that creates it decides
+ * which parses share it and for how long.
+ * @see EntityManager#setEntityCache
+ */
+public class EntityCache {
+  static private final int DEFAULT_MAX_CHARS = 8*1024*1024;
+  private final long maxChars;
+  private long totalChars = 0;
+  private final Map entries = new LinkedHashMap(16, 0.75f, true);
+
+  static final class Entry {
+    private final byte[] digest;
+    private final char[] text;
+    private final String encoding;
+    private volatile Object parsedData;
+
+    Entry(byte[] digest, char[] text, String encoding) {
+      this.digest = digest;
+      this.text = text;
+      this.encoding = encoding;
+    }
+
+    char[] getText() {
+      return text;
+    }
+
+    Object getParsedData() {
+      return parsedData;
+    }
+
+    void setParsedData(Object parsedData) {
+      this.parsedData = parsedData;
+    }
+  }
+
+  /**
+   * Creates a cache that keeps up to 8M characters of text.
+   */
+  public EntityCache() {
+    this(DEFAULT_MAX_CHARS);
+  }
+
+  /**
+   * Creates a cache that keeps up to the specified number of characters of text.
+   */
+  public EntityCache(long maxChars) {
+    this.maxChars = maxChars;
+  }
+
+  /**
+   * Discards all cached entities.
+   */
+  public synchronized void clear() {
+    entries.clear();
+    totalChars = 0;
+  }
+
+  /**
+   * Reads the bytes of an entity, and returns the cached entity if its
+   * digest is the same as the digest of the bytes; otherwise decodes the
+   * bytes and caches the result.
+   */
+  OpenEntity load(InputStream input, String systemId) throws IOException {
+    byte[] bytes = readAll(input);
+    byte[] digest = digest(bytes);
+    Entry entry;
+    synchronized (this) {
+      entry = (Entry)entries.get(systemId);
+    }
+    if (entry == null || !Arrays.equals(entry.digest, digest)) {
+      EncodingDetectInputStream in
+	= new EncodingDetectInputStream(new ByteArrayInputStream(bytes));
+      String enc = in.detectEncoding();
+      char[] text = readAll(new EntityReader(in, EncodingMap.getJavaName(enc)));
+      entry = new Entry(digest, text, enc);
+    }
+    synchronized (this) {
+      Entry old = (Entry)entries.put(systemId, entry);
+      if (old != null)
+	totalChars -= old.text.length;
+      totalChars += entry.text.length;
+      for (Iterator iter = entries.values().iterator();
+	   totalChars > maxChars && iter.hasNext();) {
+	Entry eldest = (Entry)iter.next();
+	if (eldest == entry)
+	  break;
+	totalChars -= eldest.text.length;
+	iter.remove();
+      }
+    }
+    return new OpenEntity(entry, systemId, systemId, entry.encoding);
+  }
+
+  static private byte[] digest(byte[] bytes) {
+    try {
+      return MessageDigest.getInstance("SHA-1").digest(bytes);
+    }
+    catch (NoSuchAlgorithmException e) {
+      // every implementation of the Java platform is required to support SHA-1
+      throw new RuntimeException(e.getMessage());
+    }
+  }
+
+  static private byte[] readAll(InputStream in) throws IOException {
+    try {
+      byte[] buf = new byte[8*1024];
+      int len = 0;
+      for (;;) {
+	int n = in.read(buf, len, buf.length - len);
+	if (n < 0)
+	  break;
+	len += n;
+	if (len == buf.length) {
+	  byte[] tem = new byte[buf.length * 2];
+	  System.arraycopy(buf, 0, tem, 0, len);
+	  buf = tem;
+	}
+      }
+      byte[] result = new byte[len];
+      System.arraycopy(buf, 0, result, 0, len);
+      return result;
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  static private char[] readAll(Reader in) throws IOException {
+    try {
+      char[] buf = new char[8*1024];
+      int len = 0;
+      for (;;) {
+	int n = in.read(buf, len, buf.length - len);
+	if (n < 0)
+	  break;
+	len += n;
+	if (len == buf.length) {
+	  char[] tem = new char[buf.length * 2];
+	  System.arraycopy(buf, 0, tem, 0, len);
+	  buf = tem;
+	}
+      }
+      char[] result = new char[len];
+      System.arraycopy(buf, 0, result, 0, len);
+      return result;
+    }
+    finally {
+      in.close();
+    }
+  }
+}
@@ -4,13 +4,13 @@ import com.thaiopensource.xml.util.EncodingMap;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
 
 /**
  * This class is used by the parser to access external entities.
  */
 public abstract class EntityManager {
+  private EntityCache entityCache;
+
   /**
    * Opens an external entity with the specified external identifier.
    */
@@ -24,11 +24,29 @@ public abstract class EntityManager {
    */
   public abstract OpenEntity open(String systemId) throws IOException;
 
+  /**
+   * Specifies a cache to be used for the text of external entities.
+   * @param entityCache the cache; may be <code>null</code>, in which case
+   * no cache is used
+   */
+  public void setEntityCache(EntityCache entityCache) {
+    this.entityCache = entityCache;
+  }
+
+  /**
+   * Returns the cache used for the text of external entities, or null if no cache is used.
+   */
+  public EntityCache getEntityCache() {
+    return entityCache;
+  }
+
   protected OpenEntity detectEncoding(InputStream input, String systemId) throws IOException {
+    if (entityCache != null)
+      return entityCache.load(input, systemId);
     EncodingDetectInputStream in = new EncodingDetectInputStream(input);
     String enc = in.detectEncoding();
     String javaEnc = EncodingMap.getJavaName(enc);
-    return new OpenEntity(new BufferedReader(new InputStreamReader(in, javaEnc)),
+    return new OpenEntity(new EntityReader(in, javaEnc),
 			  systemId,
 			  systemId,
 			  enc);
@@ -0,0 +1,138 @@
+package com.thaiopensource.xml.em;
+
+import com.thaiopensource.util.Utf8;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * A Reader that decodes the bytes of an entity.  Bytes are read in large
+ * blocks and decoded directly into the buffer passed to read, without any
+ * intermediate buffering.  UTF-8 and US-ASCII are decoded without the
+ * CharsetDecoder, which is used only for malformed input, so that the
+ * characters returned are the same as those returned by an InputStreamReader.
+ */
+class EntityReader extends Reader {
+  static private final int BUF_SIZE = 8*1024;
+  static private final int OTHER = 0;
+  static private final int UTF_8 = 1;
+  static private final int US_ASCII = 2;
+
+  private InputStream in;
+  private final CharsetDecoder decoder;
+  private final int fastPath;
+  // the bytes between the position and the limit have not yet been decoded
+  private final ByteBuffer bytes = ByteBuffer.allocate(BUF_SIZE);
+  private boolean eof = false;
+  private boolean flushed = false;
+  // the second half of a surrogate pair that did not fit in the caller's buffer
+  private final CharBuffer pending = CharBuffer.allocate(2);
+
+  EntityReader(InputStream in, String javaEncoding) throws UnsupportedEncodingException {
+    Charset charset;
+    try {
+      charset = Charset.forName(javaEncoding);
+    }
+    catch (IllegalArgumentException e) {
+      // IllegalCharsetNameException or UnsupportedCharsetException
+      throw new UnsupportedEncodingException(javaEncoding);
+    }
+    this.in = in;
+    this.decoder = charset.newDecoder()
+      .onMalformedInput(CodingErrorAction.REPLACE)
+      .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    String name = charset.name();
+    if (name.equals("UTF-8"))
+      fastPath = UTF_8;
+    else if (name.equals("US-ASCII"))
+      fastPath = US_ASCII;
+    else
+      fastPath = OTHER;
+    bytes.flip();
+    pending.flip();
+  }
+
+  public int read(char[] cbuf, int off, int len) throws IOException {
+    if (in == null)
+      throw new IOException("Stream closed");
+    if (len == 0)
+      return 0;
+    if (pending.hasRemaining()) {
+      cbuf[off] = pending.get();
+      return 1;
+    }
+    CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+    for (;;) {
+      if (!flushed) {
+	switch (fastPath) {
+	case UTF_8:
+	  Utf8.decode(bytes, out);
+	  break;
+	case US_ASCII:
+	  decodeAscii(bytes, out);
+	  break;
+	}
+      }
+      if (out.position() > off)
+	break;
+      if (flushed)
+	return -1;
+      CoderResult cr = decoder.decode(bytes, out, eof);
+      if (out.position() > off)
+	break;
+      if (cr.isOverflow()) {
+	// a single char was requested and the next char is a surrogate pair
+	pending.clear();
+	decoder.decode(bytes, pending, eof);
+	pending.flip();
+	cbuf[off] = pending.get();
+	return 1;
+      }
+      if (eof) {
+	decoder.flush(out);
+	flushed = true;
+      }
+      else
+	fill();
+    }
+    return out.position() - off;
+  }
+
+  public void close() throws IOException {
+    if (in != null) {
+      in.close();
+      in = null;
+    }
+  }
+
+  private void fill() throws IOException {
+    bytes.compact();
+    int n = in.read(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+    if (n < 0)
+      eof = true;
+    else
+      bytes.position(bytes.position() + n);
+    bytes.flip();
+  }
+
+  static private void decodeAscii(ByteBuffer in, CharBuffer out) {
+    byte[] b = in.array();
+    int i = in.arrayOffset() + in.position();
+    final int iEnd = in.arrayOffset() + in.limit();
+    char[] c = out.array();
+    int j = out.arrayOffset() + out.position();
+    final int jEnd = out.arrayOffset() + out.limit();
+    for (; i < iEnd && j < jEnd && b[i] >= 0; i++, j++)
+      c[j] = (char)b[i];
+    in.position(i - in.arrayOffset());
+    out.position(j - out.arrayOffset());
+  }
+}
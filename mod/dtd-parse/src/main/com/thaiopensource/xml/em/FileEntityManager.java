@@ -1,7 +1,8 @@
 package com.thaiopensource.xml.em;
 
+import com.thaiopensource.resolver.LocalFile;
+
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 
 public class FileEntityManager extends EntityManager {
@@ -24,7 +25,7 @@ public class FileEntityManager extends EntityManager {
   }
 
   private OpenEntity openFile(File file) throws IOException {
-    return detectEncoding(new FileInputStream(file), file.toString());
+    return detectEncoding(LocalFile.openInputStream(file), file.toString());
   }
 
 
@@ -1,5 +1,6 @@
 package com.thaiopensource.xml.em;
 
+import java.io.CharArrayReader;
 import java.io.Reader;
 
 /**
@@ -13,6 +14,7 @@ public class OpenEntity {
   private final String baseUri;
   private final String location;
   private final String encoding;
+  private final EntityCache.Entry entry;
 
   /**
    * Creates and initializes an <code>OpenEntity</code>. which uses
@@ -22,6 +24,19 @@ public class OpenEntity {
     this.location = location;
     this.baseUri = baseUri;
     this.encoding = encoding;
+    this.entry = null;
+  }
+
+  /**
+   * Creates an <code>OpenEntity</code> for an entity whose text is in an
+   * <code>EntityCache</code>.
+   */
+  OpenEntity(EntityCache.Entry entry, String location, String baseUri, String encoding) {
+    this.reader = new CharArrayReader(entry.getText());
+    this.location = location;
+    this.baseUri = baseUri;
+    this.encoding = encoding;
+    this.entry = entry;
   }
 
   /**
@@ -57,4 +72,32 @@ public class OpenEntity {
     return encoding;
   }
 
+  /**
+   * Returns the complete text of the entity, if it is available without
+   * reading from the Reader, and null otherwise.  The text is shared with
+   * the <code>EntityCache</code> from which it came, and so must not be modified.
+   */
+  public final char[] getText() {
+    return entry == null ? null : entry.getText();
+  }
+
+  /**
+   * Returns the data that was derived from the text of the entity by
+   * <code>setParsedData</code>, or null if there is none.
+   */
+  public final Object getParsedData() {
+    return entry == null ? null : entry.getParsedData();
+  }
+
+  /**
+   * Keeps data derived from the text of the entity, such as its tokens,
+   * with the text, so that it can be reused whenever an entity with the same
+   * text is opened.  The data must not be modified afterwards.
+   * This has no effect if <code>getText</code> returns null.
+   */
+  public final void setParsedData(Object data) {
+    if (entry != null)
+      entry.setParsedData(data);
+  }
+
 }
@@ -2,12 +2,13 @@ package com.thaiopensource.xml.em;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.Reader;
 
+import com.thaiopensource.resolver.BasicResolver;
 import com.thaiopensource.resolver.Input;
 import com.thaiopensource.resolver.Resolver;
 import com.thaiopensource.resolver.ResolverException;
+import com.thaiopensource.resolver.SequenceResolver;
 import com.thaiopensource.resolver.xml.ExternalEntityIdentifier;
 
 /**
@@ -16,8 +17,14 @@ import com.thaiopensource.resolver.xml.ExternalEntityIdentifier;
 public class ResolverUriEntityManager extends UriEntityManager {
   private final Resolver resolver;
 
+  /**
+   * @param resolver the Resolver to use; may be <code>null</code>
+   */
   public ResolverUriEntityManager(Resolver resolver) {
-    this.resolver = resolver;
+    Resolver tem = BasicResolver.getInstance();
+    if (resolver != null)
+      tem = new SequenceResolver(resolver, tem);
+    this.resolver = tem;
   }
 
   public OpenEntity open(String systemId) throws IOException {
@@ -66,7 +73,7 @@ public class ResolverUriEntityManager extends UriEntityManager {
     }
     InputStream in = input.getByteStream();
     if (encoding != null)
-      return new OpenEntity(new InputStreamReader(in, encoding),
+      return new OpenEntity(new EntityReader(in, encoding),
                             systemId, systemId, encoding);
     return detectEncoding(in, systemId);
   }
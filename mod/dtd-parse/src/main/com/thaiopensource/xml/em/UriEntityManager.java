@@ -1,5 +1,8 @@
 package com.thaiopensource.xml.em;
 
+import com.thaiopensource.resolver.LocalFile;
+
+import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 
@@ -20,6 +23,10 @@ public class UriEntityManager extends EntityManager {
   }
 
   private OpenEntity open(URL u) throws IOException {
-    return detectEncoding(u.openStream(), u.toString());
+    String uri = u.toString();
+    File file = LocalFile.toFile(uri);
+    if (file != null)
+      return detectEncoding(LocalFile.openInputStream(file), uri);
+    return detectEncoding(u.openStream(), uri);
   }
 }
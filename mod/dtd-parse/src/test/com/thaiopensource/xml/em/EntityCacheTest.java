@@ -0,0 +1,144 @@
+package com.thaiopensource.xml.em;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+
+/**
+ * Tests EntityCache, as used by an EntityManager.
+ */
+public class EntityCacheTest {
+  private File directory;
+
+  @BeforeMethod
+  public void setUp() throws IOException {
+    directory = File.createTempFile("entities", null);
+    directory.delete();
+    directory.mkdir();
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files)
+        file.delete();
+    }
+    directory.delete();
+  }
+
+  @Test
+  public void testText() throws IOException {
+    EntityManager em = createEntityManager(new EntityCache());
+    String uri = writeFile("a.ent", "<!ENTITY a 'b'>", "UTF-8");
+    OpenEntity entity = em.open(uri);
+    Assert.assertEquals(read(entity), "<!ENTITY a 'b'>");
+    Assert.assertEquals(new String(entity.getText()), "<!ENTITY a 'b'>");
+    Assert.assertEquals(entity.getEncoding(), "UTF-8");
+    String text = "<?xml encoding='UTF-16'?><!ENTITY a '\u00E9'>";
+    uri = writeFile("b.ent", "\uFEFF" + text, "UTF-16BE");
+    entity = em.open(uri);
+    Assert.assertEquals(read(entity), text);
+    // the cached text can be read again
+    Assert.assertEquals(read(em.open(uri)), text);
+  }
+
+  @Test
+  public void testDigestReuse() throws IOException {
+    EntityManager em = createEntityManager(new EntityCache());
+    String uri = writeFile("a.ent", "<!ENTITY a 'b'>", "UTF-8");
+    OpenEntity entity = em.open(uri);
+    entity.setParsedData("tokens");
+    // the file is written again with the same content
+    writeFile("a.ent", "<!ENTITY a 'b'>", "UTF-8");
+    OpenEntity again = em.open(uri);
+    Assert.assertSame(again.getText(), entity.getText());
+    Assert.assertEquals(again.getParsedData(), "tokens");
+    // another entity manager sharing the cache
+    again = createEntityManager(em.getEntityCache()).open(uri);
+    Assert.assertSame(again.getText(), entity.getText());
+  }
+
+  @Test
+  public void testStale() throws IOException {
+    EntityManager em = createEntityManager(new EntityCache());
+    String uri = writeFile("a.ent", "<!ENTITY a 'b'>", "UTF-8");
+    OpenEntity entity = em.open(uri);
+    entity.setParsedData("tokens");
+    File file = new File(directory, "a.ent");
+    long lastModified = file.lastModified();
+    // same length and modification time
+    writeFile("a.ent", "<!ENTITY a 'c'>", "UTF-8");
+    file.setLastModified(lastModified);
+    OpenEntity changed = em.open(uri);
+    Assert.assertEquals(read(changed), "<!ENTITY a 'c'>");
+    Assert.assertNull(changed.getParsedData());
+  }
+
+  @Test
+  public void testEviction() throws IOException {
+    // room for two of the entities, but not three
+    EntityManager em = createEntityManager(new EntityCache(40));
+    String a = writeFile("a.ent", "<!ENTITY a 'a'>", "UTF-8");
+    String b = writeFile("b.ent", "<!ENTITY b 'b'>", "UTF-8");
+    String c = writeFile("c.ent", "<!ENTITY c 'c'>", "UTF-8");
+    em.open(a).setParsedData("a");
+    em.open(b).setParsedData("b");
+    // a is now more recently used than b
+    Assert.assertEquals(em.open(a).getParsedData(), "a");
+    em.open(c).setParsedData("c");
+    Assert.assertEquals(em.open(a).getParsedData(), "a");
+    Assert.assertEquals(em.open(c).getParsedData(), "c");
+    Assert.assertNull(em.open(b).getParsedData());
+  }
+
+  @Test
+  public void testNoCache() throws IOException {
+    EntityManager em = createEntityManager(null);
+    String uri = writeFile("a.ent", "<!ENTITY a 'b'>", "UTF-8");
+    OpenEntity entity = em.open(uri);
+    Assert.assertNull(entity.getText());
+    entity.setParsedData("tokens");
+    Assert.assertNull(entity.getParsedData());
+    Assert.assertEquals(read(entity), "<!ENTITY a 'b'>");
+  }
+
+  static private EntityManager createEntityManager(EntityCache cache) {
+    EntityManager em = new ResolverUriEntityManager(null);
+    em.setEntityCache(cache);
+    return em;
+  }
+
+  private String writeFile(String name, String content, String encoding) throws IOException {
+    File file = new File(directory, name);
+    OutputStream out = new FileOutputStream(file);
+    try {
+      out.write(content.getBytes(encoding));
+    }
+    finally {
+      out.close();
+    }
+    return file.toURI().toString();
+  }
+
+  static private String read(OpenEntity entity) throws IOException {
+    Reader reader = entity.getReader();
+    try {
+      StringBuilder builder = new StringBuilder();
+      char[] buf = new char[4];
+      for (int n; (n = reader.read(buf)) > 0;)
+        builder.append(buf, 0, n);
+      return builder.toString();
+    }
+    finally {
+      reader.close();
+    }
+  }
+}
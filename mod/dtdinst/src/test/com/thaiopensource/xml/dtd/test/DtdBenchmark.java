@@ -0,0 +1,169 @@
+package com.thaiopensource.xml.dtd.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import com.thaiopensource.xml.dtd.app.SchemaWriter;
+import com.thaiopensource.xml.dtd.app.XmlOutputStreamWriter;
+import com.thaiopensource.xml.dtd.om.Dtd;
+import com.thaiopensource.xml.dtd.parse.DtdParserImpl;
+import com.thaiopensource.xml.em.EntityCache;
+import com.thaiopensource.xml.em.FileEntityManager;
+import com.thaiopensource.xml.out.XmlWriter;
+
+/**
+ * Measures the time to parse a DTD and write it in dtdinst format.  The DTD
+ * is generated in the style of large DTD families: a driver file includes
+ * a number of module files, and the content models and attribute lists are
+ * built from several layers of parameter entities.  If the third argument
+ * is "cache", the entities are kept in an EntityCache between iterations.
+ * Usage: DtdBenchmark [modules [iterations [cache]]]
+ */
+public class DtdBenchmark {
+  static private final int ELEMENTS_PER_MODULE = 40;
+
+  public static void main(String[] args) throws IOException {
+    int modules = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+    int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+    EntityCache cache = args.length > 2 && args[2].equals("cache") ? new EntityCache() : null;
+    File dir = File.createTempFile("dtdbench", "");
+    if (!dir.delete() || !dir.mkdir())
+      throw new IOException("could not create directory " + dir);
+    try {
+      File driver = generate(dir, modules);
+      int warmup = Math.max(1, iterations / 4);
+      for (int i = 0; i < warmup; i++)
+	run(driver, cache);
+      long best = Long.MAX_VALUE;
+      long total = 0;
+      for (int i = 0; i < iterations; i++) {
+	long start = System.nanoTime();
+	run(driver, cache);
+	long time = System.nanoTime() - start;
+	total += time;
+	best = Math.min(best, time);
+      }
+      System.out.println("Modules: " + modules
+			 + ", elements: " + modules * ELEMENTS_PER_MODULE);
+      System.out.println("Mean time: " + (total / iterations / 1000) + " us");
+      System.out.println("Best time: " + (best / 1000) + " us");
+    }
+    finally {
+      File[] files = dir.listFiles();
+      if (files != null) {
+	for (int i = 0; i < files.length; i++)
+	  files[i].delete();
+      }
+      dir.delete();
+    }
+  }
+
+  private static void run(File driver, EntityCache cache) throws IOException {
+    FileEntityManager em = new FileEntityManager();
+    em.setEntityCache(cache);
+    Dtd dtd = new DtdParserImpl().parse(driver.toString(), em);
+    XmlWriter w = new XmlOutputStreamWriter(new NullOutputStream(), dtd.getEncoding());
+    new SchemaWriter(w).writeDtd(dtd);
+    w.close();
+  }
+
+  private static File generate(File dir, int modules) throws IOException {
+    StringBuffer buf = new StringBuffer();
+    // attribute layers
+    buf.append("<!ENTITY % id.attrib \"id ID #IMPLIED\">\n");
+    buf.append("<!ENTITY % class.attrib \"class NMTOKENS #IMPLIED\">\n");
+    buf.append("<!ENTITY % lang.attrib \"xml:lang NMTOKEN #IMPLIED\">\n");
+    buf.append("<!ENTITY % core.attrib \"%id.attrib; %class.attrib;\">\n");
+    buf.append("<!ENTITY % i18n.attrib \"%lang.attrib; dir (ltr|rtl) #IMPLIED\">\n");
+    buf.append("<!ENTITY % common.attrib \"%core.attrib; %i18n.attrib;\">\n");
+    // class layers, redefined by each module
+    for (int m = 0; m < modules; m++) {
+      buf.append("<!ENTITY % m").append(m).append(".inline.class \"");
+      for (int e = 0; e < ELEMENTS_PER_MODULE / 2; e++) {
+	if (e > 0)
+	  buf.append(" | ");
+	buf.append(elementName(m, e));
+      }
+      buf.append("\">\n");
+      buf.append("<!ENTITY % m").append(m).append(".block.class \"");
+      for (int e = ELEMENTS_PER_MODULE / 2; e < ELEMENTS_PER_MODULE; e++) {
+	if (e > ELEMENTS_PER_MODULE / 2)
+	  buf.append(" | ");
+	buf.append(elementName(m, e));
+      }
+      buf.append("\">\n");
+    }
+    buf.append("<!ENTITY % inline.class \"");
+    for (int m = 0; m < modules; m++) {
+      if (m > 0)
+	buf.append(" | ");
+      buf.append("%m").append(m).append(".inline.class;");
+    }
+    buf.append("\">\n");
+    buf.append("<!ENTITY % block.class \"");
+    for (int m = 0; m < modules; m++) {
+      if (m > 0)
+	buf.append(" | ");
+      buf.append("%m").append(m).append(".block.class;");
+    }
+    buf.append("\">\n");
+    buf.append("<!ENTITY % inline.mix \"#PCDATA | %inline.class;\">\n");
+    buf.append("<!ENTITY % block.mix \"%block.class;\">\n");
+    for (int m = 0; m < modules; m++) {
+      String name = "module" + m + ".mod";
+      buf.append("<!ENTITY % module").append(m).append(" SYSTEM \"").append(name).append("\">\n");
+      buf.append("%module").append(m).append(";\n");
+      write(new File(dir, name), generateModule(m));
+    }
+    File driver = new File(dir, "driver.dtd");
+    write(driver, buf.toString());
+    return driver;
+  }
+
+  private static String generateModule(int m) {
+    StringBuffer buf = new StringBuffer();
+    buf.append("<!-- module ").append(m).append(" -->\n");
+    for (int e = 0; e < ELEMENTS_PER_MODULE; e++) {
+      String name = elementName(m, e);
+      buf.append("<!ENTITY % ").append(name).append(".element \"INCLUDE\">\n");
+      buf.append("<![%").append(name).append(".element;[\n");
+      if (e < ELEMENTS_PER_MODULE / 2)
+	buf.append("<!ELEMENT ").append(name).append(" (%inline.mix;)*>\n");
+      else
+	buf.append("<!ELEMENT ").append(name).append(" (title?, (%block.mix;)+)>\n");
+      buf.append("]]>\n");
+      buf.append("<!ATTLIST ").append(name).append("\n  %common.attrib;\n  role CDATA #IMPLIED>\n");
+    }
+    if (m == 0) {
+      buf.append("<!ELEMENT title (%inline.mix;)*>\n");
+      buf.append("<!ATTLIST title %common.attrib;>\n");
+    }
+    return buf.toString();
+  }
+
+  private static String elementName(int m, int e) {
+    return "e" + m + "." + e;
+  }
+
+  private static void write(File file, String content) throws IOException {
+    Writer w = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+    try {
+      w.write(content);
+    }
+    finally {
+      w.close();
+    }
+  }
+
+  static private class NullOutputStream extends OutputStream {
+    public void write(int b) {
+    }
+
+    public void write(byte[] b, int off, int len) {
+    }
+  }
+}
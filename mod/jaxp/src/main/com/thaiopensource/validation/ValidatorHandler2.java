@@ -1,7 +1,11 @@
 package com.thaiopensource.validation;
 
+import org.w3c.dom.Node;
 import org.xml.sax.DTDHandler;
+import org.xml.sax.SAXException;
 
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.validation.ValidatorHandler;
 
 /**
@@ -23,4 +27,25 @@ public abstract class ValidatorHandler2 extends ValidatorHandler implements DTDH
    * @return the DTDHandler
    */
   abstract public DTDHandler getDTDHandler();
+
+  /**
+   * Validates the document read from an XMLStreamReader, without converting it to SAX events.
+   * The reader must be positioned at the start of a document or at a start-tag.
+   * The default implementation does not support this.
+   * @param reader the XMLStreamReader from which to read the document
+   * @throws IllegalArgumentException if this ValidatorHandler2 cannot validate an XMLStreamReader
+   */
+  public void validate(XMLStreamReader reader) throws SAXException, XMLStreamException {
+    throw new IllegalArgumentException("validation of an XMLStreamReader not supported");
+  }
+
+  /**
+   * Validates a DOM Document or Element, without converting it to SAX events.
+   * The default implementation does not support this.
+   * @param node the Document or Element to validate
+   * @throws IllegalArgumentException if this ValidatorHandler2 cannot validate a DOM
+   */
+  public void validate(Node node) throws SAXException {
+    throw new IllegalArgumentException("validation of a DOM not supported");
+  }
 }
@@ -14,8 +14,12 @@ import org.xml.sax.SAXNotSupportedException;
 import org.xml.sax.XMLReader;
 import org.xml.sax.ext.LexicalHandler;
 
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.ErrorListener;
 import javax.xml.transform.Result;
 import javax.xml.transform.Source;
+import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
@@ -25,6 +29,8 @@ import javax.xml.transform.sax.SAXResult;
 import javax.xml.transform.sax.SAXSource;
 import javax.xml.transform.sax.SAXTransformerFactory;
 import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stax.StAXResult;
+import javax.xml.transform.stax.StAXSource;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 import java.io.IOException;
@@ -68,33 +74,94 @@ class ValidatorImpl extends Validator2 {
       }
       else if (source instanceof DOMSource) {
         if (result != null && !(result instanceof DOMResult))
-          throw new IllegalArgumentException();
+          throw new IllegalArgumentException("DOMSource requires a DOMResult, not "
+                                             + result.getClass().getName());
         doValidate((DOMSource)source, (DOMResult)result);
       }
-//      else if (source instanceof StAXSource) {
-//        if (result != null && !(result instanceof StAXResult))
-//          throw new IllegalArgumentException();
-//        doValidate((StAXSource)source, (StAXResult)result);
-//      }
+      else if (source instanceof StAXSource) {
+        if (result != null && !(result instanceof StAXResult))
+          throw new IllegalArgumentException("StAXSource requires a StAXResult, not "
+                                             + result.getClass().getName());
+        StAXSource staxSource = (StAXSource)source;
+        if (result == null && staxSource.getXMLStreamReader() != null)
+          doValidate(staxSource.getXMLStreamReader());
+        else
+          doValidateTransformed(staxSource, result);
+      }
       else
         throw new IllegalArgumentException("unsupported type of Source: " + source.getClass().getName());
     }
     catch (TransformerException e) {
-      // XXX unwrap if possible
+      // the transformer may wrap an exception thrown by the handler more than once
+      for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+        if (cause instanceof SAXException)
+          throw (SAXException)cause;
+        if (cause instanceof IOException)
+          throw (IOException)cause;
+      }
       throw new SAXException(e);
     }
   }
 
-//  private void doValidate(StAXSource source, StAXResult result)
-//          throws SAXException, IOException, TransformerException {
-//    // XXX transform source and result
-//    throw new IllegalArgumentException();
-//  }
+  private void doValidate(XMLStreamReader reader) throws SAXException {
+    if (needReset)
+      handler.reset();
+    else
+      needReset = true;
+    try {
+      handler.validate(reader);
+    }
+    catch (XMLStreamException e) {
+      throw new SAXException(e);
+    }
+  }
 
-  private void doValidate(DOMSource source, DOMResult result)
-          throws SAXException, IOException, TransformerException {
-    // XXX transform source and result
-    throw new IllegalArgumentException();
+  private void doValidate(DOMSource source, DOMResult result) throws SAXException, TransformerException {
+    if (source.getNode() == null)
+      throw new IllegalArgumentException("DOMSource has no node");
+    if (result != null) {
+      doValidateTransformed(source, result);
+      return;
+    }
+    if (needReset)
+      handler.reset();
+    else
+      needReset = true;
+    handler.validate(source.getNode());
+  }
+
+  /**
+   * Validates a source that the handler cannot read directly, or whose content must also be written to
+   * a result, by having an identity transformer turn it into SAX events.
+   */
+  private void doValidateTransformed(Source source, Result result) throws SAXException, TransformerException {
+    TransformerHandler identityHandler = null;
+    if (result != null) {
+      identityHandler = getIdentityTransformerHandler();
+      identityHandler.setResult(result);
+    }
+    handler.setContentHandler(identityHandler);
+    handler.setDTDHandler(identityHandler);
+    SAXResult saxResult = new SAXResult(handler);
+    saxResult.setLexicalHandler(identityHandler);
+    if (needReset)
+      handler.reset();
+    else
+      needReset = true;
+    Transformer transformer = TransformerFactory.newInstance().newTransformer();
+    // the exception is reported by throwing it, not by the transformer printing it as well
+    transformer.setErrorListener(new ErrorListener() {
+      public void warning(TransformerException exception) { }
+
+      public void error(TransformerException exception) throws TransformerException {
+        throw exception;
+      }
+
+      public void fatalError(TransformerException exception) throws TransformerException {
+        throw exception;
+      }
+    });
+    transformer.transform(source, saxResult);
   }
 
   private TransformerHandler getIdentityTransformerHandler() throws SAXException, TransformerConfigurationException {
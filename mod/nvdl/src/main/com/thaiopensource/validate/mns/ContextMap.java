@@ -2,6 +2,7 @@ package com.thaiopensource.validate.mns;
 
 import com.thaiopensource.xml.util.Name;
 
+import java.util.List;
 import java.util.Vector;
 import java.util.Hashtable;
 
@@ -10,7 +11,7 @@ class ContextMap {
   private Object otherValue;
   private final Hashtable nameTable = new Hashtable();
 
-  Object get(Vector context) {
+  Object get(List context) {
     return get(context, context.size());
   }
 
@@ -18,9 +19,9 @@ class ContextMap {
     return put(isRoot, names, names.size(), value);
   }
 
-  private Object get(Vector context, int len) {
+  private Object get(List context, int len) {
     if (len > 0) {
-      ContextMap nestedMap = (ContextMap)nameTable.get(context.elementAt(len - 1));
+      ContextMap nestedMap = (ContextMap)nameTable.get(context.get(len - 1));
       if (nestedMap != null) {
         Object value = nestedMap.get(context, len - 1);
         if (value != null)
@@ -1,16 +1,17 @@
 package com.thaiopensource.validate.mns;
 
-import java.util.Hashtable;
+import java.util.HashSet;
+import java.util.Set;
 
 class Hashset {
-  private final Hashtable table = new Hashtable();
+  private final Set table = new HashSet();
 
   boolean contains(Object key) {
-    return table.get(key) != null;
+    return table.contains(key);
   }
 
   void add(Object key) {
-    table.put(key, key);
+    table.add(key);
   }
 
   void clear() {
@@ -15,8 +15,10 @@ import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
 import org.xml.sax.helpers.DefaultHandler;
 
-import java.util.Hashtable;
-import java.util.Stack;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 class ValidatorImpl extends DefaultHandler implements Validator {
   static final Name OWNER_NAME = new Name("http://www.thaiopensource.com/ns/mns/instance", "owner");
@@ -29,7 +31,7 @@ class ValidatorImpl extends DefaultHandler implements Validator {
   private final Hashset attributeNamespaces = new Hashset();
   private PrefixMapping prefixMapping = null;
   private final Localizer localizer = new Localizer(ValidatorImpl.class);
-  private final Hashtable validatorCache = new Hashtable();
+  private final Map<Schema, List<Validator>> validatorCache = new HashMap<Schema, List<Validator>>();
 
   static private class Subtree {
     final Subtree parent;
@@ -39,7 +41,7 @@ class ValidatorImpl extends DefaultHandler implements Validator {
     final ElementsOrAttributes prune;
     final SchemaImpl.Mode parentMode;
     final int parentLaxDepth;
-    final Stack context = new Stack();
+    final List<Name> context = new ArrayList<Name>();
     final ContextMap contextMap;
 
     Subtree(Hashset coveredNamespaces, ContextMap contextMap,
@@ -103,7 +105,7 @@ class ValidatorImpl extends DefaultHandler implements Validator {
                            String qName, Attributes attributes)
           throws SAXException {
     if (namespaceCovered(uri))
-      subtrees.context.push(new Name(uri, localName));
+      subtrees.context.add(new Name(uri, localName));
     else {
       SchemaImpl.Mode mode = getMode();
       SchemaImpl.ElementAction elementAction = mode.getElementAction(uri);
@@ -121,7 +123,7 @@ class ValidatorImpl extends DefaultHandler implements Validator {
                                currentMode,
                                laxDepth,
                                subtrees);
-        subtrees.context.push(new Name(uri, localName));
+        subtrees.context.add(new Name(uri, localName));
         currentMode = elementAction.getMode();
         laxDepth = 0;
         startSubtree(subtrees.validator.getContentHandler());
@@ -196,9 +198,9 @@ class ValidatorImpl extends DefaultHandler implements Validator {
       st.validator.getContentHandler().endElement(uri, localName, qName);
     if (laxDepth > 0)
       laxDepth--;
-    else if (!subtrees.context.empty()) {
-      subtrees.context.pop();
-      if (subtrees.context.empty()) {
+    else if (!subtrees.context.isEmpty()) {
+      subtrees.context.remove(subtrees.context.size() - 1);
+      if (subtrees.context.isEmpty()) {
         endSubtree(subtrees.validator.getContentHandler());
         releaseValidator(subtrees.schema, subtrees.validator);
         currentMode = subtrees.parentMode;
@@ -209,19 +211,19 @@ class ValidatorImpl extends DefaultHandler implements Validator {
   }
 
   private Validator createValidator(Schema schema) {
-     Stack stack = (Stack)validatorCache.get(schema);
+     List<Validator> stack = validatorCache.get(schema);
      if (stack == null) {
-       stack = new Stack();
+       stack = new ArrayList<Validator>();
        validatorCache.put(schema, stack);
      }
-     if (stack.empty())
+     if (stack.isEmpty())
        return schema.createValidator(properties);
-     return (Validator)stack.pop();
+     return stack.remove(stack.size() - 1);
    }
 
    private void releaseValidator(Schema schema, Validator validator) {
      validator.reset();
-     ((Stack)validatorCache.get(schema)).push(validator);
+     validatorCache.get(schema).add(validator);
    }
 
   public void endDocument()
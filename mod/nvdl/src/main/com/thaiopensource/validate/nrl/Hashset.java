@@ -1,22 +1,23 @@
 package com.thaiopensource.validate.nrl;
 
-import java.util.Hashtable;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.Enumeration;
 
 class Hashset {
-  private final Hashtable table = new Hashtable();
+  private final Set table = new HashSet();
 
   boolean contains(Object key) {
-    return table.get(key) != null;
+    return table.contains(key);
   }
 
   void add(Object key) {
-    table.put(key, key);
+    table.add(key);
   }
 
   void addAll(Hashset set) {
-    for (Enumeration e = set.table.keys(); e.hasMoreElements();)
-      add(e.nextElement());
+    table.addAll(set.table);
   }
 
   void clear() {
@@ -24,6 +25,6 @@ class Hashset {
   }
 
   Enumeration members() {
-    return table.keys();
+    return Collections.enumeration(table);
   }
 }
@@ -6,8 +6,9 @@ class IntSet {
   private int len = 0;
 
   void add(int n) {
-    if (v == null) {
-      v = new int[INIT_SIZE];
+    if (len == 0) {
+      if (v == null)
+        v = new int[INIT_SIZE];
       v[0] = n;
       len = 1;
       return;
@@ -38,6 +39,11 @@ class IntSet {
   void addAll(IntSet is) {
     if (is.len == 0)
       return;
+    if (len == 0 && v != null && v.length >= is.len) {
+      System.arraycopy(is.v, 0, v, 0, is.len);
+      len = is.len;
+      return;
+    }
     int[] newv = new int[len + is.len];
     int i = 0, j = 0, k = 0;
     while (i < len && j < is.len) {
@@ -72,4 +78,8 @@ class IntSet {
       throw new IndexOutOfBoundsException();
     }
   }
+
+  void clear() {
+    len = 0;
+  }
 }
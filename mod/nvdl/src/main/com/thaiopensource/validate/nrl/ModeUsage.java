@@ -4,6 +4,7 @@ import com.thaiopensource.util.Equal;
 import com.thaiopensource.validate.nrl.ContextMap;
 import com.thaiopensource.validate.nrl.Mode;
 
+import java.util.List;
 import java.util.Vector;
 import java.util.Enumeration;
 
@@ -63,7 +64,7 @@ class ModeUsage {
     return modeMap != null;
   }
 
-  Mode getMode(Vector context) {
+  Mode getMode(List context) {
     if (modeMap != null) {
       Mode m = (Mode)modeMap.get(context);
       if (m != null)
@@ -15,10 +15,12 @@ import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
 import org.xml.sax.helpers.DefaultHandler;
 
-import java.util.Enumeration;
-import java.util.Hashtable;
-import java.util.Stack;
-import java.util.Vector;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 class ValidatorImpl extends DefaultHandler implements Validator {
   static final Name OWNER_NAME = new Name("http://www.thaiopensource.com/validate/nrl/instance", "owner");
@@ -28,11 +30,11 @@ class ValidatorImpl extends DefaultHandler implements Validator {
   private Locator locator;
   private Section currentSection;
   private PrefixMapping prefixMapping = null;
-  private final Hashtable validatorHandlerCache = new Hashtable();
+  private final Map<Schema, List<Validator>> validatorHandlerCache = new HashMap<Schema, List<Validator>>();
   private final Localizer localizer = new Localizer(ValidatorImpl.class);
   private final Hashset noResultActions = new Hashset();
-  private final Hashtable attributeNamespaceIndexSets = new Hashtable();
-  private final Vector activeHandlersAttributeIndexSets = new Vector();
+  private final Map<String, IntSet> attributeNamespaceIndexSets = new LinkedHashMap<String, IntSet>();
+  private IntSet[] activeHandlersAttributeIndexSets = new IntSet[0];
   private final Hashset attributeSchemas = new Hashset();
   private boolean attributeNamespaceRejected;
   private Attributes filteredAttributes;
@@ -63,19 +65,19 @@ class ValidatorImpl extends DefaultHandler implements Validator {
     /**
      * List of the Validators rooted in this section
      */
-    final Vector validators = new Vector();
-    final Vector schemas = new Vector();
+    final List<Validator> validators = new ArrayList<Validator>();
+    final List<Schema> schemas = new ArrayList<Schema>();
     /**
      * List of the ContentHandlers that want to see the elements in this section
      */
-    final Vector activeHandlers = new Vector();
-    final Vector activeHandlersAttributeModeUsage = new Vector();
-    final Vector attributeValidationModeUsages = new Vector();
+    final List<ContentHandler> activeHandlers = new ArrayList<ContentHandler>();
+    final List<ModeUsage> activeHandlersAttributeModeUsage = new ArrayList<ModeUsage>();
+    final List<ModeUsage> attributeValidationModeUsages = new ArrayList<ModeUsage>();
     /**
      * List of Programs saying what to do with child sections
      */
-    final Vector childPrograms = new Vector();
-    final Stack context = new Stack();
+    final List<Program> childPrograms = new ArrayList<Program>();
+    final List<String> context = new ArrayList<String>();
     boolean contextDependent = false;
     int attributeProcessing = Mode.ATTRIBUTE_PROCESSING_NONE;
 
@@ -85,27 +87,27 @@ class ValidatorImpl extends DefaultHandler implements Validator {
     }
 
     public void addChildMode(ModeUsage modeUsage, ContentHandler handler) {
-      childPrograms.addElement(new Program(modeUsage, handler));
+      childPrograms.add(new Program(modeUsage, handler));
       if (modeUsage.isContextDependent())
         contextDependent = true;
     }
 
     public void addValidator(Schema schema, ModeUsage modeUsage) {
-      schemas.addElement(schema);
+      schemas.add(schema);
       Validator validator = createValidator(schema);
-      validators.addElement(validator);
-      activeHandlers.addElement(validator.getContentHandler());
-      activeHandlersAttributeModeUsage.addElement(modeUsage);
+      validators.add(validator);
+      activeHandlers.add(validator.getContentHandler());
+      activeHandlersAttributeModeUsage.add(modeUsage);
       attributeProcessing = Math.max(attributeProcessing,
                                      modeUsage.getAttributeProcessing());
-      childPrograms.addElement(new Program(modeUsage, validator.getContentHandler()));
+      childPrograms.add(new Program(modeUsage, validator.getContentHandler()));
       if (modeUsage.isContextDependent())
         contextDependent = true;
     }
 
     public void addActiveHandler(ContentHandler handler, ModeUsage attributeModeUsage) {
-      activeHandlers.addElement(handler);
-      activeHandlersAttributeModeUsage.addElement(attributeModeUsage);
+      activeHandlers.add(handler);
+      activeHandlersAttributeModeUsage.add(attributeModeUsage);
       attributeProcessing = Math.max(attributeProcessing,
                                      attributeModeUsage.getAttributeProcessing());
       if (attributeModeUsage.isContextDependent())
@@ -115,7 +117,7 @@ class ValidatorImpl extends DefaultHandler implements Validator {
     public void addAttributeValidationModeUsage(ModeUsage modeUsage) {
       int ap = modeUsage.getAttributeProcessing();
       if (ap != Mode.ATTRIBUTE_PROCESSING_NONE) {
-        attributeValidationModeUsages.addElement(modeUsage);
+        attributeValidationModeUsages.add(modeUsage);
         attributeProcessing = Math.max(ap, attributeProcessing);
         if (modeUsage.isContextDependent())
           contextDependent = true;
@@ -159,14 +161,14 @@ class ValidatorImpl extends DefaultHandler implements Validator {
   public void characters(char ch[], int start, int length)
           throws SAXException {
     for (int i = 0, len = currentSection.activeHandlers.size(); i < len; i++)
-      ((ContentHandler)(currentSection.activeHandlers.elementAt(i))).characters(ch, start, length);
+      currentSection.activeHandlers.get(i).characters(ch, start, length);
 
   }
 
   public void ignorableWhitespace(char ch[], int start, int length)
           throws SAXException {
     for (int i = 0, len = currentSection.activeHandlers.size(); i < len; i++)
-      ((ContentHandler)(currentSection.activeHandlers.elementAt(i))).ignorableWhitespace(ch, start, length);
+      currentSection.activeHandlers.get(i).ignorableWhitespace(ch, start, length);
   }
 
   public void startElement(String uri, String localName,
@@ -176,13 +178,13 @@ class ValidatorImpl extends DefaultHandler implements Validator {
       startSection(uri);
     currentSection.depth++;
     if (currentSection.contextDependent)
-      currentSection.context.push(localName);
+      currentSection.context.add(localName);
     boolean transformAttributes = processAttributes(attributes);
     for (int i = 0, len = currentSection.activeHandlers.size(); i < len; i++) {
-      ContentHandler handler = (ContentHandler)(currentSection.activeHandlers.elementAt(i));
+      ContentHandler handler = currentSection.activeHandlers.get(i);
       handler.startElement(uri, localName, qName,
                            transformAttributes
-                           ? filterAttributes((IntSet)activeHandlersAttributeIndexSets.elementAt(i),
+                           ? filterAttributes(activeHandlersAttributeIndexSets[i],
                                               attributes)
                            : attributes);
     }
@@ -201,7 +203,7 @@ class ValidatorImpl extends DefaultHandler implements Validator {
     attributeNamespaceIndexSets.clear();
     for (int i = 0, len = attributes.getLength(); i < len; i++) {
       String ns = attributes.getURI(i);
-      IntSet indexSet = (IntSet)attributeNamespaceIndexSets.get(ns);
+      IntSet indexSet = attributeNamespaceIndexSets.get(ns);
       if (indexSet == null) {
         indexSet = new IntSet();
         attributeNamespaceIndexSets.put(ns, indexSet);
@@ -212,28 +214,35 @@ class ValidatorImpl extends DefaultHandler implements Validator {
         && attributeNamespaceIndexSets.size() == 1
         && attributeNamespaceIndexSets.get("") != null)
       return false;
-    Vector handlerModes = currentSection.activeHandlersAttributeModeUsage;
-    activeHandlersAttributeIndexSets.setSize(handlerModes.size());
+    List<ModeUsage> handlerModes = currentSection.activeHandlersAttributeModeUsage;
+    if (activeHandlersAttributeIndexSets.length < handlerModes.size()) {
+      IntSet[] newIndexSets = new IntSet[handlerModes.size()];
+      System.arraycopy(activeHandlersAttributeIndexSets, 0, newIndexSets, 0, activeHandlersAttributeIndexSets.length);
+      for (int i = activeHandlersAttributeIndexSets.length; i < newIndexSets.length; i++)
+        newIndexSets[i] = new IntSet();
+      activeHandlersAttributeIndexSets = newIndexSets;
+    }
     for (int i = 0, len = handlerModes.size(); i < len; i++)
-      activeHandlersAttributeIndexSets.setElementAt(new IntSet(), i);
+      activeHandlersAttributeIndexSets[i].clear();
     boolean transform = false;
-    Vector validationModes = currentSection.attributeValidationModeUsages;
-    for (Enumeration e = attributeNamespaceIndexSets.keys(); e.hasMoreElements();) {
-      String ns = (String)e.nextElement();
-      IntSet indexSet = (IntSet)attributeNamespaceIndexSets.get(ns);
+    List<ModeUsage> validationModes = currentSection.attributeValidationModeUsages;
+    for (Iterator<Map.Entry<String, IntSet>> iter = attributeNamespaceIndexSets.entrySet().iterator(); iter.hasNext();) {
+      Map.Entry<String, IntSet> entry = iter.next();
+      String ns = entry.getKey();
+      IntSet indexSet = entry.getValue();
       attributeSchemas.clear();
       filteredAttributes = null;
       attributeNamespaceRejected = false;
       for (int i = 0, len = handlerModes.size(); i < len; i++) {
-        ModeUsage modeUsage = (ModeUsage)handlerModes.elementAt(i);
+        ModeUsage modeUsage = handlerModes.get(i);
         AttributeActionSet actions = processAttributeSection(modeUsage, ns, indexSet, attributes);
         if (actions.getAttach())
-          ((IntSet)activeHandlersAttributeIndexSets.get(i)).addAll(indexSet);
+          activeHandlersAttributeIndexSets[i].addAll(indexSet);
         else
           transform = true;
       }
       for (int i = 0, len = validationModes.size(); i < len; i++) {
-        ModeUsage modeUsage = (ModeUsage)validationModes.elementAt(i);
+        ModeUsage modeUsage = validationModes.get(i);
         processAttributeSection(modeUsage, ns, indexSet, attributes);
       }
     }
@@ -277,10 +286,10 @@ class ValidatorImpl extends DefaultHandler implements Validator {
 
   private void startSection(String uri) throws SAXException {
     Section section = new Section(uri, currentSection);
-    Vector childPrograms = currentSection.childPrograms;
+    List<Program> childPrograms = currentSection.childPrograms;
     noResultActions.clear();
     for (int i = 0, len = childPrograms.size(); i < len; i++) {
-      Program program = (Program)childPrograms.elementAt(i);
+      Program program = childPrograms.get(i);
       ActionSet actions = program.modeUsage.getMode(currentSection.context).getElementActions(uri);
       ResultAction resultAction = actions.getResultAction();
       if (resultAction != null)
@@ -295,7 +304,7 @@ class ValidatorImpl extends DefaultHandler implements Validator {
       }
     }
     for (int i = 0, len = section.validators.size(); i < len; i++)
-      initHandler(((Validator)section.validators.elementAt(i)).getContentHandler());
+      initHandler(section.validators.get(i).getContentHandler());
     currentSection = section;
   }
 
@@ -310,22 +319,22 @@ class ValidatorImpl extends DefaultHandler implements Validator {
   public void endElement(String uri, String localName, String qName)
           throws SAXException {
     for (int i = 0, len = currentSection.activeHandlers.size(); i < len; i++)
-      ((ContentHandler)(currentSection.activeHandlers.elementAt(i))).endElement(uri, localName, qName);
+      currentSection.activeHandlers.get(i).endElement(uri, localName, qName);
     currentSection.depth--;
     if (currentSection.contextDependent)
-      currentSection.context.pop();
+      currentSection.context.remove(currentSection.context.size() - 1);
     if (currentSection.depth == 0)
       endSection();
   }
 
   private void endSection() throws SAXException {
     for (int i = 0, len = currentSection.validators.size(); i < len; i++) {
-      Validator validator = (Validator)currentSection.validators.elementAt(i);
+      Validator validator = currentSection.validators.get(i);
       cleanupHandler(validator.getContentHandler());
-      releaseValidator((Schema)currentSection.schemas.elementAt(i), validator);
+      releaseValidator(currentSection.schemas.get(i), validator);
       // endDocument() on one of the validators may throw an exception
       // in this case we don't want to release the validator twice
-      currentSection.validators.setElementAt(null, i);
+      currentSection.validators.set(i, null);
     }
     currentSection = currentSection.parent;
   }
@@ -353,28 +362,28 @@ class ValidatorImpl extends DefaultHandler implements Validator {
   }
 
   private Validator createValidator(Schema schema) {
-    Stack stack = (Stack)validatorHandlerCache.get(schema);
+    List<Validator> stack = validatorHandlerCache.get(schema);
     if (stack == null) {
-      stack = new Stack();
+      stack = new ArrayList<Validator>();
       validatorHandlerCache.put(schema, stack);
     }
-    if (stack.empty())
+    if (stack.isEmpty())
       return schema.createValidator(properties);
-    return (Validator)stack.pop();
+    return stack.remove(stack.size() - 1);
   }
 
   private void releaseValidator(Schema schema, Validator vh) {
     if (vh == null)
       return;
     vh.reset();
-    ((Stack)validatorHandlerCache.get(schema)).push(vh);
+    validatorHandlerCache.get(schema).add(vh);
   }
 
   public void reset() {
     for (; currentSection != null; currentSection = currentSection.parent) {
       for (int i = 0, len = currentSection.validators.size(); i < len; i++)
-        releaseValidator((Schema)currentSection.schemas.elementAt(i),
-                         (Validator)currentSection.validators.elementAt(i));
+        releaseValidator(currentSection.schemas.get(i),
+                         currentSection.validators.get(i));
     }
     initCurrentSection();
   }
@@ -2,6 +2,7 @@ package com.thaiopensource.validate.nvdl;
 
 import com.thaiopensource.util.Equal;
 
+import java.util.List;
 import java.util.Vector;
 import java.util.Hashtable;
 import java.util.Enumeration;
@@ -55,7 +56,7 @@ class ContextMap {
    * (path from root local element names from the same namespace).
    * @return A mode or null.
    */  
-  Object get(Vector context) {
+  Object get(List context) {
     return get(context, context.size());
   }
   
@@ -81,9 +82,9 @@ class ContextMap {
    * @param len The lenght we should take from the list.
    * @return A mode or null.
    */
-  private Object get(Vector context, int len) {
+  private Object get(List context, int len) {
     if (len > 0) {
-      ContextMap nestedMap = (ContextMap)nameTable.get(context.elementAt(len - 1));
+      ContextMap nestedMap = (ContextMap)nameTable.get(context.get(len - 1));
       if (nestedMap != null) {
         Object value = nestedMap.get(context, len - 1);
         if (value != null)
@@ -2,21 +2,26 @@ package com.thaiopensource.validate.nvdl;
 
 import org.xml.sax.Attributes;
 
+import java.util.Arrays;
+
 /**
  * Implementation of the Attributes interface that filters out some of the
  * attributes of an actual Attributes implementation. We will keep only the
  * attributes whose indexes are specified in a given set of indexes.
+ * An instance can be reused for different attributes, so that filtering
+ * the attributes of an element does not need any allocation; the view is
+ * valid only until it is reused.
  */
 class FilteredAttributes implements Attributes {
   /**
    * The actual attributes, we will filter out some of them.
    */
-  private final Attributes attributes;
+  private Attributes attributes;
   
   /**
    * The set of indexes of the attributes to used.
    */
-  private final IntSet indexSet;
+  private IntSet indexSet;
   
   /**
    * Maps indexes in the real attributes list to 1 based indexes in the
@@ -29,28 +34,48 @@ class FilteredAttributes implements Attributes {
    * [3] -->  0
    * 
    */
-  private int[] reverseIndexMap;
+  private int[] reverseIndexMap = new int[0];
+
+  /**
+   * Flag indicating if the reverse index map was computed
+   * for the current attributes.
+   */
+  private boolean reverseIndexMapValid;
 
   /**
    * Creates a filtered attributes instance.
+   * The attributes are given later using setAttributes.
+   */
+  public FilteredAttributes() {
+  }
+
+  /**
+   * Changes the attributes that are filtered.
    * @param indexSet The set with indexes that we will keep.
    * @param attributes The actual attributes.
    */
-  public FilteredAttributes(IntSet indexSet, Attributes attributes) {
+  void setAttributes(IntSet indexSet, Attributes attributes) {
     this.indexSet = indexSet;
     this.attributes = attributes;
+    this.reverseIndexMapValid = false;
   }
 
   /**
    * Gets the index in the filtered set for a given real index.
    * If the reverseIndexMap is not computed it computes it, 
    * otherwise it just uses the previously computed map. 
+   * The array holding the map is reused if it is big enough.
    * @param k The index in the real attributes.
    * @return The index in the filtered attributes.
    */
   private int reverseIndex(int k) {
-    if (reverseIndexMap == null) {
-      reverseIndexMap = new int[attributes.getLength()];
+    if (!reverseIndexMapValid) {
+      int n = attributes.getLength();
+      if (reverseIndexMap.length < n)
+        reverseIndexMap = new int[n];
+      else
+        Arrays.fill(reverseIndexMap, 0, n, 0);
+      reverseIndexMapValid = true;
       for (int i = 0, len = indexSet.size(); i < len; i++)
         reverseIndexMap[indexSet.get(i)] = i + 1;
     }
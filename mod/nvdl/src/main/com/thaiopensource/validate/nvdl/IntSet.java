@@ -24,8 +24,9 @@ class IntSet {
    * @param n The value to be added.
    */
   void add(int n) {
-    if (v == null) {
-      v = new int[INIT_SIZE];
+    if (len == 0) {
+      if (v == null)
+        v = new int[INIT_SIZE];
       v[0] = n;
       len = 1;
       return;
@@ -60,6 +61,11 @@ class IntSet {
   void addAll(IntSet is) {
     if (is.len == 0)
       return;
+    if (len == 0 && v != null && v.length >= is.len) {
+      System.arraycopy(is.v, 0, v, 0, is.len);
+      len = is.len;
+      return;
+    }
     int[] newv = new int[len + is.len];
     int i = 0, j = 0, k = 0;
     while (i < len && j < is.len) {
@@ -103,4 +109,11 @@ class IntSet {
       throw new IndexOutOfBoundsException();
     }
   }
+
+  /**
+   * Removes all the values.
+   */
+  void clear() {
+    len = 0;
+  }
 }
@@ -6,14 +6,26 @@ import org.xml.sax.helpers.LocatorImpl;
 import java.util.Hashtable;
 import java.util.Enumeration;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 class Mode {
   static final int ATTRIBUTE_PROCESSING_NONE = 0;
   static final int ATTRIBUTE_PROCESSING_QUALIFIED = 1;
   static final int ATTRIBUTE_PROCESSING_FULL = 2;
+
+  /**
+   * The maximum number of namespaces, other than those named explicitly in the script,
+   * for which the actions are remembered.  The namespaces come from the instances,
+   * and the actions are remembered for the lifetime of the schema, so this must be limited.
+   */
+  static final int MAX_CACHED_NAMESPACES = 256;
   
   /**
    * A special mode. In a mode usage this will be 
@@ -81,9 +93,72 @@ class Mode {
    * List with included modes.
    */
   private List includedModes = new ArrayList();
-  
+
+  /**
+   * The compiled dispatch table, null until it is computed.
+   */
+  private volatile Dispatch dispatch;
+
+  /**
+   * The actions of a mode for each namespace, with the wildcards, the included modes
+   * and the base modes already taken into account.
+   * The actions for every namespace that is named explicitly in the mode or in the
+   * modes that it inherits from are computed when the table is created.
+   * The actions for other namespaces, which can only be matched by wildcards or
+   * by anyNamespace, are computed when first needed and then remembered, for up to
+   * MAX_CACHED_NAMESPACES namespaces; after that they are computed each time.
+   * The tables are shared by all validators, so they must be safe for concurrent access.
+   */
+  private class Dispatch {
+    private final Map elementActions = new HashMap();
+    private final Map attributeActions = new HashMap();
+    private final Map otherElementActions = new ConcurrentHashMap();
+    private final Map otherAttributeActions = new ConcurrentHashMap();
+
+    Dispatch() {
+      Set namespaces = new HashSet();
+      addExplicitNamespaces(namespaces, new HashSet());
+      for (Iterator iter = namespaces.iterator(); iter.hasNext();) {
+        String ns = (String)iter.next();
+        elementActions.put(ns, computeElementActions(ns));
+        attributeActions.put(ns, computeAttributeActions(ns));
+      }
+    }
+
+    ActionSet getElementActions(String ns) {
+      ActionSet actions = (ActionSet)elementActions.get(ns);
+      if (actions == null && !elementActions.containsKey(ns)) {
+        actions = (ActionSet)otherElementActions.get(ns);
+        if (actions == null) {
+          actions = computeElementActions(ns);
+          if (actions != null && otherElementActions.size() < MAX_CACHED_NAMESPACES)
+            otherElementActions.put(ns, actions);
+        }
+      }
+      return actions;
+    }
+
+    AttributeActionSet getAttributeActions(String ns) {
+      AttributeActionSet actions = (AttributeActionSet)attributeActions.get(ns);
+      if (actions == null && !attributeActions.containsKey(ns)) {
+        actions = (AttributeActionSet)otherAttributeActions.get(ns);
+        if (actions == null) {
+          actions = computeAttributeActions(ns);
+          if (actions != null && otherAttributeActions.size() < MAX_CACHED_NAMESPACES)
+            otherAttributeActions.put(ns, actions);
+        }
+      }
+      return actions;
+    }
+
+    int getCachedNamespaceCount() {
+      return otherElementActions.size() + otherAttributeActions.size();
+    }
+  }
+
   void addIncludedMode(Mode mode) {
     includedModes.add(mode);
+    dispatch = null;
   }
   
   /**
@@ -127,6 +202,58 @@ class Mode {
    */
   void setBaseMode(Mode baseMode) {
     this.baseMode = baseMode;
+    dispatch = null;
+  }
+
+  /**
+   * Computes the dispatch table for this mode, if it has not already been computed.
+   * This is called for each mode when the schema has been loaded; it is also
+   * called when the table is first needed, since not all modes are named.
+   */
+  void compile() {
+    getDispatch();
+  }
+
+  /**
+   * Get the number of namespaces not named in the script whose actions are remembered.
+   * @return The number of element and attribute namespaces.
+   */
+  int getCachedNamespaceCount() {
+    return getDispatch().getCachedNamespaceCount();
+  }
+
+  private Dispatch getDispatch() {
+    Dispatch d = dispatch;
+    if (d == null) {
+      d = new Dispatch();
+      dispatch = d;
+    }
+    return d;
+  }
+
+  /**
+   * Adds the namespaces that are named without wildcards in this mode, in its
+   * included modes or in its base modes.
+   * @param namespaces The set to which the namespaces are added.
+   * @param visited The modes already visited.
+   */
+  private void addExplicitNamespaces(Set namespaces, Set visited) {
+    if (!visited.add(this))
+      return;
+    addExplicitNamespaces(namespaces, nssElementMap);
+    addExplicitNamespaces(namespaces, nssAttributeMap);
+    for (Iterator iter = includedModes.iterator(); iter.hasNext();)
+      ((Mode)iter.next()).addExplicitNamespaces(namespaces, visited);
+    if (baseMode != null)
+      baseMode.addExplicitNamespaces(namespaces, visited);
+  }
+
+  private static void addExplicitNamespaces(Set namespaces, Hashtable nssMap) {
+    for (Enumeration e = nssMap.keys(); e.hasMoreElements();) {
+      NamespaceSpecification nss = (NamespaceSpecification)e.nextElement();
+      if (nss.wildcard.length() == 0 || nss.ns.indexOf(nss.wildcard) < 0)
+        namespaces.add(nss.ns);
+    }
   }
 
   /**
@@ -137,6 +264,10 @@ class Mode {
    * @return A set of element actions.
    */
   ActionSet getElementActions(String ns) {
+    return getDispatch().getElementActions(ns);
+  }
+
+  private ActionSet computeElementActions(String ns) {
     ActionSet actions = getElementActionsExplicit(ns);
     if (actions == null) {
       actions = getElementActionsExplicit(NamespaceSpecification.ANY_NAMESPACE);
@@ -169,7 +300,7 @@ class Mode {
       }
       // Store them in the element Map for faster access next time.
       if (actions!=null) {
-        elementMap.put(ns, actions);
+        cache(elementMap, ns, actions);
       }
     }
     // Look into the included modes
@@ -181,7 +312,7 @@ class Mode {
       }
       if (actions != null) {
         actions = actions.changeCurrentMode(this);                    
-        elementMap.put(ns, actions);
+        cache(elementMap, ns, actions);
       }
     }
         
@@ -190,7 +321,7 @@ class Mode {
       actions = baseMode.getElementActionsExplicit(ns);
       if (actions != null) {
         actions = actions.changeCurrentMode(this);
-        elementMap.put(ns, actions);
+        cache(elementMap, ns, actions);
       }
     }
 
@@ -209,6 +340,10 @@ class Mode {
    * @return A set of attribute actions.
    */
   AttributeActionSet getAttributeActions(String ns) {
+    return getDispatch().getAttributeActions(ns);
+  }
+
+  private AttributeActionSet computeAttributeActions(String ns) {
     AttributeActionSet actions = getAttributeActionsExplicit(ns);
     if (actions == null) {
       actions = getAttributeActionsExplicit(NamespaceSpecification.ANY_NAMESPACE);
@@ -241,7 +376,7 @@ class Mode {
       }
       // Store them in the element Map for faster access next time.
       if (actions!=null) {
-        attributeMap.put(ns, actions);
+        cache(attributeMap, ns, actions);
       }
     }
     // Look into the included modes
@@ -252,14 +387,14 @@ class Mode {
         actions = includedMode.getAttributeActionsExplicit(ns);
       }
       if (actions != null) {
-        attributeMap.put(ns, actions);
+        cache(attributeMap, ns, actions);
       }
     }
     
     if (actions == null && baseMode != null) {
       actions = baseMode.getAttributeActionsExplicit(ns);
       if (actions != null)
-        attributeMap.put(ns, actions);
+        cache(attributeMap, ns, actions);
     }
     
     if (actions!=null && actions.getCancelNestedActions()) {
@@ -268,6 +403,18 @@ class Mode {
     return actions;
   }
 
+  /**
+   * Remembers the actions for a namespace, unless MAX_CACHED_NAMESPACES namespaces
+   * beyond those named in the script are already remembered.
+   * @param map The element or attribute map.
+   * @param ns The namespace.
+   * @param actions The actions.
+   */
+  private void cache(Hashtable map, String ns, Object actions) {
+    if (map.size() < nssElementMap.size() + nssAttributeMap.size() + MAX_CACHED_NAMESPACES)
+      map.put(ns, actions);
+  }
+
   /**
    * Computes (if not already computed) the attributeProcessing
    * for this mode and returns it.
@@ -372,6 +519,7 @@ class Mode {
       }
     }
     nssElementMap.put(nss, actions);
+    dispatch = null;
     return true;
   }
 
@@ -397,6 +545,7 @@ class Mode {
       }
     }
     nssAttributeMap.put(nss, actions);
+    dispatch = null;
     return true;    
   }
 }
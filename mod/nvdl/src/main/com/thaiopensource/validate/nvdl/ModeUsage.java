@@ -2,6 +2,7 @@ package com.thaiopensource.validate.nvdl;
 
 import com.thaiopensource.util.Equal;
 
+import java.util.List;
 import java.util.Vector;
 import java.util.Enumeration;
 
@@ -132,7 +133,7 @@ class ModeUsage {
    * @param context The current context.
    * @return A mode.
    */
-  Mode getMode(Vector context) {
+  Mode getMode(List context) {
     // first look in the modeMap if exists.
     if (modeMap != null) {
       Mode m = (Mode)modeMap.get(context);
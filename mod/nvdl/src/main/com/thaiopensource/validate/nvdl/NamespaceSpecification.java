@@ -31,6 +31,11 @@ class NamespaceSpecification {
    * The wildcard character, by default it is *.
    */
   String wildcard = DEFAULT_WILDCARD;
+
+  /**
+   * The namespace pattern split at wildcards, computed when first needed.
+   */
+  private String[] parts;
     
   /**
    * Creates a namespace specification from a namespace pattern
@@ -65,7 +70,7 @@ class NamespaceSpecification {
       return covers(other.ns);
     }
     // split the namespaces at wildcards     
-    String[] otherParts = split(other.ns, other.wildcard);
+    String[] otherParts = other.getParts();
     
     // if the given namepsace specification does not use its wildcard
     // then we just look if the current namespace specification covers it
@@ -77,7 +82,7 @@ class NamespaceSpecification {
       return other.covers(ns);
     }
     // also for the current namespace specification
-    String[] parts = split(ns, wildcard); 
+    String[] parts = getParts();
     // now check if the current namespace specification is just an URI
     if (parts.length == 1) {
       return other.covers(ns);
@@ -103,7 +108,19 @@ class NamespaceSpecification {
     return s1.startsWith(s2) || s2.startsWith(s1);
   }
 
-  private String[] split(String value, String wildcard) {
+  /**
+   * Get the namespace pattern split at wildcards.
+   * The split is done only once, as covers is called for
+   * every namespace looked up in a mode.
+   * @return The parts, with an empty string for each wildcard.
+   */
+  private String[] getParts() {
+    if (parts == null)
+      parts = split(ns, wildcard);
+    return parts;
+  }
+
+  private static String[] split(String value, String wildcard) {
     StringTokenizer st = new StringTokenizer(value, wildcard, true);
     int index = st.countTokens();
     if (index == 0)
@@ -129,7 +146,7 @@ class NamespaceSpecification {
     if (ANY_NAMESPACE.equals(ns) || "".equals(wildcard)) {
       return ns.equals(uri);
     }
-    String[] parts = split(ns, wildcard);    
+    String[] parts = getParts();
     // no wildcard
     if (parts.length == 1) {
       return ns.equals(uri);
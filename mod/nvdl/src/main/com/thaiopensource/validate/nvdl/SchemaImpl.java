@@ -71,6 +71,17 @@ class SchemaImpl extends AbstractSchema {
    * Element names are stored concatenated in a string, each name preceded by #.
    */
   private final List triggers = new ArrayList();
+
+  /**
+   * The triggers indexed for fast lookup, created when the script has been loaded.
+   */
+  private TriggerIndex triggerIndex;
+
+  /**
+   * The validators for the schemas used by the script,
+   * shared by all the validators created from this schema.
+   */
+  private final ValidatorPool validatorPool = new ValidatorPool();
     
   /**
    * The start mode.
@@ -371,6 +382,10 @@ class SchemaImpl extends AbstractSchema {
       }
       if (hadError)
         throw new IncorrectSchemaException();
+      // compile the dispatch tables once, rather than in each validator
+      for (Enumeration e = modeMap.elements(); e.hasMoreElements();)
+        ((Mode)e.nextElement()).compile();
+      triggerIndex = new TriggerIndex(triggers);
       return SchemaImpl.this;
     }
 
@@ -1220,7 +1235,7 @@ class SchemaImpl extends AbstractSchema {
    * @param properties properties.
    */
   public Validator createValidator(PropertyMap properties) {
-    return new ValidatorImpl(startMode, triggers, properties);
+    return new ValidatorImpl(startMode, triggerIndex, validatorPool, properties);
   }
 
   /**
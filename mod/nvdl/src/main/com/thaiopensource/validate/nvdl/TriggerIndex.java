@@ -0,0 +1,69 @@
+package com.thaiopensource.validate.nvdl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Indexes the triggers of an NVDL script by namespace and local name,
+ * so that checking whether an element starts a new section does not
+ * need to look at every trigger.
+ * Created once when the script is loaded and shared by all validators.
+ */
+class TriggerIndex {
+  /**
+   * Maps a namespace to a map from a local name to the list of name sets
+   * of the triggers for that namespace that contain the local name.
+   */
+  private final Map namespaceMap = new HashMap();
+
+  /**
+   * Creates an index for a list of triggers.
+   * @param triggers The list of triggers.
+   */
+  TriggerIndex(List triggers) {
+    for (Iterator iter = triggers.iterator(); iter.hasNext();) {
+      Trigger t = (Trigger)iter.next();
+      Map nameMap = (Map)namespaceMap.get(t.namespace);
+      if (nameMap == null) {
+        nameMap = new HashMap();
+        namespaceMap.put(t.namespace, nameMap);
+      }
+      for (Iterator names = t.elementNames.iterator(); names.hasNext();) {
+        Object name = names.next();
+        List nameSets = (List)nameMap.get(name);
+        if (nameSets == null) {
+          nameSets = new ArrayList();
+          nameMap.put(name, nameSets);
+        }
+        nameSets.add(t.elementNames);
+      }
+    }
+  }
+
+  /**
+   * Checks if a trigger matches.
+   * @param namespace The namespace.
+   * @param name The local name.
+   * @param parent The local name of the parent.
+   * @return true if we have a trigger set, otherwise false.
+   */
+  boolean matches(String namespace, String name, String parent) {
+    if (namespaceMap.isEmpty())
+      return false;
+    Map nameMap = (Map)namespaceMap.get(namespace);
+    if (nameMap == null)
+      return false;
+    List nameSets = (List)nameMap.get(name);
+    if (nameSets == null)
+      return false;
+    for (int i = 0, len = nameSets.size(); i < len; i++) {
+      if (!((Set)nameSets.get(i)).contains(parent))
+        return true;
+    }
+    return false;
+  }
+}
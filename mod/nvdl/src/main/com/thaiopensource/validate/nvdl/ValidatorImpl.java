@@ -16,12 +16,11 @@ import org.xml.sax.SAXParseException;
 import org.xml.sax.helpers.AttributesImpl;
 import org.xml.sax.helpers.DefaultHandler;
 
-import java.util.Enumeration;
-import java.util.Hashtable;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Stack;
-import java.util.Vector;
+import java.util.Map;
 
 /**
  * Implementation of a validator of XML documents against NVDL scripts.
@@ -54,7 +53,18 @@ class ValidatorImpl extends DefaultHandler implements Validator {
    * Triggers.
    * Specifies elements that start a new section.
    */
-  private final List triggers;
+  private final TriggerIndex triggers;
+
+  /**
+   * The pool of validators shared by all the validators for the NVDL script.
+   */
+  private final ValidatorPool validatorPool;
+
+  /**
+   * The key identifying our properties in the validator pool,
+   * null if validators are not shared for our properties.
+   */
+  private final Object poolPropertiesKey;
   
   /**
    * Source locator.
@@ -75,7 +85,7 @@ class ValidatorImpl extends DefaultHandler implements Validator {
   /**
    * A hashtable that keeps a stack of validators for schemas. 
    */
-  private final Hashtable validatorHandlerCache = new Hashtable();
+  private final Map<Schema, List<Validator>> validatorHandlerCache = new HashMap<Schema, List<Validator>>();
   
   /**
    * Message localizer to report error messages from keys.
@@ -89,15 +99,51 @@ class ValidatorImpl extends DefaultHandler implements Validator {
   private final Hashset noResultActions = new Hashset();
   
   /**
-   * Stores index sets for attributed for each namespace.
+   * The namespaces of the attributes of the current element,
+   * in the order in which they first appear.
+   */
+  private String[] attributeNamespaces = new String[0];
+
+  /**
+   * Stores index sets for attributes for each namespace, parallel to attributeNamespaces.
+   * The index sets are reused from element to element.
+   */
+  private IntSet[] attributeNamespaceIndexSets = new IntSet[0];
+
+  /**
+   * The number of namespaces of the attributes of the current element.
    */
-  private final Hashtable attributeNamespaceIndexSets = new Hashtable();
+  private int attributeNamespaceCount;
   
   /**
    * Sores the index sets for attributes for each active handler.
    * The index set specifies what attributes should be given to what handlers.
    */
-  private final Vector activeHandlersAttributeIndexSets = new Vector();
+  private IntSet[] activeHandlersAttributeIndexSets = new IntSet[0];
+
+  /**
+   * The filtered views of the attributes for each active handler,
+   * parallel to activeHandlersAttributeIndexSets and reused from element to element.
+   */
+  private FilteredAttributes[] activeHandlersFilteredAttributes = new FilteredAttributes[0];
+
+  /**
+   * The filtered view of the attributes of an attribute section, reused for every section.
+   */
+  private final FilteredAttributes attributeSectionAttributes = new FilteredAttributes();
+
+  /**
+   * The schemas of the attribute sections validated for the current element,
+   * parallel to attributeSectionValidators.
+   */
+  private final List<Schema> attributeSectionSchemas = new ArrayList<Schema>();
+
+  /**
+   * The validators used for the attribute sections of the current element.
+   * A validator is used for all the sections of an element that are validated
+   * with the same schema, and released once all the sections are validated.
+   */
+  private final List<Validator> attributeSectionValidators = new ArrayList<Validator>();
   
   /**
    * Attribute schemas for a namespace.
@@ -126,9 +172,8 @@ class ValidatorImpl extends DefaultHandler implements Validator {
 
   /**
    * Stores the element local names. Used for triggers.
-   * This is a Stack<String>.
    */
-  private final Stack elementsLocalNameStack;
+  private final List<String> elementsLocalNameStack;
   
   /**
    * Namespace context. Alinked list of proxy namespace
@@ -180,23 +225,23 @@ class ValidatorImpl extends DefaultHandler implements Validator {
     /**
      * List of the Validators rooted in this section
      */
-    final Vector validators = new Vector();
-    final Vector schemas = new Vector();
+    final List<Validator> validators = new ArrayList<Validator>();
+    final List<Schema> schemas = new ArrayList<Schema>();
     /**
      * List of the ContentHandlers that want to see the elements in this section
      */
-    final Vector activeHandlers = new Vector();
-    final Vector activeHandlersAttributeModeUsage = new Vector();
-    final Vector attributeValidationModeUsages = new Vector();
+    final List<ContentHandler> activeHandlers = new ArrayList<ContentHandler>();
+    final List<ModeUsage> activeHandlersAttributeModeUsage = new ArrayList<ModeUsage>();
+    final List<ModeUsage> attributeValidationModeUsages = new ArrayList<ModeUsage>();
     /**
      * List of Programs saying what to do with child sections
      */
-    final Vector childPrograms = new Vector();
+    final List<Program> childPrograms = new ArrayList<Program>();
     
     /**
      * Keep the context stack if we have a context dependent section.
      */
-    final Stack context = new Stack();
+    final List<String> context = new ArrayList<String>();
     /**
      * Flag indicating is this section depends on context or not.
      */
@@ -211,11 +256,11 @@ class ValidatorImpl extends DefaultHandler implements Validator {
     /**
      * Stores the attach placeholder handlers.
      */
-    final Vector placeholderHandlers = new Vector();
+    final List<ContentHandler> placeholderHandlers = new ArrayList<ContentHandler>();
     /**
      * Stores the attach place holder mode usages.
      */
-    final Vector placeholderModeUsages = new Vector();
+    final List<ModeUsage> placeholderModeUsages = new ArrayList<ModeUsage>();
         
     /**
      * Creates a section for a given namespace and links to to its parent section.
@@ -233,7 +278,7 @@ class ValidatorImpl extends DefaultHandler implements Validator {
      * @param handler The content handler that receives notifications.
      */
     public void addChildMode(ModeUsage modeUsage, ContentHandler handler) {
-      childPrograms.addElement(new Program(modeUsage, handler));
+      childPrograms.add(new Program(modeUsage, handler));
       if (modeUsage.isContextDependent())
         contextDependent = true;
     }
@@ -245,20 +290,20 @@ class ValidatorImpl extends DefaultHandler implements Validator {
      */
     public void addValidator(Schema schema, ModeUsage modeUsage) {
       // adds the schema to this section schemas
-      schemas.addElement(schema);
+      schemas.add(schema);
       // creates the validator
       Validator validator = createValidator(schema);
       // adds the validator to this section validators
-      validators.addElement(validator);
+      validators.add(validator);
       // add the validator handler to the list of active handlers
-      activeHandlers.addElement(validator.getContentHandler());
+      activeHandlers.add(validator.getContentHandler());
       // add the mode usage to the active handlers attribute mode usage list
-      activeHandlersAttributeModeUsage.addElement(modeUsage);
+      activeHandlersAttributeModeUsage.add(modeUsage);
       // compute the attribute processing
       attributeProcessing = Math.max(attributeProcessing,
                                      modeUsage.getAttributeProcessing());
       // add a child mode with this mode usage and the validator content handler
-      childPrograms.addElement(new Program(modeUsage, validator.getContentHandler()));
+      childPrograms.add(new Program(modeUsage, validator.getContentHandler()));
       if (modeUsage.isContextDependent())
         contextDependent = true;
     }
@@ -269,8 +314,8 @@ class ValidatorImpl extends DefaultHandler implements Validator {
      * @param attributeModeUsage The mode usage.
      */
     public void addActiveHandler(ContentHandler handler, ModeUsage attributeModeUsage) {
-      activeHandlers.addElement(handler);
-      activeHandlersAttributeModeUsage.addElement(attributeModeUsage);
+      activeHandlers.add(handler);
+      activeHandlersAttributeModeUsage.add(attributeModeUsage);
       attributeProcessing = Math.max(attributeProcessing,
                                      attributeModeUsage.getAttributeProcessing());
       if (attributeModeUsage.isContextDependent())
@@ -284,7 +329,7 @@ class ValidatorImpl extends DefaultHandler implements Validator {
     public void addAttributeValidationModeUsage(ModeUsage modeUsage) {
       int ap = modeUsage.getAttributeProcessing();
       if (ap != Mode.ATTRIBUTE_PROCESSING_NONE) {
-        attributeValidationModeUsages.addElement(modeUsage);
+        attributeValidationModeUsages.add(modeUsage);
         attributeProcessing = Math.max(ap, attributeProcessing);
         if (modeUsage.isContextDependent())
           contextDependent = true;
@@ -337,15 +382,18 @@ class ValidatorImpl extends DefaultHandler implements Validator {
    * Creates a NVDL validator. The initial mode is specified by the mode parameter.
    * Initializes the current section.
    * @param mode The start mode.
-   * param triggers The triggers specified by the NVDL script.
+   * @param triggers The triggers specified by the NVDL script.
+   * @param validatorPool The validators shared by the validators for the NVDL script.
    * @param properties Validation properties.
    */
-  ValidatorImpl(Mode mode, List triggers, PropertyMap properties) {
+  ValidatorImpl(Mode mode, TriggerIndex triggers, ValidatorPool validatorPool, PropertyMap properties) {
     this.properties = properties;
     this.triggers = triggers;
+    this.validatorPool = validatorPool;
+    this.poolPropertiesKey = validatorPool.getPropertiesKey(properties);
     this.eh = properties.get(ValidateProperty.ERROR_HANDLER);
     this.startMode = mode;
-    this.elementsLocalNameStack = new Stack();
+    this.elementsLocalNameStack = new ArrayList<String>();
     initCurrentSection();
   }
 
@@ -376,7 +424,7 @@ class ValidatorImpl extends DefaultHandler implements Validator {
   public void characters(char ch[], int start, int length)
           throws SAXException {
     for (int i = 0, len = currentSection.activeHandlers.size(); i < len; i++)
-      ((ContentHandler)(currentSection.activeHandlers.elementAt(i))).characters(ch, start, length);
+      currentSection.activeHandlers.get(i).characters(ch, start, length);
 
   }
 
@@ -387,7 +435,7 @@ class ValidatorImpl extends DefaultHandler implements Validator {
   public void ignorableWhitespace(char ch[], int start, int length)
           throws SAXException {
     for (int i = 0, len = currentSection.activeHandlers.size(); i < len; i++)
-      ((ContentHandler)(currentSection.activeHandlers.elementAt(i))).ignorableWhitespace(ch, start, length);
+      currentSection.activeHandlers.get(i).ignorableWhitespace(ch, start, length);
   }
 
   /**
@@ -406,27 +454,28 @@ class ValidatorImpl extends DefaultHandler implements Validator {
     // or there's an applicable trigger
     // then we start a new section on the new namespace.
     if (!uri.equals(currentSection.ns)
-        || trigger(uri, localName, (String)elementsLocalNameStack.peek()))
+        || triggers.matches(uri, localName, elementsLocalNameStack.get(elementsLocalNameStack.size() - 1)))
       startSection(uri);
     
-    elementsLocalNameStack.push(localName);
+    elementsLocalNameStack.add(localName);
     // increase the depth in the current section as we have a new element
     currentSection.depth++;
     // if the current section contains context dependent mode usages then
     // we record the local elements in a stack as they form the current path
     // that determines the context
     if (currentSection.contextDependent)
-      currentSection.context.push(localName);
+      currentSection.context.add(localName);
     // check if we need to filter attributes or not
     // and process attributes, eventually validating attribute sections
     boolean transformAttributes = processAttributes(attributes);
     // iterate the active session handlers and call start element on them
     for (int i = 0, len = currentSection.activeHandlers.size(); i < len; i++) {
-      ContentHandler handler = (ContentHandler)(currentSection.activeHandlers.elementAt(i));
+      ContentHandler handler = currentSection.activeHandlers.get(i);
       handler.startElement(uri, localName, qName,
                            transformAttributes
                            // if we need to filter attributes keep the ones the handler is interested in.
-                           ? filterAttributes((IntSet)activeHandlersAttributeIndexSets.elementAt(i),
+                           ? filterAttributes(activeHandlersFilteredAttributes[i],
+                                              activeHandlersAttributeIndexSets[i],
                                               attributes)
                            // otherwise just pass all the attributes
                            : attributes);
@@ -436,44 +485,27 @@ class ValidatorImpl extends DefaultHandler implements Validator {
       atts.addAttribute("", "ns", "ns", "", uri);
       atts.addAttribute("", "localName", "localName", "", localName);
       for (int i = 0, len = currentSection.placeholderHandlers.size(); i < len; i++) {
-        ContentHandler handler = (ContentHandler)(currentSection.placeholderHandlers.elementAt(i));
+        ContentHandler handler = currentSection.placeholderHandlers.get(i);
         handler.startPrefixMapping("", "http://purl.oclc.org/dsdl/nvdl/ns/instance/1.0");
         handler.startElement("http://purl.oclc.org/dsdl/nvdl/ns/instance/1.0", "placeholder", "placeholder", atts);
       }
     }    
   }
 
-  /**
-   * Checks if a trigger matches.
-   * @param namespace The namespace.
-   * @param name The local name.
-   * @param parent The local name of the parent.
-   * @return true if we have a trigger set, otherwise false.
-   */
-  private boolean trigger(String namespace, String name, String parent) {
-    // iterate triggers
-    Iterator i = triggers.iterator();
-    while (i.hasNext()) {
-      Trigger t = (Trigger)i.next();
-      if ((t.namespace.equals(namespace) && t.elementNames.contains(name) && !t.elementNames.contains(parent))) {
-        return true;
-      }
-    }
-    return false;
-  }  
-  
   /**
    * Get the filtered attributes.
    * It checks if we want all the attributes and in that case returns the initial attributes,
-   * otherwise creates a FilteredAttributes instance based on the index set and on the attributes.
+   * otherwise sets up the given FilteredAttributes instance based on the index set and on the attributes.
+   * @param view The filtered attributes instance to be reused.
    * @param indexSet The set with the indexes of the attributes we want to keep.
    * @param attributes The list of attributes
    * @return the attributes containing only those whose indexes are in the indexSet.
    */
-  private static Attributes filterAttributes(IntSet indexSet, Attributes attributes) {
+  private static Attributes filterAttributes(FilteredAttributes view, IntSet indexSet, Attributes attributes) {
     if (indexSet.size() == attributes.getLength())
       return attributes;
-    return new FilteredAttributes(indexSet, attributes);
+    view.setAttributes(indexSet, attributes);
+    return view;
   }
 
   /**
@@ -491,42 +523,66 @@ class ValidatorImpl extends DefaultHandler implements Validator {
         || attributes.getLength() == 0)
       return false;
     
-    // clear the attributeNamespaceIndexSets hashtable.
-    attributeNamespaceIndexSets.clear();
     // creates index sets based on namespace for the attributes
-    // and places them in the attributeNamespaceIndexSets hashtable 
+    // and places them in the attributeNamespaceIndexSets array;
+    // elements have attributes from few namespaces, so a linear search is fine
+    attributeNamespaceCount = 0;
     for (int i = 0, len = attributes.getLength(); i < len; i++) {
       String ns = attributes.getURI(i);
-      IntSet indexSet = (IntSet)attributeNamespaceIndexSets.get(ns);
-      if (indexSet == null) {
-        indexSet = new IntSet();
-        attributeNamespaceIndexSets.put(ns, indexSet);
+      int j = 0;
+      while (j < attributeNamespaceCount && !attributeNamespaces[j].equals(ns))
+        j++;
+      if (j == attributeNamespaceCount) {
+        if (j == attributeNamespaces.length) {
+          String[] newNamespaces = new String[j == 0 ? 4 : j*2];
+          System.arraycopy(attributeNamespaces, 0, newNamespaces, 0, j);
+          attributeNamespaces = newNamespaces;
+          IntSet[] newIndexSets = new IntSet[newNamespaces.length];
+          System.arraycopy(attributeNamespaceIndexSets, 0, newIndexSets, 0, j);
+          for (int k = j; k < newIndexSets.length; k++)
+            newIndexSets[k] = new IntSet();
+          attributeNamespaceIndexSets = newIndexSets;
+        }
+        attributeNamespaces[j] = ns;
+        attributeNamespaceIndexSets[j].clear();
+        attributeNamespaceCount++;
       }
-      indexSet.add(i);
+      attributeNamespaceIndexSets[j].add(i);
     }
     // if we need to process only qualified attributes and we have attributes 
     // only in no namespace then return false, no need to filter the attributes
     if (currentSection.attributeProcessing == Mode.ATTRIBUTE_PROCESSING_QUALIFIED
-        && attributeNamespaceIndexSets.size() == 1
-        && attributeNamespaceIndexSets.get("") != null)
+        && attributeNamespaceCount == 1
+        && attributeNamespaces[0].equals(""))
       return false;
     // Computes the index sets for each handler
     // get the attribute modes for handlers
-    Vector handlerModes = currentSection.activeHandlersAttributeModeUsage;
+    List<ModeUsage> handlerModes = currentSection.activeHandlersAttributeModeUsage;
     // resize the index set list to the number of handlers
-    activeHandlersAttributeIndexSets.setSize(handlerModes.size());
+    if (activeHandlersAttributeIndexSets.length < handlerModes.size()) {
+      IntSet[] newIndexSets = new IntSet[handlerModes.size()];
+      FilteredAttributes[] newFilteredAttributes = new FilteredAttributes[handlerModes.size()];
+      System.arraycopy(activeHandlersAttributeIndexSets, 0, newIndexSets, 0, activeHandlersAttributeIndexSets.length);
+      System.arraycopy(activeHandlersFilteredAttributes, 0, newFilteredAttributes, 0, activeHandlersFilteredAttributes.length);
+      for (int i = activeHandlersAttributeIndexSets.length; i < newIndexSets.length; i++) {
+        newIndexSets[i] = new IntSet();
+        newFilteredAttributes[i] = new FilteredAttributes();
+      }
+      activeHandlersAttributeIndexSets = newIndexSets;
+      activeHandlersFilteredAttributes = newFilteredAttributes;
+    }
     // creates empty index sets for all handlers - initialization
     for (int i = 0, len = handlerModes.size(); i < len; i++)
-      activeHandlersAttributeIndexSets.setElementAt(new IntSet(), i);
+      activeHandlersAttributeIndexSets[i].clear();
     // we hope we will not need attribute filtering, so we start with transform false.
     boolean transform = false;
     // get the list of attribute validation mode usages
-    Vector validationModes = currentSection.attributeValidationModeUsages;
+    List<ModeUsage> validationModes = currentSection.attributeValidationModeUsages;
     // iterate on all attribute namespaces
-    for (Enumeration e = attributeNamespaceIndexSets.keys(); e.hasMoreElements();) {
-      String ns = (String)e.nextElement();
+    for (int n = 0; n < attributeNamespaceCount; n++) {
+      String ns = attributeNamespaces[n];
       // get the index set that represent the attributes in the ns namespace
-      IntSet indexSet = (IntSet)attributeNamespaceIndexSets.get(ns);
+      IntSet indexSet = attributeNamespaceIndexSets[n];
       // clear attribute schemas for this namespace
       // it is used to avoid validating twice the set of attributes 
       // from this namespace with the same schema.
@@ -540,14 +596,14 @@ class ValidatorImpl extends DefaultHandler implements Validator {
       attributeNamespaceRejected = false;
       // iterates all the handler modes and compute the index sets for all handlers
       for (int i = 0, len = handlerModes.size(); i < len; i++) {
-        ModeUsage modeUsage = (ModeUsage)handlerModes.elementAt(i);
+        ModeUsage modeUsage = handlerModes.get(i);
         // get the attribute actions for this mode usage, ns namespace 
         // and for the attributes in this namespace
         AttributeActionSet actions = processAttributeSection(modeUsage, ns, indexSet, attributes);
         // if we need to attach the attributes we mark that they should be passed
         // to the handler by adding them to the index set for the handler
         if (actions.getAttach())
-          ((IntSet)activeHandlersAttributeIndexSets.get(i)).addAll(indexSet);
+          activeHandlersAttributeIndexSets[i].addAll(indexSet);
         else
         // if that attributes are not attached then we set the transform flag to 
         // true as that means we need to filter out these attributes for the current handler
@@ -557,13 +613,15 @@ class ValidatorImpl extends DefaultHandler implements Validator {
       // and process the attribute section with the attributes
       // from the current namespace
       for (int i = 0, len = validationModes.size(); i < len; i++) {
-        ModeUsage modeUsage = (ModeUsage)validationModes.elementAt(i);
+        ModeUsage modeUsage = validationModes.get(i);
         // validation means no result actions, so we are not 
         // interested in the attribute action set returned by
         // the processAttributeSection method
         processAttributeSection(modeUsage, ns, indexSet, attributes);
       }
     }
+    // release the validators used for the attribute sections of this element
+    releaseAttributeSectionValidators();
     return transform;
   }
   
@@ -604,7 +662,7 @@ class ValidatorImpl extends DefaultHandler implements Validator {
       attributeSchemas.add(schemas[j]);
       // if we do not computed the filtered attributes for this namespace, compute them
       if (filteredAttributes == null)
-        filteredAttributes = filterAttributes(indexSet, attributes);
+        filteredAttributes = filterAttributes(attributeSectionAttributes, indexSet, attributes);
       // validate the filtered attributes with the schema
       validateAttributes(schemas[j], filteredAttributes);
     }
@@ -619,8 +677,8 @@ class ValidatorImpl extends DefaultHandler implements Validator {
    * @throws SAXException
    */
   private void validateAttributes(Schema schema, Attributes attributes) throws SAXException {
-	// creates a validator for this attributes schema.
-    Validator validator = createValidator(schema);
+    // get a validator for this attributes schema.
+    Validator validator = getAttributeSectionValidator(schema);
     // get its content handler
     ContentHandler ch = validator.getContentHandler();
     // initializes the handler with locator and proxy namespace mapping.
@@ -630,8 +688,38 @@ class ValidatorImpl extends DefaultHandler implements Validator {
     ch.endElement(OWNER_NAME.getNamespaceUri(), OWNER_NAME.getLocalName(), OWNER_NAME.getLocalName());
     // removes namespaces and signals end document to the handler
     cleanupHandler(ch);
-    // release the validator so further validate actions with this schema can reuse it
-    releaseValidator(schema, validator);
+  }
+
+  /**
+   * Gets a validator for an attribute section of the current element.
+   * Sections from different namespaces that are validated with the same schema
+   * share a validator, which is reset between sections.
+   * @param schema The attributes schema.
+   * @return A validator for the schema.
+   */
+  private Validator getAttributeSectionValidator(Schema schema) {
+    for (int i = 0, len = attributeSectionSchemas.size(); i < len; i++) {
+      if (attributeSectionSchemas.get(i) == schema) {
+        Validator validator = attributeSectionValidators.get(i);
+        validator.reset();
+        return validator;
+      }
+    }
+    Validator validator = createValidator(schema);
+    attributeSectionSchemas.add(schema);
+    attributeSectionValidators.add(validator);
+    return validator;
+  }
+
+  /**
+   * Releases the validators used for the attribute sections of the current element,
+   * so further validate actions with their schemas can reuse them.
+   */
+  private void releaseAttributeSectionValidators() {
+    for (int i = 0, len = attributeSectionSchemas.size(); i < len; i++)
+      releaseValidator(attributeSectionSchemas.get(i), attributeSectionValidators.get(i));
+    attributeSectionSchemas.clear();
+    attributeSectionValidators.clear();
   }
 
   /**
@@ -647,12 +735,12 @@ class ValidatorImpl extends DefaultHandler implements Validator {
     // creates a new section having the current section as parent section
     Section section = new Section(uri, currentSection);
     // get the programs of the current section
-    Vector childPrograms = currentSection.childPrograms;
+    List<Program> childPrograms = currentSection.childPrograms;
     // clear the current no result (validation) actions
     noResultActions.clear();
     // iterates current section programs
     for (int i = 0, len = childPrograms.size(); i < len; i++) {
-      Program program = (Program)childPrograms.elementAt(i);
+      Program program = childPrograms.get(i);
       // get the mode usage for the program
       // and determine the use mode from the mode usage based on the current section context
       // and then get the element actions from that determined mode
@@ -679,7 +767,7 @@ class ValidatorImpl extends DefaultHandler implements Validator {
     // handler to receive notifications and set the locator,
     // call start document, and bind the current namespace context. 
     for (int i = 0, len = section.validators.size(); i < len; i++)
-      initHandler(((Validator)section.validators.elementAt(i)).getContentHandler());
+      initHandler(section.validators.get(i).getContentHandler());
     // store the new section as the current section
     currentSection = section;
   }
@@ -712,21 +800,21 @@ class ValidatorImpl extends DefaultHandler implements Validator {
   public void endElement(String uri, String localName, String qName)
           throws SAXException {
 	  
-    elementsLocalNameStack.pop();
+    elementsLocalNameStack.remove(elementsLocalNameStack.size() - 1);
     // iterate the active handlers from the current section and call
     // endElement on them
     for (int i = 0, len = currentSection.activeHandlers.size(); i < len; i++)
-      ((ContentHandler)(currentSection.activeHandlers.elementAt(i))).endElement(uri, localName, qName);
+      currentSection.activeHandlers.get(i).endElement(uri, localName, qName);
     // decrease the current section depth
     currentSection.depth--;
     // if we keep context information (if the section is context dependent)
     // then remove that information
     if (currentSection.contextDependent)
-      currentSection.context.pop();
+      currentSection.context.remove(currentSection.context.size() - 1);
     // if we have zero depth then the current section was ended, so we call endSection
     if (currentSection.depth == 0) {
       for (int i = 0, len = currentSection.placeholderHandlers.size(); i < len; i++) {
-        ContentHandler handler = (ContentHandler)(currentSection.placeholderHandlers.elementAt(i));
+        ContentHandler handler = currentSection.placeholderHandlers.get(i);
         handler.endPrefixMapping("");
         handler.endElement("http://purl.oclc.org/dsdl/nvdl/ns/instance/1.0", "placeholder", "placeholder");
       }    
@@ -741,14 +829,14 @@ class ValidatorImpl extends DefaultHandler implements Validator {
   private void endSection() throws SAXException {
     // iterate validators
     for (int i = 0, len = currentSection.validators.size(); i < len; i++) {
-      Validator validator = (Validator)currentSection.validators.elementAt(i);
+      Validator validator = currentSection.validators.get(i);
       // remove namespaces and call end document on each handler
       cleanupHandler(validator.getContentHandler());
       // release the validators to the cache be reused further on other sections
-      releaseValidator((Schema)currentSection.schemas.elementAt(i), validator);
+      releaseValidator(currentSection.schemas.get(i), validator);
       // endDocument() on one of the validators may throw an exception
       // in this case we don't want to release the validator twice
-      currentSection.validators.setElementAt(null, i);
+      currentSection.validators.set(i, null);
     }
     // set the parent section as the current section
     currentSection = currentSection.parent;
@@ -798,18 +886,22 @@ class ValidatorImpl extends DefaultHandler implements Validator {
    * If we already have a validator for this schema available in cache 
    * then we will use it and remove it from cache. At the end it will be
    * added back to the cache through releaseValidator.
+   * Otherwise we get one from the validator pool shared with the other
+   * validators for the NVDL script.
    * @param schema The schema we need a validaor for.
    * @return A Validator for the given schema.
    */
   private Validator createValidator(Schema schema) {
-    Stack stack = (Stack)validatorHandlerCache.get(schema);
+    List<Validator> stack = validatorHandlerCache.get(schema);
     if (stack == null) {
-      stack = new Stack();
+      stack = new ArrayList<Validator>();
       validatorHandlerCache.put(schema, stack);
     }
-    if (stack.empty())
+    if (!stack.isEmpty())
+      return stack.remove(stack.size() - 1);
+    if (poolPropertiesKey == null)
       return schema.createValidator(properties);
-    return (Validator)stack.pop();
+    return validatorPool.acquire(schema, poolPropertiesKey, properties, eh);
   }
 
   /**
@@ -823,7 +915,7 @@ class ValidatorImpl extends DefaultHandler implements Validator {
     if (vh == null)
       return;
     vh.reset();
-    ((Stack)validatorHandlerCache.get(schema)).push(vh);
+    validatorHandlerCache.get(schema).add(vh);
   }
 
   /**
@@ -836,8 +928,22 @@ class ValidatorImpl extends DefaultHandler implements Validator {
       // if we have validators in this section iterate them
       for (int i = 0, len = currentSection.validators.size(); i < len; i++)
         // release the validator
-        releaseValidator((Schema)currentSection.schemas.elementAt(i),
-                         (Validator)currentSection.validators.elementAt(i));
+        releaseValidator(currentSection.schemas.get(i),
+                         currentSection.validators.get(i));
+    }
+    // release the attribute section validators, in case validation was interrupted
+    releaseAttributeSectionValidators();
+    // give the cached validators back to the shared pool, so that they can be
+    // used by other validators for the NVDL script
+    if (poolPropertiesKey != null) {
+      for (Iterator<Map.Entry<Schema, List<Validator>>> iter = validatorHandlerCache.entrySet().iterator();
+           iter.hasNext();) {
+        Map.Entry<Schema, List<Validator>> entry = iter.next();
+        List<Validator> stack = entry.getValue();
+        for (int i = 0, len = stack.size(); i < len; i++)
+          validatorPool.release(entry.getKey(), poolPropertiesKey, stack.get(i));
+        stack.clear();
+      }
     }
     // create the initial section in the start mode.
     initCurrentSection();
@@ -0,0 +1,178 @@
+package com.thaiopensource.validate.nvdl;
+
+import com.thaiopensource.util.PropertyId;
+import com.thaiopensource.util.PropertyMap;
+import com.thaiopensource.util.PropertyMapBuilder;
+import com.thaiopensource.validate.Schema;
+import com.thaiopensource.validate.ValidateProperty;
+import com.thaiopensource.validate.Validator;
+import com.thaiopensource.xml.sax.CountingErrorHandler;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.DTDHandler;
+import org.xml.sax.ErrorHandler;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Pool of validators for the schemas used by the actions of an NVDL script.
+ * There is one pool for each NVDL schema and it is shared by all the NVDL
+ * validators created from it, possibly on different threads. A validator is
+ * used by only one NVDL validator at a time; it goes back to the pool when
+ * that NVDL validator is reset, so the state that it has built up (for example,
+ * the derivatives computed by a RELAX NG validator) is reused by the next
+ * document, whichever NVDL validator validates it.
+ * Validators are shared only between NVDL validators whose properties are the
+ * same apart from the error handler; the pooled validators report errors through
+ * a handler that forwards to the error handler of the current NVDL validator.
+ */
+class ValidatorPool {
+  /**
+   * The maximum number of distinct sets of properties for which validators are pooled.
+   * This avoids keeping validators for ever if every NVDL validator is created with
+   * new property values.
+   */
+  static private final int MAX_PROPERTIES_KEYS = 32;
+
+  /**
+   * The maximum number of idle validators kept for each schema and set of properties.
+   * More validators than this are needed only if many documents are validated at the
+   * same time; the extra validators are dropped when they are released.
+   */
+  static final int MAX_IDLE_VALIDATORS = 8;
+
+  /**
+   * Maps the properties, apart from the error handler, to a canonical instance
+   * that is used as a key.
+   */
+  private final ConcurrentMap<Map<PropertyId<?>, Object>, Map<PropertyId<?>, Object>> propertiesKeys
+    = new ConcurrentHashMap<Map<PropertyId<?>, Object>, Map<PropertyId<?>, Object>>();
+
+  /**
+   * The idle validators, by schema and properties key.
+   */
+  private final ConcurrentMap<Key, Queue<PooledValidator>> idleValidators
+    = new ConcurrentHashMap<Key, Queue<PooledValidator>>();
+
+  /**
+   * Identifies a set of interchangeable validators.
+   */
+  static private final class Key {
+    private final Schema schema;
+    private final Object propertiesKey;
+
+    Key(Schema schema, Object propertiesKey) {
+      this.schema = schema;
+      this.propertiesKey = propertiesKey;
+    }
+
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key))
+        return false;
+      Key other = (Key)obj;
+      return schema == other.schema && propertiesKey == other.propertiesKey;
+    }
+
+    public int hashCode() {
+      return System.identityHashCode(schema) ^ System.identityHashCode(propertiesKey);
+    }
+  }
+
+  /**
+   * A validator whose error handler can be changed.
+   */
+  static private final class PooledValidator implements Validator {
+    private final Validator validator;
+    private final CountingErrorHandler errorHandler;
+
+    PooledValidator(Validator validator, CountingErrorHandler errorHandler) {
+      this.validator = validator;
+      this.errorHandler = errorHandler;
+    }
+
+    public ContentHandler getContentHandler() {
+      return validator.getContentHandler();
+    }
+
+    public DTDHandler getDTDHandler() {
+      return validator.getDTDHandler();
+    }
+
+    public void reset() {
+      validator.reset();
+    }
+  }
+
+  /**
+   * Gets the key that identifies a set of properties.
+   * @param properties The properties of an NVDL validator.
+   * @return The key or null if validators for these properties should not be pooled.
+   */
+  Object getPropertiesKey(PropertyMap properties) {
+    Map<PropertyId<?>, Object> map = new HashMap<PropertyId<?>, Object>();
+    for (int i = 0, len = properties.size(); i < len; i++) {
+      PropertyId<?> pid = properties.getKey(i);
+      if (pid != ValidateProperty.ERROR_HANDLER)
+        map.put(pid, properties.get(pid));
+    }
+    Map<PropertyId<?>, Object> key = propertiesKeys.get(map);
+    if (key != null)
+      return key;
+    if (propertiesKeys.size() >= MAX_PROPERTIES_KEYS)
+      return null;
+    key = propertiesKeys.putIfAbsent(map, map);
+    return key == null ? map : key;
+  }
+
+  /**
+   * Gets a validator from the pool, creating one if there is no idle validator.
+   * @param schema The schema.
+   * @param propertiesKey The key for the properties, as returned by getPropertiesKey.
+   * @param properties The properties of the NVDL validator.
+   * @param eh The error handler of the NVDL validator.
+   * @return The validator.
+   */
+  Validator acquire(Schema schema, Object propertiesKey, PropertyMap properties, ErrorHandler eh) {
+    Queue<PooledValidator> queue = idleValidators.get(new Key(schema, propertiesKey));
+    PooledValidator validator = queue == null ? null : queue.poll();
+    if (validator == null) {
+      CountingErrorHandler forwarder = new CountingErrorHandler();
+      PropertyMapBuilder builder = new PropertyMapBuilder(properties);
+      builder.put(ValidateProperty.ERROR_HANDLER, forwarder);
+      validator = new PooledValidator(schema.createValidator(builder.toPropertyMap()), forwarder);
+    }
+    validator.errorHandler.setErrorHandler(eh);
+    return validator;
+  }
+
+  /**
+   * Returns a validator obtained from acquire to the pool.
+   * The validator must have been reset.  The validator is dropped
+   * if there are already MAX_IDLE_VALIDATORS idle validators for the schema
+   * and properties.
+   * @param schema The schema.
+   * @param propertiesKey The key for the properties.
+   * @param validator The validator.
+   */
+  void release(Schema schema, Object propertiesKey, Validator validator) {
+    PooledValidator pooled = (PooledValidator)validator;
+    // do not keep the error handler of the NVDL validator alive
+    pooled.errorHandler.setErrorHandler(null);
+    pooled.errorHandler.reset();
+    Key key = new Key(schema, propertiesKey);
+    Queue<PooledValidator> queue = idleValidators.get(key);
+    if (queue == null) {
+      queue = new ConcurrentLinkedQueue<PooledValidator>();
+      Queue<PooledValidator> existing = idleValidators.putIfAbsent(key, queue);
+      if (existing != null)
+        queue = existing;
+    }
+    // the queue is small, so size() is cheap; a race may let it exceed the limit slightly
+    if (queue.size() < MAX_IDLE_VALIDATORS)
+      queue.add(pooled);
+  }
+}
@@ -0,0 +1,133 @@
+package com.thaiopensource.validate.nvdl;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the dispatch of namespaces to actions by Mode.
+ */
+public class ModeTest {
+  static private final String WILDCARD = NamespaceSpecification.DEFAULT_WILDCARD;
+
+  @Test
+  public void testExplicitNamespace() {
+    Mode mode = new Mode("m", null);
+    ActionSet actions = new ActionSet();
+    Assert.assertTrue(mode.bindElement("urn:a", WILDCARD, actions));
+    mode.compile();
+    Assert.assertSame(mode.getElementActions("urn:a"), actions);
+    Assert.assertNull(mode.getElementActions("urn:b"));
+    Assert.assertNull(mode.getElementActions(""));
+  }
+
+  @Test
+  public void testWildcard() {
+    Mode mode = new Mode("m", null);
+    ActionSet actions = new ActionSet();
+    ActionSet otherActions = new ActionSet();
+    Assert.assertTrue(mode.bindElement("urn:x:*", WILDCARD, actions));
+    Assert.assertTrue(mode.bindElement("urn:y", WILDCARD, otherActions));
+    mode.compile();
+    Assert.assertSame(mode.getElementActions("urn:x:1"), actions);
+    Assert.assertSame(mode.getElementActions("urn:x:2"), actions);
+    Assert.assertSame(mode.getElementActions("urn:x:1"), actions);
+    Assert.assertSame(mode.getElementActions("urn:y"), otherActions);
+    Assert.assertNull(mode.getElementActions("urn:y:1"));
+  }
+
+  @Test
+  public void testAnyNamespace() {
+    Mode mode = new Mode("m", null);
+    ActionSet actions = new ActionSet();
+    ActionSet anyActions = new ActionSet();
+    Assert.assertTrue(mode.bindElement("urn:a", WILDCARD, actions));
+    Assert.assertTrue(mode.bindElement(NamespaceSpecification.ANY_NAMESPACE, WILDCARD, anyActions));
+    Assert.assertSame(mode.getElementActions("urn:a"), actions);
+    Assert.assertSame(mode.getElementActions("urn:b"), anyActions);
+    Assert.assertSame(mode.getElementActions(""), anyActions);
+  }
+
+  @Test
+  public void testBaseMode() {
+    Mode base = new Mode("base", null);
+    ActionSet baseActions = new ActionSet();
+    Assert.assertTrue(base.bindElement("urn:a", WILDCARD, baseActions));
+    Assert.assertTrue(base.bindElement("urn:b", WILDCARD, new ActionSet()));
+    Mode mode = new Mode("m", base);
+    ActionSet actions = new ActionSet();
+    Assert.assertTrue(mode.bindElement("urn:b", WILDCARD, actions));
+    base.compile();
+    mode.compile();
+    Assert.assertSame(base.getElementActions("urn:a"), baseActions);
+    // the actions of the base mode are copied for the derived mode
+    ActionSet inherited = mode.getElementActions("urn:a");
+    Assert.assertNotNull(inherited);
+    Assert.assertNotSame(inherited, baseActions);
+    Assert.assertSame(mode.getElementActions("urn:a"), inherited);
+    Assert.assertSame(mode.getElementActions("urn:b"), actions);
+    Assert.assertNull(mode.getElementActions("urn:c"));
+  }
+
+  @Test
+  public void testIncludedMode() {
+    Mode included = new Mode("included", null);
+    ActionSet includedActions = new ActionSet();
+    Assert.assertTrue(included.bindElement("urn:x:*", WILDCARD, includedActions));
+    Mode mode = new Mode("m", null);
+    mode.compile();
+    Assert.assertNull(mode.getElementActions("urn:x:1"));
+    // including a mode recomputes the dispatch table
+    mode.addIncludedMode(included);
+    Assert.assertNotNull(mode.getElementActions("urn:x:1"));
+  }
+
+  @Test
+  public void testBindAfterLookup() {
+    Mode mode = new Mode("m", null);
+    Assert.assertNull(mode.getElementActions("urn:a"));
+    ActionSet actions = new ActionSet();
+    Assert.assertTrue(mode.bindElement("urn:a", WILDCARD, actions));
+    Assert.assertSame(mode.getElementActions("urn:a"), actions);
+    Mode base = new Mode("base", null);
+    Assert.assertTrue(base.bindElement("urn:b", WILDCARD, new ActionSet()));
+    Assert.assertNull(mode.getElementActions("urn:b"));
+    mode.setBaseMode(base);
+    Assert.assertNotNull(mode.getElementActions("urn:b"));
+  }
+
+  @Test
+  public void testAttributeActions() {
+    Mode base = new Mode("base", null);
+    AttributeActionSet anyActions = new AttributeActionSet();
+    Assert.assertTrue(base.bindAttribute(NamespaceSpecification.ANY_NAMESPACE, WILDCARD, anyActions));
+    Mode mode = new Mode("m", base);
+    AttributeActionSet actions = new AttributeActionSet();
+    Assert.assertTrue(mode.bindAttribute("urn:x:*", WILDCARD, actions));
+    mode.compile();
+    Assert.assertSame(mode.getAttributeActions("urn:x:1"), actions);
+    Assert.assertSame(mode.getAttributeActions("urn:y"), anyActions);
+    Assert.assertNull(mode.getElementActions("urn:x:1"));
+  }
+
+  @Test
+  public void testCachedNamespacesLimited() {
+    Mode mode = new Mode("m", null);
+    ActionSet actions = new ActionSet();
+    AttributeActionSet attributeActions = new AttributeActionSet();
+    Assert.assertTrue(mode.bindElement("urn:x:*", WILDCARD, actions));
+    Assert.assertTrue(mode.bindAttribute(NamespaceSpecification.ANY_NAMESPACE, WILDCARD, attributeActions));
+    mode.compile();
+    int n = Mode.MAX_CACHED_NAMESPACES * 2;
+    for (int i = 0; i < n; i++) {
+      Assert.assertSame(mode.getElementActions("urn:x:" + i), actions);
+      Assert.assertSame(mode.getAttributeActions("urn:y:" + i), attributeActions);
+    }
+    Assert.assertEquals(mode.getCachedNamespaceCount(), Mode.MAX_CACHED_NAMESPACES * 2);
+    // namespaces beyond the limit still get their actions
+    for (int i = 0; i < n; i++) {
+      Assert.assertSame(mode.getElementActions("urn:x:" + i), actions);
+      Assert.assertSame(mode.getAttributeActions("urn:y:" + i), attributeActions);
+    }
+    Assert.assertEquals(mode.getCachedNamespaceCount(), Mode.MAX_CACHED_NAMESPACES * 2);
+  }
+}
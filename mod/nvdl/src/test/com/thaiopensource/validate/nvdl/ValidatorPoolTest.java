@@ -0,0 +1,202 @@
+package com.thaiopensource.validate.nvdl;
+
+import com.thaiopensource.util.PropertyMap;
+import com.thaiopensource.util.PropertyMapBuilder;
+import com.thaiopensource.validate.AbstractSchema;
+import com.thaiopensource.validate.ValidateProperty;
+import com.thaiopensource.validate.Validator;
+import com.thaiopensource.xml.sax.CountingErrorHandler;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.DTDHandler;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests the sharing of validators between the NVDL validators for a script.
+ */
+public class ValidatorPoolTest {
+  private RecordingSchema schema;
+  private ValidatorPool pool;
+  private Mode mode;
+
+  /**
+   * A schema whose validators report an error for each element named bad,
+   * and record whether they are reset between documents.
+   */
+  static private class RecordingSchema extends AbstractSchema {
+    private final List<RecordingValidator> validators = new ArrayList<RecordingValidator>();
+
+    public Validator createValidator(PropertyMap properties) {
+      RecordingValidator validator = new RecordingValidator(properties.get(ValidateProperty.ERROR_HANDLER));
+      validators.add(validator);
+      return validator;
+    }
+  }
+
+  static private class RecordingValidator extends DefaultHandler implements Validator {
+    private final ErrorHandler eh;
+    private boolean started;
+    private int documentCount;
+    private int resetCount;
+    private boolean usedWithoutReset;
+
+    RecordingValidator(ErrorHandler eh) {
+      this.eh = eh;
+    }
+
+    public void startDocument() {
+      if (started)
+        usedWithoutReset = true;
+      started = true;
+      documentCount++;
+    }
+
+    public void startElement(String uri, String localName, String qName, Attributes attributes)
+            throws SAXException {
+      if (localName.equals("bad"))
+        eh.error(new SAXParseException("bad element", null));
+    }
+
+    public ContentHandler getContentHandler() {
+      return this;
+    }
+
+    public DTDHandler getDTDHandler() {
+      return null;
+    }
+
+    public void reset() {
+      started = false;
+      resetCount++;
+    }
+  }
+
+  @BeforeMethod
+  public void setUp() {
+    schema = new RecordingSchema();
+    pool = new ValidatorPool();
+    // validate everything with the schema
+    mode = new Mode("start", null);
+    ActionSet actions = new ActionSet();
+    actions.addNoResultAction(new ValidateAction(new ModeUsage(Mode.CURRENT, mode), schema));
+    Assert.assertTrue(mode.bindElement(NamespaceSpecification.ANY_NAMESPACE,
+                                       NamespaceSpecification.DEFAULT_WILDCARD,
+                                       actions));
+  }
+
+  @Test
+  public void testErrorsGoToCurrentHandler() throws SAXException {
+    CountingErrorHandler eh1 = new CountingErrorHandler();
+    CountingErrorHandler eh2 = new CountingErrorHandler();
+    Validator v1 = createValidator(eh1);
+    Validator v2 = createValidator(eh2);
+    validate(v1, true);
+    Assert.assertEquals(eh1.getErrorCount(), 1);
+    v1.reset();
+    validate(v2, true);
+    // the validator used by v1 was reused by v2
+    Assert.assertEquals(schema.validators.size(), 1);
+    Assert.assertEquals(eh1.getErrorCount(), 1);
+    Assert.assertEquals(eh2.getErrorCount(), 1);
+    v2.reset();
+    validate(v1, false);
+    validate(v1, true);
+    Assert.assertEquals(eh1.getErrorCount(), 2);
+    Assert.assertEquals(eh2.getErrorCount(), 1);
+  }
+
+  @Test
+  public void testPooledValidatorsAreReset() throws SAXException {
+    Validator v1 = createValidator(new CountingErrorHandler());
+    Validator v2 = createValidator(new CountingErrorHandler());
+    for (int i = 0; i < 3; i++) {
+      validate(v1, false);
+      v1.reset();
+      validate(v2, true);
+      v2.reset();
+    }
+    Assert.assertEquals(schema.validators.size(), 1);
+    RecordingValidator validator = schema.validators.get(0);
+    Assert.assertEquals(validator.documentCount, 6);
+    Assert.assertFalse(validator.usedWithoutReset);
+    Assert.assertTrue(validator.resetCount >= 6);
+  }
+
+  @Test
+  public void testConcurrentValidators() throws SAXException {
+    CountingErrorHandler eh1 = new CountingErrorHandler();
+    CountingErrorHandler eh2 = new CountingErrorHandler();
+    Validator v1 = createValidator(eh1);
+    Validator v2 = createValidator(eh2);
+    ContentHandler ch1 = v1.getContentHandler();
+    ContentHandler ch2 = v2.getContentHandler();
+    // v2 starts while v1 is in the middle of a document, so it needs a validator of its own
+    ch1.startDocument();
+    ch1.startElement("", "doc", "doc", new AttributesImpl());
+    ch2.startDocument();
+    ch2.startElement("", "doc", "doc", new AttributesImpl());
+    element(ch2, "bad");
+    element(ch1, "good");
+    ch2.endElement("", "doc", "doc");
+    ch2.endDocument();
+    ch1.endElement("", "doc", "doc");
+    ch1.endDocument();
+    Assert.assertEquals(schema.validators.size(), 2);
+    Assert.assertEquals(eh1.getErrorCount(), 0);
+    Assert.assertEquals(eh2.getErrorCount(), 1);
+  }
+
+  @Test
+  public void testIdleValidatorsLimited() {
+    Object key = pool.getPropertiesKey(properties(new CountingErrorHandler()));
+    Assert.assertNotNull(key);
+    PropertyMap properties = properties(new CountingErrorHandler());
+    int n = ValidatorPool.MAX_IDLE_VALIDATORS + 5;
+    List<Validator> validators = new ArrayList<Validator>();
+    for (int i = 0; i < n; i++)
+      validators.add(pool.acquire(schema, key, properties, null));
+    Assert.assertEquals(schema.validators.size(), n);
+    for (int i = 0; i < n; i++) {
+      Validator validator = validators.get(i);
+      validator.reset();
+      pool.release(schema, key, validator);
+    }
+    for (int i = 0; i < n; i++)
+      pool.acquire(schema, key, properties, null);
+    Assert.assertEquals(schema.validators.size(), n + n - ValidatorPool.MAX_IDLE_VALIDATORS);
+  }
+
+  private Validator createValidator(ErrorHandler eh) {
+    return new ValidatorImpl(mode, new TriggerIndex(new ArrayList()), pool, properties(eh));
+  }
+
+  static private PropertyMap properties(ErrorHandler eh) {
+    PropertyMapBuilder builder = new PropertyMapBuilder();
+    builder.put(ValidateProperty.ERROR_HANDLER, eh);
+    return builder.toPropertyMap();
+  }
+
+  static private void validate(Validator validator, boolean bad) throws SAXException {
+    ContentHandler ch = validator.getContentHandler();
+    ch.startDocument();
+    ch.startElement("", "doc", "doc", new AttributesImpl());
+    element(ch, bad ? "bad" : "good");
+    ch.endElement("", "doc", "doc");
+    ch.endDocument();
+  }
+
+  static private void element(ContentHandler ch, String localName) throws SAXException {
+    ch.startElement("", localName, localName, new AttributesImpl());
+    ch.endElement("", localName, localName);
+  }
+}
@@ -0,0 +1,227 @@
+package com.thaiopensource.validate.nvdl.test;
+
+import com.thaiopensource.util.PropertyMap;
+import com.thaiopensource.validate.ValidationDriver;
+import org.xml.sax.SAXException;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+
+/**
+ * Measures the time and the memory allocated to validate a compound XHTML, SVG and MathML
+ * document with an NVDL script that dispatches each namespace to its own RELAX NG schema.
+ * The script, the schemas and the document are generated in a temporary directory.
+ * The classpath must include the jing jar, so that the schema readers can be found.
+ * Usage: NvdlBenchmark [sections [iterations]]
+ */
+public class NvdlBenchmark {
+  static private final String XHTML_NS = "http://www.w3.org/1999/xhtml";
+  static private final String SVG_NS = "http://www.w3.org/2000/svg";
+  static private final String MATHML_NS = "http://www.w3.org/1998/Math/MathML";
+  static private final String XLINK_NS = "http://www.w3.org/1999/xlink";
+
+  static private final String NVDL_SCRIPT =
+    "<rules xmlns='http://purl.oclc.org/dsdl/nvdl/ns/structure/1.0' startMode='root'>\n"
+    + "  <mode name='root'>\n"
+    + "    <namespace ns='" + XHTML_NS + "'><validate schema='xhtml.rng' useMode='embedded'/></namespace>\n"
+    + "    <anyNamespace><reject/></anyNamespace>\n"
+    + "  </mode>\n"
+    + "  <mode name='embedded'>\n"
+    + "    <namespace ns='" + SVG_NS + "'><validate schema='svg.rng' useMode='embedded'/></namespace>\n"
+    + "    <namespace ns='" + MATHML_NS + "'><validate schema='mathml.rng' useMode='embedded'/></namespace>\n"
+    + "    <namespace ns='" + XLINK_NS + "' match='attributes'><attach/></namespace>\n"
+    + "    <anyNamespace><reject/></anyNamespace>\n"
+    + "  </mode>\n"
+    + "</rules>\n";
+
+  static private final String XHTML_SCHEMA =
+    "<grammar xmlns='http://relaxng.org/ns/structure/1.0' ns='" + XHTML_NS + "'"
+    + " datatypeLibrary='http://www.w3.org/2001/XMLSchema-datatypes'>\n"
+    + "  <start><element name='html'><element name='head'><element name='title'><text/></element></element>"
+    + "<element name='body'><zeroOrMore><ref name='block'/></zeroOrMore></element></element></start>\n"
+    + "  <define name='common'><optional><attribute name='id'><data type='ID'/></attribute></optional>"
+    + "<optional><attribute name='class'/></optional></define>\n"
+    + "  <define name='block'><choice>"
+    + "<element name='div'><ref name='common'/><zeroOrMore><ref name='block'/></zeroOrMore></element>"
+    + "<element name='h2'><ref name='common'/><ref name='inline'/></element>"
+    + "<element name='p'><ref name='common'/><ref name='inline'/></element>"
+    + "<element name='ul'><ref name='common'/><oneOrMore><element name='li'><ref name='inline'/></element></oneOrMore></element>"
+    + "</choice></define>\n"
+    + "  <define name='inline'><mixed><zeroOrMore><choice>"
+    + "<element name='em'><ref name='inline'/></element>"
+    + "<element name='a'><attribute name='href'><data type='anyURI'/></attribute><ref name='inline'/></element>"
+    + "</choice></zeroOrMore></mixed></define>\n"
+    + "</grammar>\n";
+
+  static private final String SVG_SCHEMA =
+    "<grammar xmlns='http://relaxng.org/ns/structure/1.0' ns='" + SVG_NS + "'"
+    + " datatypeLibrary='http://www.w3.org/2001/XMLSchema-datatypes'>\n"
+    + "  <start><element name='svg'><attribute name='width'/><attribute name='height'/>"
+    + "<zeroOrMore><ref name='shape'/></zeroOrMore></element></start>\n"
+    + "  <define name='shape'><choice>"
+    + "<element name='g'><optional><attribute name='transform'/></optional><zeroOrMore><ref name='shape'/></zeroOrMore></element>"
+    + "<element name='rect'><attribute name='x'><data type='decimal'/></attribute><attribute name='y'><data type='decimal'/></attribute>"
+    + "<attribute name='width'><data type='decimal'/></attribute><attribute name='height'><data type='decimal'/></attribute>"
+    + "<optional><attribute name='fill'/></optional></element>"
+    + "<element name='circle'><attribute name='cx'><data type='decimal'/></attribute><attribute name='cy'><data type='decimal'/></attribute>"
+    + "<attribute name='r'><data type='decimal'/></attribute><optional><attribute name='fill'/></optional></element>"
+    + "<element name='a'><zeroOrMore><attribute><nsName ns='" + XLINK_NS + "'/></attribute></zeroOrMore>"
+    + "<zeroOrMore><ref name='shape'/></zeroOrMore></element>"
+    + "<element name='text'><attribute name='x'><data type='decimal'/></attribute><attribute name='y'><data type='decimal'/></attribute><text/></element>"
+    + "</choice></define>\n"
+    + "</grammar>\n";
+
+  static private final String MATHML_SCHEMA =
+    "<grammar xmlns='http://relaxng.org/ns/structure/1.0' ns='" + MATHML_NS + "'>\n"
+    + "  <start><element name='math'><optional><attribute name='display'><choice><value>block</value><value>inline</value></choice></attribute></optional>"
+    + "<oneOrMore><ref name='expr'/></oneOrMore></element></start>\n"
+    + "  <define name='expr'><choice>"
+    + "<element name='mrow'><oneOrMore><ref name='expr'/></oneOrMore></element>"
+    + "<element name='mfrac'><ref name='expr'/><ref name='expr'/></element>"
+    + "<element name='msup'><ref name='expr'/><ref name='expr'/></element>"
+    + "<element name='mi'><text/></element>"
+    + "<element name='mo'><text/></element>"
+    + "<element name='mn'><text/></element>"
+    + "</choice></define>\n"
+    + "</grammar>\n";
+
+  public static void main(String[] args) throws IOException, SAXException {
+    int sections = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+    int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+    File dir = createTempDirectory();
+    try {
+      File script = write(new File(dir, "compound.nvdl"), NVDL_SCRIPT);
+      write(new File(dir, "xhtml.rng"), XHTML_SCHEMA);
+      write(new File(dir, "svg.rng"), SVG_SCHEMA);
+      write(new File(dir, "mathml.rng"), MATHML_SCHEMA);
+      File doc = write(new File(dir, "doc.xhtml"), generateDocument(sections));
+      ValidationDriver driver = new ValidationDriver(PropertyMap.EMPTY);
+      if (!driver.loadSchema(ValidationDriver.fileInputSource(script)))
+        throw new RuntimeException("could not load NVDL script");
+      System.out.println("Document size: " + doc.length() + " bytes");
+      AllocationCounter counter = new AllocationCounter();
+      // the first iterations warm up the JIT
+      int warmup = Math.max(1, iterations / 4);
+      for (int i = 0; i < warmup; i++)
+        validate(driver, doc);
+      long bestTime = Long.MAX_VALUE;
+      long totalTime = 0;
+      long totalAllocated = 0;
+      for (int i = 0; i < iterations; i++) {
+        long allocatedBefore = counter.getAllocatedBytes();
+        long start = System.nanoTime();
+        validate(driver, doc);
+        long time = System.nanoTime() - start;
+        totalAllocated += counter.getAllocatedBytes() - allocatedBefore;
+        totalTime += time;
+        bestTime = Math.min(bestTime, time);
+      }
+      System.out.println("Iterations: " + iterations);
+      System.out.println("Mean time: " + (totalTime / iterations / 1000) + " us");
+      System.out.println("Best time: " + (bestTime / 1000) + " us");
+      if (counter.isSupported())
+        System.out.println("Mean allocation: " + (totalAllocated / iterations) + " bytes");
+      else
+        System.out.println("Allocation tracking is not supported by this JVM");
+    }
+    finally {
+      File[] files = dir.listFiles();
+      if (files != null) {
+        for (int i = 0; i < files.length; i++)
+          files[i].delete();
+      }
+      dir.delete();
+    }
+  }
+
+  static private void validate(ValidationDriver driver, File doc) throws IOException, SAXException {
+    if (!driver.validate(ValidationDriver.fileInputSource(doc)))
+      throw new RuntimeException("generated document is invalid");
+  }
+
+  static private String generateDocument(int sections) {
+    StringBuilder buf = new StringBuilder();
+    buf.append("<html xmlns='").append(XHTML_NS).append("' xmlns:xlink='").append(XLINK_NS).append("'>\n");
+    buf.append("<head><title>Benchmark</title></head>\n<body>\n");
+    for (int i = 0; i < sections; i++) {
+      buf.append("<div id='s").append(i).append("' class='section'>\n");
+      buf.append("<h2>Section ").append(i).append("</h2>\n");
+      buf.append("<p>Some <em>emphasized</em> text with <a href='#s").append(i)
+        .append("'>a link</a> and an equation:</p>\n");
+      buf.append("<math xmlns='").append(MATHML_NS).append("' display='block'><mrow><msup><mi>x</mi><mn>2</mn></msup>")
+        .append("<mo>+</mo><mfrac><mn>").append(i).append("</mn><mi>y</mi></mfrac></mrow></math>\n");
+      buf.append("<svg xmlns='").append(SVG_NS).append("' width='100' height='50'><g transform='scale(2)'>");
+      for (int j = 0; j < 4; j++) {
+        buf.append("<rect x='").append(j * 10).append("' y='0' width='8' height='8' fill='red'/>");
+        buf.append("<circle cx='").append(j * 10 + 4).append("' cy='20' r='3'/>");
+      }
+      buf.append("</g><a xlink:href='#s").append(i).append("'><text x='0' y='40'>")
+        .append(i).append("</text></a></svg>\n");
+      buf.append("<ul><li>one</li><li>two <em>three</em></li></ul>\n");
+      buf.append("</div>\n");
+    }
+    buf.append("</body>\n</html>\n");
+    return buf.toString();
+  }
+
+  static private File createTempDirectory() throws IOException {
+    File file = File.createTempFile("nvdlbench", "");
+    if (!file.delete() || !file.mkdir())
+      throw new IOException("could not create directory " + file);
+    return file;
+  }
+
+  static private File write(File file, String content) throws IOException {
+    Writer w = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+    try {
+      w.write(content);
+    }
+    finally {
+      w.close();
+    }
+    return file;
+  }
+
+  /**
+   * Uses the allocation counter of the HotSpot ThreadMXBean, if available. This is accessed
+   * by reflection, since it is not part of the standard API.
+   */
+  static private class AllocationCounter {
+    private final Object bean = ManagementFactory.getThreadMXBean();
+    private final Method method;
+
+    AllocationCounter() {
+      Method m = null;
+      try {
+        Class<?> cls = Class.forName("com.sun.management.ThreadMXBean");
+        if (cls.isInstance(bean))
+          m = cls.getMethod("getThreadAllocatedBytes", new Class[] { long.class });
+      }
+      catch (ClassNotFoundException e) {
+      }
+      catch (NoSuchMethodException e) {
+      }
+      method = m;
+    }
+
+    boolean isSupported() {
+      return method != null;
+    }
+
+    long getAllocatedBytes() {
+      if (method == null)
+        return 0;
+      try {
+        return ((Long)method.invoke(bean, new Object[] { Thread.currentThread().getId() })).longValue();
+      }
+      catch (Exception e) {
+        return 0;
+      }
+    }
+  }
+}
@@ -0,0 +1,285 @@
+package com.thaiopensource.relaxng.dom;
+
+import com.thaiopensource.relaxng.match.MatchContext;
+import com.thaiopensource.relaxng.match.MatchDriver;
+import com.thaiopensource.relaxng.match.Matcher;
+import com.thaiopensource.relaxng.parse.sax.DtdContext;
+import com.thaiopensource.relaxng.pattern.Pattern;
+import com.thaiopensource.relaxng.pattern.PatternMatcher;
+import com.thaiopensource.relaxng.pattern.ValidatorPatternBuilder;
+import com.thaiopensource.xml.util.Name;
+import com.thaiopensource.xml.util.WellKnownNamespaces;
+import org.w3c.dom.Attr;
+import org.w3c.dom.CharacterData;
+import org.w3c.dom.Document;
+import org.w3c.dom.DocumentType;
+import org.w3c.dom.Element;
+import org.w3c.dom.Entity;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.xml.sax.Attributes;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+/**
+ * Validates a DOM tree using a Matcher, by walking the nodes of the tree rather than generating
+ * SAX events from it.  The namespace declarations in scope are obtained from the DOM using
+ * the DOM Level 3 namespace lookup methods.  Entity reference nodes are walked through.
+ * Since a DOM has no locations, errors are reported with only the URI of the document.
+ * The matching itself is done by a MatchDriver, as for SAX events.
+ */
+public class DomValidator {
+  private final ErrorHandler eh;
+  private final NodeContext context = new NodeContext();
+  private final ElementAttributes attributes = new ElementAttributes();
+  private final Driver driver;
+  private String systemId;
+  // the text of a text node is copied here to pass it to the driver
+  private char[] textBuf = new char[256];
+
+  public DomValidator(Pattern pattern, ValidatorPatternBuilder builder, ErrorHandler eh) {
+    this(new PatternMatcher(pattern, builder), eh);
+  }
+
+  public DomValidator(Matcher matcher, ErrorHandler eh) {
+    this.driver = new Driver(matcher);
+    this.eh = eh;
+  }
+
+  public void reset() {
+    driver.reset();
+    context.clearDtdContext();
+  }
+
+  /**
+   * Validates a Document or an Element.  An Element is validated as if it were the document element.
+   */
+  public void validate(Node node) throws SAXException {
+    Document doc;
+    Node root;
+    switch (node.getNodeType()) {
+    case Node.DOCUMENT_NODE:
+      doc = (Document)node;
+      root = doc.getDocumentElement();
+      if (root == null)
+        throw new IllegalArgumentException("document has no document element");
+      dtd(doc.getDoctype());
+      break;
+    case Node.ELEMENT_NODE:
+      doc = node.getOwnerDocument();
+      root = node;
+      break;
+    default:
+      throw new IllegalArgumentException("node must be a Document or an Element");
+    }
+    systemId = doc == null ? null : doc.getDocumentURI();
+    try {
+      driver.startDocument();
+      walk(root);
+      driver.endDocument();
+    }
+    finally {
+      context.node = null;
+      attributes.atts = null;
+    }
+  }
+
+  /**
+   * Walks the tree without recursion, so that the depth of the tree is not limited by the stack.
+   */
+  private void walk(Node root) throws SAXException {
+    Node node = root;
+    for (;;) {
+      Node first = enter(node) ? node.getFirstChild() : null;
+      if (first != null) {
+        node = first;
+        continue;
+      }
+      for (;;) {
+        if (node.getNodeType() == Node.ELEMENT_NODE)
+          endElement((Element)node);
+        if (node == root)
+          return;
+        Node next = node.getNextSibling();
+        if (next != null) {
+          node = next;
+          break;
+        }
+        node = node.getParentNode();
+      }
+    }
+  }
+
+  /**
+   * Returns true if the children of node should be walked.
+   */
+  private boolean enter(Node node) throws SAXException {
+    switch (node.getNodeType()) {
+    case Node.ELEMENT_NODE:
+      startElement((Element)node);
+      return true;
+    case Node.ENTITY_REFERENCE_NODE:
+      return true;
+    case Node.TEXT_NODE:
+    case Node.CDATA_SECTION_NODE:
+      characters(((CharacterData)node).getData());
+      break;
+    }
+    return false;
+  }
+
+  private void startElement(Element elem) throws SAXException {
+    // the text before the start-tag is not in the scope of its namespace declarations
+    driver.flushTextBeforeStartTag();
+    context.node = elem;
+    attributes.atts = elem.getAttributes();
+    driver.startElement(nodeName(elem), elem.getNodeName(), attributes);
+  }
+
+  private void endElement(Element elem) throws SAXException {
+    driver.endElement(nodeName(elem), elem.getNodeName());
+    context.node = elem.getParentNode();
+  }
+
+  private void characters(String data) throws SAXException {
+    int len = data.length();
+    if (len > textBuf.length)
+      textBuf = new char[Math.max(len, textBuf.length * 2)];
+    data.getChars(0, len, textBuf, 0);
+    driver.characters(textBuf, 0, len);
+  }
+
+  private void dtd(DocumentType doctype) throws SAXException {
+    if (doctype == null)
+      return;
+    NamedNodeMap notations = doctype.getNotations();
+    if (notations != null) {
+      for (int i = 0, len = notations.getLength(); i < len; i++)
+        context.notationDecl(notations.item(i).getNodeName(), null, null);
+    }
+    NamedNodeMap entities = doctype.getEntities();
+    if (entities != null) {
+      for (int i = 0, len = entities.getLength(); i < len; i++) {
+        Entity entity = (Entity)entities.item(i);
+        if (entity.getNotationName() != null)
+          context.unparsedEntityDecl(entity.getNodeName(), null, null, entity.getNotationName());
+      }
+    }
+  }
+
+  static private Name nodeName(Node node) {
+    String localName = node.getLocalName();
+    // a node created with a DOM Level 1 method has no namespace
+    if (localName == null)
+      return new Name("", node.getNodeName());
+    String ns = node.getNamespaceURI();
+    return new Name(ns == null ? "" : ns, localName);
+  }
+
+  private class Driver extends MatchDriver {
+    Driver(Matcher matcher) {
+      super(matcher, context, -1);
+    }
+
+    protected void error() throws SAXException {
+      eh.error(new SAXParseException(getMatcher().getErrorMessage(), null, systemId, -1, -1));
+    }
+  }
+
+  /**
+   * The attributes of an element; the driver skips those that are namespace declarations.
+   */
+  static private class ElementAttributes implements Attributes {
+    private NamedNodeMap atts;
+
+    private Attr item(int index) {
+      return (Attr)atts.item(index);
+    }
+
+    public int getLength() {
+      return atts.getLength();
+    }
+
+    public String getURI(int index) {
+      return nodeName(item(index)).getNamespaceUri();
+    }
+
+    public String getLocalName(int index) {
+      return nodeName(item(index)).getLocalName();
+    }
+
+    public String getQName(int index) {
+      return item(index).getNodeName();
+    }
+
+    public String getType(int index) {
+      return "CDATA";
+    }
+
+    public String getValue(int index) {
+      return item(index).getValue();
+    }
+
+    public int getIndex(String uri, String localName) {
+      for (int i = 0, len = getLength(); i < len; i++) {
+        Name name = nodeName(item(i));
+        if (name.getNamespaceUri().equals(uri) && name.getLocalName().equals(localName))
+          return i;
+      }
+      return -1;
+    }
+
+    public int getIndex(String qName) {
+      for (int i = 0, len = getLength(); i < len; i++) {
+        if (item(i).getNodeName().equals(qName))
+          return i;
+      }
+      return -1;
+    }
+
+    public String getType(String uri, String localName) {
+      return getIndex(uri, localName) < 0 ? null : "CDATA";
+    }
+
+    public String getType(String qName) {
+      return getIndex(qName) < 0 ? null : "CDATA";
+    }
+
+    public String getValue(String uri, String localName) {
+      int i = getIndex(uri, localName);
+      return i < 0 ? null : getValue(i);
+    }
+
+    public String getValue(String qName) {
+      int i = getIndex(qName);
+      return i < 0 ? null : getValue(i);
+    }
+  }
+
+  static private class NodeContext extends DtdContext implements MatchContext {
+    // the element in whose scope names are resolved
+    private Node node;
+
+    public String resolveNamespacePrefix(String prefix) {
+      if (prefix.equals("xml"))
+        return WellKnownNamespaces.XML;
+      String ns = node.lookupNamespaceURI(prefix.length() == 0 ? null : prefix);
+      if (ns == null || ns.length() == 0)
+        return null;
+      return ns;
+    }
+
+    public String getPrefix(String namespaceURI) {
+      if (namespaceURI.equals(WellKnownNamespaces.XML))
+        return "xml";
+      if (node.isDefaultNamespace(namespaceURI))
+        return "";
+      return node.lookupPrefix(namespaceURI);
+    }
+
+    public String getBaseUri() {
+      return node.getBaseURI();
+    }
+  }
+}
@@ -0,0 +1,284 @@
+package com.thaiopensource.relaxng.match;
+
+import com.thaiopensource.xml.util.Name;
+import org.relaxng.datatype.DatatypeStreamingValidator;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+
+import javax.xml.XMLConstants;
+
+/**
+ * Matches the content of a document using a Matcher, for a validator that gets the document from
+ * some source, such as SAX events or an XMLStreamReader.  The validator calls the methods of the
+ * driver for the parts of the document in document order, and the driver calls
+ * <code>error</code> when the matcher finds an error.
+ * <p>
+ * Typed text is collected into a string, unless it gets long, in which case it is passed to a
+ * DatatypeStreamingValidator if the matcher allows; for the datatypes whose streaming validators
+ * don't keep the text, such as those of XML Schema for binary data and strings, very long text
+ * is then validated in constant space.  The number of errors reported for each document
+ * can be limited: when the limit is reached, the rest of the document is not matched.
+ */
+public abstract class MatchDriver {
+  private Matcher matcher;
+  private final MatchContext context;
+  private final int maxErrors;
+  // the number of errors that may still be reported; when this gets to 0, matching stops
+  private int errorsLeft;
+  private boolean bufferingCharacters = false;
+  private final StringBuilder charBuf = new StringBuilder();
+  // when this much typed text has been buffered, try to stream the rest
+  static private final int STREAMING_THRESHOLD = 8192;
+  private boolean triedStreaming;
+  // non-null if the typed text is being streamed rather than buffered
+  private DatatypeStreamingValidator streamingValidator;
+  private boolean streamedBlank;
+  // the indexes of the attributes of a start-tag, in the order in which they are matched
+  private int[] attributeOrder = new int[8];
+  // start-tags with more attributes than this are sorted with a shell sort rather than an insertion sort
+  static private final int INSERTION_SORT_MAX_ATTRIBUTES = 16;
+
+  /**
+   * Creates a driver that stops matching a document after reporting maxErrors errors;
+   * a maxErrors of 1 stops at the first error, and a negative maxErrors does not limit the number of errors.
+   * @param matcher the matcher, in the state in which matching starts
+   * @param context the context used to resolve names and to check notations and unparsed entities
+   * @param maxErrors the maximum number of errors for each document
+   */
+  protected MatchDriver(Matcher matcher, MatchContext context, int maxErrors) {
+    if (maxErrors == 0)
+      throw new IllegalArgumentException();
+    this.matcher = matcher;
+    this.context = context;
+    this.maxErrors = maxErrors;
+    this.errorsLeft = maxErrors;
+  }
+
+  /**
+   * Reports the error found by the matcher.  The message can be obtained from the matcher
+   * returned by <code>getMatcher</code> until the next part of the document is matched.
+   */
+  protected abstract void error() throws SAXException;
+
+  public Matcher getMatcher() {
+    return matcher;
+  }
+
+  /**
+   * Returns true if the rest of the document is not being matched because the limit on the number
+   * of errors has been reached.
+   */
+  public boolean isStopped() {
+    return errorsLeft == 0;
+  }
+
+  /**
+   * Gets ready to match another document from the start.
+   */
+  public void reset() {
+    bufferingCharacters = false;
+    streamingValidator = null;
+    matcher = matcher.start();
+    errorsLeft = maxErrors;
+  }
+
+  public void startDocument() throws SAXException {
+    check(matcher.matchStartDocument());
+  }
+
+  public void endDocument() throws SAXException {
+    if (errorsLeft == 0)
+      return;
+    check(matcher.matchEndDocument());
+  }
+
+  /**
+   * Matches a start-tag.
+   * @param name the name of the element
+   * @param qName the qualified name of the element, or null if the matcher is to make one when it needs it
+   * @param atts the attributes; a null qualified name is treated in the same way
+   */
+  public void startElement(Name name, String qName, Attributes atts) throws SAXException {
+    if (errorsLeft == 0)
+      return;
+    flushTextBeforeStartTag();
+    check(matcher.matchStartTagOpen(name, qName, context));
+    finishStartTag(name, qName, atts);
+  }
+
+  /**
+   * Matches the attributes and the close of a start-tag whose open has already been matched.
+   * The attributes are matched sorted by namespace URI and local name rather than in document order.
+   * The state after matching a set of attributes does not depend on their order, but the states on the
+   * way do, and each order in which the same attributes occur would otherwise make its own chain of memos.
+   */
+  public void finishStartTag(Name name, String qName, Attributes atts) throws SAXException {
+    int len = atts.getLength();
+    if (len > 1)
+      sortAttributes(atts, len);
+    for (int j = 0; j < len; j++) {
+      int i = len > 1 ? attributeOrder[j] : j;
+      if (isNamespaceDeclaration(atts, i))
+        continue;
+      Name attName = new Name(atts.getURI(i), atts.getLocalName(i));
+      String attQName = atts.getQName(i);
+      check(matcher.matchAttributeName(attName, attQName, context));
+      check(matcher.matchAttributeValue(atts.getValue(i), attName, attQName, context));
+    }
+    check(matcher.matchStartTagClose(name, qName, context));
+    if (matcher.isTextTyped()) {
+      bufferingCharacters = true;
+      charBuf.setLength(0);
+      triedStreaming = false;
+      streamingValidator = null;
+    }
+  }
+
+  /**
+   * Returns true if an attribute is a namespace declaration, which some sources, such as a SAX parser
+   * with the namespace-prefixes feature or an identity transformer reading a DOM, report as an attribute.
+   */
+  static public boolean isNamespaceDeclaration(Attributes atts, int i) {
+    String uri = atts.getURI(i);
+    if (uri.length() != 0)
+      return uri.equals(XMLConstants.XMLNS_ATTRIBUTE_NS_URI);
+    String qName = atts.getQName(i);
+    return qName != null && qName.startsWith("xmlns") && (qName.length() == 5 || qName.charAt(5) == ':');
+  }
+
+  /**
+   * Puts the indexes of the attributes in the order in which they are matched into attributeOrder.
+   * Start-tags usually have few attributes, which are often already in order, so an insertion sort is
+   * used unless there are many, when a shell sort is used.  No two attributes compare equal, so it does
+   * not matter that a shell sort is not stable.
+   */
+  private void sortAttributes(Attributes atts, int len) {
+    if (attributeOrder.length < len)
+      attributeOrder = new int[Math.max(len, attributeOrder.length * 2)];
+    for (int i = 0; i < len; i++)
+      attributeOrder[i] = i;
+    int gap = 1;
+    if (len > INSERTION_SORT_MAX_ATTRIBUTES) {
+      while (gap < len / 3)
+        gap = gap * 3 + 1;
+    }
+    for (; gap > 0; gap /= 3) {
+      for (int i = gap; i < len; i++) {
+        int k = attributeOrder[i];
+        int j = i;
+        for (; j >= gap && compareAttributes(atts, attributeOrder[j - gap], k) > 0; j -= gap)
+          attributeOrder[j] = attributeOrder[j - gap];
+        attributeOrder[j] = k;
+      }
+    }
+  }
+
+  static private int compareAttributes(Attributes atts, int i1, int i2) {
+    int n = atts.getURI(i1).compareTo(atts.getURI(i2));
+    if (n != 0)
+      return n;
+    return atts.getLocalName(i1).compareTo(atts.getLocalName(i2));
+  }
+
+  public void endElement(Name name, String qName) throws SAXException {
+    if (errorsLeft == 0)
+      return;
+    if (bufferingCharacters) {
+      bufferingCharacters = false;
+      if (streamingValidator != null)
+        check(matcher.matchStreamedTextBeforeEndTag(takeStreamingValidator(), streamedBlank, name, qName, context));
+      else if (charBuf.length() > 0)
+        check(matcher.matchTextBeforeEndTag(charBuf.toString(), name, qName, context));
+    }
+    check(matcher.matchEndTag(name, qName, context));
+  }
+
+  public void characters(char ch[], int start, int length) throws SAXException {
+    if (errorsLeft == 0)
+      return;
+    if (bufferingCharacters) {
+      if (streamingValidator != null)
+        stream(ch, start, length);
+      else {
+        charBuf.append(ch, start, length);
+        if (charBuf.length() >= STREAMING_THRESHOLD && !triedStreaming)
+          startStreaming();
+      }
+      return;
+    }
+    for (int i = 0; i < length; i++) {
+      switch (ch[start + i]) {
+      case ' ':
+      case '\r':
+      case '\t':
+      case '\n':
+        break;
+      default:
+        check(matcher.matchUntypedText(context));
+        return;
+      }
+    }
+  }
+
+  /**
+   * Matches any text buffered before a start-tag.  This must be called before the context
+   * changes for a start-tag, for example, because of its namespace declarations.
+   */
+  public void flushTextBeforeStartTag() throws SAXException {
+    if (bufferingCharacters && errorsLeft != 0) {
+      bufferingCharacters = false;
+      if (streamingValidator != null)
+        check(matcher.matchStreamedTextBeforeStartTag(takeStreamingValidator(), streamedBlank, context));
+      else
+        check(matcher.matchTextBeforeStartTag(charBuf.toString(), context));
+    }
+  }
+
+  /**
+   * Passes the buffered text to a streaming validator, if the matcher provides one.
+   */
+  private void startStreaming() {
+    triedStreaming = true;
+    streamingValidator = matcher.createTextStreamingValidator(context);
+    if (streamingValidator != null) {
+      streamedBlank = true;
+      int len = charBuf.length();
+      char[] buf = new char[len];
+      charBuf.getChars(0, len, buf, 0);
+      charBuf.setLength(0);
+      stream(buf, 0, len);
+    }
+  }
+
+  private void stream(char[] ch, int start, int length) {
+    streamingValidator.addCharacters(ch, start, length);
+    if (streamedBlank) {
+      for (int i = 0; i < length; i++) {
+        switch (ch[start + i]) {
+        case ' ':
+        case '\r':
+        case '\t':
+        case '\n':
+          break;
+        default:
+          streamedBlank = false;
+          return;
+        }
+      }
+    }
+  }
+
+  private DatatypeStreamingValidator takeStreamingValidator() {
+    DatatypeStreamingValidator sv = streamingValidator;
+    streamingValidator = null;
+    return sv;
+  }
+
+  private void check(boolean ok) throws SAXException {
+    if (!ok && errorsLeft != 0) {
+      if (errorsLeft > 0)
+        --errorsLeft;
+      error();
+    }
+  }
+}
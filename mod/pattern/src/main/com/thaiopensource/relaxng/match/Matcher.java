@@ -1,6 +1,7 @@
 package com.thaiopensource.relaxng.match;
 
 import com.thaiopensource.xml.util.Name;
+import org.relaxng.datatype.DatatypeStreamingValidator;
 
 import java.util.Set;
 
@@ -170,6 +171,49 @@ public interface Matcher {
    */
   boolean matchTextBeforeStartTag(String string, MatchContext context);
 
+  /**
+   * Return a <code>DatatypeStreamingValidator</code> to which the text of a Text event can be passed
+   * as it is received, instead of collecting it into a string, so that very long text does not have to be
+   * held in memory.  The Text event is then matched with <code>matchStreamedTextBeforeEndTag</code>
+   * or <code>matchStreamedTextBeforeStartTag</code> instead of <code>matchTextBeforeEndTag</code>
+   * or <code>matchTextBeforeStartTag</code>.  This may only be used when <code>isTextTyped</code>
+   * returns true.
+   *
+   * @param context a match context, which must remain valid until the Text event has been matched
+   * @return a <code>DatatypeStreamingValidator</code>, or null if the text has to be matched as a string
+   */
+  DatatypeStreamingValidator createTextStreamingValidator(MatchContext context);
+
+  /**
+   * Match a Text event that occurs immediately before an EndTag event, and whose text
+   * was passed to a <code>DatatypeStreamingValidator</code>.
+   *
+   * @param streamingValidator the <code>DatatypeStreamingValidator</code> returned by
+   * <code>createTextStreamingValidator</code>, to which all the text has been passed
+   * @param blank true if the text consisted only of whitespace (' ', '\r', '\n', '\t')
+   * @param name the name of the parent element
+   * @param qName the qName of the parent element
+   * @param context a match context
+   * @return false if there was an error, true otherwise
+   * @see #matchTextBeforeEndTag
+   */
+  boolean matchStreamedTextBeforeEndTag(DatatypeStreamingValidator streamingValidator, boolean blank,
+                                        Name name, String qName, MatchContext context);
+
+  /**
+   * Match a Text event that occurs immediately before a StartTagOpen event, and whose text
+   * was passed to a <code>DatatypeStreamingValidator</code>.
+   *
+   * @param streamingValidator the <code>DatatypeStreamingValidator</code> returned by
+   * <code>createTextStreamingValidator</code>, to which all the text has been passed
+   * @param blank true if the text consisted only of whitespace (' ', '\r', '\n', '\t')
+   * @param context a match context
+   * @return false if there was an error, true otherwise
+   * @see #matchTextBeforeStartTag
+   */
+  boolean matchStreamedTextBeforeStartTag(DatatypeStreamingValidator streamingValidator, boolean blank,
+                                          MatchContext context);
+
   /**
    * An optimization of <code>matchTextBeforeStartTag</code>/<code>matchTextBeforeEndTag</code>.
    * Unlike these functions, <code>matchUntypedText</code> does not
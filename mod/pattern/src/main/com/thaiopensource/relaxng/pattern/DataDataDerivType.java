@@ -2,6 +2,7 @@ package com.thaiopensource.relaxng.pattern;
 
 import org.relaxng.datatype.Datatype;
 import org.relaxng.datatype.DatatypeException;
+import org.relaxng.datatype.DatatypeStreamingValidator;
 import org.relaxng.datatype.ValidationContext;
 
 import java.util.List;
@@ -46,6 +47,30 @@ class DataDataDerivType extends DataDerivType {
     }
   }
 
+  DatatypeStreamingValidator createStreamingValidator(ValidationContext vc) {
+    return dp.getDatatype().createStreamingValidator(vc);
+  }
+
+  /**
+   * Since the derivative depends only on whether the text is valid, it can be computed from the result
+   * of the streaming validator, and it shares the memos with the derivative for a string.
+   */
+  PatternMemo streamedDataDeriv(ValidatorPatternBuilder builder, Pattern p, DatatypeException e,
+                                List<DataDerivFailure> fail) {
+    if (e == null) {
+      if (validMemo == null || (fail != null && validMemo.isNotAllowed()))
+        validMemo = super.streamedDataDeriv(builder, p, e, fail);
+      return validMemo;
+    }
+    else {
+      if (invalidMemo == null)
+        invalidMemo = super.streamedDataDeriv(builder, p, e, fail);
+      else if (invalidMemo.isNotAllowed() && fail != null)
+        fail.add(new DataDerivFailure(dp, e));
+      return invalidMemo;
+    }
+  }
+
   DataDerivType copy() {
     return new DataDataDerivType(dp);
   }
@@ -12,12 +12,29 @@ class DataDerivFunction extends AbstractPatternFunction<Pattern> {
   private final ValidationContext vc;
   private final String str;
   private final List<DataDerivFailure> fail;
+  // if str is null, the exception thrown by the streaming validator to which the text was passed
+  private final DatatypeException streamedException;
 
   DataDerivFunction(String str, ValidationContext vc, ValidatorPatternBuilder builder, List<DataDerivFailure> fail) {
     this.str = str;
     this.vc = vc;
     this.builder = builder;
     this.fail = fail;
+    this.streamedException = null;
+  }
+
+  /**
+   * Creates a function for text that was passed to a DatatypeStreamingValidator rather than being
+   * collected into a string.  It can only be applied to a pattern whose DataDerivType is a
+   * SingleDataDerivType or a DataDataDerivType, since then all that matters about the text is whether
+   * the streaming validator found it valid: e is the exception it threw, or null if it did not throw.
+   */
+  DataDerivFunction(DatatypeException e, ValidatorPatternBuilder builder, List<DataDerivFailure> fail) {
+    this.str = null;
+    this.vc = null;
+    this.builder = builder;
+    this.fail = fail;
+    this.streamedException = e;
   }
 
   static boolean isBlank(String str) {
@@ -111,6 +128,13 @@ class DataDerivFunction extends AbstractPatternFunction<Pattern> {
   public Pattern caseData(DataPattern p) {
     if (p.allowsAnyString())
       return builder.makeEmpty();
+    if (str == null) {
+      if (streamedException == null)
+        return builder.makeEmpty();
+      if (fail != null)
+        fail.add(new DataDerivFailure(p, streamedException));
+      return builder.makeNotAllowed();
+    }
     if (fail != null) {
       try {
         p.getDatatype().checkValid(str, vc);
@@ -188,10 +212,14 @@ class DataDerivFunction extends AbstractPatternFunction<Pattern> {
   }
 
   private Pattern memoApply(Pattern p) {
+    if (str == null)
+      return builder.getPatternMemo(p).streamedDataDeriv(streamedException, null).getPattern();
     return builder.getPatternMemo(p).dataDeriv(str, vc).getPattern();
   }
 
   private Pattern memoApplyWithFailure(Pattern p) {
+    if (str == null)
+      return builder.getPatternMemo(p).streamedDataDeriv(streamedException, fail).getPattern();
     return builder.getPatternMemo(p).dataDeriv(str, vc, fail).getPattern();
   }
 
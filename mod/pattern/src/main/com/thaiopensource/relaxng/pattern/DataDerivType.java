@@ -1,5 +1,7 @@
 package com.thaiopensource.relaxng.pattern;
 
+import org.relaxng.datatype.DatatypeException;
+import org.relaxng.datatype.DatatypeStreamingValidator;
 import org.relaxng.datatype.ValidationContext;
 
 import java.util.List;
@@ -11,4 +13,21 @@ abstract class DataDerivType {
                         List<DataDerivFailure> fail) {
     return builder.getPatternMemo(p.apply(new DataDerivFunction(str, vc, builder, fail)));
   }
+
+  /**
+   * Returns a DatatypeStreamingValidator to which text can be passed instead of being collected
+   * into a string, or null if the data derivative needs the string.
+   */
+  DatatypeStreamingValidator createStreamingValidator(ValidationContext vc) {
+    return null;
+  }
+
+  /**
+   * Computes the data derivative for text that was passed to a DatatypeStreamingValidator returned
+   * by createStreamingValidator; e is the exception thrown by its checkValid method, or null if it did not throw.
+   */
+  PatternMemo streamedDataDeriv(ValidatorPatternBuilder builder, Pattern p, DatatypeException e,
+                                List<DataDerivFailure> fail) {
+    return builder.getPatternMemo(p.apply(new DataDerivFunction(e, builder, fail)));
+  }
 }
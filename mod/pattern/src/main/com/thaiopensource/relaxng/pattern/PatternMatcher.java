@@ -3,10 +3,11 @@ package com.thaiopensource.relaxng.pattern;
 import com.thaiopensource.datatype.Datatype2;
 import com.thaiopensource.relaxng.match.MatchContext;
 import com.thaiopensource.relaxng.match.Matcher;
-import com.thaiopensource.util.Equal;
 import com.thaiopensource.util.Localizer;
 import com.thaiopensource.xml.util.Name;
 import org.relaxng.datatype.Datatype;
+import org.relaxng.datatype.DatatypeException;
+import org.relaxng.datatype.DatatypeStreamingValidator;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -43,6 +44,9 @@ public class PatternMatcher implements Cloneable, Matcher {
   private boolean textTyped;
   private boolean hadError;
   private boolean ignoreNextEndTagOrAttributeValue;
+  // the current error; its message is built from it only when the message is needed
+  private ErrorMessage error;
+  private MatchContext errorContext;
   private String errorMessage;
   private final Shared shared;
   private List<DataDerivFailure> dataDerivFailureList = new ArrayList<DataDerivFailure>();
@@ -69,11 +73,23 @@ public class PatternMatcher implements Cloneable, Matcher {
     // if the shareds are ==.
     return (memo == other.memo
             && hadError == other.hadError
-            && Equal.equal(errorMessage, other.errorMessage)
+            && sameError(other)
             && ignoreNextEndTagOrAttributeValue == other.ignoreNextEndTagOrAttributeValue
             && textTyped == other.textTyped);
   }
 
+  /**
+   * Tests whether the current error is known to have the same message as that of other, without
+   * building any message that has not already been built.  A matcher shares its error with its copies.
+   */
+  private boolean sameError(PatternMatcher other) {
+    if (error == null || other.error == null)
+      return error == other.error;
+    if (errorMessage != null && other.errorMessage != null)
+      return errorMessage.equals(other.errorMessage);
+    return error == other.error && errorContext == other.errorContext;
+  }
+
   public int hashCode() {
     return memo.hashCode();
   }
@@ -95,7 +111,11 @@ public class PatternMatcher implements Cloneable, Matcher {
 
   public boolean matchStartDocument() {
     if (memo.isNotAllowed())
-      return error("schema_allows_nothing");
+      return error(new ErrorMessage() {
+        String format(MatchContext context) {
+          return localizer().message("schema_allows_nothing");
+        }
+      }, null);
     return true;
   }
 
@@ -104,55 +124,88 @@ public class PatternMatcher implements Cloneable, Matcher {
     return true;
   }
 
-  public boolean matchStartTagOpen(Name name, String qName, MatchContext context) {
+  public boolean matchStartTagOpen(final Name name, final String qName, MatchContext context) {
     if (setMemo(memo.startTagOpenDeriv(name)))
       return true;
+    final PatternMemo errorMemo = memo;
     PatternMemo next = memo.startTagOpenRecoverDeriv(name);
     boolean ok = ignoreError();
     if (!next.isNotAllowed()) {
-      if (!ok) {
-        Set<Name> missing = requiredElementNames();
-        if (!missing.isEmpty())
-          error(missing.size() == 1
-                ? "unexpected_element_required_element_missing"
-                : "unexpected_element_required_elements_missing",
-                errorArgQName(qName, name, context, false),
-                formatNames(missing, FORMAT_NAMES_ELEMENT|FORMAT_NAMES_AND, context));
-        else
-          error("element_not_allowed_yet",
-                errorArgQName(qName, name, context, false),
-                expectedContent(context));
-      }
+      if (!ok)
+        error(new ErrorMessage() {
+          String format(MatchContext context) {
+            Set<Name> missing = requiredElementNames(errorMemo);
+            if (!missing.isEmpty())
+              return localizer().message(missing.size() == 1
+                                         ? "unexpected_element_required_element_missing"
+                                         : "unexpected_element_required_elements_missing",
+                                         errorArgQName(qName, name, context, false),
+                                         formatNames(missing, FORMAT_NAMES_ELEMENT|FORMAT_NAMES_AND, context));
+            return localizer().message("element_not_allowed_yet",
+                                       errorArgQName(qName, name, context, false),
+                                       expectedContent(errorMemo, context));
+          }
+        }, context);
     }
     else {
       final ValidatorPatternBuilder builder = shared.builder;
       next = builder.getPatternMemo(builder.makeAfter(shared.findElement(name), memo.getPattern()));
-      if (!ok)
-        error(next.isNotAllowed() ? "unknown_element" : "out_of_context_element",
-              errorArgQName(qName, name, context, false),
-              expectedContent(context));
+      if (!ok) {
+        final String key = next.isNotAllowed() ? "unknown_element" : "out_of_context_element";
+        error(new ErrorMessage() {
+          String format(MatchContext context) {
+            return localizer().message(key,
+                                       errorArgQName(qName, name, context, false),
+                                       expectedContent(errorMemo, context));
+          }
+        }, context);
+      }
     }
     memo = next;
     return ok;
   }
 
-  public boolean matchAttributeName(Name name, String qName, MatchContext context) {
+  /**
+   * Splits off the matching of an element whose start-tag is next, so that the element can be
+   * matched independently, for example by another thread.  This is possible only if the state
+   * following the end-tag of the element does not depend on the attributes or content of the element.
+   * If it is possible, this matcher is changed to the state following the end-tag, and a new matcher
+   * is returned in the state following matchStartTagOpen for the element; the new matcher uses the
+   * specified builder, which must not be in use by another thread, and after the element's end-tag
+   * allows nothing more.  Otherwise, this matcher is unchanged and null is returned.
+   */
+  public PatternMatcher splitElement(Name name, ValidatorPatternBuilder builder) {
+    if (ignoreNextEndTagOrAttributeValue)
+      return null;
+    PatternMemo next = memo.startTagOpenDeriv(name);
+    if (next.isNotAllowed() || !(next.getPattern() instanceof AfterPattern))
+      return null;
+    AfterPattern after = (AfterPattern)next.getPattern();
+    PatternMatcher split
+      = new PatternMatcher(builder.getPatternMemo(builder.makeAfter(after.getOperand1(), builder.makeEmpty())),
+                           new Shared(shared.start, builder));
+    split.hadError = hadError;
+    memo = shared.builder.getPatternMemo(after.getOperand2());
+    textTyped = false;
+    return split;
+  }
+
+  public boolean matchAttributeName(final Name name, final String qName, MatchContext context) {
     if (setMemo(memo.startAttributeDeriv(name)))
       return true;
     ignoreNextEndTagOrAttributeValue = true;
-    boolean ok = ignoreError();
-    if (ok)
-      return true;
-    qName = errorArgQName(qName, name, context, true);
-    NormalizedNameClass nnc = memo.possibleAttributeNames();
-    if (nnc.isEmpty())
-      error("no_attributes_allowed", qName);
-    else
-      error("invalid_attribute_name", qName, expectedAttributes(context));
-    return false;
+    final PatternMemo errorMemo = memo;
+    return error(new ErrorMessage() {
+      String format(MatchContext context) {
+        String arg = errorArgQName(qName, name, context, true);
+        if (errorMemo.possibleAttributeNames().isEmpty())
+          return localizer().message("no_attributes_allowed", arg);
+        return localizer().message("invalid_attribute_name", arg, expectedAttributes(errorMemo, context));
+      }
+    }, context);
   }
 
-  public boolean matchAttributeValue(String value, Name name, String qName, MatchContext context) {
+  public boolean matchAttributeValue(final String value, final Name name, final String qName, MatchContext context) {
     if (ignoreNextEndTagOrAttributeValue) {
       ignoreNextEndTagOrAttributeValue = false;
       return true;
@@ -160,29 +213,36 @@ public class PatternMatcher implements Cloneable, Matcher {
     dataDerivFailureList.clear();
     if (setMemo(memo.dataDeriv(value, context, dataDerivFailureList)))
       return true;
-    boolean ok = error("invalid_attribute_value", errorArgQName(qName, name, context, true),
-                       formatDataDerivFailures(value, context));
+    final List<DataDerivFailure> failures = takeDataDerivFailures();
+    boolean ok = error(new ErrorMessage() {
+      String format(MatchContext context) {
+        return localizer().message("invalid_attribute_value",
+                                   errorArgQName(qName, name, context, true),
+                                   formatDataDerivFailures(failures, value, context));
+      }
+    }, context);
     memo = memo.recoverAfter();
     return ok;
   }
 
-  public boolean matchStartTagClose(Name name, String qName, MatchContext context) {
+  public boolean matchStartTagClose(final Name name, final String qName, MatchContext context) {
     boolean ok;
     if (setMemo(memo.endAttributes()))
       ok = true;
     else {
-      ok = ignoreError();
-      if (!ok) {
-        Set<Name> missing = requiredAttributeNames();
-        if (missing.isEmpty())
-          error("required_attributes_missing_expected",
-                errorArgQName(qName, name, context, false),
-                expectedAttributes(context));
-        else
-          error(missing.size() == 1 ? "required_attribute_missing" : "required_attributes_missing",
-                errorArgQName(qName, name, context, false),
-                formatNames(missing, FORMAT_NAMES_ATTRIBUTE|FORMAT_NAMES_AND, context));
-      }
+      final PatternMemo errorMemo = memo;
+      ok = error(new ErrorMessage() {
+        String format(MatchContext context) {
+          Set<Name> missing = requiredAttributeNames(errorMemo);
+          if (missing.isEmpty())
+            return localizer().message("required_attributes_missing_expected",
+                                       errorArgQName(qName, name, context, false),
+                                       expectedAttributes(errorMemo, context));
+          return localizer().message(missing.size() == 1 ? "required_attribute_missing" : "required_attributes_missing",
+                                     errorArgQName(qName, name, context, false),
+                                     formatNames(missing, FORMAT_NAMES_ATTRIBUTE|FORMAT_NAMES_AND, context));
+        }
+      }, context);
       memo = memo.ignoreMissingAttributes();
     }
     textTyped = memo.getPattern().getContentType() == Pattern.DATA_CONTENT_TYPE;
@@ -192,7 +252,7 @@ public class PatternMatcher implements Cloneable, Matcher {
   public boolean matchTextBeforeEndTag(String string, Name name, String qName, MatchContext context) {
     if (textTyped) {
       ignoreNextEndTagOrAttributeValue = true;
-      return setDataDeriv(string, name, qName, context);
+      return setDataDeriv(string, null, DataDerivFunction.isBlank(string), name, qName, context);
     }
     else
       return matchUntypedText(string, context);
@@ -208,46 +268,96 @@ public class PatternMatcher implements Cloneable, Matcher {
     return matchUntypedText(context);
   }
 
+  public DatatypeStreamingValidator createTextStreamingValidator(MatchContext context) {
+    if (!textTyped)
+      return null;
+    return memo.textOnly().createStreamingValidator(context);
+  }
+
+  public boolean matchStreamedTextBeforeEndTag(DatatypeStreamingValidator streamingValidator, boolean blank,
+                                               Name name, String qName, MatchContext context) {
+    ignoreNextEndTagOrAttributeValue = true;
+    DatatypeException streamedException = null;
+    try {
+      streamingValidator.checkValid();
+    }
+    catch (DatatypeException e) {
+      streamedException = e;
+    }
+    return setDataDeriv(null, streamedException, blank, name, qName, context);
+  }
+
+  public boolean matchStreamedTextBeforeStartTag(DatatypeStreamingValidator streamingValidator, boolean blank,
+                                                 MatchContext context) {
+    // as with matchTextBeforeStartTag, the text only matters if it's not blank
+    if (blank)
+      return true;
+    return matchUntypedText(context);
+  }
+
   public boolean matchUntypedText(MatchContext context) {
     if (setMemo(memo.mixedTextDeriv()))
       return true;
-    return error("text_not_allowed", expectedContent(context));
+    final PatternMemo errorMemo = memo;
+    return error(new ErrorMessage() {
+      String format(MatchContext context) {
+        return localizer().message("text_not_allowed", expectedContent(errorMemo, context));
+      }
+    }, context);
   }
 
   public boolean isTextTyped() {
     return textTyped;
   }
 
-  private boolean setDataDeriv(String string, Name name, String qName, MatchContext context) {
+  /**
+   * Matches typed text.  If string is null, the text was passed to a streaming validator instead,
+   * and streamedException is the exception thrown by its checkValid method, or null if it did not throw.
+   */
+  private boolean setDataDeriv(final String string, DatatypeException streamedException, final boolean blank,
+                               final Name name, final String qName, MatchContext context) {
     textTyped = false;
     PatternMemo textOnlyMemo = memo.textOnly();
     dataDerivFailureList.clear();
-    if (setMemo(textOnlyMemo.dataDeriv(string, context, dataDerivFailureList)))
+    if (setMemo(dataDeriv(textOnlyMemo, string, streamedException, context, dataDerivFailureList)))
       return true;
     PatternMemo next = memo.recoverAfter();
     boolean ok = ignoreError();
     if (!ok && (!next.isNotAllowed()
-                || textOnlyMemo.emptyAfter().dataDeriv(string, context).isNotAllowed())) {
-      NormalizedNameClass nnc = memo.possibleStartTagNames();
-      if (!nnc.isEmpty() && DataDerivFunction.isBlank(string))
-        error("blank_not_allowed",
-              errorArgQName(qName, name, context, false),
-              expectedContent(context));
-      else
-        error("invalid_element_value", errorArgQName(qName, name, context, false),
-              formatDataDerivFailures(string, context));
+                || dataDeriv(textOnlyMemo.emptyAfter(), string, streamedException, context, null).isNotAllowed())) {
+      final PatternMemo errorMemo = memo;
+      final List<DataDerivFailure> failures = takeDataDerivFailures();
+      error(new ErrorMessage() {
+        String format(MatchContext context) {
+          NormalizedNameClass nnc = errorMemo.possibleStartTagNames();
+          if (!nnc.isEmpty() && blank)
+            return localizer().message("blank_not_allowed",
+                                       errorArgQName(qName, name, context, false),
+                                       expectedContent(errorMemo, context));
+          return localizer().message("invalid_element_value",
+                                     errorArgQName(qName, name, context, false),
+                                     formatDataDerivFailures(failures, string == null ? "" : string, context));
+        }
+      }, context);
     }
     memo = next;
     return ok;
   }
 
-  public boolean matchEndTag(Name name, String qName, MatchContext context) {
+  static private PatternMemo dataDeriv(PatternMemo memo, String string, DatatypeException streamedException,
+                                       MatchContext context, List<DataDerivFailure> fail) {
+    if (string == null)
+      return memo.streamedDataDeriv(streamedException, fail);
+    return memo.dataDeriv(string, context, fail);
+  }
+
+  public boolean matchEndTag(final Name name, final String qName, MatchContext context) {
     if (ignoreNextEndTagOrAttributeValue) {
       ignoreNextEndTagOrAttributeValue = false;
       return true;
     }
     if (textTyped)
-      return setDataDeriv("", name, qName, context);
+      return setDataDeriv("", null, true, name, qName, context);
     if (setMemo(memo.endTagDeriv()))
       return true;
     boolean ok = ignoreError();
@@ -257,24 +367,49 @@ public class PatternMatcher implements Cloneable, Matcher {
     if (!ok && (!next.isNotAllowed()
                 // Retry computing the deriv on a pattern where the after is OK (not notAllowed)
                 || memo.emptyAfter().endTagDeriv().isNotAllowed())) {
-      Set<Name> missing = requiredElementNames();
-      if (!missing.isEmpty())
-        error(missing.size() == 1
-              ? "incomplete_element_required_element_missing"
-              : "incomplete_element_required_elements_missing",
-              errorArgQName(qName, name, context, false),
-              formatNames(missing, FORMAT_NAMES_ELEMENT|FORMAT_NAMES_AND, context));
-      else
-        // XXX  Could do better here and describe what is required instead of what is possible
-        error("incomplete_element_required_elements_missing_expected",
-              errorArgQName(qName, name, context, false),
-              expectedContent(context));
+      final PatternMemo errorMemo = memo;
+      error(new ErrorMessage() {
+        String format(MatchContext context) {
+          Set<Name> missing = requiredElementNames(errorMemo);
+          if (!missing.isEmpty())
+            return localizer().message(missing.size() == 1
+                                       ? "incomplete_element_required_element_missing"
+                                       : "incomplete_element_required_elements_missing",
+                                       errorArgQName(qName, name, context, false),
+                                       formatNames(missing, FORMAT_NAMES_ELEMENT|FORMAT_NAMES_AND, context));
+          // XXX  Could do better here and describe what is required instead of what is possible
+          return localizer().message("incomplete_element_required_elements_missing_expected",
+                                     errorArgQName(qName, name, context, false),
+                                     expectedContent(errorMemo, context));
+        }
+      }, context);
     }
     memo = next;
     return ok;
   }
 
   public String getErrorMessage() {
+    if (errorMessage == null && error != null)
+      errorMessage = error.format(errorContext);
+    return errorMessage;
+  }
+
+  /**
+   * Returns the current error message, choosing prefixes for the names in the message using the
+   * specified context rather than the context passed to the method that found the error.
+   * This allows a copy of this matcher to build the message after the context passed to
+   * the method has changed, provided the specified context has not.
+   *
+   * @param context the context to use for choosing prefixes
+   * @return the current error message, or null if there has not yet been an error
+   */
+  public String getErrorMessage(MatchContext context) {
+    if (error == null)
+      return null;
+    if (errorMessage == null || context != errorContext) {
+      errorContext = context;
+      errorMessage = error.format(context);
+    }
     return errorMessage;
   }
 
@@ -291,10 +426,18 @@ public class PatternMatcher implements Cloneable, Matcher {
   }
 
   public Set<Name> requiredElementNames() {
-    return memo.getPattern().apply(shared.builder.getRequiredElementsFunction());
+    return requiredElementNames(memo);
   }
 
   public Set<Name> requiredAttributeNames() {
+    return requiredAttributeNames(memo);
+  }
+
+  private Set<Name> requiredElementNames(PatternMemo memo) {
+    return memo.getPattern().apply(shared.builder.getRequiredElementsFunction());
+  }
+
+  private Set<Name> requiredAttributeNames(PatternMemo memo) {
     return memo.getPattern().apply(shared.builder.getRequiredAttributesFunction());
   }
 
@@ -311,36 +454,40 @@ public class PatternMatcher implements Cloneable, Matcher {
     return hadError && memo.isNotAllowed();
   }
 
-  /*
-   * Return true if the error was ignored, false otherwise.
+  /**
+   * Builds the message for an error.  Finding an error is cheap, but describing it can be much more
+   * expensive, for example when it involves computing the names that are expected, and the message
+   * is often not needed, so an error is recorded as an ErrorMessage, and the message is built only
+   * when it is asked for.  An ErrorMessage must therefore not depend on the mutable state of the matcher.
    */
-  private boolean error(String key) {
-    return error(key, new String[] { });
+  static private abstract class ErrorMessage {
+    abstract String format(MatchContext context);
   }
 
-  private boolean error(String key, String arg) {
-    return error(key, new String[] { arg });
-  }
-
-  private boolean error(String key, String arg1, String arg2) {
-    return error(key, new String[] { arg1, arg2 });
-  }
-
-  private boolean error(String key, String arg1, String arg2, String arg3) {
-    return error(key, new String[] { arg1, arg2, arg3 });
-  }
-
-  private boolean error(String key, String[] args) {
+  /*
+   * Return true if the error was ignored, false otherwise.
+   */
+  private boolean error(ErrorMessage message, MatchContext context) {
     if (ignoreError())
       return true;
     hadError = true;
-    errorMessage = localizer().message(key, args);
+    error = message;
+    errorContext = context;
+    errorMessage = null;
     return false;
   }
-   
-  private String errorArgQName(String qName, Name name, MatchContext context, boolean isAttribute) {
-    if (ignoreError())
-      return null;
+
+  /**
+   * Returns the list of failures of the last dataDeriv, replacing it with a new list,
+   * so that it can be used by an ErrorMessage.
+   */
+  private List<DataDerivFailure> takeDataDerivFailures() {
+    List<DataDerivFailure> failures = dataDerivFailureList;
+    dataDerivFailureList = new ArrayList<DataDerivFailure>();
+    return failures;
+  }
+
+  static private String errorArgQName(String qName, Name name, MatchContext context, boolean isAttribute) {
     if (qName == null || qName.length() == 0) {
       final String ns = name.getNamespaceUri();
       final String localName = name.getLocalName();
@@ -361,9 +508,8 @@ public class PatternMatcher implements Cloneable, Matcher {
   static private final int UNDEFINED_TOKEN_INDEX = -3;
   static private final int INCONSISTENT_TOKEN_INDEX = -2;
   
-  private String formatDataDerivFailures(String str, MatchContext context) {
-    if (ignoreError())
-      return null;
+  static private String formatDataDerivFailures(List<DataDerivFailure> dataDerivFailureList, String str,
+                                                MatchContext context) {
     if (dataDerivFailureList.size() == 0)
       return "";
     if (dataDerivFailureList.size() > 1) {
@@ -444,15 +590,13 @@ public class PatternMatcher implements Cloneable, Matcher {
     return localizer().message("data_failures", arg);
   }
 
-  private String quoteValue(String str) {
+  static private String quoteValue(String str) {
     StringBuilder buf = new StringBuilder();
     appendAttributeValue(buf, str);
     return buf.toString();
   }
 
-  private String expectedAttributes(MatchContext context) {
-    if (ignoreError())
-      return null;
+  static private String expectedAttributes(PatternMemo memo, MatchContext context) {
     NormalizedNameClass nnc = memo.possibleAttributeNames();
     if (nnc.isEmpty())
       return "";
@@ -466,9 +610,7 @@ public class PatternMatcher implements Cloneable, Matcher {
     return "";
   }
 
-  private String expectedContent(MatchContext context) {
-    if (ignoreError())
-      return null;
+  static private String expectedContent(PatternMemo memo, MatchContext context) {
     List<String> expected = new ArrayList<String>();
     if (!memo.endTagDeriv().isNotAllowed())
       expected.add(localizer().message("element_end_tag"));
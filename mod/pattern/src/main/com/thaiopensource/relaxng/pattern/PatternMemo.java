@@ -1,6 +1,8 @@
 package com.thaiopensource.relaxng.pattern;
 
 import com.thaiopensource.xml.util.Name;
+import org.relaxng.datatype.DatatypeException;
+import org.relaxng.datatype.DatatypeStreamingValidator;
 import org.relaxng.datatype.ValidationContext;
 
 import java.util.HashMap;
@@ -191,6 +193,14 @@ final class PatternMemo {
     return dataDerivType().dataDeriv(builder, pattern, str, vc, fail);
   }
 
+  DatatypeStreamingValidator createStreamingValidator(ValidationContext vc) {
+    return dataDerivType().createStreamingValidator(vc);
+  }
+
+  PatternMemo streamedDataDeriv(DatatypeException e, List<DataDerivFailure> fail) {
+    return dataDerivType().streamedDataDeriv(builder, pattern, e, fail);
+  }
+
   PatternMemo recoverAfter() {
     if (memoRecoverAfter == null)
       memoRecoverAfter = applyForPatternMemo(builder.getRecoverAfterFunction());
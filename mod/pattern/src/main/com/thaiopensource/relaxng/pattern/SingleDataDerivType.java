@@ -1,5 +1,7 @@
 package com.thaiopensource.relaxng.pattern;
 
+import org.relaxng.datatype.DatatypeException;
+import org.relaxng.datatype.DatatypeStreamingValidator;
 import org.relaxng.datatype.ValidationContext;
 
 import java.util.List;
@@ -8,6 +10,17 @@ import java.util.List;
  * DerivType for a Pattern whose derivative wrt any data is always the same.
  */
 class SingleDataDerivType extends DataDerivType {
+  // the text doesn't matter, so it's just thrown away
+  static private final DatatypeStreamingValidator ignoreValidator = new DatatypeStreamingValidator() {
+    public void addCharacters(char[] buf, int start, int len) { }
+
+    public boolean isValid() {
+      return true;
+    }
+
+    public void checkValid() { }
+  };
+
   private PatternMemo memo;
 
   SingleDataDerivType() { }
@@ -20,6 +33,17 @@ class SingleDataDerivType extends DataDerivType {
     return memo;
   }
 
+  DatatypeStreamingValidator createStreamingValidator(ValidationContext vc) {
+    return ignoreValidator;
+  }
+
+  PatternMemo streamedDataDeriv(ValidatorPatternBuilder builder, Pattern p, DatatypeException e,
+                                List<DataDerivFailure> fail) {
+    if (memo == null)
+      memo = super.streamedDataDeriv(builder, p, e, null);
+    return memo;
+  }
+
   DataDerivType copy() {
     return new SingleDataDerivType();
   }
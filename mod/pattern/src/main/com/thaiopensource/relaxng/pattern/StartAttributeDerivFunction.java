@@ -34,6 +34,10 @@ class StartAttributeDerivFunction extends StartTagOpenDerivFunction {
 					 getPatternBuilder().makeEmpty());
   }
 
+  NormalizedNameClass possibleNames(PatternMemo memo) {
+    return memo.possibleAttributeNames();
+  }
+
   PatternMemo apply(PatternMemo memo) {
     return memo.startAttributeDeriv(this);
   }
@@ -2,6 +2,9 @@ package com.thaiopensource.relaxng.pattern;
 
 import com.thaiopensource.xml.util.Name;
 
+import java.util.ArrayList;
+import java.util.List;
+
 class StartTagOpenDerivFunction extends AbstractPatternFunction<Pattern> {
   private final Name name;
   private final ValidatorPatternBuilder builder;
@@ -28,6 +31,9 @@ class StartTagOpenDerivFunction extends AbstractPatternFunction<Pattern> {
   }
 
   public Pattern caseInterleave(InterleavePattern p) {
+    Pattern deriv = singleBranchDeriv(p);
+    if (deriv != null)
+      return deriv;
     final Pattern p1 = p.getOperand1();
     final Pattern p2 = p.getOperand2();
     return builder.makeChoice(
@@ -43,6 +49,77 @@ class StartTagOpenDerivFunction extends AbstractPatternFunction<Pattern> {
             }));
   }
 
+  /**
+   * Computes the derivative of an interleave whose branches (the operands of the nested interleaves)
+   * can be told apart by name, as is usual for a wide interleave of optional or repeated elements.
+   * Only the branch that may match the name is derived, and the result is the interleave
+   * with that branch replaced by its residual.  The general case derives every branch, and makes
+   * a derivative, and so a memo, for each of the nested interleaves on the way; for a wide
+   * interleave, every combination of residuals would also make its own set of nested memos.
+   * Returns null if the name may match more than one branch, or if the derivative of the
+   * branch is not a single after pattern; the general case is then used, so that the result
+   * is always the same pattern as the general case would make.
+   */
+  private Pattern singleBranchDeriv(InterleavePattern p) {
+    List<Pattern> branches = new ArrayList<Pattern>();
+    addBranches(p, branches);
+    Pattern match = null;
+    for (Pattern branch : branches) {
+      NormalizedNameClass possible = possibleNames(builder.getPatternMemo(branch));
+      if (possible == null)
+        return null;
+      if (possible.contains(name)) {
+        if (match != null)
+          return null;
+        match = branch;
+      }
+    }
+    if (match == null)
+      return builder.makeNotAllowed();
+    Pattern deriv = memoApply(match);
+    if (deriv.isNotAllowed())
+      return deriv;
+    if (!(deriv instanceof AfterPattern))
+      return null;
+    AfterPattern after = (AfterPattern)deriv;
+    return builder.makeAfter(after.getOperand1(), replaceBranch(p, match, after.getOperand2()));
+  }
+
+  static private void addBranches(Pattern p, List<Pattern> branches) {
+    if (p instanceof InterleavePattern) {
+      addBranches(((InterleavePattern)p).getOperand1(), branches);
+      addBranches(((InterleavePattern)p).getOperand2(), branches);
+    }
+    else
+      branches.add(p);
+  }
+
+  /**
+   * Returns p with branch replaced by residual, or null if branch does not occur in p.
+   */
+  private Pattern replaceBranch(Pattern p, Pattern branch, Pattern residual) {
+    if (p == branch)
+      return residual;
+    if (!(p instanceof InterleavePattern))
+      return null;
+    InterleavePattern ip = (InterleavePattern)p;
+    Pattern tem = replaceBranch(ip.getOperand1(), branch, residual);
+    if (tem != null)
+      return builder.makeInterleave(tem, ip.getOperand2());
+    tem = replaceBranch(ip.getOperand2(), branch, residual);
+    if (tem != null)
+      return builder.makeInterleave(ip.getOperand1(), tem);
+    return null;
+  }
+
+  /**
+   * Returns a name class that contains every name for which the derivative of the pattern of memo
+   * may be other than notAllowed, or null if there is no such name class.
+   */
+  NormalizedNameClass possibleNames(PatternMemo memo) {
+    return memo.possibleStartTagNames();
+  }
+
   public Pattern caseAfter(AfterPattern p) {
     final Pattern p1 = p.getOperand1();
     final Pattern p2 = p.getOperand2();
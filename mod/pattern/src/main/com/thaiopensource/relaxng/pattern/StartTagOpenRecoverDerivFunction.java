@@ -14,6 +14,11 @@ class StartTagOpenRecoverDerivFunction extends StartTagOpenDerivFunction {
     return getPatternBuilder().makeChoice(tem, memoApply(p.getOperand2()));
   }
 
+  NormalizedNameClass possibleNames(PatternMemo memo) {
+    // recovery can skip required patterns, so the possible start-tag names are not enough
+    return null;
+  }
+
   PatternMemo apply(PatternMemo memo) {
     return memo.startTagOpenRecoverDeriv(this);
   }
@@ -5,9 +5,12 @@ import org.relaxng.datatype.Datatype;
 import org.relaxng.datatype.DatatypeException;
 import org.relaxng.datatype.ValidationContext;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * DataDerivType for a pattern which is a choice of values of the same datatype.
@@ -17,6 +20,9 @@ class ValueDataDerivType extends DataDerivType {
   private final Name dtName;
   private PatternMemo noValue;
   private Map<DatatypeValue, PatternMemo> valueMap;
+  // if the pattern is a choice of values of dt, the values of the choice
+  private Set<DatatypeValue> choiceValues;
+  private boolean indexed = false;
 
   ValueDataDerivType(Datatype dt, Name dtName) {
     this.dt = dt;
@@ -49,7 +55,10 @@ class ValueDataDerivType extends DataDerivType {
         valueMap = new HashMap<DatatypeValue, PatternMemo>();
       PatternMemo tem = valueMap.get(dtv);
       if (tem == null) {
-        tem = super.dataDeriv(builder, p, str, vc, fail);
+        if (isChoiceValue(p, dtv))
+          tem = builder.getPatternMemo(builder.makeEmpty());
+        else
+          tem = super.dataDeriv(builder, p, str, vc, fail);
         valueMap.put(dtv, tem);
       }
       else if (tem.isNotAllowed() && fail != null)
@@ -58,6 +67,37 @@ class ValueDataDerivType extends DataDerivType {
     }
   }
 
+  /**
+   * Tests whether p is a choice of values of dt, one of which is dtv, using an index of the values
+   * of the choice, so that a value that has not been seen before does not need the choice to be walked;
+   * this matters for choices with thousands of values, such as code lists.  A value that is not found
+   * still needs the walk, since sameValue does not imply equal valueHashCode for every datatype
+   * (for example, 0 and -0 for xsd:float), and the walk also reports the failures.
+   */
+  private boolean isChoiceValue(Pattern p, DatatypeValue dtv) {
+    if (!indexed) {
+      indexed = true;
+      List<ValuePattern> values = new ArrayList<ValuePattern>();
+      if (addChoiceValues(p, values)) {
+        choiceValues = new HashSet<DatatypeValue>();
+        for (ValuePattern vp : values)
+          choiceValues.add(new DatatypeValue(vp.getValue(), dt));
+      }
+    }
+    return choiceValues != null && choiceValues.contains(dtv);
+  }
+
+  private boolean addChoiceValues(Pattern p, List<ValuePattern> values) {
+    if (p instanceof ChoicePattern)
+      return (addChoiceValues(((ChoicePattern)p).getOperand1(), values)
+              && addChoiceValues(((ChoicePattern)p).getOperand2(), values));
+    if (p instanceof ValuePattern && ((ValuePattern)p).getDatatype() == dt) {
+      values.add((ValuePattern)p);
+      return true;
+    }
+    return false;
+  }
+
   DataDerivType combine(DataDerivType ddt) {
     if (ddt instanceof ValueDataDerivType) {
       if (((ValueDataDerivType)ddt).dt == this.dt)
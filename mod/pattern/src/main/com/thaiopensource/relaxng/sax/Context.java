@@ -11,6 +11,15 @@ public class Context extends DtdContext implements MatchContext {
   public Context() {
   }
 
+  /**
+   * Creates a context with the same namespace prefix mappings and DTD information as another
+   * context.  Prefix mappings subsequently made in either context do not affect the other.
+   */
+  public Context(Context context) {
+    super(context);
+    prefixMapping = context.prefixMapping;
+  }
+
   public void startPrefixMapping(String prefix, String uri) throws SAXException {
     prefixMapping = new PrefixMapping(prefix, "".equals(uri) ? null : uri, prefixMapping);
   }
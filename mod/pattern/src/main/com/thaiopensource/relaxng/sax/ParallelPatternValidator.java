@@ -0,0 +1,548 @@
+package com.thaiopensource.relaxng.sax;
+
+import com.thaiopensource.relaxng.pattern.IdSoundnessChecker;
+import com.thaiopensource.relaxng.pattern.IdTypeMap;
+import com.thaiopensource.relaxng.pattern.Pattern;
+import com.thaiopensource.relaxng.pattern.PatternMatcher;
+import com.thaiopensource.relaxng.pattern.ValidatorPatternBuilder;
+import com.thaiopensource.util.Threads;
+import com.thaiopensource.xml.util.Name;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.DTDHandler;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.LocatorImpl;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Validates a document against a pattern using several threads.  The document is split at
+ * the elements that are nested at a specified depth, so that with a depth of 1, the document
+ * is split at the children of the document element.  Each such element that can be matched
+ * independently of the elements before it (as determined by <code>PatternMatcher.splitElement</code>)
+ * is recorded and validated by another thread, while the thread parsing the document goes on
+ * to the following elements.  Consecutive elements are validated together, in batches.
+ * An element with more than <code>MAX_SUBTREE_EVENTS</code> events is not kept in memory:
+ * it is validated by the parsing thread as it is parsed, after the elements recorded before it.
+ * <p>
+ * Errors are reported to the ErrorHandler by the thread calling the ContentHandler methods,
+ * in the same order as they would be reported by a PatternValidator, but possibly later;
+ * all errors have been reported when <code>endDocument</code> returns.
+ * <p>
+ * If an IdTypeMap is specified, the validator also checks ID/IDREF/IDREFS attributes.  This is
+ * done by the parsing thread, which sees the attributes of every element in document order,
+ * and the errors are merged into the same ordered stream as the other errors.
+ */
+public class ParallelPatternValidator implements ContentHandler, DTDHandler {
+  static private final int BATCH_EVENTS = 4096;
+  static final int MAX_SUBTREE_EVENTS = 16 * BATCH_EVENTS;
+
+  private final ValidatorPatternBuilder builder;
+  private final ErrorHandler eh;
+  private final int splitDepth;
+  private final int nThreads;
+  private final PatternValidator main;
+  private final IdSoundnessChecker idChecker;
+  private final Queue<ValidatorPatternBuilder> idleBuilders = new ConcurrentLinkedQueue<ValidatorPatternBuilder>();
+  // the errors not yet reported, in document order
+  private final LinkedList<Segment> segments = new LinkedList<Segment>();
+  private final Executor executor;
+  private Locator locator = null;
+  private int depth = 0;
+  // the element being recorded
+  private Subtree subtree = null;
+  // the elements recorded but not yet submitted for validation
+  private Batch batch = null;
+
+  /**
+   * Creates a validator.
+   * @param pattern the pattern to validate against
+   * @param builder the builder to use for the parsing thread
+   * @param idTypeMap the IdTypeMap for checking ID/IDREF/IDREFS attributes, or null
+   * @param eh the ErrorHandler to which errors are reported
+   * @param splitDepth the depth of the elements at which the document is split; must be at least 1
+   * @param nThreads the number of threads to use; if less than 2, the document is not split;
+   * otherwise the executor returned by <code>Threads.getSharedExecutor</code> is used
+   */
+  public ParallelPatternValidator(Pattern pattern, ValidatorPatternBuilder builder, IdTypeMap idTypeMap,
+                                  ErrorHandler eh, int splitDepth, int nThreads) {
+    this(pattern, builder, idTypeMap, eh, splitDepth, nThreads < 2 ? null : Threads.getSharedExecutor(), nThreads);
+  }
+
+  /**
+   * Creates a validator that uses the specified executor.  A batch that the executor has not started
+   * by the time its errors are needed is validated by the parsing thread.
+   * @param pattern the pattern to validate against
+   * @param builder the builder to use for the parsing thread
+   * @param idTypeMap the IdTypeMap for checking ID/IDREF/IDREFS attributes, or null
+   * @param eh the ErrorHandler to which errors are reported
+   * @param splitDepth the depth of the elements at which the document is split; must be at least 1
+   * @param executor the executor for validating batches; if null, the document is not split
+   * @param nThreads the number of batches that may be validated at the same time;
+   * if less than 2, the document is not split
+   */
+  public ParallelPatternValidator(Pattern pattern, ValidatorPatternBuilder builder, IdTypeMap idTypeMap,
+                                  ErrorHandler eh, int splitDepth, Executor executor, int nThreads) {
+    if (splitDepth < 1)
+      throw new IllegalArgumentException();
+    this.builder = builder;
+    this.eh = eh;
+    this.splitDepth = executor == null || nThreads < 2 ? -1 : splitDepth;
+    this.executor = executor;
+    this.nThreads = nThreads;
+    ErrorHandler ordered = new OrderedErrorHandler();
+    this.main = new PatternValidator(pattern, builder, ordered);
+    this.idChecker = idTypeMap == null ? null : new IdSoundnessChecker(idTypeMap, ordered);
+  }
+
+  public void setDocumentLocator(Locator locator) {
+    this.locator = locator;
+    main.setDocumentLocator(locator);
+  }
+
+  public void startDocument() throws SAXException {
+    main.startDocument();
+  }
+
+  public void endDocument() throws SAXException {
+    if (batch != null) {
+      if (batch.events > 0)
+        submitBatch();
+      else {
+        idleBuilders.add(batch.builder);
+        batch = null;
+      }
+    }
+    main.endDocument();
+    checkMissingIds();
+    reportSegments(0);
+  }
+
+  /**
+   * Reports IDREFs for which there was no ID.  This is called at the end of the document.
+   */
+  protected void checkMissingIds() throws SAXException {
+    if (idChecker != null)
+      idChecker.endDocument();
+  }
+
+  public void startElement(String namespaceURI,
+                           String localName,
+                           String qName,
+                           Attributes atts) throws SAXException {
+    if (subtree == null && depth == splitDepth) {
+      main.flushTextBeforeStartTag();
+      if (batch == null)
+        batch = new Batch();
+      PatternMatcher matcher = main.splitElement(new Name(namespaceURI, localName), batch.builder);
+      if (matcher != null) {
+        subtree = new Subtree(matcher, new Context(main));
+        record(new StartElement(namespaceURI, localName, qName, atts, true, locator));
+      }
+      else
+        main.startElement(namespaceURI, localName, qName, atts);
+    }
+    else if (subtree != null)
+      record(new StartElement(namespaceURI, localName, qName, atts, false, locator));
+    else
+      main.startElement(namespaceURI, localName, qName, atts);
+    depth++;
+    if (idChecker != null) {
+      Name elementName = new Name(namespaceURI, localName);
+      int len = atts.getLength();
+      for (int i = 0; i < len; i++)
+        idChecker.attribute(elementName, new Name(atts.getURI(i), atts.getLocalName(i)), atts.getValue(i), locator);
+    }
+  }
+
+  public void endElement(String namespaceURI,
+                         String localName,
+                         String qName) throws SAXException {
+    --depth;
+    if (subtree != null) {
+      record(new EndElement(namespaceURI, localName, qName, locator));
+      if (depth == splitDepth) {
+        Subtree recorded = subtree;
+        subtree = null;
+        if (!recorded.isValidating()) {
+          batch.add(recorded);
+          if (batch.events >= BATCH_EVENTS)
+            submitBatch();
+        }
+      }
+    }
+    else
+      main.endElement(namespaceURI, localName, qName);
+  }
+
+  public void characters(char ch[], int start, int length) throws SAXException {
+    if (subtree != null)
+      record(new Characters(ch, start, length, locator));
+    else
+      main.characters(ch, start, length);
+  }
+
+  public void startPrefixMapping(String prefix, String uri) throws SAXException {
+    if (subtree != null)
+      record(new StartPrefixMapping(prefix, uri, locator));
+    else
+      main.startPrefixMapping(prefix, uri);
+  }
+
+  public void endPrefixMapping(String prefix) throws SAXException {
+    if (subtree != null)
+      record(new EndPrefixMapping(prefix, locator));
+    else
+      main.endPrefixMapping(prefix);
+  }
+
+  public void processingInstruction(String target, String date) { }
+  public void skippedEntity(String name) { }
+  public void ignorableWhitespace(char[] ch, int start, int len) { }
+
+  public void notationDecl(String name, String publicId, String systemId) throws SAXException {
+    main.notationDecl(name, publicId, systemId);
+  }
+
+  public void unparsedEntityDecl(String name, String publicId, String systemId, String notationName)
+          throws SAXException {
+    main.unparsedEntityDecl(name, publicId, systemId, notationName);
+  }
+
+  public void reset() {
+    main.reset();
+    if (idChecker != null)
+      idChecker.reset();
+    locator = null;
+    depth = 0;
+    subtree = null;
+    if (batch != null) {
+      idleBuilders.add(batch.builder);
+      batch = null;
+    }
+    for (Segment segment : segments)
+      segment.errors.cancel(false);
+    segments.clear();
+  }
+
+  private void record(Event event) throws SAXException {
+    subtree.add(event);
+    if (subtree.events.size() > MAX_SUBTREE_EVENTS)
+      validateSubtreeNow();
+  }
+
+  /**
+   * Validates the element being recorded in this thread, rather than keep all its events in memory.
+   * The elements recorded before it are validated first, so that the errors stay in order.
+   */
+  private void validateSubtreeNow() throws SAXException {
+    Subtree current = subtree;
+    subtree = null;
+    List<Subtree> recorded = new ArrayList<Subtree>(batch.subtrees);
+    batch.clear();
+    ErrorHandler ordered = new OrderedErrorHandler();
+    for (Subtree s : recorded)
+      s.validate(ordered);
+    current.validate(ordered);
+    subtree = current;
+  }
+
+  private void submitBatch() throws SAXException {
+    FutureTask<List<SAXParseException>> task = new FutureTask<List<SAXParseException>>(batch);
+    segments.add(new Segment(task));
+    batch = null;
+    try {
+      executor.execute(task);
+    }
+    catch (RejectedExecutionException e) {
+      // reportSegments runs the task
+    }
+    reportSegments(nThreads * 2);
+  }
+
+  /**
+   * Reports the errors for the segments that have been validated, waiting until no more than
+   * maxSegments remain.
+   */
+  private void reportSegments(int maxSegments) throws SAXException {
+    while (!segments.isEmpty()
+           && (segments.size() > maxSegments || segments.getFirst().errors.isDone())) {
+      Segment segment = segments.removeFirst();
+      // a batch that has not been started is validated by this thread rather than waited for
+      segment.errors.run();
+      for (SAXParseException e : Threads.getResult(segment.errors, SAXException.class))
+        eh.error(e);
+      for (SAXParseException e : segment.following)
+        eh.error(e);
+    }
+  }
+
+  /**
+   * Puts errors found by the parsing thread in order with the errors found by other threads.
+   */
+  private class OrderedErrorHandler implements ErrorHandler {
+    public void warning(SAXParseException exception) throws SAXException {
+      eh.warning(exception);
+    }
+
+    public void error(SAXParseException exception) throws SAXException {
+      if (subtree != null && !subtree.isValidating()) {
+        subtree.add(new ErrorEvent(exception));
+        return;
+      }
+      if (batch != null && batch.events > 0)
+        submitBatch();
+      if (segments.isEmpty())
+        eh.error(exception);
+      else
+        segments.getLast().following.add(exception);
+    }
+
+    public void fatalError(SAXParseException exception) throws SAXException {
+      error(exception);
+    }
+  }
+
+  static private class Segment {
+    private final FutureTask<List<SAXParseException>> errors;
+    // errors found by the parsing thread after the batch
+    private final List<SAXParseException> following = new ArrayList<SAXParseException>();
+
+    Segment(FutureTask<List<SAXParseException>> errors) {
+      this.errors = errors;
+    }
+  }
+
+  private class Batch implements Callable<List<SAXParseException>> {
+    private final ValidatorPatternBuilder builder;
+    private final List<Subtree> subtrees = new ArrayList<Subtree>();
+    private int events = 0;
+
+    Batch() {
+      ValidatorPatternBuilder idle = idleBuilders.poll();
+      // a new builder must be created by the parsing thread, since it copies the patterns of the parsing thread's builder
+      this.builder = idle != null ? idle : new ValidatorPatternBuilder(ParallelPatternValidator.this.builder);
+    }
+
+    void add(Subtree subtree) {
+      subtrees.add(subtree);
+      events += subtree.events.size();
+    }
+
+    void clear() {
+      subtrees.clear();
+      events = 0;
+    }
+
+    public List<SAXParseException> call() throws SAXException {
+      final List<SAXParseException> errors = new ArrayList<SAXParseException>();
+      ErrorHandler recorder = new ErrorHandler() {
+        public void warning(SAXParseException exception) {
+        }
+
+        public void error(SAXParseException exception) {
+          errors.add(exception);
+        }
+
+        public void fatalError(SAXParseException exception) {
+          errors.add(exception);
+        }
+      };
+      try {
+        for (Subtree subtree : subtrees)
+          subtree.validate(recorder);
+      }
+      finally {
+        idleBuilders.add(builder);
+      }
+      return errors;
+    }
+  }
+
+  static private class Subtree {
+    private final PatternMatcher matcher;
+    private final Context context;
+    private final List<Event> events = new ArrayList<Event>();
+    private PatternValidator validator = null;
+    private LocatorImpl locator;
+    private ErrorHandler eh;
+
+    Subtree(PatternMatcher matcher, Context context) {
+      this.matcher = matcher;
+      this.context = context;
+    }
+
+    void add(Event event) throws SAXException {
+      if (validator != null)
+        replay(event);
+      else
+        events.add(event);
+    }
+
+    boolean isValidating() {
+      return validator != null;
+    }
+
+    /**
+     * Validates the events recorded so far.  Events added afterwards are validated as they are added.
+     */
+    void validate(ErrorHandler eh) throws SAXException {
+      this.eh = eh;
+      validator = new PatternValidator(matcher, context, eh);
+      locator = new LocatorImpl();
+      validator.setDocumentLocator(locator);
+      for (Event event : events)
+        replay(event);
+      events.clear();
+    }
+
+    private void replay(Event event) throws SAXException {
+      event.setLocation(locator);
+      event.replay(validator, eh);
+    }
+  }
+
+  static private abstract class Event {
+    private final String publicId;
+    private final String systemId;
+    private final int lineNumber;
+    private final int columnNumber;
+
+    Event(Locator locator) {
+      if (locator != null) {
+        publicId = locator.getPublicId();
+        systemId = locator.getSystemId();
+        lineNumber = locator.getLineNumber();
+        columnNumber = locator.getColumnNumber();
+      }
+      else {
+        publicId = null;
+        systemId = null;
+        lineNumber = -1;
+        columnNumber = -1;
+      }
+    }
+
+    void setLocation(LocatorImpl locator) {
+      locator.setPublicId(publicId);
+      locator.setSystemId(systemId);
+      locator.setLineNumber(lineNumber);
+      locator.setColumnNumber(columnNumber);
+    }
+
+    abstract void replay(PatternValidator validator, ErrorHandler eh) throws SAXException;
+  }
+
+  static private class StartElement extends Event {
+    private final String namespaceURI;
+    private final String localName;
+    private final String qName;
+    private final Attributes atts;
+    // true if the start-tag open has already been matched
+    private final boolean opened;
+
+    StartElement(String namespaceURI, String localName, String qName, Attributes atts, boolean opened,
+                 Locator locator) {
+      super(locator);
+      this.namespaceURI = namespaceURI;
+      this.localName = localName;
+      this.qName = qName;
+      this.atts = new AttributesImpl(atts);
+      this.opened = opened;
+    }
+
+    void replay(PatternValidator validator, ErrorHandler eh) throws SAXException {
+      if (opened)
+        validator.finishStartTag(new Name(namespaceURI, localName), qName, atts);
+      else
+        validator.startElement(namespaceURI, localName, qName, atts);
+    }
+  }
+
+  static private class EndElement extends Event {
+    private final String namespaceURI;
+    private final String localName;
+    private final String qName;
+
+    EndElement(String namespaceURI, String localName, String qName, Locator locator) {
+      super(locator);
+      this.namespaceURI = namespaceURI;
+      this.localName = localName;
+      this.qName = qName;
+    }
+
+    void replay(PatternValidator validator, ErrorHandler eh) throws SAXException {
+      validator.endElement(namespaceURI, localName, qName);
+    }
+  }
+
+  static private class Characters extends Event {
+    private final char[] chars;
+
+    Characters(char[] ch, int start, int length, Locator locator) {
+      super(locator);
+      chars = new char[length];
+      System.arraycopy(ch, start, chars, 0, length);
+    }
+
+    void replay(PatternValidator validator, ErrorHandler eh) throws SAXException {
+      validator.characters(chars, 0, chars.length);
+    }
+  }
+
+  static private class StartPrefixMapping extends Event {
+    private final String prefix;
+    private final String uri;
+
+    StartPrefixMapping(String prefix, String uri, Locator locator) {
+      super(locator);
+      this.prefix = prefix;
+      this.uri = uri;
+    }
+
+    void replay(PatternValidator validator, ErrorHandler eh) throws SAXException {
+      validator.startPrefixMapping(prefix, uri);
+    }
+  }
+
+  static private class EndPrefixMapping extends Event {
+    private final String prefix;
+
+    EndPrefixMapping(String prefix, Locator locator) {
+      super(locator);
+      this.prefix = prefix;
+    }
+
+    void replay(PatternValidator validator, ErrorHandler eh) throws SAXException {
+      validator.endPrefixMapping(prefix);
+    }
+  }
+
+  /**
+   * An error found by the parsing thread while recording an element.
+   */
+  static private class ErrorEvent extends Event {
+    private final SAXParseException exception;
+
+    ErrorEvent(SAXParseException exception) {
+      super(null);
+      this.exception = exception;
+    }
+
+    void replay(PatternValidator validator, ErrorHandler eh) throws SAXException {
+      eh.error(exception);
+    }
+  }
+}
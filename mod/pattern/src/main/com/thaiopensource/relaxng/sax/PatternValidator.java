@@ -1,9 +1,11 @@
 package com.thaiopensource.relaxng.sax;
 
+import com.thaiopensource.relaxng.match.MatchDriver;
 import com.thaiopensource.relaxng.match.Matcher;
 import com.thaiopensource.relaxng.pattern.Pattern;
 import com.thaiopensource.relaxng.pattern.PatternMatcher;
 import com.thaiopensource.relaxng.pattern.ValidatorPatternBuilder;
+import com.thaiopensource.xml.sax.CountingErrorHandler;
 import com.thaiopensource.xml.util.Name;
 import org.xml.sax.Attributes;
 import org.xml.sax.ContentHandler;
@@ -13,70 +15,46 @@ import org.xml.sax.Locator;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
 
+/**
+ * Validates the SAX events of a document against a pattern.
+ * <p>
+ * The message of each error is built when the error is reported, except when the ErrorHandler is a
+ * CountingErrorHandler that does not pass errors on to another ErrorHandler: the message would never
+ * be looked at, so the SAXParseException is reported without one.  Building a message costs much more
+ * than finding the error, so checking whether a document is valid is then not slowed down by its errors.
+ * The matching itself is done by a MatchDriver.
+ */
 public class PatternValidator extends Context implements ContentHandler, DTDHandler {
-  private Matcher matcher;
+  private final Driver driver;
   private final ErrorHandler eh;
-  private boolean bufferingCharacters = false;
-  private final StringBuilder charBuf = new StringBuilder();
   private Locator locator = null;
 
   public void startElement(String namespaceURI,
 			   String localName,
 			   String qName,
 			   Attributes atts) throws SAXException {
-    if (bufferingCharacters) {
-      bufferingCharacters = false;
-      check(matcher.matchTextBeforeStartTag(charBuf.toString(), this));
-    }
-    Name name = new Name(namespaceURI, localName);
-    check(matcher.matchStartTagOpen(name, qName, this));
-    int len = atts.getLength();
-    for (int i = 0; i < len; i++) {
-      Name attName = new Name(atts.getURI(i), atts.getLocalName(i));
-      String attQName = atts.getQName(i);
-      check(matcher.matchAttributeName(attName, attQName, this));
-      check(matcher.matchAttributeValue(atts.getValue(i), attName, attQName, this));
-    }
-    check(matcher.matchStartTagClose(name, qName, this));
-    if (matcher.isTextTyped()) {
-      bufferingCharacters = true;
-      charBuf.setLength(0);
-    }
+    driver.startElement(new Name(namespaceURI, localName), qName, atts);
+  }
+
+  /**
+   * Matches the attributes and the close of a start-tag whose open has already been matched.
+   */
+  void finishStartTag(Name name, String qName, Attributes atts) throws SAXException {
+    driver.finishStartTag(name, qName, atts);
   }
 
   public void endElement(String namespaceURI,
 			 String localName,
 			 String qName) throws SAXException {
-    if (bufferingCharacters) {
-      bufferingCharacters = false;
-      if (charBuf.length() > 0)
-        check(matcher.matchTextBeforeEndTag(charBuf.toString(), new Name(namespaceURI, localName),
-                                            qName, this));
-    }
-    check(matcher.matchEndTag(new Name(namespaceURI, localName), qName, this));
+    driver.endElement(new Name(namespaceURI, localName), qName);
   }
 
   public void characters(char ch[], int start, int length) throws SAXException {
-    if (bufferingCharacters) {
-      charBuf.append(ch, start, length);
-      return;
-    }
-    for (int i = 0; i < length; i++) {
-      switch (ch[start + i]) {
-      case ' ':
-      case '\r':
-      case '\t':
-      case '\n':
-	break;
-      default:
-	check(matcher.matchUntypedText(this));
-	return;
-      }
-    }
+    driver.characters(ch, start, length);
   }
 
   public void endDocument() throws SAXException {
-    check(matcher.matchEndDocument());
+    driver.endDocument();
   }
 
   public void setDocumentLocator(Locator locator) {
@@ -84,7 +62,7 @@ public class PatternValidator extends Context implements ContentHandler, DTDHand
   }
 
   public void startDocument() throws SAXException {
-    check(matcher.matchStartDocument());
+    driver.startDocument();
   }
 
   public void processingInstruction(String target, String date) { }
@@ -92,27 +70,70 @@ public class PatternValidator extends Context implements ContentHandler, DTDHand
   public void ignorableWhitespace(char[] ch, int start, int len) { }
 
   public void startPrefixMapping(String prefix, String uri) throws SAXException {
-    if (bufferingCharacters) {
-      bufferingCharacters = false;
-      check(matcher.matchTextBeforeStartTag(charBuf.toString(), this));
-    }
+    driver.flushTextBeforeStartTag();
     super.startPrefixMapping(prefix, uri);
   }
 
+  /**
+   * Matches any text buffered before a start-tag.
+   */
+  void flushTextBeforeStartTag() throws SAXException {
+    driver.flushTextBeforeStartTag();
+  }
+
+  /**
+   * Splits off the matching of an element whose start-tag is next; flushTextBeforeStartTag
+   * must have been called first.
+   * @see PatternMatcher#splitElement
+   */
+  PatternMatcher splitElement(Name name, ValidatorPatternBuilder builder) {
+    return ((PatternMatcher)driver.getMatcher()).splitElement(name, builder);
+  }
+
   public PatternValidator(Pattern pattern, ValidatorPatternBuilder builder, ErrorHandler eh) {
-    this.matcher = new PatternMatcher(pattern, builder);
+    this(pattern, builder, eh, -1);
+  }
+
+  /**
+   * Creates a validator that stops validating a document after reporting maxErrors errors;
+   * a maxErrors of 1 stops at the first error, and a negative maxErrors does not limit the number of errors.
+   */
+  public PatternValidator(Pattern pattern, ValidatorPatternBuilder builder, ErrorHandler eh, int maxErrors) {
+    this.driver = new Driver(new PatternMatcher(pattern, builder), maxErrors);
+    this.eh = eh;
+  }
+
+  /**
+   * Creates a validator for part of a document, starting in the state of matcher, and with
+   * the prefix mappings and DTD information of context.
+   */
+  PatternValidator(Matcher matcher, Context context, ErrorHandler eh) {
+    super(context);
+    this.driver = new Driver(matcher, -1);
     this.eh = eh;
   }
 
   public void reset() {
     super.reset();
-    bufferingCharacters = false;
+    driver.reset();
     locator = null;
-    matcher = matcher.start();
   }
 
-  private void check(boolean ok) throws SAXException {
-    if (!ok)
-      eh.error(new SAXParseException(matcher.getErrorMessage(), locator));
+  private class Driver extends MatchDriver {
+    Driver(Matcher matcher, int maxErrors) {
+      super(matcher, PatternValidator.this, maxErrors);
+    }
+
+    protected void error() throws SAXException {
+      eh.error(new SAXParseException(needsMessages() ? getMatcher().getErrorMessage() : null, locator));
+    }
+  }
+
+  /**
+   * Returns false if the ErrorHandler only counts errors.  This is checked for each error, since
+   * the ErrorHandler to which a CountingErrorHandler passes errors may change between documents.
+   */
+  private boolean needsMessages() {
+    return !(eh instanceof CountingErrorHandler) || ((CountingErrorHandler)eh).getErrorHandler() != null;
   }
 }
@@ -0,0 +1,242 @@
+package com.thaiopensource.relaxng.stax;
+
+import com.thaiopensource.relaxng.match.MatchContext;
+import com.thaiopensource.relaxng.match.MatchDriver;
+import com.thaiopensource.relaxng.match.Matcher;
+import com.thaiopensource.relaxng.parse.sax.DtdContext;
+import com.thaiopensource.relaxng.pattern.Pattern;
+import com.thaiopensource.relaxng.pattern.PatternMatcher;
+import com.thaiopensource.relaxng.pattern.ValidatorPatternBuilder;
+import com.thaiopensource.xml.util.Name;
+import com.thaiopensource.xml.util.WellKnownNamespaces;
+import org.xml.sax.Attributes;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.events.EntityDeclaration;
+import javax.xml.stream.events.NotationDeclaration;
+import java.util.List;
+
+/**
+ * Validates the events of an XMLStreamReader using a Matcher, without converting them to SAX
+ * events.  Attributes are matched directly from the reader, and character data is examined
+ * in the reader's character array; a String is created only for character data that is matched
+ * against a datatype.  The namespace context of the reader is used as the MatchContext.
+ * The matching itself is done by a MatchDriver, as for SAX events.
+ */
+public class StreamReaderValidator {
+  private final ErrorHandler eh;
+  private final StreamContext context = new StreamContext();
+  private final StreamAttributes attributes = new StreamAttributes();
+  private final Driver driver;
+
+  public StreamReaderValidator(Pattern pattern, ValidatorPatternBuilder builder, ErrorHandler eh) {
+    this(new PatternMatcher(pattern, builder), eh);
+  }
+
+  public StreamReaderValidator(Matcher matcher, ErrorHandler eh) {
+    this.driver = new Driver(matcher);
+    this.eh = eh;
+  }
+
+  public void reset() {
+    driver.reset();
+    context.clearDtdContext();
+  }
+
+  /**
+   * Validates the events read from reader.  If the reader is positioned at the start of a
+   * document, the document is validated, and the reader is left at the end of the document.
+   * If the reader is positioned at a start-tag, the element is validated as a document, and
+   * the reader is left at the end-tag of the element.
+   */
+  public void validate(XMLStreamReader reader) throws SAXException, XMLStreamException {
+    int event = reader.getEventType();
+    if (event != XMLStreamConstants.START_DOCUMENT && event != XMLStreamConstants.START_ELEMENT)
+      throw new IllegalStateException("reader must be at the start of a document or element");
+    final boolean isDocument = event == XMLStreamConstants.START_DOCUMENT;
+    context.reader = reader;
+    attributes.reader = reader;
+    try {
+      driver.startDocument();
+      int depth = 0;
+      for (;;) {
+        switch (event) {
+        case XMLStreamConstants.START_ELEMENT:
+          driver.startElement(elementName(reader), qName(reader.getPrefix(), reader.getLocalName()), attributes);
+          depth++;
+          break;
+        case XMLStreamConstants.END_ELEMENT:
+          driver.endElement(elementName(reader), qName(reader.getPrefix(), reader.getLocalName()));
+          if (--depth == 0 && !isDocument) {
+            driver.endDocument();
+            return;
+          }
+          break;
+        case XMLStreamConstants.CHARACTERS:
+        case XMLStreamConstants.CDATA:
+          driver.characters(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+          break;
+        case XMLStreamConstants.DTD:
+          dtd(reader);
+          break;
+        case XMLStreamConstants.END_DOCUMENT:
+          driver.endDocument();
+          return;
+        }
+        event = reader.next();
+      }
+    }
+    finally {
+      context.reader = null;
+      attributes.reader = null;
+    }
+  }
+
+  static private Name elementName(XMLStreamReader reader) {
+    return new Name(namespaceUri(reader.getNamespaceURI()), reader.getLocalName());
+  }
+
+  private void dtd(XMLStreamReader reader) throws SAXException {
+    List<?> notations = (List<?>)reader.getProperty("javax.xml.stream.notations");
+    if (notations != null) {
+      for (Object obj : notations)
+        context.notationDecl(((NotationDeclaration)obj).getName(), null, null);
+    }
+    List<?> entities = (List<?>)reader.getProperty("javax.xml.stream.entities");
+    if (entities != null) {
+      for (Object obj : entities) {
+        EntityDeclaration decl = (EntityDeclaration)obj;
+        if (decl.getNotationName() != null)
+          context.unparsedEntityDecl(decl.getName(), null, null, decl.getNotationName());
+      }
+    }
+  }
+
+  static private String namespaceUri(String ns) {
+    return ns == null ? "" : ns;
+  }
+
+  /**
+   * Returns the qualified name if it is just the local name; otherwise returns null rather than
+   * creating a String, and the Matcher will make a qualified name if it needs one for an error message.
+   */
+  static private String qName(String prefix, String localName) {
+    return prefix == null || prefix.length() == 0 ? localName : null;
+  }
+
+  private class Driver extends MatchDriver {
+    Driver(Matcher matcher) {
+      super(matcher, context, -1);
+    }
+
+    protected void error() throws SAXException {
+      Location loc = context.reader.getLocation();
+      if (loc == null)
+        eh.error(new SAXParseException(getMatcher().getErrorMessage(), null));
+      else
+        eh.error(new SAXParseException(getMatcher().getErrorMessage(),
+                                       loc.getPublicId(),
+                                       loc.getSystemId(),
+                                       loc.getLineNumber(),
+                                       loc.getColumnNumber()));
+    }
+  }
+
+  /**
+   * The attributes of the start-tag at which the reader is positioned.
+   */
+  static private class StreamAttributes implements Attributes {
+    private XMLStreamReader reader;
+
+    public int getLength() {
+      return reader.getAttributeCount();
+    }
+
+    public String getURI(int index) {
+      return namespaceUri(reader.getAttributeNamespace(index));
+    }
+
+    public String getLocalName(int index) {
+      return reader.getAttributeLocalName(index);
+    }
+
+    public String getQName(int index) {
+      return qName(reader.getAttributePrefix(index), reader.getAttributeLocalName(index));
+    }
+
+    public String getType(int index) {
+      return reader.getAttributeType(index);
+    }
+
+    public String getValue(int index) {
+      return reader.getAttributeValue(index);
+    }
+
+    public int getIndex(String uri, String localName) {
+      for (int i = 0, len = getLength(); i < len; i++) {
+        if (getURI(i).equals(uri) && getLocalName(i).equals(localName))
+          return i;
+      }
+      return -1;
+    }
+
+    public int getIndex(String qName) {
+      for (int i = 0, len = getLength(); i < len; i++) {
+        String prefix = reader.getAttributePrefix(i);
+        String localName = getLocalName(i);
+        if (prefix == null || prefix.length() == 0 ? qName.equals(localName) : qName.equals(prefix + ":" + localName))
+          return i;
+      }
+      return -1;
+    }
+
+    public String getType(String uri, String localName) {
+      int i = getIndex(uri, localName);
+      return i < 0 ? null : getType(i);
+    }
+
+    public String getType(String qName) {
+      int i = getIndex(qName);
+      return i < 0 ? null : getType(i);
+    }
+
+    public String getValue(String uri, String localName) {
+      int i = getIndex(uri, localName);
+      return i < 0 ? null : getValue(i);
+    }
+
+    public String getValue(String qName) {
+      int i = getIndex(qName);
+      return i < 0 ? null : getValue(i);
+    }
+  }
+
+  static private class StreamContext extends DtdContext implements MatchContext {
+    private XMLStreamReader reader;
+
+    public String resolveNamespacePrefix(String prefix) {
+      if (prefix.equals("xml"))
+        return WellKnownNamespaces.XML;
+      String ns = reader.getNamespaceURI(prefix);
+      if (ns == null || ns.length() == 0)
+        return null;
+      return ns;
+    }
+
+    public String getPrefix(String namespaceURI) {
+      if (namespaceURI.equals(WellKnownNamespaces.XML))
+        return "xml";
+      return reader.getNamespaceContext().getPrefix(namespaceURI);
+    }
+
+    public String getBaseUri() {
+      return null;
+    }
+  }
+}
@@ -112,6 +112,33 @@ public class PatternMatcherTest extends SchemaPatternBuilder {
     return matcher;
   }
   
+  @Test
+  public void testEqualsAfterError() {
+    final int[] prefixLookups = new int[1];
+    Context context = new Context() {
+      public String getPrefix(String namespaceURI) {
+        prefixLookups[0]++;
+        return super.getPrefix(namespaceURI);
+      }
+    };
+    Name foo = new Name("http://example.com/", "foo");
+    Matcher matcher = rootMatcher(makeElement(new SimpleNameClass(root), makeEmpty(), new LocatorImpl()));
+    Assert.assertFalse(matcher.matchStartTagOpen(foo, "", context));
+    // a copy shares the error, so comparing does not build the message
+    Matcher copy = matcher.copy();
+    Assert.assertEquals(copy, matcher);
+    Assert.assertEquals(prefixLookups[0], 0);
+    Matcher other = matcher.start();
+    Assert.assertTrue(other.matchStartDocument());
+    Assert.assertFalse(other.matchStartTagOpen(foo, "", context));
+    Assert.assertFalse(other.equals(matcher));
+    Assert.assertEquals(prefixLookups[0], 0);
+    // once both messages have been built, they are compared
+    Assert.assertEquals(other.getErrorMessage(), matcher.getErrorMessage());
+    Assert.assertTrue(prefixLookups[0] > 0);
+    Assert.assertEquals(other, matcher);
+  }
+
   @Test(dataProvider = "missingNamespacedAttribute")
   public void testErrorMessageAttributeNames(Matcher matcher) {
     // Before fixing issue 105 the error message was
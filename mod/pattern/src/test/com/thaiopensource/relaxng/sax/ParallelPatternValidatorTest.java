@@ -0,0 +1,273 @@
+package com.thaiopensource.relaxng.sax;
+
+import com.thaiopensource.relaxng.parse.compact.CompactParseable;
+import com.thaiopensource.relaxng.pattern.AnnotationsImpl;
+import com.thaiopensource.relaxng.pattern.CommentListImpl;
+import com.thaiopensource.relaxng.pattern.IdTypeMap;
+import com.thaiopensource.relaxng.pattern.IdTypeMapBuilder;
+import com.thaiopensource.relaxng.pattern.NameClass;
+import com.thaiopensource.relaxng.pattern.Pattern;
+import com.thaiopensource.relaxng.pattern.SchemaBuilderImpl;
+import com.thaiopensource.relaxng.pattern.SchemaPatternBuilder;
+import com.thaiopensource.relaxng.pattern.ValidatorPatternBuilder;
+import com.thaiopensource.resolver.BasicResolver;
+import com.thaiopensource.resolver.Input;
+import com.thaiopensource.util.VoidValue;
+import com.thaiopensource.xml.util.StringSplitter;
+import org.relaxng.datatype.Datatype;
+import org.relaxng.datatype.DatatypeBuilder;
+import org.relaxng.datatype.DatatypeException;
+import org.relaxng.datatype.DatatypeLibrary;
+import org.relaxng.datatype.DatatypeLibraryFactory;
+import org.relaxng.datatype.DatatypeStreamingValidator;
+import org.relaxng.datatype.ValidationContext;
+import org.relaxng.datatype.helpers.ParameterlessDatatypeBuilder;
+import org.relaxng.datatype.helpers.StreamingValidatorImpl;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.DTDHandler;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.XMLReader;
+
+import javax.xml.parsers.SAXParserFactory;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Test that ParallelPatternValidator reports the same errors in the same order as PatternValidator.
+ */
+public class ParallelPatternValidatorTest {
+  static private final String SCHEMA
+    = "datatypes d = \"urn:test:datatypes\"\n"
+    + "start = element doc { head, (item | note)*, ((x, y) | (xa, z))? }\n"
+    + "head = element head { text }\n"
+    + "item = element item { attribute id { d:ID }?, attribute ref { d:IDREF }?,\n"
+    + "                      element name { text }, element value { \"one\" | \"two\" }? }\n"
+    + "note = element note { mixed { item* } }\n"
+    + "x = element x { empty }\n"
+    + "xa = element x { attribute a { text } }\n"
+    + "y = element y { empty }\n"
+    + "z = element z { empty }\n";
+
+  private final SchemaPatternBuilder spb = new SchemaPatternBuilder();
+  private final Pattern start;
+  private final IdTypeMap idTypeMap;
+
+  public ParallelPatternValidatorTest() throws Exception {
+    Input input = new Input();
+    input.setCharacterStream(new StringReader(SCHEMA));
+    input.setUri("urn:test:schema");
+    ErrorHandler eh = new ErrorRecorder();
+    start = SchemaBuilderImpl.parse(new CompactParseable<Pattern, NameClass, Locator, VoidValue, CommentListImpl, AnnotationsImpl>(input, BasicResolver.getInstance(), eh),
+                                    eh, new IdDatatypeLibraryFactory(), spb, false);
+    idTypeMap = new IdTypeMapBuilder(eh, start).getIdTypeMap();
+  }
+
+  @DataProvider(name = "documents")
+  Object[][] documents() {
+    return new Object[][] {
+      { document(3000, false), 1 },
+      { document(3000, true), 1 },
+      { document(3000, true), 2 },
+      { document(5, true), 1 },
+      { largeElementDocument(), 1 },
+      { "<doc><head/><x/><z/></doc>", 1 },
+      { "<doc><head/><x/><x/></doc>", 1 },
+      { "<doc><head/><x a=''/><z/></doc>", 1 },
+      { "<doc><item><name/></item></doc>", 1 }
+    };
+  }
+
+  @Test(dataProvider = "documents")
+  public void testSameErrors(String document, int splitDepth) throws Exception {
+    ErrorRecorder expected = new ErrorRecorder();
+    PatternValidator sequential = new PatternValidator(start, new ValidatorPatternBuilder(spb), expected);
+    parse(document, sequential, sequential);
+    ErrorRecorder actual = new ErrorRecorder();
+    ParallelPatternValidator parallel
+      = new ParallelPatternValidator(start, new ValidatorPatternBuilder(spb), null, actual, splitDepth, 4);
+    parse(document, parallel, parallel);
+    Assert.assertEquals(actual.errors, expected.errors);
+  }
+
+  @Test(dataProvider = "documents")
+  public void testSameIdErrors(String document, int splitDepth) throws Exception {
+    // with a single thread, the document is not split
+    ErrorRecorder expected = new ErrorRecorder();
+    ParallelPatternValidator sequential
+      = new ParallelPatternValidator(start, new ValidatorPatternBuilder(spb), idTypeMap, expected, splitDepth, 1);
+    parse(document, sequential, sequential);
+    ErrorRecorder actual = new ErrorRecorder();
+    ParallelPatternValidator parallel
+      = new ParallelPatternValidator(start, new ValidatorPatternBuilder(spb), idTypeMap, actual, splitDepth, 4);
+    parse(document, parallel, parallel);
+    Assert.assertEquals(actual.errors, expected.errors);
+    // the validator can be reused after reset
+    parallel.reset();
+    actual.errors.clear();
+    parse(document, parallel, parallel);
+    Assert.assertEquals(actual.errors, expected.errors);
+  }
+
+  @Test
+  public void testExecutorNotRunningTasks() throws Exception {
+    String document = document(3000, true);
+    ErrorRecorder expected = new ErrorRecorder();
+    PatternValidator sequential = new PatternValidator(start, new ValidatorPatternBuilder(spb), expected);
+    parse(document, sequential, sequential);
+    // the parsing thread validates the batches that the executor does not start
+    Executor idle = new Executor() {
+      public void execute(Runnable command) {
+      }
+    };
+    ErrorRecorder actual = new ErrorRecorder();
+    ParallelPatternValidator parallel
+      = new ParallelPatternValidator(start, new ValidatorPatternBuilder(spb), null, actual, 1, idle, 4);
+    parse(document, parallel, parallel);
+    Assert.assertEquals(actual.errors, expected.errors);
+  }
+
+  /**
+   * Returns a document with an element that has too many events to be recorded in memory.
+   */
+  static private String largeElementDocument() {
+    String items = document(20, true);
+    // the items before the large element, some with errors, are recorded but not yet validated
+    StringBuilder buf = new StringBuilder(items.substring(0, items.indexOf("<x/>")));
+    buf.append("<note>");
+    int n = ParallelPatternValidator.MAX_SUBTREE_EVENTS / 4;
+    for (int i = 0; i < n; i++) {
+      buf.append("<item id='m").append(i).append("'>");
+      if (i % 1000 != 500)
+        buf.append("<name/>");
+      buf.append("</item>\n");
+    }
+    buf.append("</note>\n");
+    buf.append(items.substring(items.indexOf("<item id='i1'")));
+    return buf.toString();
+  }
+
+  static private String document(int items, boolean errors) {
+    StringBuilder buf = new StringBuilder();
+    buf.append("<doc xmlns:p='urn:test:p'>\n<head>title</head>\n");
+    for (int i = 0; i < items; i++) {
+      boolean error = errors && i % 97 == 0;
+      if (error && i % 3 == 0)
+        buf.append("text\n");
+      if (i % 10 == 0)
+        buf.append("<note>some <item id='n").append(i).append("'><name/></item> text</note>\n");
+      buf.append("<item id='i").append(error && i % 2 == 0 ? 0 : i).append("'");
+      if (i > 0)
+        buf.append(" ref='i").append(error ? i + 1000000 : i - 1).append("'");
+      buf.append(">");
+      if (!(error && i % 5 == 0))
+        buf.append("<name>item ").append(i).append("</name>");
+      buf.append("<value>").append(error && i % 7 == 0 ? "three" : "one").append("</value>");
+      if (error && i % 11 == 0)
+        buf.append("<p:other/>");
+      buf.append("</item>\n");
+    }
+    if (errors)
+      buf.append("<x/><y/><y/>");
+    buf.append("</doc>\n");
+    return buf.toString();
+  }
+
+  static private void parse(String document, ContentHandler ch, DTDHandler dh) throws Exception {
+    SAXParserFactory factory = SAXParserFactory.newInstance();
+    factory.setNamespaceAware(true);
+    XMLReader xr = factory.newSAXParser().getXMLReader();
+    xr.setContentHandler(ch);
+    xr.setDTDHandler(dh);
+    xr.parse(new InputSource(new StringReader(document)));
+  }
+
+  static private class ErrorRecorder implements ErrorHandler {
+    private final List<String> errors = new ArrayList<String>();
+
+    public void warning(SAXParseException exception) {
+      errors.add("warning: " + format(exception));
+    }
+
+    public void error(SAXParseException exception) {
+      errors.add("error: " + format(exception));
+    }
+
+    public void fatalError(SAXParseException exception) {
+      errors.add("fatal: " + format(exception));
+    }
+
+    static private String format(SAXParseException exception) {
+      return exception.getLineNumber() + ":" + exception.getColumnNumber() + ": " + exception.getMessage();
+    }
+  }
+
+  /**
+   * Provides the ID and IDREF datatypes, without depending on an XML Schema datatype library.
+   */
+  static private class IdDatatypeLibraryFactory implements DatatypeLibraryFactory, DatatypeLibrary {
+    public DatatypeLibrary createDatatypeLibrary(String namespaceURI) {
+      return namespaceURI.equals("urn:test:datatypes") ? this : null;
+    }
+
+    public DatatypeBuilder createDatatypeBuilder(String type) throws DatatypeException {
+      return new ParameterlessDatatypeBuilder(createDatatype(type));
+    }
+
+    public Datatype createDatatype(String type) throws DatatypeException {
+      if (type.equals("ID"))
+        return new IdDatatype(Datatype.ID_TYPE_ID);
+      if (type.equals("IDREF"))
+        return new IdDatatype(Datatype.ID_TYPE_IDREF);
+      throw new DatatypeException();
+    }
+  }
+
+  static private class IdDatatype implements Datatype {
+    private final int idType;
+
+    IdDatatype(int idType) {
+      this.idType = idType;
+    }
+
+    public boolean isValid(String str, ValidationContext vc) {
+      return StringSplitter.split(str).length == 1;
+    }
+
+    public void checkValid(String str, ValidationContext vc) throws DatatypeException {
+      if (!isValid(str, vc))
+        throw new DatatypeException();
+    }
+
+    public DatatypeStreamingValidator createStreamingValidator(ValidationContext vc) {
+      return new StreamingValidatorImpl(this, vc);
+    }
+
+    public Object createValue(String str, ValidationContext vc) {
+      return isValid(str, vc) ? str.trim() : null;
+    }
+
+    public boolean sameValue(Object value1, Object value2) {
+      return value1.equals(value2);
+    }
+
+    public int valueHashCode(Object value) {
+      return value.hashCode();
+    }
+
+    public int getIdType() {
+      return idType;
+    }
+
+    public boolean isContextDependent() {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,441 @@
+package com.thaiopensource.relaxng.sax;
+
+import com.thaiopensource.relaxng.parse.compact.CompactParseable;
+import com.thaiopensource.relaxng.pattern.AnnotationsImpl;
+import com.thaiopensource.relaxng.pattern.CommentListImpl;
+import com.thaiopensource.relaxng.pattern.NameClass;
+import com.thaiopensource.relaxng.pattern.Pattern;
+import com.thaiopensource.relaxng.pattern.SchemaBuilderImpl;
+import com.thaiopensource.relaxng.pattern.SchemaPatternBuilder;
+import com.thaiopensource.relaxng.pattern.ValidatorPatternBuilder;
+import com.thaiopensource.resolver.BasicResolver;
+import com.thaiopensource.resolver.Input;
+import com.thaiopensource.util.VoidValue;
+import com.thaiopensource.xml.sax.CountingErrorHandler;
+import org.relaxng.datatype.Datatype;
+import org.relaxng.datatype.DatatypeBuilder;
+import org.relaxng.datatype.DatatypeException;
+import org.relaxng.datatype.DatatypeLibrary;
+import org.relaxng.datatype.DatatypeLibraryFactory;
+import org.relaxng.datatype.DatatypeStreamingValidator;
+import org.relaxng.datatype.ValidationContext;
+import org.relaxng.datatype.helpers.ParameterlessDatatypeBuilder;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.AttributesImpl;
+
+import javax.xml.parsers.SAXParserFactory;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test the error messages, error limit, attribute matching, interleave matching, value matching
+ * and text streaming of PatternValidator.
+ */
+public class PatternValidatorTest {
+  static private final String SCHEMA
+    = "default namespace = \"urn:test\"\n"
+    + "start = element doc { attribute version { \"1\" | \"2\" }, head, item* }\n"
+    + "head = element head { text }\n"
+    + "item = element item { attribute id { token }?, element name { text } }\n";
+
+  static private final String DOCUMENT
+    = "<doc xmlns='urn:test' version='3'>\n"
+    + "<a:head xmlns:a='urn:test'><a:item/></a:head>\n"
+    + "<item xmlns:b='urn:other' b:id='x'><name/></item>\n"
+    + "<item/>\n"
+    + "<b:item xmlns:b='urn:test' xmlns:c='urn:test'/>\n"
+    + "text\n"
+    + "</doc>\n";
+
+  static private final String ATTRIBUTES_SCHEMA
+    = "start = element doc { element e { attribute a { \"1\" }, attribute b { \"2\" }?,\n"
+    + "                                    attribute c { \"3\" }, attribute d { \"4\" }* }* }\n";
+
+  static private final String INTERLEAVE_SCHEMA
+    = "start = element doc { element r { element a { empty }? & element b { empty }* & element c { empty }\n"
+    + "                                  & (element d { empty } | element e { empty })* & element f { attribute x { text } }?\n"
+    + "                                  & attribute p { \"1\" }? & attribute q { \"2\" } }* }\n";
+
+  static private final String VALUES_SCHEMA
+    = "start = element doc { element e { attribute c { codes }, codes }* }\n"
+    + "codes = \"A\" | \"B\" | \"C\" | \"D\" | \"E\" | \"F\" | \"G\" | \"H\" | string \"I\"\n";
+
+  static private final String STREAMING_SCHEMA
+    = "datatypes t = \"urn:test:datatypes\"\n"
+    + "start = element doc { (element e { t:even } | element s { string })* }\n";
+
+  private final SchemaPatternBuilder spb = new SchemaPatternBuilder();
+  private final Pattern start;
+
+  public PatternValidatorTest() throws Exception {
+    start = parseSchema(SCHEMA);
+  }
+
+  private Pattern parseSchema(String schema) throws Exception {
+    return parseSchema(schema, null);
+  }
+
+  private Pattern parseSchema(String schema, DatatypeLibraryFactory datatypeLibraryFactory) throws Exception {
+    Input input = new Input();
+    input.setCharacterStream(new StringReader(schema));
+    input.setUri("urn:test:schema");
+    ErrorHandler eh = new ErrorRecorder();
+    return SchemaBuilderImpl.parse(new CompactParseable<Pattern, NameClass, Locator, VoidValue, CommentListImpl, AnnotationsImpl>(input, BasicResolver.getInstance(), eh),
+                                   eh, datatypeLibraryFactory, spb, false);
+  }
+
+  @Test
+  public void testDeferredMessages() throws Exception {
+    ErrorRecorder immediate = new ErrorRecorder();
+    parse(new PatternValidator(start, new ValidatorPatternBuilder(spb), immediate));
+    final List<SAXParseException> exceptions = new ArrayList<SAXParseException>();
+    parse(new PatternValidator(start, new ValidatorPatternBuilder(spb), new ErrorRecorder() {
+      public void error(SAXParseException exception) {
+        exceptions.add(exception);
+      }
+    }));
+    List<String> deferred = new ArrayList<String>();
+    for (SAXParseException exception : exceptions)
+      deferred.add(ErrorRecorder.format(exception));
+    Assert.assertTrue(immediate.errors.size() > 5);
+    Assert.assertEquals(deferred, immediate.errors);
+  }
+
+  /**
+   * Tests that the messages are built when the errors are reported, so that the exceptions can be
+   * kept after the document is abandoned and serialized, unless the ErrorHandler only counts errors.
+   */
+  @Test
+  public void testMessagesBuilt() throws Exception {
+    ErrorRecorder immediate = new ErrorRecorder();
+    parse(new PatternValidator(start, new ValidatorPatternBuilder(spb), immediate));
+    final List<SAXParseException> exceptions = new ArrayList<SAXParseException>();
+    ErrorRecorder keeper = new ErrorRecorder() {
+      public void error(SAXParseException exception) {
+        exceptions.add(exception);
+      }
+    };
+    parse(new PatternValidator(start, new ValidatorPatternBuilder(spb), keeper));
+    List<String> deserialized = new ArrayList<String>();
+    for (SAXParseException exception : exceptions)
+      deserialized.add(ErrorRecorder.format(serializeAndDeserialize(exception)));
+    Assert.assertEquals(deserialized, immediate.errors);
+    exceptions.clear();
+    PatternValidator validator = new PatternValidator(start, new ValidatorPatternBuilder(spb), keeper);
+    validator.startDocument();
+    validator.startElement("urn:test", "head", "head", new AttributesImpl());
+    Assert.assertEquals(exceptions.size(), 1);
+    Assert.assertTrue(serializeAndDeserialize(exceptions.get(0)).getMessage().contains("head"));
+    exceptions.clear();
+    CountingErrorHandler counter = new CountingErrorHandler() {
+      public void error(SAXParseException exception) throws SAXException {
+        exceptions.add(exception);
+        super.error(exception);
+      }
+    };
+    validator = new PatternValidator(start, new ValidatorPatternBuilder(spb), counter);
+    parse(validator);
+    Assert.assertEquals(counter.getErrorCount(), immediate.errors.size());
+    for (SAXParseException exception : exceptions)
+      Assert.assertNull(exception.getMessage());
+    // the errors passed on to another ErrorHandler have messages
+    ErrorRecorder recorder = new ErrorRecorder();
+    counter.setErrorHandler(recorder);
+    validator.reset();
+    parse(validator);
+    Assert.assertEquals(recorder.errors, immediate.errors);
+  }
+
+  static private SAXParseException serializeAndDeserialize(SAXParseException exception) throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(exception);
+    out.close();
+    ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    return (SAXParseException)in.readObject();
+  }
+
+  @Test
+  public void testMaxErrors() throws Exception {
+    ErrorRecorder all = new ErrorRecorder();
+    parse(new PatternValidator(start, new ValidatorPatternBuilder(spb), all));
+    for (int maxErrors = 1; maxErrors <= 3; maxErrors++) {
+      ErrorRecorder limited = new ErrorRecorder();
+      PatternValidator validator = new PatternValidator(start, new ValidatorPatternBuilder(spb), limited, maxErrors);
+      parse(validator);
+      Assert.assertEquals(limited.errors, all.errors.subList(0, maxErrors));
+      // the limit applies to each document
+      validator.reset();
+      limited.errors.clear();
+      parse(validator);
+      Assert.assertEquals(limited.errors, all.errors.subList(0, maxErrors));
+    }
+  }
+
+  @Test
+  public void testAttributeOrder() throws Exception {
+    Pattern attributesStart = parseSchema(ATTRIBUTES_SCHEMA);
+    String[] orders = { "a='1' b='2' c='3'", "c='3' b='2' a='1'", "b='2' a='1' c='3'", "c='3' a='1'", "a='1' c='3'" };
+    StringBuilder doc = new StringBuilder("<doc>");
+    for (String order : orders)
+      doc.append("<e ").append(order).append("/>");
+    // errors in attributes are reported in the order in which the attributes are matched
+    doc.append("<e c='x' a='y' d='4' b='z'/><e b='2' d='5' a='1'/>");
+    doc.append("</doc>");
+    ErrorRecorder recorder = new ErrorRecorder();
+    parse(new PatternValidator(attributesStart, new ValidatorPatternBuilder(spb), recorder), doc.toString());
+    Assert.assertEquals(recorder.errors.size(), 5);
+    Assert.assertTrue(recorder.errors.get(0).contains("\"a\""));
+    Assert.assertTrue(recorder.errors.get(1).contains("\"b\""));
+    Assert.assertTrue(recorder.errors.get(2).contains("\"c\""));
+    Assert.assertTrue(recorder.errors.get(3).contains("\"d\""));
+    Assert.assertTrue(recorder.errors.get(4).contains("\"c\""));
+  }
+
+  @Test
+  public void testManyAttributes() throws Exception {
+    final int n = 40;
+    StringBuilder schema = new StringBuilder("start = element doc { element e { empty");
+    StringBuilder doc = new StringBuilder("<doc><e");
+    for (int i = 0; i < n; i++) {
+      schema.append(", attribute a").append(i + 10).append(" { \"1\" }");
+      // in reverse order, with every third value wrong
+      doc.append(" a").append(n - i + 9).append("='").append((n - i) % 3 == 0 ? "x" : "1").append("'");
+    }
+    schema.append(" }* }\n");
+    doc.append("/><e");
+    for (int i = 0; i < n; i++)
+      doc.append(" a").append((i * 7) % n + 10).append("='1'");
+    doc.append("/></doc>");
+    ErrorRecorder recorder = new ErrorRecorder();
+    parse(new PatternValidator(parseSchema(schema.toString()), new ValidatorPatternBuilder(spb), recorder),
+          doc.toString());
+    Assert.assertEquals(recorder.errors.size(), n / 3, recorder.errors.toString());
+    for (int i = 0; i < n / 3; i++)
+      Assert.assertTrue(recorder.errors.get(i).contains("\"a" + (3 * i + 12) + "\""), recorder.errors.get(i));
+  }
+
+  @Test
+  public void testInterleave() throws Exception {
+    Pattern interleaveStart = parseSchema(INTERLEAVE_SCHEMA);
+    String[] valid = {
+      "<r q='2'><c/></r>",
+      "<r p='1' q='2'><b/><c/><b/><a/><d/><e/><d/></r>",
+      "<r q='2' p='1'><f x=''/><c/><a/><b/></r>",
+      "<r q='2'><d/><f x=''/><d/><c/><e/></r>",
+    };
+    String[] invalid = {
+      "<r q='2'/>",
+      "<r p='1'><c/></r>",
+      "<r q='2'><c/><a/><a/></r>",
+      "<r q='2'><c/><c/></r>",
+      "<r q='2'><c/><f x=''/><f x=''/></r>",
+      "<r q='2'><c/><g/></r>",
+    };
+    for (String r : valid) {
+      ErrorRecorder recorder = new ErrorRecorder();
+      parse(new PatternValidator(interleaveStart, new ValidatorPatternBuilder(spb), recorder), "<doc>" + r + "</doc>");
+      Assert.assertEquals(recorder.errors.size(), 0, r);
+    }
+    for (String r : invalid) {
+      ErrorRecorder recorder = new ErrorRecorder();
+      parse(new PatternValidator(interleaveStart, new ValidatorPatternBuilder(spb), recorder), "<doc>" + r + "</doc>");
+      Assert.assertEquals(recorder.errors.size(), 1, r);
+    }
+    // the same validator goes through the same states again
+    ErrorRecorder recorder = new ErrorRecorder();
+    StringBuilder doc = new StringBuilder("<doc>");
+    for (String r : valid)
+      doc.append(r).append(r);
+    doc.append("</doc>");
+    parse(new PatternValidator(interleaveStart, new ValidatorPatternBuilder(spb), recorder), doc.toString());
+    Assert.assertEquals(recorder.errors.size(), 0);
+  }
+
+  @Test
+  public void testValueChoice() throws Exception {
+    Pattern valuesStart = parseSchema(VALUES_SCHEMA);
+    ErrorRecorder recorder = new ErrorRecorder();
+    parse(new PatternValidator(valuesStart, new ValidatorPatternBuilder(spb), recorder),
+          "<doc><e c=' A'>H</e><e c='B '>\n\tC </e><e c='H'>A</e><e c='A'>B</e><e c='I'>I</e>"
+          + "<e c='X'>Y</e><e c='X'>C</e><e c='D'> I</e><e c='E'>X</e></doc>");
+    Assert.assertEquals(recorder.errors.size(), 5);
+    // a value that does not match gets the same error whether or not it has been seen before
+    Assert.assertEquals(message(recorder.errors.get(2)), message(recorder.errors.get(0)));
+    Assert.assertEquals(message(recorder.errors.get(4)), message(recorder.errors.get(1)).replace('Y', 'X'));
+  }
+
+  static private String message(String error) {
+    return error.substring(error.indexOf(": "));
+  }
+
+  @Test
+  public void testStreaming() throws Exception {
+    EvenDatatype even = new EvenDatatype();
+    Pattern streamingStart = parseSchema(STREAMING_SCHEMA, new TestDatatypeLibraryFactory(even));
+    StringBuilder doc = new StringBuilder("<doc>");
+    doc.append("<e>").append(repeat("ab", 10000)).append("</e>");
+    doc.append("<e>").append(repeat(" ", 20000)).append("</e>");
+    doc.append("<e>").append(repeat("a", 20001)).append("</e>");
+    doc.append("<e>").append(repeat("a", 20001)).append("<e/></e>");
+    doc.append("<e>").append(repeat(" ", 20000)).append("<e/></e>");
+    doc.append("<s>").append(repeat("a", 20001)).append("</s>");
+    doc.append("<e>ab</e><e>a</e>");
+    doc.append("</doc>");
+    ErrorRecorder recorder = new ErrorRecorder();
+    parse(new PatternValidator(streamingStart, new ValidatorPatternBuilder(spb), recorder), doc.toString());
+    Assert.assertEquals(recorder.errors.size(), 7, recorder.errors.toString());
+    Assert.assertTrue(recorder.errors.get(0).contains("odd"));
+    // text before an element is not allowed
+    Assert.assertTrue(recorder.errors.get(1).contains("text"));
+    // but blank text is
+    Assert.assertFalse(recorder.errors.get(4).contains("text"));
+    Assert.assertTrue(recorder.errors.get(6).contains("odd"));
+    // the long text was only passed to streaming validators
+    Assert.assertTrue(even.streamed > 100000);
+    Assert.assertEquals(even.longestString, 2);
+  }
+
+  static private String repeat(String str, int count) {
+    StringBuilder buf = new StringBuilder();
+    for (int i = 0; i < count; i++)
+      buf.append(str);
+    return buf.toString();
+  }
+
+  /**
+   * A datatype whose values have an even number of non-whitespace characters, with a streaming validator
+   * that only counts them.
+   */
+  static private class EvenDatatype implements Datatype {
+    private int longestString = 0;
+    private int streamed = 0;
+
+    public boolean isValid(String str, ValidationContext vc) {
+      longestString = Math.max(longestString, str.length());
+      return (count(str.toCharArray(), 0, str.length()) & 1) == 0;
+    }
+
+    public void checkValid(String str, ValidationContext vc) throws DatatypeException {
+      if (!isValid(str, vc))
+        throw new DatatypeException("odd");
+    }
+
+    public DatatypeStreamingValidator createStreamingValidator(ValidationContext vc) {
+      return new DatatypeStreamingValidator() {
+        private int count = 0;
+
+        public void addCharacters(char[] buf, int start, int len) {
+          streamed += len;
+          count += count(buf, start, len);
+        }
+
+        public boolean isValid() {
+          return (count & 1) == 0;
+        }
+
+        public void checkValid() throws DatatypeException {
+          if (!isValid())
+            throw new DatatypeException("odd");
+        }
+      };
+    }
+
+    static private int count(char[] buf, int start, int len) {
+      int n = 0;
+      for (int i = start; i < start + len; i++)
+        if (!Character.isWhitespace(buf[i]))
+          n++;
+      return n;
+    }
+
+    public Object createValue(String str, ValidationContext vc) {
+      return isValid(str, vc) ? str : null;
+    }
+
+    public boolean sameValue(Object value1, Object value2) {
+      return value1.equals(value2);
+    }
+
+    public int valueHashCode(Object value) {
+      return value.hashCode();
+    }
+
+    public int getIdType() {
+      return ID_TYPE_NULL;
+    }
+
+    public boolean isContextDependent() {
+      return false;
+    }
+  }
+
+  static private class TestDatatypeLibraryFactory implements DatatypeLibraryFactory {
+    private final Datatype datatype;
+
+    TestDatatypeLibraryFactory(Datatype datatype) {
+      this.datatype = datatype;
+    }
+
+    public DatatypeLibrary createDatatypeLibrary(String namespaceURI) {
+      if (!namespaceURI.equals("urn:test:datatypes"))
+        return null;
+      return new DatatypeLibrary() {
+        public DatatypeBuilder createDatatypeBuilder(String type) throws DatatypeException {
+          return new ParameterlessDatatypeBuilder(createDatatype(type));
+        }
+
+        public Datatype createDatatype(String type) throws DatatypeException {
+          if (!type.equals("even"))
+            throw new DatatypeException();
+          return datatype;
+        }
+      };
+    }
+  }
+
+  static private void parse(PatternValidator validator) throws Exception {
+    parse(validator, DOCUMENT);
+  }
+
+  static private void parse(PatternValidator validator, String document) throws Exception {
+    SAXParserFactory factory = SAXParserFactory.newInstance();
+    factory.setNamespaceAware(true);
+    XMLReader xr = factory.newSAXParser().getXMLReader();
+    xr.setContentHandler(validator);
+    xr.setDTDHandler(validator);
+    xr.parse(new InputSource(new StringReader(document)));
+  }
+
+  static private class ErrorRecorder implements ErrorHandler {
+    private final List<String> errors = new ArrayList<String>();
+
+    public void warning(SAXParseException exception) {
+      errors.add("warning: " + format(exception));
+    }
+
+    public void error(SAXParseException exception) {
+      errors.add(format(exception));
+    }
+
+    public void fatalError(SAXParseException exception) {
+      errors.add("fatal: " + format(exception));
+    }
+
+    static String format(SAXParseException exception) {
+      return exception.getLineNumber() + ":" + exception.getColumnNumber() + ": " + exception.getMessage();
+    }
+  }
+}
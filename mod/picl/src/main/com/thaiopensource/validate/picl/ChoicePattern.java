@@ -1,5 +1,7 @@
 package com.thaiopensource.validate.picl;
 
+import java.util.List;
+
 class ChoicePattern extends Pattern {
   private final Pattern[] choices;
 
@@ -14,6 +16,11 @@ class ChoicePattern extends Pattern {
     return false;
   }
 
+  void addAlternatives(List<PathPattern> list) {
+    for (int i = 0; i < choices.length; i++)
+      choices[i].addAlternatives(list);
+  }
+
   public String toString() {
     StringBuffer buf = new StringBuffer();
     for (int i = 0; i < choices.length; i++) {
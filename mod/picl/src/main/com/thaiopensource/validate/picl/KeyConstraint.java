@@ -2,10 +2,6 @@ package com.thaiopensource.validate.picl;
 
 import org.xml.sax.Locator;
 
-import java.util.Hashtable;
-import java.util.Vector;
-import java.util.Enumeration;
-
 class KeyConstraint implements Constraint {
   private final Pattern key;
 
@@ -13,51 +9,28 @@ class KeyConstraint implements Constraint {
     this.key = key;
   }
 
-  static class KeyIndex {
-    private final Hashtable table;
-    KeyIndex() {
-      table = new Hashtable();
-    }
-
-    KeyInfo lookupCreate(Object key) {
-      KeyInfo info = (KeyInfo)table.get(key);
-      if (info == null) {
-        info = new KeyInfo();
-        table.put(key, info);
-      }
-      return info;
-    }
-
-    Enumeration keys() {
-      return table.keys();
-    }
-  }
-
-  static class KeyInfo {
-    String representation;
-    Locator firstKeyLocator;
-    Vector pendingRefLocators;
-  }
-
   static class KeySelectionHandler extends SelectedValueHandler {
     private final KeyIndex index;
+    private final boolean disposeIndex;
 
-    KeySelectionHandler(KeyIndex index) {
+    KeySelectionHandler(KeyIndex index, boolean disposeIndex) {
       this.index = index;
+      this.disposeIndex = disposeIndex;
     }
 
     void select(ErrorContext ec, Locator locator, Object value, String representation) {
-      KeyInfo info = index.lookupCreate(value);
-      if (info.firstKeyLocator == null) {
-        if (locator == null)
-          locator = ec.saveLocator();
-        info.firstKeyLocator = locator;
-        info.pendingRefLocators = null;
-        info.representation = representation;
-      }
+      String str = value.toString();
+      int id = index.lookupCreate(str, representation);
+      if (!index.isDefined(id))
+        index.define(id, str, representation);
       else
         ec.error(locator, "duplicate_key", representation);
     }
+
+    void selectComplete(ErrorContext ec) {
+      if (disposeIndex)
+        index.dispose();
+    }
   }
 
   public void activate(PatternManager pm) {
@@ -65,6 +38,10 @@ class KeyConstraint implements Constraint {
   }
 
   void activate(PatternManager pm, KeyIndex index) {
-    pm.registerPattern(key, new ValueSelectionHandler(new KeySelectionHandler(index)));
+    activateKey(pm, index, true);
+  }
+
+  void activateKey(PatternManager pm, KeyIndex index, boolean disposeIndex) {
+    pm.registerPattern(key, new ValueSelectionHandler(new KeySelectionHandler(index, disposeIndex)));
   }
 }
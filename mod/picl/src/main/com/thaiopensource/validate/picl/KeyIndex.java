@@ -0,0 +1,337 @@
+package com.thaiopensource.validate.picl;
+
+import org.xml.sax.Locator;
+import org.xml.sax.helpers.LocatorImpl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The keys selected by a key constraint, together with the references to keys that have
+ * not yet been defined. This is designed to use little memory for documents with very many keys.
+ * Keys are identified by small integers. The values of keys are stored encoded in UTF-8 in large
+ * byte buffers, and are found using an open-addressing hash table; when the buffers get big,
+ * further buffers are memory-mapped from a temporary file. Locations are packed into int arrays,
+ * with the system and public identifiers shared. Not safe for access from multiple threads.
+ */
+class KeyIndex {
+  static private final int CHUNK_SIZE = 1 << 20;
+  static private final long SPILL_THRESHOLD = 64L << 20;
+  static private final int NONE = -1;
+
+  private final int chunkSize;
+  private final long spillThreshold;
+
+  // entries are key ids + 1; 0 means empty
+  private int[] table = new int[64];
+  private int nKeys = 0;
+  private int[] keyHash = new int[16];
+  private int[] keyChunk = new int[16];
+  private int[] keyOffset = new int[16];
+  private int[] keyLength = new int[16];
+  private boolean[] keyDefined = new boolean[16];
+  private int[] firstRef = new int[16];
+  private int[] lastRef = new int[16];
+  // only for keys whose representation differs from their value
+  private final Map<Integer, String> representations = new HashMap<Integer, String>();
+
+  private final List<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+  private ByteBuffer currentChunk = null;
+  private long heapSize = 0;
+  private RandomAccessFile spillFile = null;
+  private long spillSize = 0;
+  private boolean spillFailed = false;
+
+  private int nRefs = 0;
+  private int[] refLocator = new int[16];
+  private int[] nextRef = new int[16];
+
+  private int nLocators = 0;
+  private int[] locatorLine = new int[16];
+  private int[] locatorColumn = new int[16];
+  private int[] locatorSource = new int[16];
+  private final List<String> sourceSystemIds = new ArrayList<String>();
+  private final List<String> sourcePublicIds = new ArrayList<String>();
+  private final Map<String, Integer> sourceMap = new HashMap<String, Integer>();
+  private String lastSystemId = null;
+  private String lastPublicId = null;
+  private int lastSource = NONE;
+
+  KeyIndex() {
+    this(CHUNK_SIZE, SPILL_THRESHOLD);
+  }
+
+  /**
+   * Creates an index that stores the values of keys in buffers of chunkSize bytes, and memory-maps
+   * the buffers once more than spillThreshold bytes are held on the heap.
+   */
+  KeyIndex(int chunkSize, long spillThreshold) {
+    this.chunkSize = chunkSize;
+    this.spillThreshold = spillThreshold;
+  }
+
+  /**
+   * Returns the id of a key, creating it if necessary.
+   */
+  int lookupCreate(String value, String representation) {
+    byte[] bytes = encode(value);
+    int h = value.hashCode();
+    int mask = table.length - 1;
+    int i = mix(h) & mask;
+    for (int entry; (entry = table[i]) != 0; i = (i + 1) & mask) {
+      int id = entry - 1;
+      if (keyHash[id] == h && keyEquals(id, bytes))
+        return id;
+    }
+    int id = nKeys++;
+    if (id == keyHash.length) {
+      int n = id * 2;
+      keyHash = grow(keyHash, n);
+      keyChunk = grow(keyChunk, n);
+      keyOffset = grow(keyOffset, n);
+      keyLength = grow(keyLength, n);
+      boolean[] newKeyDefined = new boolean[n];
+      System.arraycopy(keyDefined, 0, newKeyDefined, 0, id);
+      keyDefined = newKeyDefined;
+      firstRef = grow(firstRef, n);
+      lastRef = grow(lastRef, n);
+    }
+    keyHash[id] = h;
+    storeKey(id, bytes);
+    keyDefined[id] = false;
+    firstRef[id] = NONE;
+    lastRef[id] = NONE;
+    if (!representation.equals(value))
+      representations.put(id, representation);
+    table[i] = id + 1;
+    if (nKeys * 2 > table.length)
+      rehash();
+    return id;
+  }
+
+  int getKeyCount() {
+    return nKeys;
+  }
+
+  boolean isDefined(int id) {
+    return keyDefined[id];
+  }
+
+  /**
+   * Records the definition of a key. References to the key that were pending are discarded.
+   */
+  void define(int id, String value, String representation) {
+    keyDefined[id] = true;
+    firstRef[id] = NONE;
+    lastRef[id] = NONE;
+    if (!representation.equals(value))
+      representations.put(id, representation);
+    else if (!representations.isEmpty())
+      representations.remove(id);
+  }
+
+  /**
+   * Records a reference to a key that has not yet been defined.
+   */
+  void addPendingRef(int id, Locator locator) {
+    int ref = nRefs++;
+    if (ref == refLocator.length) {
+      refLocator = grow(refLocator, ref * 2);
+      nextRef = grow(nextRef, ref * 2);
+    }
+    refLocator[ref] = saveLocator(locator);
+    nextRef[ref] = NONE;
+    if (lastRef[id] == NONE)
+      firstRef[id] = ref;
+    else
+      nextRef[lastRef[id]] = ref;
+    lastRef[id] = ref;
+  }
+
+  /**
+   * Returns the first pending reference to a key, or -1 if there is none.
+   */
+  int getFirstPendingRef(int id) {
+    return firstRef[id];
+  }
+
+  /**
+   * Returns the pending reference following a pending reference to the same key, or -1 if there is none.
+   */
+  int getNextPendingRef(int ref) {
+    return nextRef[ref];
+  }
+
+  Locator getRefLocator(int ref) {
+    return getLocator(refLocator[ref]);
+  }
+
+  String getRepresentation(int id) {
+    String representation = representations.get(id);
+    if (representation != null)
+      return representation;
+    return getValue(id);
+  }
+
+  /**
+   * Returns true if some of the values of keys are stored in a temporary file.
+   */
+  boolean isSpilled() {
+    return spillSize > 0;
+  }
+
+  /**
+   * Releases the temporary file, if any.
+   */
+  void dispose() {
+    if (spillFile != null) {
+      try {
+        spillFile.close();
+      }
+      catch (IOException e) {
+        // ignore
+      }
+      spillFile = null;
+    }
+  }
+
+  private String getValue(int id) {
+    ByteBuffer chunk = chunks.get(keyChunk[id]);
+    byte[] bytes = new byte[keyLength[id]];
+    for (int i = 0; i < bytes.length; i++)
+      bytes[i] = chunk.get(keyOffset[id] + i);
+    try {
+      return new String(bytes, "UTF-8");
+    }
+    catch (UnsupportedEncodingException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private boolean keyEquals(int id, byte[] bytes) {
+    if (keyLength[id] != bytes.length)
+      return false;
+    ByteBuffer chunk = chunks.get(keyChunk[id]);
+    int offset = keyOffset[id];
+    for (int i = 0; i < bytes.length; i++)
+      if (chunk.get(offset + i) != bytes[i])
+        return false;
+    return true;
+  }
+
+  private void storeKey(int id, byte[] bytes) {
+    if (currentChunk == null || currentChunk.remaining() < bytes.length) {
+      currentChunk = allocateChunk(Math.max(chunkSize, bytes.length));
+      chunks.add(currentChunk);
+    }
+    keyChunk[id] = chunks.size() - 1;
+    keyOffset[id] = currentChunk.position();
+    keyLength[id] = bytes.length;
+    currentChunk.put(bytes);
+  }
+
+  private ByteBuffer allocateChunk(int size) {
+    if (heapSize + size > spillThreshold && !spillFailed) {
+      try {
+        return mapChunk(size);
+      }
+      catch (IOException e) {
+        spillFailed = true;
+      }
+    }
+    heapSize += size;
+    return ByteBuffer.allocate(size);
+  }
+
+  private ByteBuffer mapChunk(int size) throws IOException {
+    if (spillFile == null) {
+      File file = File.createTempFile("picl", ".tmp");
+      spillFile = new RandomAccessFile(file, "rw");
+      // on some platforms a file cannot be deleted while it is open
+      if (!file.delete())
+        file.deleteOnExit();
+    }
+    ByteBuffer buf = spillFile.getChannel().map(FileChannel.MapMode.READ_WRITE, spillSize, size);
+    spillSize += size;
+    return buf;
+  }
+
+  private void rehash() {
+    int[] newTable = new int[table.length * 2];
+    int mask = newTable.length - 1;
+    for (int id = 0; id < nKeys; id++) {
+      int i = mix(keyHash[id]) & mask;
+      while (newTable[i] != 0)
+        i = (i + 1) & mask;
+      newTable[i] = id + 1;
+    }
+    table = newTable;
+  }
+
+  private int saveLocator(Locator locator) {
+    int i = nLocators++;
+    if (i == locatorLine.length) {
+      locatorLine = grow(locatorLine, i * 2);
+      locatorColumn = grow(locatorColumn, i * 2);
+      locatorSource = grow(locatorSource, i * 2);
+    }
+    locatorLine[i] = locator.getLineNumber();
+    locatorColumn[i] = locator.getColumnNumber();
+    locatorSource[i] = saveSource(locator.getSystemId(), locator.getPublicId());
+    return i;
+  }
+
+  private int saveSource(String systemId, String publicId) {
+    if (lastSource != NONE && systemId == lastSystemId && publicId == lastPublicId)
+      return lastSource;
+    String key = systemId + '\0' + publicId;
+    Integer source = sourceMap.get(key);
+    if (source == null) {
+      source = sourceSystemIds.size();
+      sourceSystemIds.add(systemId);
+      sourcePublicIds.add(publicId);
+      sourceMap.put(key, source);
+    }
+    lastSystemId = systemId;
+    lastPublicId = publicId;
+    lastSource = source;
+    return source;
+  }
+
+  private Locator getLocator(int i) {
+    LocatorImpl locator = new LocatorImpl();
+    locator.setLineNumber(locatorLine[i]);
+    locator.setColumnNumber(locatorColumn[i]);
+    locator.setSystemId(sourceSystemIds.get(locatorSource[i]));
+    locator.setPublicId(sourcePublicIds.get(locatorSource[i]));
+    return locator;
+  }
+
+  static private byte[] encode(String value) {
+    try {
+      return value.getBytes("UTF-8");
+    }
+    catch (UnsupportedEncodingException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  static private int mix(int h) {
+    h ^= (h >>> 20) ^ (h >>> 12);
+    return h ^ (h >>> 7) ^ (h >>> 4);
+  }
+
+  static private int[] grow(int[] a, int n) {
+    int[] b = new int[n];
+    System.arraycopy(a, 0, b, 0, a.length);
+    return b;
+  }
+}
@@ -2,43 +2,31 @@ package com.thaiopensource.validate.picl;
 
 import org.xml.sax.Locator;
 
-import java.util.Vector;
-import java.util.Enumeration;
-
 class KeyRefConstraint extends KeyConstraint {
   private final Pattern ref;
 
   static class RefSelectionHandler extends SelectedValueHandler {
     private final KeyIndex index;
 
-    RefSelectionHandler(KeyConstraint.KeyIndex index) {
+    RefSelectionHandler(KeyIndex index) {
       this.index = index;
     }
 
     void select(ErrorContext ec, Locator locator, Object value, String representation) {
-      KeyInfo info = index.lookupCreate(value);
-      if (info.firstKeyLocator == null) {
-        if (info.pendingRefLocators == null)
-          info.pendingRefLocators = new Vector();
+      int id = index.lookupCreate(value.toString(), representation);
+      if (!index.isDefined(id)) {
         if (locator == null)
           locator = ec.saveLocator();
-        info.pendingRefLocators.addElement(locator);
+        index.addPendingRef(id, locator);
       }
-      if (info.representation == null)
-        info.representation = representation;
     }
 
     public void selectComplete(ErrorContext ec) {
-      for (Enumeration e = index.keys(); e.hasMoreElements();) {
-        Object key = e.nextElement();
-        KeyInfo info = index.lookupCreate(key);
-        if (info.pendingRefLocators == null)
-          continue;
-        for (int i = 0, len = info.pendingRefLocators.size(); i < len; i++) {
-          Locator loc = (Locator)info.pendingRefLocators.elementAt(i);
-          ec.error(loc, "undefined_key", info.representation);
-        }
+      for (int id = 0, len = index.getKeyCount(); id < len; id++) {
+        for (int ref = index.getFirstPendingRef(id); ref >= 0; ref = index.getNextPendingRef(ref))
+          ec.error(index.getRefLocator(ref), "undefined_key", index.getRepresentation(id));
       }
+      index.dispose();
     }
   }
 
@@ -48,7 +36,9 @@ class KeyRefConstraint extends KeyConstraint {
   }
 
   void activate(PatternManager pm, KeyIndex index) {
-    super.activate(pm, index);
+    // the index is still needed when the refs are complete, so the ref handler rather than the key handler
+    // disposes of it; this does not depend on the order in which the handlers complete
+    activateKey(pm, index, false);
     pm.registerPattern(ref, new ValueSelectionHandler(new RefSelectionHandler(index)));
   }
 }
@@ -1,10 +1,15 @@
 package com.thaiopensource.validate.picl;
 
+import java.util.List;
+
 class NotAllowedPattern extends Pattern {
   boolean matches(Path path, int rootDepth) {
     return false;
   }
 
+  void addAlternatives(List<PathPattern> list) {
+  }
+
   public String toString() {
     return "(notAllowed)";
   }
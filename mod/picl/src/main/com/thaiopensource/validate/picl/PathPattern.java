@@ -1,5 +1,7 @@
 package com.thaiopensource.validate.picl;
 
+import java.util.List;
+
 abstract class PathPattern extends Pattern {
   private final String[] names;
   private final boolean[] descendantsOrSelf;
@@ -12,6 +14,31 @@ abstract class PathPattern extends Pattern {
 
   abstract boolean isAttribute();
 
+  /**
+   * Returns the number of steps, including the final attribute step of an attribute pattern.
+   */
+  int getStepCount() {
+    return names.length >> 1;
+  }
+
+  /**
+   * Returns true if step i may be separated from the previous step (or from the root, if i is 0)
+   * by any number of elements. If i is equal to the number of steps, returns true if the
+   * pattern ends with //.
+   */
+  boolean isDescendantsOrSelf(int i) {
+    return descendantsOrSelf[i];
+  }
+
+  boolean matchesStep(int i, String namespaceUri, String localName) {
+    i *= 2;
+    return matchName(namespaceUri, names[i]) && matchName(localName, names[i + 1]);
+  }
+
+  void addAlternatives(List<PathPattern> list) {
+    list.add(this);
+  }
+
   boolean matches(Path path, int rootDepth) {
     return (isAttribute() == path.isAttribute()
             && matchSegment(path, rootDepth, path.length() - rootDepth, 0, names.length >> 1, false));
@@ -41,16 +68,14 @@ abstract class PathPattern extends Pattern {
     }
     if (patternLength == 0)
       return descendantsOrSelf[patternStartIndex] || pathLength == 0;
-    for (pathLength--; pathLength >= patternLength; pathLength--)
+    for (; pathLength >= patternLength; pathLength--)
       if (matchSegment(path, pathStartIndex, pathLength, patternStartIndex, patternLength, true))
         return true;
     return false;
   }
 
   private boolean matchStep(Path path, int pathIndex, int patternIndex) {
-    patternIndex *= 2;
-    return (matchName(path.getNamespaceUri(pathIndex), names[patternIndex])
-            && matchName(path.getLocalName(pathIndex), names[patternIndex + 1]));
+    return matchesStep(patternIndex, path.getNamespaceUri(pathIndex), path.getLocalName(pathIndex));
   }
 
   private static boolean matchName(String str, String pattern) {
@@ -1,5 +1,8 @@
 package com.thaiopensource.validate.picl;
 
+import java.util.List;
+
 abstract class Pattern {
   abstract boolean matches(Path path, int rootDepth);
+  abstract void addAlternatives(List<PathPattern> list);
 }
@@ -0,0 +1,303 @@
+package com.thaiopensource.validate.picl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Matches all the registered patterns together with a single automaton, so that the cost
+ * of each element and attribute does not depend on the number of patterns.
+ * The automaton is an NFA whose states are positions in the alternatives of the patterns;
+ * it is determinized lazily, as elements are encountered, and the transitions are cached.
+ * Each registration of a pattern is an entry, identified by the pattern and by the number of
+ * registrations that were active when it was made; entries are never removed, so an automaton
+ * can be used for any number of documents.  Each validator has its own automaton.
+ * <p>
+ * The transitions depend on the names in the documents, so the number of cached states and transitions
+ * is limited: once the limit is reached, further transitions are computed each time they are needed,
+ * and <code>isFull</code> returns true, so that the validator can replace the automaton between documents.
+ */
+class PatternAutomaton {
+  static private final int MAX_CACHE_SIZE = 10000;
+  // the number of entries, states and transitions cached
+  private int cacheSize = 0;
+  private final List<Entry> entries = new ArrayList<Entry>();
+  private final List<PathPattern> alternatives = new ArrayList<PathPattern>();
+  private final List<Entry> alternativeEntries = new ArrayList<Entry>();
+  // index of first item of each alternative; item i + k means the first k steps have been matched
+  private int[] itemBase = new int[0];
+  private int nItems = 0;
+  private final Map<ItemSet, State> states = new HashMap<ItemSet, State>();
+  private final State initialState = intern(new int[0]);
+
+  static private final int[] NO_MATCHES = new int[0];
+
+  static private class Entry {
+    final int id;
+    final int slot;
+    final Pattern pattern;
+    int firstAlternative;
+    int endAlternative;
+
+    Entry(int id, int slot, Pattern pattern) {
+      this.id = id;
+      this.slot = slot;
+      this.pattern = pattern;
+    }
+  }
+
+  static private class ItemSet {
+    private final int[] items;
+    private final int hc;
+
+    ItemSet(int[] items) {
+      this.items = items;
+      this.hc = Arrays.hashCode(items);
+    }
+
+    public int hashCode() {
+      return hc;
+    }
+
+    public boolean equals(Object obj) {
+      return obj instanceof ItemSet && Arrays.equals(items, ((ItemSet)obj).items);
+    }
+  }
+
+  class State {
+    private final int[] items;
+    private final int[] elementMatches;
+    private final boolean hasAttributeItems;
+    private final Map<String, Map<String, State>> childStates = new HashMap<String, Map<String, State>>();
+    private final Map<String, Map<String, int[]>> attributeMatches = new HashMap<String, Map<String, int[]>>();
+    private final Map<Entry, State> registrationStates = new HashMap<Entry, State>();
+
+    private State(int[] items) {
+      this.items = items;
+      List<Entry> matched = new ArrayList<Entry>();
+      boolean hasAttributeItems = false;
+      for (int i = 0; i < items.length; i++) {
+        int alt = alternativeIndex(items[i]);
+        PathPattern pattern = alternatives.get(alt);
+        int pos = items[i] - itemBase[alt];
+        if (pattern.isAttribute()) {
+          if (pos == pattern.getStepCount() - 1)
+            hasAttributeItems = true;
+        }
+        else if (pos == pattern.getStepCount())
+          addMatch(matched, alternativeEntries.get(alt));
+      }
+      this.elementMatches = toSlotOrder(matched);
+      this.hasAttributeItems = hasAttributeItems;
+    }
+
+    /**
+     * Returns the ids of the entries whose pattern matches an element in this state,
+     * in the order in which the entries were registered.
+     */
+    int[] getElementMatches() {
+      return elementMatches;
+    }
+
+    boolean hasAttributeItems() {
+      return hasAttributeItems;
+    }
+
+    State getChildState(String namespaceUri, String localName) {
+      Map<String, State> map = childStates.get(namespaceUri);
+      if (map == null) {
+        map = new HashMap<String, State>();
+        childStates.put(namespaceUri, map);
+      }
+      State state = map.get(localName);
+      if (state == null) {
+        state = computeChildState(namespaceUri, localName);
+        if (cache())
+          map.put(localName, state);
+      }
+      return state;
+    }
+
+    /**
+     * Returns the ids of the entries whose pattern matches an attribute of an element
+     * in this state, in the order in which the entries were registered.
+     */
+    int[] getAttributeMatches(String namespaceUri, String localName) {
+      if (!hasAttributeItems)
+        return NO_MATCHES;
+      Map<String, int[]> map = attributeMatches.get(namespaceUri);
+      if (map == null) {
+        map = new HashMap<String, int[]>();
+        attributeMatches.put(namespaceUri, map);
+      }
+      int[] matches = map.get(localName);
+      if (matches == null) {
+        matches = computeAttributeMatches(namespaceUri, localName);
+        if (cache())
+          map.put(localName, matches);
+      }
+      return matches;
+    }
+
+    private State computeChildState(String namespaceUri, String localName) {
+      int[] buf = new int[items.length * 2];
+      int len = 0;
+      for (int i = 0; i < items.length; i++) {
+        int alt = alternativeIndex(items[i]);
+        PathPattern pattern = alternatives.get(alt);
+        int pos = items[i] - itemBase[alt];
+        int elementSteps = pattern.isAttribute() ? pattern.getStepCount() - 1 : pattern.getStepCount();
+        if (pattern.isDescendantsOrSelf(pos))
+          buf[len++] = items[i];
+        if (pos < elementSteps && pattern.matchesStep(pos, namespaceUri, localName))
+          buf[len++] = items[i] + 1;
+      }
+      return intern(sortUnique(buf, len));
+    }
+
+    private int[] computeAttributeMatches(String namespaceUri, String localName) {
+      List<Entry> matched = new ArrayList<Entry>();
+      for (int i = 0; i < items.length; i++) {
+        int alt = alternativeIndex(items[i]);
+        PathPattern pattern = alternatives.get(alt);
+        int pos = items[i] - itemBase[alt];
+        if (pattern.isAttribute()
+            && pos == pattern.getStepCount() - 1
+            && pattern.matchesStep(pos, namespaceUri, localName))
+          addMatch(matched, alternativeEntries.get(alt));
+      }
+      return toSlotOrder(matched);
+    }
+
+    private State computeRegistrationState(Entry entry) {
+      int n = entry.endAlternative - entry.firstAlternative;
+      int[] buf = new int[items.length + n];
+      System.arraycopy(items, 0, buf, 0, items.length);
+      for (int i = 0; i < n; i++)
+        buf[items.length + i] = itemBase[entry.firstAlternative + i];
+      return intern(sortUnique(buf, buf.length));
+    }
+  }
+
+  State getInitialState() {
+    return initialState;
+  }
+
+  /**
+   * Tests whether the limit on the number of cached states and transitions has been reached.
+   */
+  boolean isFull() {
+    return cacheSize >= MAX_CACHE_SIZE;
+  }
+
+  /**
+   * Counts something that is about to be cached; returns false if it should not be cached
+   * because the limit has been reached.
+   */
+  private boolean cache() {
+    if (cacheSize >= MAX_CACHE_SIZE)
+      return false;
+    cacheSize++;
+    return true;
+  }
+
+  /**
+   * Returns the entry for a registration of a pattern, creating it if necessary.
+   *
+   * @param pattern the pattern being registered
+   * @param slot the number of registrations that are active
+   * @return the id of the entry; this is used to identify matches
+   */
+  int register(Pattern pattern, int slot) {
+    for (int i = 0, len = entries.size(); i < len; i++) {
+      Entry entry = entries.get(i);
+      if (entry.slot == slot && entry.pattern == pattern)
+        return i;
+    }
+    Entry entry = new Entry(entries.size(), slot, pattern);
+    entries.add(entry);
+    // entries are needed for the ids, so they are kept even when the limit has been reached
+    cacheSize++;
+    List<PathPattern> list = new ArrayList<PathPattern>();
+    pattern.addAlternatives(list);
+    entry.firstAlternative = alternatives.size();
+    int[] newItemBase = new int[itemBase.length + list.size()];
+    System.arraycopy(itemBase, 0, newItemBase, 0, itemBase.length);
+    for (int i = 0; i < list.size(); i++) {
+      newItemBase[itemBase.length + i] = nItems;
+      nItems += list.get(i).getStepCount() + 1;
+      alternatives.add(list.get(i));
+      alternativeEntries.add(entry);
+    }
+    itemBase = newItemBase;
+    entry.endAlternative = alternatives.size();
+    return entry.id;
+  }
+
+  /**
+   * Returns the state that results from registering a pattern on an element in a state.
+   * The pattern will be matched against the descendants of the element.
+   */
+  State getRegistrationState(State state, int entryId) {
+    Entry entry = entries.get(entryId);
+    State result = state.registrationStates.get(entry);
+    if (result == null) {
+      result = state.computeRegistrationState(entry);
+      if (cache())
+        state.registrationStates.put(entry, result);
+    }
+    return result;
+  }
+
+  private State intern(int[] items) {
+    ItemSet key = new ItemSet(items);
+    State state = states.get(key);
+    if (state == null) {
+      state = new State(items);
+      if (cache())
+        states.put(key, state);
+    }
+    return state;
+  }
+
+  private int alternativeIndex(int item) {
+    int i = Arrays.binarySearch(itemBase, item);
+    if (i < 0)
+      i = -i - 2;
+    return i;
+  }
+
+  static private void addMatch(List<Entry> matched, Entry entry) {
+    if (!matched.contains(entry))
+      matched.add(entry);
+  }
+
+  static private int[] toSlotOrder(List<Entry> matched) {
+    if (matched.isEmpty())
+      return NO_MATCHES;
+    int[] result = new int[matched.size()];
+    for (int i = 0; i < result.length; i++) {
+      Entry entry = matched.get(i);
+      int j = i;
+      for (; j > 0 && matched.get(result[j - 1]).slot > entry.slot; j--)
+        result[j] = result[j - 1];
+      result[j] = i;
+    }
+    for (int i = 0; i < result.length; i++)
+      result[i] = matched.get(result[i]).id;
+    return result;
+  }
+
+  static private int[] sortUnique(int[] buf, int len) {
+    Arrays.sort(buf, 0, len);
+    int n = 0;
+    for (int i = 0; i < len; i++)
+      if (n == 0 || buf[n - 1] != buf[i])
+        buf[n++] = buf[i];
+    int[] result = new int[n];
+    System.arraycopy(buf, 0, result, 0, n);
+    return result;
+  }
+}
@@ -22,6 +22,10 @@ class ValidatorImpl extends DefaultHandler implements Validator, Path, PatternMa
   private final Stack valueHandlers = new Stack();
   private final Stack activePatterns = new Stack();
   private final AttributePath attributePath = new AttributePath();
+  // kept across documents, unless it has grown too big
+  private PatternAutomaton automaton = new PatternAutomaton();
+  // indexed by entry id
+  private SelectionHandler[] handlers = new SelectionHandler[4];
   private Locator locator;
   private final ErrorHandler eh;
   private final Localizer localizer = new Localizer(ValidatorImpl.class);
@@ -35,13 +39,11 @@ class ValidatorImpl extends DefaultHandler implements Validator, Path, PatternMa
   }
 
   static class ActivePattern {
-    final int rootDepth;
-    final Pattern pattern;
+    final int entryId;
     final SelectionHandler handler;
 
-    ActivePattern(int rootDepth, Pattern pattern, SelectionHandler handler) {
-      this.rootDepth = rootDepth;
-      this.pattern = pattern;
+    ActivePattern(int entryId, SelectionHandler handler) {
+      this.entryId = entryId;
       this.handler = handler;
     }
   }
@@ -49,12 +51,14 @@ class ValidatorImpl extends DefaultHandler implements Validator, Path, PatternMa
   static class OpenElement {
     final String namespaceUri;
     final String localName;
+    PatternAutomaton.State state;
     int nActivePatterns;
     int nValueHandlers;
 
-    OpenElement(String namespaceUri, String localName) {
+    OpenElement(String namespaceUri, String localName, PatternAutomaton.State state) {
       this.namespaceUri = namespaceUri;
       this.localName = localName;
+      this.state = state;
     }
   }
 
@@ -105,7 +109,11 @@ class ValidatorImpl extends DefaultHandler implements Validator, Path, PatternMa
     openElements.setSize(0);
     valueHandlers.setSize(0);
     activePatterns.setSize(0);
+    for (int i = 0; i < handlers.length; i++)
+      handlers[i] = null;
     locator = null;
+    if (automaton.isFull())
+      automaton = new PatternAutomaton();
   }
 
   public int length() {
@@ -126,8 +134,17 @@ class ValidatorImpl extends DefaultHandler implements Validator, Path, PatternMa
 
   public void registerPattern(Pattern pattern, SelectionHandler handler) {
     // XXX what about case where it matches dot?
-    activePatterns.push(new ActivePattern(openElements.size(), pattern, handler));
-    ((OpenElement)openElements.peek()).nActivePatterns += 1;
+    int entryId = automaton.register(pattern, activePatterns.size());
+    if (entryId >= handlers.length) {
+      SelectionHandler[] newHandlers = new SelectionHandler[Math.max(entryId + 1, handlers.length * 2)];
+      System.arraycopy(handlers, 0, newHandlers, 0, handlers.length);
+      handlers = newHandlers;
+    }
+    handlers[entryId] = handler;
+    activePatterns.push(new ActivePattern(entryId, handler));
+    OpenElement top = (OpenElement)openElements.peek();
+    top.state = automaton.getRegistrationState(top.state, entryId);
+    top.nActivePatterns += 1;
   }
 
   public void registerValueHandler(ValueHandler handler) {
@@ -146,7 +163,7 @@ class ValidatorImpl extends DefaultHandler implements Validator, Path, PatternMa
       tem.setColumnNumber(-1);
       locator = tem;
     }
-    openElements.push(new OpenElement("", "#root"));
+    openElements.push(new OpenElement("", "#root", automaton.getInitialState()));
     try {
       constraint.activate(this);
     }
@@ -168,21 +185,25 @@ class ValidatorImpl extends DefaultHandler implements Validator, Path, PatternMa
                            String qName, Attributes attributes)
           throws SAXException {
     try {
-      openElements.push(new OpenElement(uri, localName));
+      PatternAutomaton.State state
+              = ((OpenElement)openElements.peek()).state.getChildState(uri, localName);
+      OpenElement element = new OpenElement(uri, localName, state);
+      openElements.push(element);
       for (int i = 0, len = valueHandlers.size(); i < len; i++)
         ((ValueHandler)valueHandlers.elementAt(i)).tag(this);
-      for (int i = 0, len = activePatterns.size(); i < len; i++) {
-        ActivePattern ap = (ActivePattern)activePatterns.elementAt(i);
-        if (ap.pattern.matches(this, ap.rootDepth))
-          ap.handler.selectElement(this, this, this);
-      }
-      int nActivePatterns = activePatterns.size();
-      for (int i = 0, len = attributes.getLength(); i < len; i++) {
-        attributePath.set(attributes, i);
-        for (int j = 0; j < nActivePatterns; j++) {
-          ActivePattern ap = (ActivePattern)activePatterns.elementAt(j);
-          if (ap.pattern.matches(attributePath, ap.rootDepth))
-            ap.handler.selectAttribute(this, attributePath, attributes.getValue(i));
+      int[] matches = state.getElementMatches();
+      for (int i = 0; i < matches.length; i++)
+        handlers[matches[i]].selectElement(this, this, this);
+      // selectElement may have registered patterns that apply to the attributes
+      state = element.state;
+      if (state.hasAttributeItems()) {
+        for (int i = 0, len = attributes.getLength(); i < len; i++) {
+          matches = state.getAttributeMatches(attributes.getURI(i), attributes.getLocalName(i));
+          if (matches.length == 0)
+            continue;
+          attributePath.set(attributes, i);
+          for (int j = 0; j < matches.length; j++)
+            handlers[matches[j]].selectAttribute(this, attributePath, attributes.getValue(i));
         }
       }
     }
@@ -225,6 +246,7 @@ class ValidatorImpl extends DefaultHandler implements Validator, Path, PatternMa
     }
     for (int i = 0; i < top.nActivePatterns; i++) {
       ActivePattern ap = (ActivePattern)activePatterns.pop();
+      handlers[ap.entryId] = null;
       ap.handler.selectComplete(this);
     }
   }
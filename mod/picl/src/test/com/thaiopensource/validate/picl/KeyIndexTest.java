@@ -0,0 +1,215 @@
+package com.thaiopensource.validate.picl;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.xml.sax.Locator;
+import org.xml.sax.helpers.LocatorImpl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests KeyIndex, and the disposal of the index shared by the handlers of a keyref constraint.
+ */
+public class KeyIndexTest {
+  @Test
+  public void testLookupCreate() {
+    KeyIndex index = new KeyIndex();
+    int a = index.lookupCreate("a", "a");
+    int b = index.lookupCreate("b", "b");
+    Assert.assertTrue(a != b);
+    Assert.assertEquals(index.lookupCreate("a", "a"), a);
+    Assert.assertEquals(index.lookupCreate("b", "b"), b);
+    Assert.assertEquals(index.getKeyCount(), 2);
+    Assert.assertFalse(index.isDefined(a));
+    // keys that are not ASCII are compared by their encoding
+    int e = index.lookupCreate("\u00e9\ud800\udc00", "\u00e9\ud800\udc00");
+    Assert.assertEquals(index.lookupCreate("\u00e9\ud800\udc00", "\u00e9\ud800\udc00"), e);
+    Assert.assertEquals(index.getRepresentation(e), "\u00e9\ud800\udc00");
+    Assert.assertEquals(index.lookupCreate("", ""), 3);
+    Assert.assertEquals(index.getRepresentation(3), "");
+  }
+
+  @Test
+  public void testRehash() {
+    KeyIndex index = new KeyIndex();
+    for (int i = 0; i < 10000; i++)
+      Assert.assertEquals(index.lookupCreate("k" + i, "k" + i), i);
+    for (int i = 0; i < 10000; i++)
+      Assert.assertEquals(index.lookupCreate("k" + i, "k" + i), i);
+    Assert.assertEquals(index.getKeyCount(), 10000);
+    Assert.assertEquals(index.getRepresentation(9999), "k9999");
+  }
+
+  @Test
+  public void testDefine() {
+    KeyIndex index = new KeyIndex();
+    int id = index.lookupCreate("x", "(x, 1)");
+    Assert.assertEquals(index.getRepresentation(id), "(x, 1)");
+    index.define(id, "x", "x");
+    Assert.assertTrue(index.isDefined(id));
+    Assert.assertEquals(index.getRepresentation(id), "x");
+    index.define(id, "x", "(x, 2)");
+    Assert.assertEquals(index.getRepresentation(id), "(x, 2)");
+  }
+
+  @Test
+  public void testPendingRefs() {
+    KeyIndex index = new KeyIndex();
+    int a = index.lookupCreate("a", "a");
+    int b = index.lookupCreate("b", "b");
+    Assert.assertEquals(index.getFirstPendingRef(a), -1);
+    index.addPendingRef(a, locator("x.xml", 1, 2));
+    index.addPendingRef(b, locator("y.xml", 3, 4));
+    index.addPendingRef(a, locator("x.xml", 5, 6));
+    List<Locator> refs = pendingRefs(index, a);
+    Assert.assertEquals(refs.size(), 2);
+    checkLocator(refs.get(0), "x.xml", 1, 2);
+    checkLocator(refs.get(1), "x.xml", 5, 6);
+    refs = pendingRefs(index, b);
+    Assert.assertEquals(refs.size(), 1);
+    checkLocator(refs.get(0), "y.xml", 3, 4);
+    // defining a key discards the references to it
+    index.define(a, "a", "a");
+    Assert.assertEquals(index.getFirstPendingRef(a), -1);
+    Assert.assertEquals(pendingRefs(index, b).size(), 1);
+  }
+
+  @Test
+  public void testChunks() {
+    // no chunk is memory-mapped below the threshold
+    KeyIndex index = new KeyIndex(16, Long.MAX_VALUE);
+    checkManyKeys(index);
+    Assert.assertFalse(index.isSpilled());
+  }
+
+  @Test
+  public void testSpilled() {
+    KeyIndex index = new KeyIndex(16, 64);
+    try {
+      checkManyKeys(index);
+      Assert.assertTrue(index.isSpilled());
+    }
+    finally {
+      index.dispose();
+    }
+  }
+
+  @Test
+  public void testKeyRefDispose() {
+    checkKeyRefDispose(true);
+    checkKeyRefDispose(false);
+  }
+
+  /**
+   * Checks that the index is disposed of once, after the pending references have been reported,
+   * whichever of the key and ref handlers completes first.
+   */
+  private static void checkKeyRefDispose(boolean keyFirst) {
+    final List<SelectionHandler> handlers = new ArrayList<SelectionHandler>();
+    PatternManager pm = new PatternManager() {
+      public void registerPattern(Pattern pattern, SelectionHandler handler) {
+        handlers.add(handler);
+      }
+
+      public void registerValueHandler(ValueHandler handler) {
+      }
+    };
+    final int[] disposed = new int[1];
+    final KeyIndex index = new KeyIndex(16, 64) {
+      void dispose() {
+        disposed[0]++;
+        super.dispose();
+      }
+    };
+    new KeyRefConstraint(null, null).activate(pm, index);
+    Assert.assertEquals(handlers.size(), 2);
+    SelectionHandler key = handlers.get(0);
+    SelectionHandler ref = handlers.get(1);
+    final List<String> errors = new ArrayList<String>();
+    ErrorContext ec = new ErrorContext() {
+      public void error(Locator locator, String key) {
+        errors.add(key);
+      }
+
+      public void error(Locator locator, String key, String arg) {
+        Assert.assertEquals(disposed[0], 0);
+        errors.add(arg);
+      }
+
+      public Locator saveLocator() {
+        return locator("x.xml", 1, 1);
+      }
+    };
+    for (int i = 0; i < 100; i++)
+      ref.selectAttribute(ec, null, "undefined" + i);
+    for (int i = 0; i < 100; i += 2)
+      key.selectAttribute(ec, null, "undefined" + i);
+    Assert.assertTrue(index.isSpilled());
+    if (keyFirst) {
+      key.selectComplete(ec);
+      Assert.assertEquals(disposed[0], 0);
+      ref.selectComplete(ec);
+    }
+    else {
+      ref.selectComplete(ec);
+      key.selectComplete(ec);
+    }
+    Assert.assertEquals(disposed[0], 1);
+    Assert.assertEquals(errors.size(), 50);
+    Assert.assertEquals(errors.get(0), "undefined1");
+    Assert.assertEquals(errors.get(49), "undefined99");
+  }
+
+  private static void checkManyKeys(KeyIndex index) {
+    int n = 1000;
+    for (int i = 0; i < n; i++) {
+      String value = value(i);
+      int id = index.lookupCreate(value, value);
+      Assert.assertEquals(id, i);
+      if (i % 3 == 0)
+        index.define(id, value, value);
+      else
+        index.addPendingRef(id, locator("x.xml", i, 1));
+    }
+    for (int i = 0; i < n; i++) {
+      String value = value(i);
+      Assert.assertEquals(index.lookupCreate(value, value), i);
+      Assert.assertEquals(index.getRepresentation(i), value);
+      Assert.assertEquals(index.isDefined(i), i % 3 == 0);
+      if (i % 3 != 0)
+        Assert.assertEquals(index.getRefLocator(index.getFirstPendingRef(i)).getLineNumber(), i);
+    }
+    // a value longer than a chunk gets a chunk of its own
+    String longValue = value(n) + new String(new char[100]).replace('\0', 'x');
+    int id = index.lookupCreate(longValue, longValue);
+    Assert.assertEquals(index.getRepresentation(id), longValue);
+    Assert.assertEquals(index.lookupCreate(value(0), value(0)), 0);
+    Assert.assertEquals(index.getKeyCount(), n + 1);
+  }
+
+  private static String value(int i) {
+    return "key" + i;
+  }
+
+  private static List<Locator> pendingRefs(KeyIndex index, int id) {
+    List<Locator> refs = new ArrayList<Locator>();
+    for (int ref = index.getFirstPendingRef(id); ref >= 0; ref = index.getNextPendingRef(ref))
+      refs.add(index.getRefLocator(ref));
+    return refs;
+  }
+
+  private static Locator locator(String systemId, int line, int column) {
+    LocatorImpl locator = new LocatorImpl();
+    locator.setSystemId(systemId);
+    locator.setLineNumber(line);
+    locator.setColumnNumber(column);
+    return locator;
+  }
+
+  private static void checkLocator(Locator locator, String systemId, int line, int column) {
+    Assert.assertEquals(locator.getSystemId(), systemId);
+    Assert.assertEquals(locator.getLineNumber(), line);
+    Assert.assertEquals(locator.getColumnNumber(), column);
+  }
+}
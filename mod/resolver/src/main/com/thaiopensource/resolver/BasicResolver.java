@@ -3,6 +3,7 @@ package com.thaiopensource.resolver;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.io.File;
 import java.io.IOException;
 
 /**
@@ -35,6 +36,11 @@ public class BasicResolver implements Resolver {
     }
     if (!uri.isAbsolute())
       throw new ResolverException("cannot open relative URI: " + uri);
+    File file = LocalFile.toFile(input.getUri());
+    if (file != null) {
+      input.setByteStream(LocalFile.openInputStream(file));
+      return;
+    }
     URL url = new URL(uri.toASCIIString());
     // XXX should set the encoding properly
     // XXX if this is HTTP and we've been redirected, should do input.setURI with the new URI
@@ -0,0 +1,446 @@
+package com.thaiopensource.resolver;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * A Resolver that keeps a copy of every remote resource that it opens, so that
+ * schemas and DTDs referenced by http URIs are fetched only once.
+ * Copies are kept in a directory on disk, and small copies also in memory. The directory is
+ * content-addressed: the content of a resource is stored in a file named by the SHA-1 digest of the
+ * content, and a second file, named by the SHA-1 digest of the URI, holds the digest of the content,
+ * when it was fetched, and the validators (entity tag and modification time) that the server gave for it.
+ * The directory can therefore be shared between runs and between processes.
+ * A resource is copied to disk as it is fetched, rather than being held in memory.
+ * <p>
+ * A copy is fresh for a limited time after it was fetched (by default, one day).  A resource whose
+ * copy is no longer fresh is fetched again, with a conditional request if the server gave validators;
+ * if that fails, the stale copy is used.  The total size of the content files is limited
+ * (by default, to 100MB): when a resource is stored, the least recently used content files are removed
+ * until the total is within the limit.
+ * Local files are not cached. In offline mode, a resource that is not in the cache cannot be opened,
+ * and copies are used however old they are.
+ * This class is safe for concurrent access from multiple threads.
+ */
+public class CachingResolver extends AbstractResolver {
+  static private final String CONTENT_DIR = "content";
+  static private final String URI_DIR = "uri";
+  static private final String TEMP_PREFIX = "tmp";
+  static private final int MAX_MEMORY_ENTRY_SIZE = 1024*1024;
+  static private final long MAX_MEMORY_SIZE = 32*1024*1024;
+  static public final long DEFAULT_MAX_AGE = 24*60*60*1000L;
+  static public final long DEFAULT_MAX_SIZE = 100*1024*1024L;
+
+  private final File directory;
+  private volatile boolean offline = false;
+  private volatile long maxAge = DEFAULT_MAX_AGE;
+  private volatile long maxSize = DEFAULT_MAX_SIZE;
+  // the copies held in memory, least recently used first; guarded by itself
+  private final LinkedHashMap<String, Entry> memory = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+  private long memorySize = 0;
+
+  static private class Entry {
+    private final String digest;
+    private final long fetched;
+    // null if none
+    private final String entityTag;
+    private final String lastModified;
+    // null if the content is only on disk
+    private final byte[] content;
+
+    Entry(String digest, long fetched, String entityTag, String lastModified, byte[] content) {
+      this.digest = digest;
+      this.fetched = fetched;
+      this.entityTag = entityTag;
+      this.lastModified = lastModified;
+      this.content = content;
+    }
+  }
+
+  /**
+   * @param directory the directory in which to store copies of resources; it will be
+   * created if it does not exist
+   */
+  public CachingResolver(File directory) {
+    this.directory = directory;
+  }
+
+  public File getDirectory() {
+    return directory;
+  }
+
+  public boolean isOffline() {
+    return offline;
+  }
+
+  /**
+   * Controls whether resources that are not in the cache are fetched.
+   * @param offline true if resources that are not in the cache should not be fetched
+   */
+  public void setOffline(boolean offline) {
+    this.offline = offline;
+  }
+
+  public long getMaxAge() {
+    return maxAge;
+  }
+
+  /**
+   * Specifies how long a copy is used without checking whether the resource has changed.
+   * @param maxAge the time in milliseconds
+   */
+  public void setMaxAge(long maxAge) {
+    this.maxAge = maxAge;
+  }
+
+  public long getMaxSize() {
+    return maxSize;
+  }
+
+  /**
+   * Specifies the maximum total size of the content files in the directory.
+   * @param maxSize the size in bytes
+   */
+  public void setMaxSize(long maxSize) {
+    this.maxSize = maxSize;
+  }
+
+  public void open(Input input) throws IOException, ResolverException {
+    if (!input.isUriDefinitive())
+      return;
+    String uri = input.getUri();
+    if (!isCacheable(uri))
+      return;
+    Entry entry = recall(uri);
+    if (entry == null)
+      entry = readStored(uri);
+    if (entry == null || (!offline && System.currentTimeMillis() - entry.fetched >= maxAge)) {
+      if (offline)
+        throw new ResolverException("resource not available offline: " + uri);
+      try {
+        entry = fetch(uri, entry);
+      }
+      catch (IOException e) {
+        if (entry == null)
+          throw e;
+        // use the stale copy
+      }
+    }
+    if (entry.content != null) {
+      remember(uri, entry);
+      input.setByteStream(new ByteArrayInputStream(entry.content));
+    }
+    else
+      input.setByteStream(LocalFile.openInputStream(contentFile(entry.digest)));
+  }
+
+  /**
+   * Removes the copy of a resource from memory and from disk, so that it will be fetched again.
+   * The content file is left in place, since it may be shared with other URIs.
+   * @param uri the absolute URI of the resource
+   */
+  public void forget(String uri) {
+    synchronized (memory) {
+      Entry entry = memory.remove(uri);
+      if (entry != null)
+        memorySize -= entry.content.length;
+    }
+    uriFile(uri).delete();
+  }
+
+  private static boolean isCacheable(String uri) {
+    try {
+      URI u = new URI(uri);
+      if (!u.isAbsolute() || u.isOpaque())
+        return false;
+      String scheme = u.getScheme().toLowerCase();
+      return scheme.equals("http") || scheme.equals("https") || scheme.equals("ftp");
+    }
+    catch (URISyntaxException e) {
+      return false;
+    }
+  }
+
+  private Entry recall(String uri) {
+    synchronized (memory) {
+      return memory.get(uri);
+    }
+  }
+
+  private void remember(String uri, Entry entry) {
+    synchronized (memory) {
+      Entry old = memory.put(uri, entry);
+      if (old != null)
+        memorySize -= old.content.length;
+      memorySize += entry.content.length;
+      for (Iterator<Entry> iter = memory.values().iterator(); memorySize > MAX_MEMORY_SIZE;) {
+        memorySize -= iter.next().content.length;
+        iter.remove();
+      }
+    }
+  }
+
+  private Entry readStored(String uri) throws IOException {
+    File uriFile = uriFile(uri);
+    if (!uriFile.isFile())
+      return null;
+    String[] fields = new String(readFile(uriFile), "UTF-8").split("\n", -1);
+    String contentDigest = fields[0].trim();
+    File contentFile = contentFile(contentDigest);
+    if (!contentFile.isFile())
+      return null;
+    long fetched = 0;
+    String entityTag = null;
+    String lastModified = null;
+    // a file in the original format, with only the digest, is treated as stale
+    if (fields.length >= 4) {
+      try {
+        fetched = Long.parseLong(fields[1]);
+      }
+      catch (NumberFormatException e) {
+        // leave it as stale
+      }
+      if (fields[2].length() > 0)
+        entityTag = fields[2];
+      if (fields[3].length() > 0)
+        lastModified = fields[3];
+    }
+    byte[] content = null;
+    if (contentFile.length() <= MAX_MEMORY_ENTRY_SIZE) {
+      content = readFile(contentFile);
+      // a corrupted file is ignored
+      if (!contentDigest.equals(toHex(digest(content))))
+        return null;
+    }
+    // for pruning, the modification time of a content file is when it was last used
+    contentFile.setLastModified(System.currentTimeMillis());
+    return new Entry(contentDigest, fetched, entityTag, lastModified, content);
+  }
+
+  /**
+   * Fetches a resource and stores it.  If old is non-null, the request is conditional on the resource
+   * having changed since old was fetched.
+   */
+  private Entry fetch(String uri, Entry old) throws IOException {
+    long now = System.currentTimeMillis();
+    URLConnection conn = new URL(uri).openConnection();
+    String entityTag = null;
+    String lastModified = null;
+    if (conn instanceof HttpURLConnection) {
+      HttpURLConnection httpConn = (HttpURLConnection)conn;
+      if (old != null) {
+        if (old.entityTag != null)
+          httpConn.setRequestProperty("If-None-Match", old.entityTag);
+        if (old.lastModified != null)
+          httpConn.setRequestProperty("If-Modified-Since", old.lastModified);
+      }
+      if (httpConn.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED && old != null) {
+        httpConn.disconnect();
+        Entry entry = new Entry(old.digest, now, old.entityTag, old.lastModified, old.content);
+        writeUriFile(uri, entry);
+        return entry;
+      }
+      entityTag = httpConn.getHeaderField("ETag");
+      lastModified = httpConn.getHeaderField("Last-Modified");
+    }
+    File contentDir = new File(directory, CONTENT_DIR);
+    contentDir.mkdirs();
+    File tem = File.createTempFile(TEMP_PREFIX, null, contentDir);
+    try {
+      MessageDigest md = newDigest();
+      // keep small content in memory as well
+      ByteArrayOutputStream small = new ByteArrayOutputStream();
+      long length = 0;
+      InputStream in = conn.getInputStream();
+      try {
+        OutputStream out = LocalFile.openOutputStream(tem);
+        try {
+          byte[] buf = new byte[8192];
+          for (int n; (n = in.read(buf)) > 0;) {
+            md.update(buf, 0, n);
+            out.write(buf, 0, n);
+            length += n;
+            if (small != null) {
+              if (length <= MAX_MEMORY_ENTRY_SIZE)
+                small.write(buf, 0, n);
+              else
+                small = null;
+            }
+          }
+        }
+        finally {
+          out.close();
+        }
+      }
+      finally {
+        in.close();
+      }
+      String contentDigest = toHex(md.digest());
+      File contentFile = contentFile(contentDigest);
+      if (contentFile.isFile())
+        contentFile.setLastModified(now);
+      else
+        rename(tem, contentFile);
+      Entry entry = new Entry(contentDigest, now, entityTag, lastModified, small == null ? null : small.toByteArray());
+      writeUriFile(uri, entry);
+      prune(contentFile);
+      return entry;
+    }
+    finally {
+      tem.delete();
+    }
+  }
+
+  private void writeUriFile(String uri, Entry entry) throws IOException {
+    File uriDir = new File(directory, URI_DIR);
+    uriDir.mkdirs();
+    StringBuilder builder = new StringBuilder();
+    builder.append(entry.digest).append('\n');
+    builder.append(entry.fetched).append('\n');
+    if (entry.entityTag != null)
+      builder.append(entry.entityTag);
+    builder.append('\n');
+    if (entry.lastModified != null)
+      builder.append(entry.lastModified);
+    builder.append('\n');
+    writeFile(uriFile(uri), builder.toString().getBytes("UTF-8"));
+  }
+
+  /**
+   * Removes the least recently used content files until their total size is within the limit.
+   * The file just stored is kept, even if it is bigger than the limit.
+   */
+  private void prune(File keep) {
+    // leave alone temporary files, which may be being written by another process
+    File[] files = new File(directory, CONTENT_DIR).listFiles(new FileFilter() {
+      public boolean accept(File file) {
+        return !file.getName().startsWith(TEMP_PREFIX);
+      }
+    });
+    if (files == null)
+      return;
+    long total = 0;
+    for (File file : files)
+      total += file.length();
+    if (total <= maxSize)
+      return;
+    final long[] times = new long[files.length];
+    Integer[] order = new Integer[files.length];
+    for (int i = 0; i < files.length; i++) {
+      times[i] = files[i].lastModified();
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      public int compare(Integer i1, Integer i2) {
+        return times[i1] < times[i2] ? -1 : times[i1] > times[i2] ? 1 : 0;
+      }
+    });
+    for (int i = 0; i < order.length && total > maxSize; i++) {
+      File file = files[order[i]];
+      if (file.equals(keep))
+        continue;
+      long length = file.length();
+      if (file.delete())
+        total -= length;
+    }
+  }
+
+  private File contentFile(String contentDigest) {
+    return new File(new File(directory, CONTENT_DIR), contentDigest);
+  }
+
+  private File uriFile(String uri) {
+    return new File(new File(directory, URI_DIR), digestString(uri));
+  }
+
+  private static byte[] readFile(File file) throws IOException {
+    InputStream in = LocalFile.openInputStream(file);
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buf = new byte[8192];
+      for (int n; (n = in.read(buf)) > 0;)
+        out.write(buf, 0, n);
+      return out.toByteArray();
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Writes to a temporary file and then renames it, so that concurrent readers never see a
+   * partially written file.
+   */
+  private static void writeFile(File file, byte[] content) throws IOException {
+    File tem = File.createTempFile(TEMP_PREFIX, null, file.getParentFile());
+    try {
+      OutputStream out = new FileOutputStream(tem);
+      try {
+        out.write(content);
+      }
+      finally {
+        out.close();
+      }
+      rename(tem, file);
+    }
+    finally {
+      tem.delete();
+    }
+  }
+
+  private static void rename(File from, File to) throws IOException {
+    if (!from.renameTo(to)) {
+      to.delete();
+      if (!from.renameTo(to))
+        throw new IOException("could not rename " + from + " to " + to);
+    }
+  }
+
+  private static String digestString(String str) {
+    try {
+      return toHex(newDigest().digest(str.getBytes("UTF-8")));
+    }
+    catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static byte[] digest(byte[] bytes) {
+    return newDigest().digest(bytes);
+  }
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-1");
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static String toHex(byte[] bytes) {
+    StringBuilder builder = new StringBuilder();
+    for (byte b : bytes) {
+      builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+      builder.append(Character.forDigit(b & 0xF, 16));
+    }
+    return builder.toString();
+  }
+}
@@ -0,0 +1,299 @@
+package com.thaiopensource.resolver;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A snapshot of the state of the resources that contributed to some derived object,
+ * such as a compiled schema. Local files are identified by their modification time and
+ * length, together with a digest of their content if they are small and were read through a
+ * <code>RecordingResolver</code>; HTTP resources by their entity tag and last modification time,
+ * if the server provides them; and other resources by a digest of their content.
+ * The state of a resource should be captured before it is read, so that a change made while
+ * it is being read makes the snapshot out of date, rather than being missed.
+ * <p>
+ * Checking only the modification time and length of the local files is cheap.  Revalidating,
+ * that is, also comparing the digests of the local files and checking the other resources, costs
+ * a read of each small local file, and a request to the server for each other resource, so
+ * it should be done sparingly; <code>DependencyCache</code> limits how often it is done.
+ * Objects of this class are immutable and safe for access from multiple threads.
+ *
+ * @see RecordingResolver
+ */
+public class Dependencies {
+  /**
+   * Local files no longer than this also have a digest of their content, so that revalidation notices
+   * a change that keeps the length and modification time.
+   */
+  static public final int MAX_FILE_DIGEST_LENGTH = 1024*1024;
+  private final Stamp[] stamps;
+
+  static abstract class Stamp {
+    final String uri;
+
+    Stamp(String uri) {
+      this.uri = uri;
+    }
+
+    /**
+     * Tests whether the resource is unchanged.  Unless revalidate is true, this must not read the
+     * resource or make a network request.
+     */
+    abstract boolean isCurrent(boolean revalidate);
+  }
+
+  static class FileStamp extends Stamp {
+    private final File file;
+    private final long lastModified;
+    private final long length;
+    // null if the file was not read through a RecordingResolver, or is too long
+    private final byte[] digest;
+
+    FileStamp(String uri, File file) {
+      super(uri);
+      this.file = file;
+      this.lastModified = file.lastModified();
+      this.length = file.length();
+      this.digest = null;
+    }
+
+    /**
+     * Creates a stamp with the same modification time and length as stamp, and a digest of the
+     * content that was read, which may differ from the content when stamp was created.
+     */
+    FileStamp(FileStamp stamp, byte[] digest) {
+      super(stamp.uri);
+      this.file = stamp.file;
+      this.lastModified = stamp.lastModified;
+      this.length = stamp.length;
+      this.digest = digest;
+    }
+
+    boolean needsDigest() {
+      return digest == null && length <= MAX_FILE_DIGEST_LENGTH;
+    }
+
+    boolean isCurrent(boolean revalidate) {
+      if (file.lastModified() != lastModified || file.length() != length)
+        return false;
+      if (digest == null || !revalidate)
+        return true;
+      try {
+        return Arrays.equals(digest, digest(new FileInputStream(file)));
+      }
+      catch (IOException e) {
+        return false;
+      }
+    }
+  }
+
+  /**
+   * Uses the validators that an HTTP server gives for a resource, so that checking whether
+   * the resource has changed needs a HEAD request rather than reading the resource.
+   */
+  private static class HttpStamp extends Stamp {
+    private final String entityTag;
+    private final String lastModified;
+
+    HttpStamp(String uri, String entityTag, String lastModified) {
+      super(uri);
+      this.entityTag = entityTag;
+      this.lastModified = lastModified;
+    }
+
+    boolean isCurrent(boolean revalidate) {
+      if (!revalidate)
+        return true;
+      try {
+        HttpURLConnection conn = openHead(uri);
+        try {
+          if (entityTag != null)
+            conn.setRequestProperty("If-None-Match", entityTag);
+          if (lastModified != null)
+            conn.setRequestProperty("If-Modified-Since", lastModified);
+          int code = conn.getResponseCode();
+          if (code == HttpURLConnection.HTTP_NOT_MODIFIED)
+            return true;
+          // some servers ignore conditional requests
+          return (code == HttpURLConnection.HTTP_OK
+                  && equal(entityTag, conn.getHeaderField("ETag"))
+                  && equal(lastModified, conn.getHeaderField("Last-Modified")));
+        }
+        finally {
+          conn.disconnect();
+        }
+      }
+      catch (IOException e) {
+        return false;
+      }
+    }
+
+    static private boolean equal(String s1, String s2) {
+      return s1 == null ? s2 == null : s1.equals(s2);
+    }
+  }
+
+  private static class DigestStamp extends Stamp {
+    private final byte[] digest;
+
+    DigestStamp(String uri, byte[] digest) {
+      super(uri);
+      this.digest = digest;
+    }
+
+    boolean isCurrent(boolean revalidate) {
+      if (!revalidate)
+        return true;
+      try {
+        return Arrays.equals(digest, digest(new URL(uri).openStream()));
+      }
+      catch (IOException e) {
+        return false;
+      }
+    }
+  }
+
+  Dependencies(Stamp[] stamps) {
+    this.stamps = stamps;
+  }
+
+  /**
+   * Creates a snapshot of the current state of the resources with the specified URIs.
+   * This should be called before the resources are read.
+   *
+   * @param uris the absolute URIs of the resources
+   * @return a <code>Dependencies</code> object, or <code>null</code> if the state of
+   * some resource could not be determined
+   */
+  public static Dependencies create(Iterable<String> uris) {
+    Map<String, Stamp> map = new LinkedHashMap<String, Stamp>();
+    for (String uri : uris) {
+      if (map.containsKey(uri))
+        continue;
+      Stamp stamp = createStamp(uri);
+      if (stamp == null)
+        return null;
+      map.put(uri, stamp);
+    }
+    return new Dependencies(map.values().toArray(new Stamp[map.size()]));
+  }
+
+  /**
+   * Captures the current state of a resource.  Returns null if the state cannot be determined.
+   */
+  static Stamp createStamp(String uri) {
+    try {
+      File file = LocalFile.toFile(uri);
+      if (file != null)
+        return file.isFile() ? new FileStamp(uri, file) : null;
+      if (uri.regionMatches(true, 0, "http:", 0, 5) || uri.regionMatches(true, 0, "https:", 0, 6)) {
+        HttpURLConnection conn = openHead(uri);
+        try {
+          if (conn.getResponseCode() != HttpURLConnection.HTTP_OK)
+            return null;
+          String entityTag = conn.getHeaderField("ETag");
+          String lastModified = conn.getHeaderField("Last-Modified");
+          if (entityTag != null || lastModified != null)
+            return new HttpStamp(uri, entityTag, lastModified);
+        }
+        finally {
+          conn.disconnect();
+        }
+      }
+      return new DigestStamp(uri, digest(new URL(uri).openStream()));
+    }
+    catch (IOException e) {
+      return null;
+    }
+  }
+
+  static private HttpURLConnection openHead(String uri) throws IOException {
+    URLConnection conn = new URL(uri).openConnection();
+    if (!(conn instanceof HttpURLConnection))
+      throw new IOException("not an HTTP URL: " + uri);
+    HttpURLConnection httpConn = (HttpURLConnection)conn;
+    httpConn.setRequestMethod("HEAD");
+    httpConn.setUseCaches(false);
+    return httpConn;
+  }
+
+  /**
+   * Returns the digest of the content of a stream, and closes it.
+   */
+  private static byte[] digest(InputStream in) throws IOException {
+    try {
+      MessageDigest md = createMessageDigest();
+      byte[] buf = new byte[8192];
+      for (int n; (n = in.read(buf)) > 0;)
+        md.update(buf, 0, n);
+      return md.digest();
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  static byte[] digest(byte[] bytes) throws IOException {
+    return createMessageDigest().digest(bytes);
+  }
+
+  static private MessageDigest createMessageDigest() throws IOException {
+    try {
+      return MessageDigest.getInstance("SHA-1");
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new IOException(e.getMessage());
+    }
+  }
+
+  /**
+   * Tests whether all resources are still in the state they were in when this object
+   * was created, revalidating them.  This is the same as <code>isCurrent(true)</code>.
+   *
+   * @return <code>true</code> if no resource has changed, <code>false</code> otherwise
+   */
+  public boolean isCurrent() {
+    return isCurrent(true);
+  }
+
+  /**
+   * Tests whether all resources are still in the state they were in when this object
+   * was created.
+   *
+   * @param revalidate <code>false</code> to check only the modification time and length of
+   * the local files, and assume the other resources are unchanged, which needs no reads or network
+   * requests; <code>true</code> to compare the digests of the local files as well, and to check the
+   * other resources
+   * @return <code>true</code> if no resource has changed, <code>false</code> otherwise
+   */
+  public boolean isCurrent(boolean revalidate) {
+    for (Stamp stamp : stamps)
+      if (!stamp.isCurrent(revalidate))
+        return false;
+    return true;
+  }
+
+  /**
+   * Returns the number of resources.
+   */
+  public int size() {
+    return stamps.length;
+  }
+
+  /**
+   * Returns the URI of the i-th resource, in the order in which they were first used.
+   */
+  public String getUri(int i) {
+    return stamps[i].uri;
+  }
+}
@@ -0,0 +1,159 @@
+package com.thaiopensource.resolver;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of objects derived from resources, such as compiled schemas. An entry
+ * is returned only as long as the resources from which it was derived are unchanged.
+ * Each time an entry is looked up, the modification time and length of the local files from
+ * which it was derived are checked, which is cheap.  The entry is revalidated, which also compares
+ * the digests of the local files and checks the other resources, at most once in a set interval,
+ * since this costs a read of each small local file and a request to the server for each remote
+ * resource; between revalidations, a change to a remote resource, or to a local file that keeps
+ * its modification time and length, is not noticed.
+ * The number of entries is limited: when the limit is reached, the least recently used
+ * entry is removed to make room for a new one.
+ * This class is safe for concurrent access from multiple threads.
+ *
+ * @see Dependencies
+ */
+public class DependencyCache<K, V> {
+  /**
+   * The maximum number of entries of a cache created with the no-argument constructor.
+   */
+  static public final int DEFAULT_MAX_ENTRIES = 100;
+  /**
+   * The interval in milliseconds between revalidations of an entry of a cache created without
+   * specifying the interval.
+   */
+  static public final long DEFAULT_REVALIDATE_INTERVAL = 60*1000;
+  private final Map<K, Entry<V>> map;
+  // in nanoseconds; negative if entries are never revalidated
+  private final long revalidateInterval;
+
+  private static class Entry<V> {
+    private final V value;
+    private final Dependencies dependencies;
+    // the value of System.nanoTime() when the dependencies were last revalidated
+    private volatile long revalidated;
+
+    private Entry(V value, Dependencies dependencies, long revalidated) {
+      this.value = value;
+      this.dependencies = dependencies;
+      this.revalidated = revalidated;
+    }
+  }
+
+  /**
+   * Creates a cache with at most <code>DEFAULT_MAX_ENTRIES</code> entries, revalidated every
+   * <code>DEFAULT_REVALIDATE_INTERVAL</code> milliseconds.
+   */
+  public DependencyCache() {
+    this(DEFAULT_MAX_ENTRIES);
+  }
+
+  /**
+   * Creates a cache with a limited number of entries, revalidated every
+   * <code>DEFAULT_REVALIDATE_INTERVAL</code> milliseconds.
+   *
+   * @param maxEntries the maximum number of entries; must be positive
+   */
+  public DependencyCache(int maxEntries) {
+    this(maxEntries, DEFAULT_REVALIDATE_INTERVAL);
+  }
+
+  /**
+   * Creates a cache with a limited number of entries.
+   *
+   * @param maxEntries the maximum number of entries; must be positive
+   * @param revalidateInterval the minimum interval in milliseconds between revalidations of an entry;
+   * 0 to revalidate an entry each time it is looked up; negative never to revalidate
+   * @see Dependencies#isCurrent(boolean)
+   */
+  public DependencyCache(final int maxEntries, long revalidateInterval) {
+    if (maxEntries <= 0)
+      throw new IllegalArgumentException();
+    // an interval too long to count in nanoseconds is never reached
+    if (revalidateInterval < 0 || revalidateInterval > Long.MAX_VALUE/1000000)
+      this.revalidateInterval = -1;
+    else
+      this.revalidateInterval = revalidateInterval*1000000;
+    map = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+      protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+        return size() > maxEntries;
+      }
+    };
+  }
+
+  /**
+   * Returns the value for a key, if its dependencies are current. A stale
+   * entry is removed.
+   *
+   * @param key the key
+   * @return the value, or <code>null</code> if there is no current entry for the key
+   */
+  public V get(K key) {
+    Entry<V> entry;
+    synchronized (map) {
+      entry = map.get(key);
+    }
+    if (entry == null)
+      return null;
+    long now = System.nanoTime();
+    boolean revalidate = revalidateInterval >= 0 && now - entry.revalidated >= revalidateInterval;
+    // this may need I/O, so it's done without holding the lock
+    if (!entry.dependencies.isCurrent(revalidate)) {
+      synchronized (map) {
+        if (map.get(key) == entry)
+          map.remove(key);
+      }
+      return null;
+    }
+    if (revalidate)
+      entry.revalidated = now;
+    return entry.value;
+  }
+
+  /**
+   * Adds an entry to the cache.
+   *
+   * @param key the key
+   * @param value the value; must not be <code>null</code>
+   * @param dependencies the resources from which <code>value</code> was derived;
+   * if this is <code>null</code>, nothing is added
+   */
+  public void put(K key, V value, Dependencies dependencies) {
+    if (value == null)
+      throw new NullPointerException();
+    if (dependencies != null) {
+      synchronized (map) {
+        map.put(key, new Entry<V>(value, dependencies, System.nanoTime()));
+      }
+    }
+  }
+
+  /**
+   * Removes the entry for a key.
+   */
+  public void remove(K key) {
+    synchronized (map) {
+      map.remove(key);
+    }
+  }
+
+  /**
+   * Removes all entries.
+   */
+  public void clear() {
+    synchronized (map) {
+      map.clear();
+    }
+  }
+
+  public int size() {
+    synchronized (map) {
+      return map.size();
+    }
+  }
+}
@@ -0,0 +1,205 @@
+package com.thaiopensource.resolver;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Provides fast access to local files, bypassing the URL handler.
+ * Files are read into memory in a single operation, except for very large files,
+ * which are memory-mapped.  A mapped file is unmapped when its stream is closed, where the
+ * JRE allows this, so that it does not stay locked (on Windows) until the mapping is garbage collected.
+ */
+public class LocalFile {
+  /**
+   * Files at least this long are memory-mapped rather than read into memory.
+   */
+  static public final int MAP_THRESHOLD = 4*1024*1024;
+  /**
+   * The size of the buffer used for streams that are neither read into memory
+   * nor memory-mapped.
+   */
+  static public final int BUFFER_SIZE = 64*1024;
+
+  private LocalFile() { }
+
+  /**
+   * Returns the local file identified by a URI.
+   *
+   * @param uri a String containing an absolute URI
+   * @return the File, or <code>null</code> if <code>uri</code> is not a <code>file:</code> URI
+   * identifying a local file
+   */
+  public static File toFile(String uri) {
+    if (uri == null || !uri.regionMatches(true, 0, "file:", 0, 5))
+      return null;
+    try {
+      URI u = new URI(uri);
+      if (u.getAuthority() != null || u.getFragment() != null || u.getQuery() != null || u.isOpaque())
+        return null;
+      return new File(u);
+    }
+    catch (URISyntaxException e) {
+      return null;
+    }
+    catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Opens a local file for reading.
+   *
+   * @param file the File to open
+   * @return an InputStream that reads the content of the file; the caller should close it
+   * @throws IOException if the file could not be opened or read
+   */
+  public static InputStream openInputStream(File file) throws IOException {
+    FileInputStream fis = new FileInputStream(file);
+    boolean keepOpen = false;
+    try {
+      FileChannel channel = fis.getChannel();
+      long size = channel.size();
+      if (size < MAP_THRESHOLD)
+        return read(channel, (int)size);
+      if (size <= Integer.MAX_VALUE)
+        return new ByteBufferInputStream(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+      keepOpen = true;
+      return new BufferedInputStream(fis, BUFFER_SIZE);
+    }
+    finally {
+      if (!keepOpen)
+        fis.close();
+    }
+  }
+
+  /**
+   * Opens a local file for writing, creating it if necessary.
+   *
+   * @param file the File to open
+   * @return a buffered OutputStream that writes to the file; the caller should close it
+   * @throws IOException if the file could not be opened
+   */
+  public static OutputStream openOutputStream(File file) throws IOException {
+    return new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE);
+  }
+
+  private static InputStream read(FileChannel channel, int size) throws IOException {
+    // one extra byte so that we notice if the file grew
+    ByteBuffer buf = ByteBuffer.allocate(size + 1);
+    while (channel.read(buf) >= 0) {
+      if (!buf.hasRemaining()) {
+        ByteBuffer tem = ByteBuffer.allocate(buf.capacity() * 2);
+        buf.flip();
+        tem.put(buf);
+        buf = tem;
+      }
+    }
+    return new ByteArrayInputStream(buf.array(), 0, buf.position());
+  }
+
+  static private class ByteBufferInputStream extends InputStream {
+    // null once closed, since the buffer must not be used after it has been unmapped
+    private MappedByteBuffer buf;
+
+    ByteBufferInputStream(MappedByteBuffer buf) {
+      this.buf = buf;
+    }
+
+    public int read() throws IOException {
+      checkOpen();
+      if (!buf.hasRemaining())
+        return -1;
+      return buf.get() & 0xFF;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+      checkOpen();
+      if (len == 0)
+        return 0;
+      int n = buf.remaining();
+      if (n == 0)
+        return -1;
+      if (len < n)
+        n = len;
+      buf.get(b, off, n);
+      return n;
+    }
+
+    public long skip(long n) throws IOException {
+      checkOpen();
+      if (n <= 0)
+        return 0;
+      int k = buf.remaining();
+      if (n < k)
+        k = (int)n;
+      buf.position(buf.position() + k);
+      return k;
+    }
+
+    public int available() throws IOException {
+      checkOpen();
+      return buf.remaining();
+    }
+
+    public void close() {
+      if (buf != null) {
+        MappedByteBuffer b = buf;
+        buf = null;
+        unmap(b);
+      }
+    }
+
+    private void checkOpen() throws IOException {
+      if (buf == null)
+        throw new IOException("stream closed");
+    }
+  }
+
+  /**
+   * Releases the mapping of a buffer immediately rather than when it is garbage collected.
+   * There's no public API for this, so it's done by reflection; if that fails, the mapping is
+   * left to the garbage collector.
+   */
+  static private void unmap(MappedByteBuffer buf) {
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Method invokeCleaner;
+      try {
+        invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+      }
+      catch (NoSuchMethodException e) {
+        invokeCleaner = null;
+      }
+      if (invokeCleaner != null) {
+        // Java 9 and later
+        Field field = unsafeClass.getDeclaredField("theUnsafe");
+        field.setAccessible(true);
+        invokeCleaner.invoke(field.get(null), buf);
+      }
+      else {
+        Method cleanerMethod = buf.getClass().getMethod("cleaner");
+        cleanerMethod.setAccessible(true);
+        Object cleaner = cleanerMethod.invoke(buf);
+        if (cleaner != null)
+          cleaner.getClass().getMethod("clean").invoke(cleaner);
+      }
+    }
+    catch (Exception e) {
+      // leave it to the garbage collector
+    }
+  }
+}
@@ -0,0 +1,138 @@
+package com.thaiopensource.resolver;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A Resolver that records every resource that it resolves or opens, so that the
+ * state of those resources is known once some processing is complete.  The state of
+ * each resource is captured when it is first resolved or opened, before it is read.
+ * Resolution and opening are delegated to another Resolver, if any.  A small local file that
+ * the other Resolver leaves unopened is opened by this Resolver, so that the digest in its stamp
+ * is of the bytes that are actually read.
+ *
+ * @see Dependencies
+ */
+public class RecordingResolver implements Resolver {
+  private final Resolver resolver;
+  private volatile Map<String, Dependencies.Stamp> stamps = new LinkedHashMap<String, Dependencies.Stamp>();
+  private volatile boolean untrackable = false;
+
+  /**
+   * @param resolver the Resolver to delegate to; may be <code>null</code>
+   */
+  public RecordingResolver(Resolver resolver) {
+    this.resolver = resolver;
+  }
+
+  public void resolve(Identifier id, Input input) throws IOException, ResolverException {
+    if (resolver != null)
+      resolver.resolve(id, input);
+    if (stamps == null)
+      return;
+    String uri = input.getUri();
+    if (uri == null) {
+      if (input.isOpen()) {
+        untrackable = true;
+        return;
+      }
+      try {
+        uri = BasicResolver.resolveUri(id);
+      }
+      catch (ResolverException e) {
+        untrackable = true;
+        return;
+      }
+    }
+    record(uri);
+  }
+
+  public void open(Input input) throws IOException, ResolverException {
+    if (!input.isUriDefinitive()) {
+      if (resolver != null)
+        resolver.open(input);
+      return;
+    }
+    String uri = input.getUri();
+    record(uri);
+    if (resolver != null)
+      resolver.open(input);
+    if (input.isUriDefinitive())
+      openFile(uri, input);
+  }
+
+  /**
+   * Opens a local file whose stamp has no digest yet, and adds the digest of the bytes read to the stamp.
+   */
+  private void openFile(String uri, Input input) throws IOException {
+    Map<String, Dependencies.Stamp> map = stamps;
+    if (map == null)
+      return;
+    Dependencies.FileStamp stamp;
+    synchronized (map) {
+      Dependencies.Stamp s = map.get(uri);
+      if (!(s instanceof Dependencies.FileStamp) || !((Dependencies.FileStamp)s).needsDigest())
+        return;
+      stamp = (Dependencies.FileStamp)s;
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    InputStream in = LocalFile.openInputStream(LocalFile.toFile(uri));
+    try {
+      byte[] buf = new byte[8192];
+      for (int n; (n = in.read(buf)) > 0;)
+        out.write(buf, 0, n);
+    }
+    finally {
+      in.close();
+    }
+    byte[] bytes = out.toByteArray();
+    byte[] digest = Dependencies.digest(bytes);
+    synchronized (map) {
+      if (map.get(uri) == stamp)
+        map.put(uri, new Dependencies.FileStamp(stamp, digest));
+    }
+    input.setByteStream(new ByteArrayInputStream(bytes));
+  }
+
+  /**
+   * Records a resource that is used without going through this Resolver.  This should be
+   * called before the resource is read.
+   * @param uri the absolute URI of the resource
+   */
+  public void record(String uri) {
+    Map<String, Dependencies.Stamp> map = stamps;
+    if (map != null) {
+      synchronized (map) {
+        if (map.containsKey(uri))
+          return;
+        Dependencies.Stamp stamp = Dependencies.createStamp(uri);
+        if (stamp == null)
+          untrackable = true;
+        else
+          map.put(uri, stamp);
+      }
+    }
+  }
+
+  /**
+   * Stops recording and returns the state of the recorded resources, as it was when they were
+   * first resolved or opened.
+   * This Resolver continues to delegate after this has been called.
+   *
+   * @return the <code>Dependencies</code> of the recorded resources, or <code>null</code>
+   * if some resource was supplied in a way that does not allow its state to be tracked
+   */
+  public Dependencies finish() {
+    Map<String, Dependencies.Stamp> map = stamps;
+    stamps = null;
+    if (map == null || untrackable)
+      return null;
+    synchronized (map) {
+      return new Dependencies(map.values().toArray(new Dependencies.Stamp[map.size()]));
+    }
+  }
+}
@@ -3,6 +3,7 @@ package com.thaiopensource.resolver.xml.sax;
 import com.thaiopensource.resolver.BasicResolver;
 import com.thaiopensource.resolver.Identifier;
 import com.thaiopensource.resolver.Input;
+import com.thaiopensource.resolver.LocalFile;
 import com.thaiopensource.resolver.Resolver;
 import com.thaiopensource.resolver.ResolverException;
 import com.thaiopensource.resolver.SequenceResolver;
@@ -95,15 +96,57 @@ public class SAXResolver {
     if (inputSource.getByteStream() != null || inputSource.getCharacterStream() != null)
       return inputSource;
     Input input = SAX.createInput(inputSource);
+    boolean opened = false;
     try {
       resolver.open(input);
+      opened = true;
     }
     catch (ResolverException e) {
       throw SAX.toSAXException(e);
     }
+    finally {
+      // a resolver may have opened a stream before failing
+      if (!opened)
+        closeQuietly(input);
+    }
     String publicId = inputSource.getPublicId();
     inputSource = SAX.createInputSource(input);
     inputSource.setPublicId(publicId);
     return inputSource;
   }
+
+  /**
+   * Parses a document using an XMLReader.  If the InputSource has no stream and its system identifier is
+   * a local file, the file is opened using this resolver, so that it bypasses the URL handler, and the
+   * stream is closed when parsing finishes.
+   */
+  public void parse(XMLReader xr, InputSource inputSource) throws SAXException, IOException {
+    if (inputSource.getByteStream() != null || inputSource.getCharacterStream() != null
+        || LocalFile.toFile(inputSource.getSystemId()) == null) {
+      xr.parse(inputSource);
+      return;
+    }
+    InputSource opened = open(inputSource);
+    try {
+      xr.parse(opened);
+    }
+    finally {
+      if (opened.getByteStream() != null)
+        opened.getByteStream().close();
+      if (opened.getCharacterStream() != null)
+        opened.getCharacterStream().close();
+    }
+  }
+
+  static private void closeQuietly(Input input) {
+    try {
+      if (input.getByteStream() != null)
+        input.getByteStream().close();
+      if (input.getCharacterStream() != null)
+        input.getCharacterStream().close();
+    }
+    catch (IOException e) {
+      // the exception that made the open fail is more useful
+    }
+  }
 }
@@ -0,0 +1,200 @@
+package com.thaiopensource.resolver;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+
+/**
+ * Tests CachingResolver against a local HTTP server.
+ */
+public class CachingResolverTest {
+  private HttpServer server;
+  private File directory;
+  private volatile String content;
+  private volatile int requestCount;
+  private volatile int notModifiedCount;
+
+  @BeforeMethod
+  public void setUp() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        requestCount++;
+        String entityTag = "\"" + Integer.toHexString(content.hashCode()) + "\"";
+        exchange.getResponseHeaders().set("ETag", entityTag);
+        if (entityTag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+          notModifiedCount++;
+          exchange.sendResponseHeaders(304, -1);
+          exchange.close();
+          return;
+        }
+        byte[] bytes = content.getBytes("UTF-8");
+        exchange.sendResponseHeaders(200, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+      }
+    });
+    server.start();
+    directory = File.createTempFile("cache", null);
+    directory.delete();
+    directory.mkdir();
+    content = "<!ELEMENT doc (#PCDATA)>";
+    requestCount = 0;
+    notModifiedCount = 0;
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    server.stop(0);
+    delete(directory);
+  }
+
+  @Test
+  public void testRepeatedOpen() throws IOException, ResolverException {
+    String uri = uri("doc.dtd");
+    CachingResolver resolver = new CachingResolver(directory);
+    Assert.assertEquals(open(resolver, uri), content);
+    Assert.assertEquals(open(resolver, uri), content);
+    Assert.assertEquals(requestCount, 1);
+  }
+
+  @Test
+  public void testDiskStore() throws IOException, ResolverException {
+    String uri = uri("doc.dtd");
+    String original = content;
+    Assert.assertEquals(open(new CachingResolver(directory), uri), original);
+    content = "<!ELEMENT doc EMPTY>";
+    // a new resolver has nothing in memory but finds the copy on disk
+    Assert.assertEquals(open(new CachingResolver(directory), uri), original);
+    Assert.assertEquals(requestCount, 1);
+    CachingResolver resolver = new CachingResolver(directory);
+    resolver.forget(uri);
+    Assert.assertEquals(open(resolver, uri), content);
+    Assert.assertEquals(requestCount, 2);
+  }
+
+  @Test
+  public void testOffline() throws IOException, ResolverException {
+    String uri = uri("doc.dtd");
+    Assert.assertEquals(open(new CachingResolver(directory), uri), content);
+    CachingResolver resolver = new CachingResolver(directory);
+    resolver.setOffline(true);
+    Assert.assertEquals(open(resolver, uri), content);
+    try {
+      open(resolver, uri("other.dtd"));
+      Assert.fail("opened uncached resource offline");
+    }
+    catch (ResolverException e) {
+      // expected
+    }
+    Assert.assertEquals(requestCount, 1);
+  }
+
+  @Test
+  public void testLocalFileNotCached() throws IOException, ResolverException {
+    Input input = new Input();
+    input.setUri(new File(directory, "local.dtd").toURI().toString());
+    new CachingResolver(directory).open(input);
+    Assert.assertNull(input.getByteStream());
+  }
+
+  @Test
+  public void testRevalidation() throws IOException, ResolverException {
+    String uri = uri("doc.dtd");
+    CachingResolver resolver = new CachingResolver(directory);
+    resolver.setMaxAge(0);
+    String original = content;
+    Assert.assertEquals(open(resolver, uri), original);
+    // unchanged, so the server answers a conditional request with no content
+    Assert.assertEquals(open(resolver, uri), original);
+    Assert.assertEquals(requestCount, 2);
+    Assert.assertEquals(notModifiedCount, 1);
+    content = "<!ELEMENT doc EMPTY>";
+    Assert.assertEquals(open(resolver, uri), content);
+    Assert.assertEquals(requestCount, 3);
+    Assert.assertEquals(notModifiedCount, 1);
+    // the copy on disk was updated too
+    resolver = new CachingResolver(directory);
+    Assert.assertEquals(open(resolver, uri), content);
+    Assert.assertEquals(requestCount, 3);
+  }
+
+  @Test
+  public void testStaleCopyUsedOnFailure() throws IOException, ResolverException {
+    String uri = uri("doc.dtd");
+    CachingResolver resolver = new CachingResolver(directory);
+    Assert.assertEquals(open(resolver, uri), content);
+    server.stop(0);
+    resolver.setMaxAge(0);
+    Assert.assertEquals(open(resolver, uri), content);
+    Assert.assertEquals(open(new CachingResolver(directory), uri), content);
+  }
+
+  @Test
+  public void testLargeResource() throws IOException, ResolverException {
+    StringBuilder builder = new StringBuilder();
+    while (builder.length() < 3*1024*1024)
+      builder.append("<!-- padding -->\n");
+    content = builder.toString();
+    String uri = uri("big.dtd");
+    CachingResolver resolver = new CachingResolver(directory);
+    Assert.assertEquals(open(resolver, uri), content);
+    Assert.assertEquals(open(resolver, uri), content);
+    Assert.assertEquals(requestCount, 1);
+  }
+
+  @Test
+  public void testMaxSize() throws IOException, ResolverException {
+    CachingResolver resolver = new CachingResolver(directory);
+    resolver.setMaxSize(content.length() * 2);
+    File contentDir = new File(directory, "content");
+    for (int i = 0; i < 5; i++) {
+      content = "<!ELEMENT doc" + i + " (#PCDATA)>";
+      Assert.assertEquals(open(resolver, uri("doc" + i + ".dtd")), content);
+      Assert.assertTrue(contentDir.list().length <= 2);
+    }
+    // the evicted copy is fetched again
+    content = "<!ELEMENT doc0 (#PCDATA)>";
+    Assert.assertEquals(open(new CachingResolver(directory), uri("doc0.dtd")), content);
+    Assert.assertEquals(requestCount, 6);
+  }
+
+  private String uri(String path) {
+    return "http://127.0.0.1:" + server.getAddress().getPort() + "/" + path;
+  }
+
+  private static String open(Resolver resolver, String uri) throws IOException, ResolverException {
+    Input input = new Input();
+    input.setUri(uri);
+    resolver.open(input);
+    InputStream in = input.getByteStream();
+    Assert.assertNotNull(in);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buf = new byte[1024];
+    for (int n; (n = in.read(buf)) > 0;)
+      out.write(buf, 0, n);
+    in.close();
+    return out.toString("UTF-8");
+  }
+
+  private static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children)
+        delete(child);
+    }
+    file.delete();
+  }
+}
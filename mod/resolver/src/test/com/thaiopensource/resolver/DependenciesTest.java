@@ -0,0 +1,243 @@
+package com.thaiopensource.resolver;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+
+/**
+ * Tests Dependencies, RecordingResolver and DependencyCache.
+ */
+public class DependenciesTest {
+  private HttpServer server;
+  private File directory;
+  private volatile String content;
+  private volatile String entityTag;
+  private volatile int getCount;
+  private volatile int headCount;
+
+  @BeforeMethod
+  public void setUp() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        if (exchange.getRequestMethod().equals("HEAD"))
+          headCount++;
+        String tag = entityTag;
+        if (tag != null)
+          exchange.getResponseHeaders().set("ETag", tag);
+        if (tag != null && tag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+          exchange.sendResponseHeaders(304, -1);
+          exchange.close();
+          return;
+        }
+        byte[] bytes = content.getBytes("UTF-8");
+        if (exchange.getRequestMethod().equals("HEAD")) {
+          exchange.sendResponseHeaders(200, -1);
+          exchange.close();
+          return;
+        }
+        getCount++;
+        exchange.sendResponseHeaders(200, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+      }
+    });
+    server.start();
+    directory = File.createTempFile("deps", null);
+    directory.delete();
+    directory.mkdir();
+    content = "<doc/>";
+    entityTag = null;
+    getCount = 0;
+    headCount = 0;
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    server.stop(0);
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files)
+        file.delete();
+    }
+    directory.delete();
+  }
+
+  @Test
+  public void testFileChange() throws IOException, ResolverException {
+    File file = new File(directory, "a.rnc");
+    writeFile(file, "element a { empty }");
+    Dependencies deps = Dependencies.create(Collections.singleton(uri(file)));
+    Assert.assertNotNull(deps);
+    Assert.assertTrue(deps.isCurrent());
+    writeFile(file, "element a { text }");
+    Assert.assertFalse(deps.isCurrent(false));
+    // a change that keeps the length and modification time is noticed only by revalidation
+    writeFile(file, "element a { empty }");
+    RecordingResolver recorder = new RecordingResolver(null);
+    Assert.assertEquals(read(recorder, uri(file)), "element a { empty }");
+    deps = recorder.finish();
+    long lastModified = file.lastModified();
+    writeFile(file, "element b { empty }");
+    file.setLastModified(lastModified);
+    Assert.assertTrue(deps.isCurrent(false));
+    Assert.assertFalse(deps.isCurrent(true));
+  }
+
+  @Test
+  public void testDigestOfBytesRead() throws IOException, ResolverException {
+    File file = new File(directory, "a.rnc");
+    writeFile(file, "element a { empty }");
+    long lastModified = file.lastModified();
+    RecordingResolver recorder = new RecordingResolver(null);
+    recorder.record(uri(file));
+    // the file changes after it is stamped but before it is read, keeping its length and modification time
+    writeFile(file, "element b { empty }");
+    file.setLastModified(lastModified);
+    Assert.assertEquals(read(recorder, uri(file)), "element b { empty }");
+    Dependencies deps = recorder.finish();
+    Assert.assertTrue(deps.isCurrent(true));
+    writeFile(file, "element a { empty }");
+    file.setLastModified(lastModified);
+    Assert.assertFalse(deps.isCurrent(true));
+  }
+
+  @Test
+  public void testMissingFile() {
+    Assert.assertNull(Dependencies.create(Collections.singleton(uri(new File(directory, "none.rnc")))));
+  }
+
+  @Test
+  public void testStampedBeforeRead() throws IOException {
+    File file = new File(directory, "a.rnc");
+    writeFile(file, "element a { empty }");
+    RecordingResolver recorder = new RecordingResolver(null);
+    recorder.record(uri(file));
+    // the file changes while it is being read
+    writeFile(file, "element a { text }");
+    Dependencies deps = recorder.finish();
+    Assert.assertNotNull(deps);
+    Assert.assertEquals(deps.size(), 1);
+    Assert.assertEquals(deps.getUri(0), uri(file));
+    Assert.assertFalse(deps.isCurrent());
+  }
+
+  @Test
+  public void testHttpValidators() {
+    entityTag = "\"1\"";
+    Dependencies deps = Dependencies.create(Collections.singleton(httpUri("a.rnc")));
+    Assert.assertNotNull(deps);
+    Assert.assertTrue(deps.isCurrent());
+    Assert.assertTrue(deps.isCurrent());
+    Assert.assertEquals(getCount, 0);
+    entityTag = "\"2\"";
+    // without revalidation, no request is made
+    int heads = headCount;
+    Assert.assertTrue(deps.isCurrent(false));
+    Assert.assertEquals(headCount, heads);
+    Assert.assertFalse(deps.isCurrent());
+    Assert.assertEquals(getCount, 0);
+  }
+
+  @Test
+  public void testHttpDigest() {
+    Dependencies deps = Dependencies.create(Collections.singleton(httpUri("a.rnc")));
+    Assert.assertNotNull(deps);
+    Assert.assertTrue(deps.isCurrent());
+    content = "<doc2/>";
+    Assert.assertFalse(deps.isCurrent());
+  }
+
+  @Test
+  public void testCacheEviction() throws IOException {
+    File file = new File(directory, "a.rnc");
+    writeFile(file, "element a { empty }");
+    Dependencies deps = Dependencies.create(Collections.singleton(uri(file)));
+    DependencyCache<String, String> cache = new DependencyCache<String, String>(2);
+    cache.put("x", "X", deps);
+    cache.put("y", "Y", deps);
+    Assert.assertEquals(cache.get("x"), "X");
+    cache.put("z", "Z", deps);
+    Assert.assertEquals(cache.size(), 2);
+    // y was the least recently used
+    Assert.assertNull(cache.get("y"));
+    Assert.assertEquals(cache.get("x"), "X");
+    Assert.assertEquals(cache.get("z"), "Z");
+    writeFile(file, "element a { text }");
+    Assert.assertNull(cache.get("x"));
+    Assert.assertEquals(cache.size(), 1);
+  }
+
+  @Test
+  public void testRevalidateInterval() {
+    entityTag = "\"1\"";
+    Dependencies deps = Dependencies.create(Collections.singleton(httpUri("a.rnc")));
+    DependencyCache<String, String> never = new DependencyCache<String, String>(10, -1);
+    DependencyCache<String, String> hourly = new DependencyCache<String, String>(10, 60*60*1000);
+    DependencyCache<String, String> always = new DependencyCache<String, String>(10, 0);
+    never.put("x", "X", deps);
+    hourly.put("x", "X", deps);
+    always.put("x", "X", deps);
+    int heads = headCount;
+    Assert.assertEquals(never.get("x"), "X");
+    Assert.assertEquals(hourly.get("x"), "X");
+    Assert.assertEquals(headCount, heads);
+    Assert.assertEquals(always.get("x"), "X");
+    Assert.assertEquals(headCount, heads + 1);
+    entityTag = "\"2\"";
+    Assert.assertEquals(never.get("x"), "X");
+    Assert.assertEquals(hourly.get("x"), "X");
+    Assert.assertNull(always.get("x"));
+  }
+
+  /**
+   * Reads a resource opened through a RecordingResolver.
+   */
+  private static String read(RecordingResolver recorder, String uri) throws IOException, ResolverException {
+    Input input = new Input();
+    input.setUri(uri);
+    recorder.open(input);
+    InputStream in = input.getByteStream();
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      for (int b; (b = in.read()) >= 0;)
+        out.write(b);
+      return out.toString("UTF-8");
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  private static String uri(File file) {
+    return file.toURI().toString();
+  }
+
+  private String httpUri(String path) {
+    return "http://127.0.0.1:" + server.getAddress().getPort() + "/" + path;
+  }
+
+  private static void writeFile(File file, String s) throws IOException {
+    OutputStream out = new FileOutputStream(file);
+    try {
+      out.write(s.getBytes("UTF-8"));
+    }
+    finally {
+      out.close();
+    }
+  }
+}
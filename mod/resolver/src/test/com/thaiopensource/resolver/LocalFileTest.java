@@ -0,0 +1,181 @@
+package com.thaiopensource.resolver;
+
+import com.thaiopensource.resolver.xml.sax.SAXResolver;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Tests LocalFile, and the closing of streams opened by SAXResolver.
+ */
+public class LocalFileTest {
+  private File directory;
+
+  @BeforeMethod
+  public void setUp() throws IOException {
+    directory = File.createTempFile("local", null);
+    directory.delete();
+    directory.mkdir();
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files)
+        file.delete();
+    }
+    directory.delete();
+  }
+
+  @Test
+  public void testToFile() {
+    File file = new File(directory, "a b.xml");
+    Assert.assertEquals(LocalFile.toFile(file.toURI().toString()), file);
+    Assert.assertNull(LocalFile.toFile("http://example.com/a.xml"));
+    Assert.assertNull(LocalFile.toFile(file.toURI().toString() + "#frag"));
+    Assert.assertNull(LocalFile.toFile(null));
+  }
+
+  @Test
+  public void testSmallFile() throws IOException {
+    checkContent(1000);
+    checkContent(0);
+  }
+
+  @Test
+  public void testMappedFile() throws IOException {
+    File file = checkContent(LocalFile.MAP_THRESHOLD + 1000);
+    // once the stream is closed, the file can be replaced
+    InputStream in = LocalFile.openInputStream(file);
+    in.read();
+    in.close();
+    Assert.assertTrue(file.delete());
+    writeFile(file, 10);
+    Assert.assertEquals(file.length(), 10);
+  }
+
+  @Test(expectedExceptions = IOException.class)
+  public void testReadAfterClose() throws IOException {
+    File file = new File(directory, "big");
+    writeFile(file, LocalFile.MAP_THRESHOLD);
+    InputStream in = LocalFile.openInputStream(file);
+    in.close();
+    in.close();
+    in.read();
+  }
+
+  @Test
+  public void testFailedOpenClosesStream() throws IOException {
+    final boolean[] closed = new boolean[1];
+    Resolver resolver = new AbstractResolver() {
+      public void open(Input input) throws IOException, ResolverException {
+        input.setByteStream(new ByteArrayInputStream(new byte[0]) {
+          public void close() {
+            closed[0] = true;
+          }
+        });
+        throw new ResolverException("failed");
+      }
+    };
+    InputSource in = new InputSource(new File(directory, "a.xml").toURI().toString());
+    try {
+      new SAXResolver(resolver).open(in);
+      Assert.fail("open did not fail");
+    }
+    catch (SAXException e) {
+      // expected
+    }
+    Assert.assertTrue(closed[0]);
+  }
+
+  @Test
+  public void testParseClosesStream() throws IOException, SAXException {
+    final String[] content = new String[1];
+    final boolean[] closed = new boolean[1];
+    Resolver resolver = new AbstractResolver() {
+      public void open(Input input) throws IOException, ResolverException {
+        input.setByteStream(new ByteArrayInputStream(content[0].getBytes("UTF-8")) {
+          public void close() {
+            closed[0] = true;
+          }
+        });
+      }
+    };
+    SAXResolver saxResolver = new SAXResolver(resolver);
+    XMLReader xr = saxResolver.createXMLReader();
+    String uri = new File(directory, "a.xml").toURI().toString();
+    content[0] = "<doc/>";
+    saxResolver.parse(xr, new InputSource(uri));
+    Assert.assertTrue(closed[0]);
+    closed[0] = false;
+    content[0] = "<doc>";
+    try {
+      saxResolver.parse(xr, new InputSource(uri));
+      Assert.fail("malformed document parsed");
+    }
+    catch (SAXException e) {
+      // expected
+    }
+    Assert.assertTrue(closed[0]);
+    // a stream supplied by the caller is used rather than opening the file
+    closed[0] = false;
+    InputSource in = new InputSource(new ByteArrayInputStream("<doc/>".getBytes("UTF-8")));
+    in.setSystemId(uri);
+    content[0] = "<doc>";
+    saxResolver.parse(xr, in);
+    Assert.assertFalse(closed[0]);
+  }
+
+  private File checkContent(int length) throws IOException {
+    File file = new File(directory, "f" + length);
+    writeFile(file, length);
+    InputStream in = LocalFile.openInputStream(file);
+    try {
+      byte[] buf = new byte[4096];
+      int i = 0;
+      for (int n; (n = in.read(buf, 0, 1 + (i % buf.length))) > 0;) {
+        for (int j = 0; j < n; j++, i++)
+          Assert.assertEquals(buf[j], content(i));
+      }
+      Assert.assertEquals(i, length);
+      Assert.assertEquals(in.read(), -1);
+    }
+    finally {
+      in.close();
+    }
+    return file;
+  }
+
+  static private byte content(int i) {
+    return (byte)(i * 31 + (i >> 8));
+  }
+
+  static private void writeFile(File file, int length) throws IOException {
+    OutputStream out = new FileOutputStream(file);
+    try {
+      byte[] buf = new byte[8192];
+      for (int i = 0; i < length; ) {
+        int n = Math.min(buf.length, length - i);
+        for (int j = 0; j < n; j++)
+          buf[j] = content(i + j);
+        out.write(buf, 0, n);
+        i += n;
+      }
+    }
+    finally {
+      out.close();
+    }
+  }
+}
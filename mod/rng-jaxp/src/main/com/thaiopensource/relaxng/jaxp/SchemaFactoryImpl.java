@@ -10,16 +10,20 @@ import com.thaiopensource.relaxng.pattern.Pattern;
 import com.thaiopensource.relaxng.pattern.NameClass;
 import com.thaiopensource.relaxng.pattern.CommentListImpl;
 import com.thaiopensource.relaxng.pattern.AnnotationsImpl;
+import com.thaiopensource.resolver.DependencyCache;
+import com.thaiopensource.resolver.RecordingResolver;
 import com.thaiopensource.resolver.Resolver;
 import com.thaiopensource.resolver.xml.ls.LS;
 import com.thaiopensource.resolver.xml.sax.SAXResolver;
 import com.thaiopensource.validation.Schema2;
 import com.thaiopensource.validation.SchemaFactory2;
 import com.thaiopensource.xml.sax.DraconianErrorHandler;
+import com.thaiopensource.util.Equal;
 import com.thaiopensource.util.VoidValue;
 import org.relaxng.datatype.DatatypeLibraryFactory;
 import org.w3c.dom.ls.LSResourceResolver;
 import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXNotRecognizedException;
 import org.xml.sax.SAXNotSupportedException;
@@ -41,6 +45,54 @@ public abstract class SchemaFactoryImpl extends SchemaFactory2 {
   /* If this is true, then logically datatypeLibraryFactory is an instance of DatatypeLibraryLoader,
      but we create it lazily, so that we don't need to create it if the user specifies their own. */
   private boolean defaultDatatypeLibraryFactory = true;
+  private boolean customDatatypeLibraryFactory = false;
+  private boolean useSchemaCache = false;
+
+  static private final DependencyCache<CacheKey, CachedSchema> schemaCache
+          = new DependencyCache<CacheKey, CachedSchema>();
+
+  static private class CacheKey {
+    private final Class<?> factoryClass;
+    private final String systemId;
+    private final DatatypeLibraryFactory datatypeLibraryFactory;
+    private final LSResourceResolver resourceResolver;
+
+    private CacheKey(SchemaFactoryImpl factory, String systemId) {
+      this.factoryClass = factory.getClass();
+      this.systemId = systemId;
+      this.datatypeLibraryFactory = factory.customDatatypeLibraryFactory ? factory.datatypeLibraryFactory : null;
+      this.resourceResolver = factory.getResourceResolver();
+    }
+
+    public boolean equals(Object obj) {
+      if (!(obj instanceof CacheKey))
+        return false;
+      CacheKey other = (CacheKey)obj;
+      return (factoryClass == other.factoryClass
+              && systemId.equals(other.systemId)
+              && Equal.equal(datatypeLibraryFactory, other.datatypeLibraryFactory)
+              && Equal.equal(resourceResolver, other.resourceResolver));
+    }
+
+    public int hashCode() {
+      int hc = factoryClass.hashCode() ^ systemId.hashCode();
+      if (datatypeLibraryFactory != null)
+        hc ^= datatypeLibraryFactory.hashCode();
+      if (resourceResolver != null)
+        hc ^= resourceResolver.hashCode();
+      return hc;
+    }
+  }
+
+  static private class CachedSchema {
+    private final SchemaPatternBuilder spb;
+    private final Pattern start;
+
+    private CachedSchema(SchemaPatternBuilder spb, Pattern start) {
+      this.spb = spb;
+      this.start = start;
+    }
+  }
 
   /**
    * The name of the property that can be used to specify a DatatypeLibraryFactory.
@@ -57,6 +109,21 @@ public abstract class SchemaFactoryImpl extends SchemaFactory2 {
    */
   static final public String PROPERTY_DATATYPE_LIBRARY_FACTORY = "http://relaxng.org/properties/datatype-library-factory";
 
+  /**
+   * The name of the feature that can be used to enable a process-wide cache of schemas.
+   * If this feature is true, then a schema specified only by its system identifier will be
+   * taken from the cache, provided that it was created by a factory of the same class with the same
+   * datatype library factory and resource resolver, and that none of the documents from which it was
+   * created has since changed; the modification time and length of local files are checked each time,
+   * and other changes are checked for at most once a minute, as described in DependencyCache.
+   * Errors and warnings are reported only when a schema is actually read.
+   * The cache holds a limited number of schemas, removing the least recently used when it is full.
+   * By default, this feature is false.
+   * @see #setFeature
+   * @see #getFeature
+   */
+  static final public String FEATURE_SCHEMA_CACHE = "http://relaxng.org/features/schema-cache";
+
   protected SchemaFactoryImpl() {
   }
 
@@ -65,6 +132,22 @@ public abstract class SchemaFactoryImpl extends SchemaFactory2 {
     LSResourceResolver resourceResolver = getResourceResolver();
     if (resourceResolver != null)
       resolver = LS.createResolver(resourceResolver);
+    CacheKey cacheKey = null;
+    RecordingResolver recorder = null;
+    InputSource in = source.getInputSource();
+    if (useSchemaCache
+        && source.getXMLReader() == null
+        && in.getSystemId() != null
+        && in.getByteStream() == null
+        && in.getCharacterStream() == null) {
+      cacheKey = new CacheKey(this, in.getSystemId());
+      CachedSchema cached = schemaCache.get(cacheKey);
+      if (cached != null)
+        return new SchemaImpl(this, cached.spb, cached.start);
+      recorder = new RecordingResolver(resolver);
+      recorder.record(in.getSystemId());
+      resolver = recorder;
+    }
     SAXResolver saxResolver = new SAXResolver(resolver);
     ErrorHandler eh = getErrorHandler();
     if (eh == null)
@@ -73,7 +156,10 @@ public abstract class SchemaFactoryImpl extends SchemaFactory2 {
             = createParseable(source, saxResolver, eh);
     SchemaPatternBuilder spb = new SchemaPatternBuilder();
     try {
-      return new SchemaImpl(this, spb, SchemaBuilderImpl.parse(parseable, eh, getDatatypeLibraryFactory(), spb, false));
+      Pattern start = SchemaBuilderImpl.parse(parseable, eh, getDatatypeLibraryFactory(), spb, false);
+      if (recorder != null)
+        schemaCache.put(cacheKey, new CachedSchema(spb, start), recorder.finish());
+      return new SchemaImpl(this, spb, start);
     }
     catch (IOException io) {
       // this is a truly bizarre API; why can't we just throw the IOException
@@ -92,6 +178,7 @@ public abstract class SchemaFactoryImpl extends SchemaFactory2 {
       if (object instanceof DatatypeLibraryFactory) {
         datatypeLibraryFactory = (DatatypeLibraryFactory)object;
         defaultDatatypeLibraryFactory = false;
+        customDatatypeLibraryFactory = true;
       }
       else
         throw new SAXNotSupportedException("value of \"" + PROPERTY_DATATYPE_LIBRARY_FACTORY +
@@ -107,6 +194,19 @@ public abstract class SchemaFactoryImpl extends SchemaFactory2 {
     return super.getProperty(name);
   }
 
+  public void setFeature(String name, boolean value) throws SAXNotRecognizedException, SAXNotSupportedException {
+    if (FEATURE_SCHEMA_CACHE.equals(name))
+      useSchemaCache = value;
+    else
+      super.setFeature(name, value);
+  }
+
+  public boolean getFeature(String name) throws SAXNotRecognizedException, SAXNotSupportedException {
+    if (FEATURE_SCHEMA_CACHE.equals(name))
+      return useSchemaCache;
+    return super.getFeature(name);
+  }
+
   private DatatypeLibraryFactory getDatatypeLibraryFactory() {
     if (defaultDatatypeLibraryFactory) {
       datatypeLibraryFactory = new DatatypeLibraryFactoryImpl(new RegexEngineImpl());
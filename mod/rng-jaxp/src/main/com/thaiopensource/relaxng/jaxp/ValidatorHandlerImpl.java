@@ -1,13 +1,17 @@
 package com.thaiopensource.relaxng.jaxp;
 
+import com.thaiopensource.relaxng.dom.DomValidator;
+import com.thaiopensource.relaxng.match.MatchDriver;
 import com.thaiopensource.relaxng.match.Matcher;
 import com.thaiopensource.relaxng.pattern.Pattern;
 import com.thaiopensource.relaxng.pattern.PatternMatcher;
 import com.thaiopensource.relaxng.pattern.ValidatorPatternBuilder;
 import com.thaiopensource.relaxng.sax.Context;
+import com.thaiopensource.relaxng.stax.StreamReaderValidator;
 import com.thaiopensource.validation.ValidatorHandler2;
 import com.thaiopensource.xml.sax.DraconianErrorHandler;
 import com.thaiopensource.xml.util.Name;
+import org.w3c.dom.Node;
 import org.w3c.dom.ls.LSResourceResolver;
 import org.xml.sax.Attributes;
 import org.xml.sax.ContentHandler;
@@ -20,16 +24,16 @@ import org.xml.sax.SAXNotSupportedException;
 import org.xml.sax.SAXParseException;
 
 import javax.xml.XMLConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.validation.TypeInfoProvider;
 
 class ValidatorHandlerImpl extends ValidatorHandler2 {
-  private Matcher matcher;
+  private final Driver driver;
   static private final ErrorHandler defaultErrorHandler = new DraconianErrorHandler();
   private ErrorHandler specifiedErrorHandler = null;
   private ErrorHandler actualErrorHandler = defaultErrorHandler;
 
-  private boolean bufferingCharacters = false;
-  private final StringBuffer charBuf = new StringBuffer();
   private Locator locator = null;
   private final Context context;
   private ContentHandler contentHandler = null;
@@ -38,16 +42,15 @@ class ValidatorHandlerImpl extends ValidatorHandler2 {
   private boolean secureProcessing;
 
   ValidatorHandlerImpl(SchemaFactoryImpl factory, Pattern pattern, ValidatorPatternBuilder builder) {
-    matcher = new PatternMatcher(pattern, builder);
     context = new Context();
+    driver = new Driver(new PatternMatcher(pattern, builder), context);
     // the docs say it gets the properties of its factory, not the features
     secureProcessing = false;
   }
 
   public void reset() {
-    bufferingCharacters = false;
+    driver.reset();
     locator = null;
-    matcher = matcher.start();
     context.reset();
   }
 
@@ -55,24 +58,7 @@ class ValidatorHandlerImpl extends ValidatorHandler2 {
 			   String localName,
 			   String qName,
 			   Attributes atts) throws SAXException {
-    if (bufferingCharacters) {
-      bufferingCharacters = false;
-      check(matcher.matchTextBeforeStartTag(charBuf.toString(), context));
-    }
-    Name name = new Name(namespaceURI, localName);
-    check(matcher.matchStartTagOpen(name, qName, context));
-    int len = atts.getLength();
-    for (int i = 0; i < len; i++) {
-      Name attName = new Name(atts.getURI(i), atts.getLocalName(i));
-      String attQName = atts.getQName(i);
-      check(matcher.matchAttributeName(attName, attQName, context));
-      check(matcher.matchAttributeValue(atts.getValue(i), attName, attQName, context));
-    }
-    check(matcher.matchStartTagClose(name, qName, context));
-    if (matcher.isTextTyped()) {
-      bufferingCharacters = true;
-      charBuf.setLength(0);
-    }
+    driver.startElement(new Name(namespaceURI, localName), qName, atts);
     if (contentHandler != null)
       contentHandler.startElement(namespaceURI, localName, qName, atts);
   }
@@ -80,38 +66,17 @@ class ValidatorHandlerImpl extends ValidatorHandler2 {
   public void endElement(String namespaceURI,
 			 String localName,
 			 String qName) throws SAXException {
-    if (bufferingCharacters) {
-      bufferingCharacters = false;
-      if (charBuf.length() > 0)
-        check(matcher.matchTextBeforeEndTag(charBuf.toString(), new Name(namespaceURI, localName),
-                                            qName, context));
-    }
-    check(matcher.matchEndTag(new Name(namespaceURI, localName), qName, context));
+    driver.endElement(new Name(namespaceURI, localName), qName);
     if (contentHandler != null)
       contentHandler.endElement(namespaceURI, localName, qName);
   }
 
   public void characters(char ch[], int start, int length) throws SAXException {
-    if (bufferingCharacters) {
-      charBuf.append(ch, start, length);
-      return;
-    }
-    for (int i = 0; i < length; i++) {
-      switch (ch[start + i]) {
-      case ' ':
-      case '\r':
-      case '\t':
-      case '\n':
-	break;
-      default:
-	check(matcher.matchUntypedText(context));
-	return;
-      }
-    }
+    driver.characters(ch, start, length);
   }
 
   public void endDocument() throws SAXException {
-    check(matcher.matchEndDocument());
+    driver.endDocument();
     if (contentHandler != null)
       contentHandler.endDocument();
   }
@@ -123,7 +88,7 @@ class ValidatorHandlerImpl extends ValidatorHandler2 {
   }
 
   public void startDocument() throws SAXException {
-    check(matcher.matchStartDocument());
+    driver.startDocument();
     if (contentHandler != null)
       contentHandler.startDocument();
   }
@@ -143,9 +108,14 @@ class ValidatorHandlerImpl extends ValidatorHandler2 {
       contentHandler.ignorableWhitespace(ch, start, len);
   }
 
-  private void check(boolean ok) throws SAXException {
-    if (!ok)
-      actualErrorHandler.error(new SAXParseException(matcher.getErrorMessage(), locator));
+  private class Driver extends MatchDriver {
+    Driver(Matcher matcher, Context context) {
+      super(matcher, context, -1);
+    }
+
+    protected void error() throws SAXException {
+      actualErrorHandler.error(new SAXParseException(getMatcher().getErrorMessage(), locator));
+    }
   }
 
   public void setContentHandler(ContentHandler delegate) {
@@ -187,10 +157,7 @@ class ValidatorHandlerImpl extends ValidatorHandler2 {
 
   public void startPrefixMapping(String prefix, String uri) throws SAXException {
     // namespace declarations on the start-tag shouldn't apply to the characters before the start-tag
-    if (bufferingCharacters) {
-      bufferingCharacters = false;
-      check(matcher.matchTextBeforeStartTag(charBuf.toString(), context));
-    }
+    driver.flushTextBeforeStartTag();
     context.startPrefixMapping(prefix, uri);
     if (contentHandler != null)
       contentHandler.startPrefixMapping(prefix, uri);
@@ -214,6 +181,14 @@ class ValidatorHandlerImpl extends ValidatorHandler2 {
       dtdHandler.unparsedEntityDecl(name, publicId, systemId, notationName);
   }
 
+  public void validate(XMLStreamReader reader) throws SAXException, XMLStreamException {
+    new StreamReaderValidator(driver.getMatcher(), actualErrorHandler).validate(reader);
+  }
+
+  public void validate(Node node) throws SAXException {
+    new DomValidator(driver.getMatcher(), actualErrorHandler).validate(node);
+  }
+
   public void setFeature(String name, boolean value) throws SAXNotRecognizedException, SAXNotSupportedException {
     if (XMLConstants.FEATURE_SECURE_PROCESSING.equals(name))
       secureProcessing = value;
@@ -6,6 +6,8 @@ import com.thaiopensource.xml.sax.DraconianErrorHandler;
 import org.testng.Assert;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 import org.w3c.dom.ls.LSInput;
 import org.w3c.dom.ls.LSResourceResolver;
 import org.xml.sax.InputSource;
@@ -15,8 +17,17 @@ import org.xml.sax.SAXNotSupportedException;
 import org.xml.sax.SAXParseException;
 
 import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
 import javax.xml.transform.Source;
+import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stax.StAXResult;
+import javax.xml.transform.stax.StAXSource;
 import javax.xml.transform.stream.StreamSource;
 import javax.xml.validation.SchemaFactory;
 import javax.xml.validation.Validator;
@@ -26,7 +37,10 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.StringReader;
+import java.io.StringWriter;
 import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  *  Test SchemaFactoryImpl.
@@ -59,6 +73,18 @@ public abstract class SchemaFactoryImplTest {
   public void testValidFile(String schemaString, String docString) throws SAXException, IOException {
     factory().newSchema(fileSource(schemaString)).newValidator().validate(fileSource(docString));
   }
+
+  @Test(dataProvider = "valid")
+  public void testValidStAX(String schemaString, String docString) throws SAXException, IOException, XMLStreamException {
+    factory().newSchema(charStreamSource(schemaString)).newValidator().validate(staxSource(docString));
+  }
+
+  @Test(dataProvider = "valid")
+  public void testValidDOM(String schemaString, String docString)
+          throws SAXException, IOException, ParserConfigurationException {
+    factory().newSchema(charStreamSource(schemaString)).newValidator().validate(domSource(docString));
+  }
+
   @DataProvider(name = "valid")
   protected Object[][] valid() {
     return new Object[][] {
@@ -72,12 +98,34 @@ public abstract class SchemaFactoryImplTest {
     return new SAXSource(new InputSource(new StringReader(s)));
   }
 
+  private static StAXSource staxSource(String s) throws XMLStreamException {
+    return new StAXSource(XMLInputFactory.newInstance().createXMLStreamReader(new StringReader(s)));
+  }
+
+  private static StAXSource staxEventSource(String s) throws XMLStreamException {
+    return new StAXSource(XMLInputFactory.newInstance().createXMLEventReader(new StringReader(s)));
+  }
+
+  private static DOMSource domSource(String s) throws SAXException, IOException, ParserConfigurationException {
+    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+    factory.setNamespaceAware(true);
+    return new DOMSource(factory.newDocumentBuilder().parse(new InputSource(new StringReader(s))));
+  }
+
   private static synchronized Source fileSource(String s) throws IOException {
     final File file = new File("t" + filenameIndex++);
+    writeFile(file, s);
+    return new StreamSource(file);
+  }
+
+  private static synchronized File newFile() {
+    return new File("t" + filenameIndex++);
+  }
+
+  private static void writeFile(File file, String s) throws IOException {
     Writer w = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
     w.write(s);
     w.close();
-    return new StreamSource(file);
   }
 
   static private class CountErrorHandler extends DraconianErrorHandler {
@@ -105,6 +153,138 @@ public abstract class SchemaFactoryImplTest {
     Assert.assertTrue(eh.errorCount > 0);
   }
 
+  @Test
+  public void testStAXErrors() throws SAXException, IOException, XMLStreamException {
+    SchemaFactory f = factory();
+    Validator v = f.newSchema(charStreamSource(element("doc", new String[] { attribute("att") }))).newValidator();
+    CountErrorHandler eh = new CountErrorHandler() {
+      public void error(SAXParseException e) throws SAXException {
+        if (errorCount == 0)
+          Assert.assertEquals(e.getLineNumber(), 2);
+        super.error(e);
+      }
+    };
+    v.setErrorHandler(eh);
+    v.validate(staxSource("<doc att='val'>\n<bad/></doc>"));
+    Assert.assertTrue(eh.errorCount > 0);
+    // the validator is reset before validating another document
+    CountErrorHandler eh2 = new CountErrorHandler();
+    v.setErrorHandler(eh2);
+    v.validate(staxSource("<doc att='val'/>"));
+    Assert.assertEquals(eh2.errorCount, 0);
+    v.validate(staxSource("<doc/>"));
+    Assert.assertEquals(eh2.errorCount, 1);
+  }
+
+  @Test
+  public void testAttributeOrder() throws SAXException, IOException {
+    SchemaFactory f = factory();
+    Validator v = f.newSchema(charStreamSource(createSchema("doc"))).newValidator();
+    final List<String> messages = new ArrayList<String>();
+    v.setErrorHandler(new DraconianErrorHandler() {
+      public void error(SAXParseException e) {
+        messages.add(e.getMessage());
+      }
+    });
+    // attributes are matched sorted by namespace URI and local name
+    v.validate(charStreamSource("<doc c='1' xmlns:p='urn:p' p:a='1' b='1' a='1'/>"));
+    Assert.assertEquals(messages.size(), 4, messages.toString());
+    Assert.assertTrue(messages.get(0).contains("\"a\""), messages.get(0));
+    Assert.assertTrue(messages.get(1).contains("\"b\""), messages.get(1));
+    Assert.assertTrue(messages.get(2).contains("\"c\""), messages.get(2));
+    Assert.assertTrue(messages.get(3).contains("\"p:a\""), messages.get(3));
+  }
+
+  @Test
+  public void testStAXEventReader() throws SAXException, IOException, XMLStreamException {
+    SchemaFactory f = factory();
+    Validator v = f.newSchema(charStreamSource(element("doc", new String[] { attribute("att") }))).newValidator();
+    CountErrorHandler eh = new CountErrorHandler();
+    v.setErrorHandler(eh);
+    v.validate(staxEventSource("<doc att='val'/>"));
+    Assert.assertEquals(eh.errorCount, 0);
+    v.validate(staxEventSource("<doc att='val'>\n<bad/></doc>"));
+    Assert.assertTrue(eh.errorCount > 0);
+    // errors thrown by the error handler are not wrapped
+    v.setErrorHandler(null);
+    try {
+      v.validate(staxEventSource("<doc/>"));
+      Assert.fail();
+    }
+    catch (SAXParseException e) {
+    }
+  }
+
+  @Test
+  public void testStAXResult() throws SAXException, IOException, XMLStreamException {
+    SchemaFactory f = factory();
+    Validator v = f.newSchema(charStreamSource(element("doc", new String[] { attribute("att") }))).newValidator();
+    CountErrorHandler eh = new CountErrorHandler();
+    v.setErrorHandler(eh);
+    StringWriter w = new StringWriter();
+    v.validate(staxSource("<doc att='val'/>"), new StAXResult(XMLOutputFactory.newInstance().createXMLStreamWriter(w)));
+    Assert.assertEquals(eh.errorCount, 0);
+    Assert.assertTrue(w.toString().contains("<doc att=\"val\""), w.toString());
+    w = new StringWriter();
+    v.validate(staxEventSource("<doc/>"), new StAXResult(XMLOutputFactory.newInstance().createXMLStreamWriter(w)));
+    Assert.assertEquals(eh.errorCount, 1);
+    Assert.assertTrue(w.toString().contains("<doc"), w.toString());
+  }
+
+  @Test(expectedExceptions = { IllegalArgumentException.class })
+  public void testStAXSourceDOMResult() throws SAXException, IOException, XMLStreamException {
+    factory().newSchema(charStreamSource(createSchema("doc"))).newValidator().validate(staxSource("<doc/>"),
+                                                                                     new DOMResult());
+  }
+
+  @Test
+  public void testDOMErrors() throws SAXException, IOException, ParserConfigurationException {
+    SchemaFactory f = factory();
+    Validator v = f.newSchema(charStreamSource(element("doc", new String[] { attribute("att") }))).newValidator();
+    CountErrorHandler eh = new CountErrorHandler();
+    v.setErrorHandler(eh);
+    v.validate(domSource("<doc att='val' xmlns:p='urn:p'><p:bad/>text</doc>"));
+    Assert.assertEquals(eh.errorCount, 2);
+    // namespace declarations are not attributes, and the validator is reset before validating another document
+    eh.errorCount = 0;
+    v.validate(domSource("<doc xmlns='' xmlns:p='urn:p' att='val'>\n</doc>"));
+    Assert.assertEquals(eh.errorCount, 0);
+    Document doc = (Document)domSource("<x><doc/></x>").getNode();
+    v.validate(new DOMSource(doc.getDocumentElement().getFirstChild()));
+    Assert.assertEquals(eh.errorCount, 1);
+  }
+
+  @Test
+  public void testDOMResult() throws SAXException, IOException, ParserConfigurationException {
+    SchemaFactory f = factory();
+    Validator v = f.newSchema(charStreamSource(element("doc", new String[] { attribute("att") }))).newValidator();
+    CountErrorHandler eh = new CountErrorHandler();
+    v.setErrorHandler(eh);
+    String doc = "<doc att='val' xmlns:p='urn:p'>text<p:x/></doc>";
+    v.validate(domSource(doc));
+    int errorCount = eh.errorCount;
+    Assert.assertTrue(errorCount > 0);
+    // the same errors are found when the document is also copied to a result
+    eh.errorCount = 0;
+    DOMResult result = new DOMResult();
+    v.validate(domSource(doc), result);
+    Assert.assertEquals(eh.errorCount, errorCount);
+    Element root = ((Document)result.getNode()).getDocumentElement();
+    Assert.assertEquals(root.getTagName(), "doc");
+    Assert.assertEquals(root.getAttribute("att"), "val");
+    Assert.assertEquals(root.getLastChild().getNamespaceURI(), "urn:p");
+    // the validator is reset before validating another document
+    v.validate(domSource("<doc att='val'/>"), new DOMResult());
+    Assert.assertEquals(eh.errorCount, errorCount);
+  }
+
+  @Test(expectedExceptions = { IllegalArgumentException.class })
+  public void testDOMSourceStAXResult() throws SAXException, IOException, ParserConfigurationException,
+          XMLStreamException {
+    StAXResult result = new StAXResult(XMLOutputFactory.newInstance().createXMLStreamWriter(new StringWriter()));
+    factory().newSchema(charStreamSource(createSchema("doc"))).newValidator().validate(domSource("<doc/>"), result);
+  }
+
   @Test(expectedExceptions = { RuntimeException.class })
   public void testErrorHandlerThrowRuntime() throws SAXException, IOException {
     SchemaFactory f = factory();
@@ -180,6 +360,29 @@ public abstract class SchemaFactoryImplTest {
     v.validate(charStreamSource("<doc/>"));
   }
 
+  @Test
+  public void testSchemaCache() throws SAXException, IOException {
+    SchemaFactory f = factory();
+    Assert.assertFalse(f.getFeature(SchemaFactoryImpl.FEATURE_SCHEMA_CACHE));
+    f.setFeature(SchemaFactoryImpl.FEATURE_SCHEMA_CACHE, true);
+    Assert.assertTrue(f.getFeature(SchemaFactoryImpl.FEATURE_SCHEMA_CACHE));
+    File included = newFile();
+    writeFile(included, createSchema("a"));
+    long lastModified = included.lastModified();
+    File main = newFile();
+    writeFile(main, element("doc", externalRef(included.getName())));
+    f.newSchema(main).newValidator().validate(charStreamSource("<doc><a/></doc>"));
+    f.newSchema(main).newValidator().validate(charStreamSource("<doc><a/></doc>"));
+    // a change that keeps the length and modification time is noticed only when the schema is revalidated,
+    // which is done at most once a minute
+    writeFile(included, createSchema("b"));
+    included.setLastModified(lastModified);
+    f.newSchema(main).newValidator().validate(charStreamSource("<doc><a/></doc>"));
+    // a change to an included schema is detected
+    writeFile(included, createSchema("bb"));
+    f.newSchema(main).newValidator().validate(charStreamSource("<doc><bb/></doc>"));
+  }
+
   @Test(expectedExceptions = { UnsupportedOperationException.class })
   public void testNewSchemaNoArgs() throws SAXException {
     factory().newSchema();
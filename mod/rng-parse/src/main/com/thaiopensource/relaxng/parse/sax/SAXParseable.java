@@ -36,7 +36,7 @@ public class SAXParseable<P, NC, L, EA, CL extends CommentList<L>, A extends Ann
     try {
       XMLReader xr = source.getXMLReader();
       SchemaParser<P, NC, L, EA, CL, A> sp = new SchemaParser<P, NC, L, EA, CL, A>(xr, eh, schemaBuilder, null, scope);
-      xr.parse(source.getInputSource());
+      resolver.parse(xr, source.getInputSource());
       return sp.getParsedPattern();
     }
     catch (SAXException e) {
@@ -52,7 +52,7 @@ public class SAXParseable<P, NC, L, EA, CL extends CommentList<L>, A extends Ann
     try {
       XMLReader xr = source.getXMLReader();
       SchemaParser<P, NC, L, EA, CL, A> sp = new SchemaParser<P, NC, L, EA, CL, A>(xr, eh, schemaBuilder, g, g);
-      xr.parse(source.getInputSource());
+      resolver.parse(xr, source.getInputSource());
       return sp.getParsedPattern();
     }
     catch (SAXException e) {
@@ -1,13 +1,13 @@
 package com.thaiopensource.relaxng.output;
 
+import com.thaiopensource.resolver.LocalFile;
 import com.thaiopensource.xml.util.EncodingMap;
 import com.thaiopensource.xml.out.CharRepertoire;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.File;
 import java.io.OutputStreamWriter;
-import java.io.BufferedOutputStream;
-import java.io.FileOutputStream;
 import java.util.Map;
 import java.util.HashMap;
 
@@ -47,8 +47,9 @@ public class LocalOutputDirectory implements OutputDirectory {
       encoding = defaultEncoding;
     String javaEncoding = EncodingMap.getJavaName(encoding);
     File file = new File(mainOutputFile.getParentFile(), mapFilename(sourceUri));
-    return new OutputDirectory.Stream(new OutputStreamWriter(new BufferedOutputStream(new FileOutputStream(file)),
-							     javaEncoding),
+    // the output formats write many short strings, which should not be encoded one by one
+    return new OutputDirectory.Stream(new BufferedWriter(new OutputStreamWriter(LocalFile.openOutputStream(file),
+                                                                                javaEncoding)),
 				      encoding,
 				      CharRepertoire.getInstance(javaEncoding));
   }
@@ -57,7 +58,8 @@ public class LocalOutputDirectory implements OutputDirectory {
     return mapFilename(toSourceUri);
   }
 
-  private String mapFilename(String sourceUri) {
+  // synchronized because documents may be output concurrently
+  private synchronized String mapFilename(String sourceUri) {
     String filename = uriMap.get(sourceUri);
     if (filename == null) {
       filename = chooseFilename(sourceUri);
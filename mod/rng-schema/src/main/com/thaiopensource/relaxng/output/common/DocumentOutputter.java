@@ -0,0 +1,271 @@
+package com.thaiopensource.relaxng.output.common;
+
+import com.thaiopensource.relaxng.edit.ExternalRefPattern;
+import com.thaiopensource.relaxng.edit.IncludeComponent;
+import com.thaiopensource.relaxng.edit.SchemaCollection;
+import com.thaiopensource.relaxng.edit.SchemaDocument;
+import com.thaiopensource.relaxng.edit.VoidVisitor;
+import com.thaiopensource.relaxng.output.OutputDirectory;
+import com.thaiopensource.util.Threads;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Outputs each document of a schema collection, for output formats in which
+ * the output for a document depends only on that document.  When there is an
+ * executor and several documents, the documents are serialized concurrently
+ * into memory.  All calls on the <code>OutputDirectory</code> are made
+ * by the thread calling <code>outputAll</code>, and the result does not depend
+ * on the executor: the file for each document is named before any document is
+ * output, taking the documents in order of their URIs; the files are then
+ * written, and the errors and warnings for each document reported, in the
+ * same order.
+ */
+public abstract class DocumentOutputter {
+  private final Executor executor;
+
+  /**
+   * Creates a <code>DocumentOutputter</code> that uses the executor returned by
+   * <code>Threads.getSharedExecutor</code> if there is more than one processor.
+   */
+  public DocumentOutputter() {
+    this(Runtime.getRuntime().availableProcessors() > 1 ? Threads.getSharedExecutor() : null);
+  }
+
+  /**
+   * Creates a <code>DocumentOutputter</code> that uses the specified executor.
+   * @param executor the executor for serializing documents concurrently; <code>null</code>
+   * to output the documents one after another
+   */
+  public DocumentOutputter(Executor executor) {
+    this.executor = executor;
+  }
+
+  /**
+   * Outputs a single document.  This may be called concurrently for different documents.
+   * It must open only the stream for <code>sourceUri</code>, using the encoding of the document,
+   * and reference only the documents that <code>sd</code> includes or references.
+   */
+  protected abstract void output(SchemaDocument sd, String sourceUri, OutputDirectory od, ErrorReporter er)
+          throws IOException;
+
+  /**
+   * Outputs all the documents in a collection.
+   * @return true if an error was reported
+   */
+  public boolean outputAll(SchemaCollection sc, OutputDirectory od, ErrorHandler eh, Class<?> cls)
+          throws IOException, SAXException {
+    List<String> uris = new ArrayList<String>(sc.getSchemaDocumentMap().keySet());
+    Collections.sort(uris);
+    for (String uri : uris)
+      od.reference(sc.getMainUri(), uri);
+    if (executor == null || uris.size() <= 1) {
+      ErrorReporter er = new ErrorReporter(eh, cls);
+      for (String uri : uris)
+        output(sc.getSchemaDocumentMap().get(uri), uri, od, er);
+      return er.getHadError();
+    }
+    // limits the number of files open and of documents in memory
+    int window = 2 * Runtime.getRuntime().availableProcessors();
+    List<DocumentTask> tasks = new ArrayList<DocumentTask>();
+    int written = 0;
+    boolean hadError = false;
+    try {
+      for (String uri : uris) {
+        if (tasks.size() - written >= window) {
+          if (tasks.get(written).write(eh))
+            hadError = true;
+          written++;
+        }
+        SchemaDocument sd = sc.getSchemaDocumentMap().get(uri);
+        DocumentTask task = new DocumentTask(new BufferedOutputDirectory(od, uri, sd), sd, uri, eh != null, cls);
+        tasks.add(task);
+        executor.execute(task);
+      }
+      for (; written < tasks.size(); written++) {
+        if (tasks.get(written).write(eh))
+          hadError = true;
+      }
+      return hadError;
+    }
+    finally {
+      for (int i = written; i < tasks.size(); i++)
+        tasks.get(i).abandon();
+    }
+  }
+
+  private class DocumentTask extends FutureTask<RecordingErrorHandler> {
+    private final BufferedOutputDirectory directory;
+
+    DocumentTask(final BufferedOutputDirectory directory, final SchemaDocument sd, final String sourceUri,
+                 final boolean record, final Class<?> cls) {
+      super(new Callable<RecordingErrorHandler>() {
+        public RecordingErrorHandler call() throws IOException {
+          RecordingErrorHandler recorder = new RecordingErrorHandler();
+          ErrorReporter er = new ErrorReporter(record ? recorder : null, cls);
+          output(sd, sourceUri, directory, er);
+          recorder.hadError = er.getHadError();
+          return recorder;
+        }
+      });
+      this.directory = directory;
+    }
+
+    /**
+     * Reports the errors and warnings for the document, and writes its file.
+     * If the executor has not yet started the task, it is run in the current thread.
+     * @return true if an error was reported
+     */
+    boolean write(ErrorHandler eh) throws IOException, SAXException {
+      run();
+      RecordingErrorHandler recorded = Threads.getResult(this, IOException.class);
+      if (eh != null)
+        recorded.replay(eh);
+      directory.write();
+      return recorded.hadError;
+    }
+
+    void abandon() {
+      cancel(false);
+      directory.abandon();
+    }
+  }
+
+  /**
+   * The output directory used for serializing a single document into memory.  The stream and the
+   * references it returns are obtained from the real output directory when it is constructed.
+   */
+  static private class BufferedOutputDirectory implements OutputDirectory {
+    private final String sourceUri;
+    private final OutputDirectory.Stream stream;
+    private final CharArrayWriter buffer = new CharArrayWriter();
+    private final Map<String, String> references = new HashMap<String, String>();
+    private final String lineSeparator;
+    private final int lineLength;
+    private final int indent;
+    private boolean opened = false;
+
+    BufferedOutputDirectory(final OutputDirectory od, final String sourceUri, SchemaDocument sd) throws IOException {
+      this.sourceUri = sourceUri;
+      this.lineSeparator = od.getLineSeparator();
+      this.lineLength = od.getLineLength();
+      this.indent = od.getIndent();
+      sd.getPattern().accept(new VoidVisitor() {
+        public void voidVisitInclude(IncludeComponent c) {
+          addReference(od, c.getUri());
+          super.voidVisitInclude(c);
+        }
+
+        public void voidVisitExternalRef(ExternalRefPattern p) {
+          addReference(od, p.getUri());
+          super.voidVisitExternalRef(p);
+        }
+      });
+      this.stream = od.open(sourceUri, sd.getEncoding());
+    }
+
+    private void addReference(OutputDirectory od, String uri) {
+      if (!references.containsKey(uri))
+        references.put(uri, od.reference(sourceUri, uri));
+    }
+
+    public Stream open(String sourceUri, String encoding) {
+      if (!sourceUri.equals(this.sourceUri) || opened)
+        throw new IllegalStateException("document " + this.sourceUri + " opened " + sourceUri);
+      opened = true;
+      return new Stream(buffer, stream.getEncoding(), stream.getCharRepertoire());
+    }
+
+    public String reference(String fromSourceUri, String toSourceUri) {
+      String reference = references.get(toSourceUri);
+      if (!fromSourceUri.equals(sourceUri) || reference == null)
+        throw new IllegalStateException("document " + sourceUri + " referenced " + toSourceUri
+                                        + " from " + fromSourceUri);
+      return reference;
+    }
+
+    public String getLineSeparator() {
+      return lineSeparator;
+    }
+
+    public int getLineLength() {
+      return lineLength;
+    }
+
+    public int getIndent() {
+      return indent;
+    }
+
+    public void setIndent(int indent) {
+      throw new UnsupportedOperationException();
+    }
+
+    public void setEncoding(String encoding) {
+      throw new UnsupportedOperationException();
+    }
+
+    void write() throws IOException {
+      Writer writer = stream.getWriter();
+      try {
+        buffer.writeTo(writer);
+      }
+      finally {
+        writer.close();
+      }
+    }
+
+    void abandon() {
+      try {
+        stream.getWriter().close();
+      }
+      catch (IOException e) {
+        // the output has already failed
+      }
+    }
+  }
+
+  /**
+   * Keeps the errors and warnings for a document until they can be reported in order.
+   */
+  static private class RecordingErrorHandler implements ErrorHandler {
+    private final List<SAXParseException> exceptions = new ArrayList<SAXParseException>();
+    private final List<Boolean> isError = new ArrayList<Boolean>();
+    private boolean hadError;
+
+    public void warning(SAXParseException exception) {
+      exceptions.add(exception);
+      isError.add(Boolean.FALSE);
+    }
+
+    public void error(SAXParseException exception) {
+      exceptions.add(exception);
+      isError.add(Boolean.TRUE);
+    }
+
+    public void fatalError(SAXParseException exception) {
+      error(exception);
+    }
+
+    void replay(ErrorHandler eh) throws SAXException {
+      for (int i = 0, len = exceptions.size(); i < len; i++) {
+        if (isError.get(i))
+          eh.error(exceptions.get(i));
+        else
+          eh.warning(exceptions.get(i));
+      }
+    }
+  }
+}
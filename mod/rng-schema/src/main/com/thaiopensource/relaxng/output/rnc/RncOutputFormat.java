@@ -6,23 +6,52 @@ import com.thaiopensource.relaxng.output.OutputDirectory;
 import com.thaiopensource.relaxng.output.OutputDirectoryParamProcessor;
 import com.thaiopensource.relaxng.output.OutputFailedException;
 import com.thaiopensource.relaxng.output.OutputFormat;
+import com.thaiopensource.relaxng.output.common.DocumentOutputter;
 import com.thaiopensource.relaxng.output.common.ErrorReporter;
 import com.thaiopensource.relaxng.translate.util.InvalidParamsException;
 import org.xml.sax.ErrorHandler;
 import org.xml.sax.SAXException;
 
 import java.io.IOException;
-import java.util.Map;
+import java.util.concurrent.Executor;
 
 public class RncOutputFormat implements OutputFormat {
+  private final DocumentOutputter outputter;
+
+  public RncOutputFormat() {
+    this(new Outputter());
+  }
+
+  /**
+   * @param executor the executor for outputting documents concurrently; <code>null</code>
+   * to output them one after another
+   */
+  public RncOutputFormat(Executor executor) {
+    this(new Outputter(executor));
+  }
+
+  private RncOutputFormat(DocumentOutputter outputter) {
+    this.outputter = outputter;
+  }
+
+  static private class Outputter extends DocumentOutputter {
+    Outputter() { }
+
+    Outputter(Executor executor) {
+      super(executor);
+    }
+
+    protected void output(SchemaDocument sd, String sourceUri, OutputDirectory od, ErrorReporter er) throws IOException {
+      outputPattern(sd, sourceUri, od, er);
+    }
+  }
+
   public void output(SchemaCollection sc, OutputDirectory od, String[] params, String inputFormat, ErrorHandler eh)
           throws SAXException, IOException, OutputFailedException, InvalidParamsException {
     new OutputDirectoryParamProcessor(od).process(params, eh);
     try {
-      ErrorReporter er = new ErrorReporter(eh, RncOutputFormat.class);
-      for (Map.Entry<String, SchemaDocument> entry : sc.getSchemaDocumentMap().entrySet()) {
-        outputPattern(entry.getValue(), entry.getKey(), od, er);
-      }
+      if (outputter.outputAll(sc, od, eh, RncOutputFormat.class))
+        throw new OutputFailedException();
     }
     catch (ErrorReporter.WrappedSAXException e) {
       throw e.getException();
@@ -4,21 +4,53 @@ import com.thaiopensource.relaxng.edit.SchemaCollection;
 import com.thaiopensource.relaxng.edit.SchemaDocument;
 import com.thaiopensource.relaxng.output.OutputDirectory;
 import com.thaiopensource.relaxng.output.OutputDirectoryParamProcessor;
+import com.thaiopensource.relaxng.output.OutputFailedException;
 import com.thaiopensource.relaxng.output.OutputFormat;
+import com.thaiopensource.relaxng.output.common.DocumentOutputter;
+import com.thaiopensource.relaxng.output.common.ErrorReporter;
 import com.thaiopensource.relaxng.translate.util.InvalidParamsException;
 import org.xml.sax.ErrorHandler;
 import org.xml.sax.SAXException;
 
 import java.io.IOException;
-import java.util.Map;
+import java.util.concurrent.Executor;
 
 public class RngOutputFormat implements OutputFormat {
+  private final DocumentOutputter outputter;
+
+  public RngOutputFormat() {
+    this(new Outputter());
+  }
+
+  /**
+   * @param executor the executor for outputting documents concurrently; <code>null</code>
+   * to output them one after another
+   */
+  public RngOutputFormat(Executor executor) {
+    this(new Outputter(executor));
+  }
+
+  private RngOutputFormat(DocumentOutputter outputter) {
+    this.outputter = outputter;
+  }
+
+  static private class Outputter extends DocumentOutputter {
+    Outputter() { }
+
+    Outputter(Executor executor) {
+      super(executor);
+    }
+
+    protected void output(SchemaDocument sd, String sourceUri, OutputDirectory od, ErrorReporter er) throws IOException {
+      outputPattern(sd, sourceUri, od);
+    }
+  }
+
   public void output(SchemaCollection sc, OutputDirectory od, String[] params, String inputFormat, ErrorHandler eh)
-          throws IOException, InvalidParamsException, SAXException {
+          throws IOException, InvalidParamsException, SAXException, OutputFailedException {
     new OutputDirectoryParamProcessor(od).process(params, eh);
-    for (Map.Entry<String, SchemaDocument> entry : sc.getSchemaDocumentMap().entrySet()) {
-      outputPattern(entry.getValue(), entry.getKey(), od);
-    }
+    if (outputter.outputAll(sc, od, eh, RngOutputFormat.class))
+      throw new OutputFailedException();
   }
 
   private static void outputPattern(SchemaDocument sd, String sourceUri, OutputDirectory od) throws IOException {
@@ -0,0 +1,208 @@
+package com.thaiopensource.relaxng.output.common;
+
+import com.thaiopensource.relaxng.edit.SchemaCollection;
+import com.thaiopensource.relaxng.input.parse.compact.CompactParseInputFormat;
+import com.thaiopensource.relaxng.output.LocalOutputDirectory;
+import com.thaiopensource.relaxng.output.OutputDirectory;
+import com.thaiopensource.relaxng.output.OutputFormat;
+import com.thaiopensource.relaxng.output.rnc.RncOutputFormat;
+import com.thaiopensource.relaxng.output.rng.RngOutputFormat;
+import com.thaiopensource.xml.sax.CountingErrorHandler;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Tests that outputting the documents of a schema collection concurrently gives the same files
+ * as outputting them one after another.
+ */
+public class DocumentOutputterTest {
+  static private final int N_DOCUMENTS = 40;
+  private File directory;
+  private ExecutorService executor;
+
+  /**
+   * Checks that the output directory is used only by the thread that created it.
+   */
+  static private class CheckingOutputDirectory implements OutputDirectory {
+    private final OutputDirectory od;
+    private final Thread thread = Thread.currentThread();
+
+    CheckingOutputDirectory(OutputDirectory od) {
+      this.od = od;
+    }
+
+    private void check() {
+      Assert.assertSame(Thread.currentThread(), thread);
+    }
+
+    public Stream open(String sourceUri, String encoding) throws IOException {
+      check();
+      return od.open(sourceUri, encoding);
+    }
+
+    public String reference(String fromSourceUri, String toSourceUri) {
+      check();
+      return od.reference(fromSourceUri, toSourceUri);
+    }
+
+    public String getLineSeparator() {
+      check();
+      return od.getLineSeparator();
+    }
+
+    public int getLineLength() {
+      check();
+      return od.getLineLength();
+    }
+
+    public int getIndent() {
+      check();
+      return od.getIndent();
+    }
+
+    public void setIndent(int indent) {
+      check();
+      od.setIndent(indent);
+    }
+
+    public void setEncoding(String encoding) {
+      check();
+      od.setEncoding(encoding);
+    }
+  }
+
+  @BeforeMethod
+  public void setUp() throws IOException {
+    directory = File.createTempFile("schemas", null);
+    directory.delete();
+    directory.mkdir();
+    executor = Executors.newFixedThreadPool(3);
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    executor.shutdownNow();
+    delete(directory);
+  }
+
+  @Test
+  public void testRnc() throws Exception {
+    SchemaCollection sc = load();
+    File sequential = output(sc, new RncOutputFormat(null), "sequential", ".rnc");
+    compare(sequential, output(sc, new RncOutputFormat(executor), "concurrent", ".rnc"));
+    compare(sequential, output(sc, new RncOutputFormat(), "shared", ".rnc"));
+  }
+
+  @Test
+  public void testRng() throws Exception {
+    SchemaCollection sc = load();
+    File sequential = output(sc, new RngOutputFormat(null), "sequential", ".rng");
+    compare(sequential, output(sc, new RngOutputFormat(executor), "concurrent", ".rng"));
+  }
+
+  @Test
+  public void testTasksNotStarted() throws Exception {
+    SchemaCollection sc = load();
+    File sequential = output(sc, new RncOutputFormat(null), "sequential", ".rnc");
+    // the thread outputting the documents runs any task that the executor has not started
+    Executor idle = new Executor() {
+      public void execute(Runnable command) {
+      }
+    };
+    compare(sequential, output(sc, new RncOutputFormat(idle), "idle", ".rnc"));
+  }
+
+  private SchemaCollection load() throws Exception {
+    File input = new File(directory, "input");
+    input.mkdir();
+    StringBuilder main = new StringBuilder();
+    main.append("grammar {\n  include \"common.rnc\"\n  start = element root { common");
+    for (int i = 0; i < N_DOCUMENTS; i++) {
+      main.append(", external \"d").append(i).append(".rnc\"");
+      // each document references the next, and the last references the first
+      write(input, "d" + i + ".rnc",
+            "# document " + i + "\n"
+            + "element e" + i + " { attribute a { \"\u00E9\u20AC\" }?, (text | external \"d"
+            + ((i + 1) % N_DOCUMENTS) + ".rnc\")* }\n");
+    }
+    main.append(" }\n}\n");
+    write(input, "main.rnc", main.toString());
+    write(input, "common.rnc", "common = element common { empty }\n");
+    CountingErrorHandler eh = new CountingErrorHandler();
+    SchemaCollection sc = new CompactParseInputFormat().load(new File(input, "main.rnc").toURI().toString(),
+                                                             new String[0], "rnc", eh, null);
+    Assert.assertEquals(eh.getErrorCount(), 0);
+    Assert.assertEquals(sc.getSchemaDocumentMap().size(), N_DOCUMENTS + 2);
+    return sc;
+  }
+
+  private File output(SchemaCollection sc, OutputFormat format, String name, String extension) throws Exception {
+    File output = new File(directory, name);
+    output.mkdir();
+    OutputDirectory od = new LocalOutputDirectory(sc.getMainUri(), new File(output, "main" + extension),
+                                                  extension, "UTF-8", 72, 2);
+    CountingErrorHandler eh = new CountingErrorHandler();
+    // non-ASCII characters must be escaped
+    format.output(sc, new CheckingOutputDirectory(od), new String[] { "encoding=US-ASCII" }, "rnc", eh);
+    Assert.assertEquals(eh.getErrorCount(), 0);
+    return output;
+  }
+
+  static private void compare(File expected, File actual) throws IOException {
+    String[] names = expected.list();
+    Arrays.sort(names);
+    String[] actualNames = actual.list();
+    Arrays.sort(actualNames);
+    Assert.assertEquals(actualNames, names);
+    Assert.assertEquals(names.length, N_DOCUMENTS + 2);
+    for (String name : names)
+      Assert.assertEquals(read(new File(actual, name)), read(new File(expected, name)), name);
+  }
+
+  static private void write(File dir, String name, String content) throws IOException {
+    OutputStream out = new FileOutputStream(new File(dir, name));
+    try {
+      out.write(content.getBytes("UTF-8"));
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  static private byte[] read(File file) throws IOException {
+    InputStream in = new FileInputStream(file);
+    try {
+      byte[] buf = new byte[(int)file.length()];
+      int len = 0;
+      for (int n; len < buf.length && (n = in.read(buf, len, buf.length - len)) > 0;)
+        len += n;
+      Assert.assertEquals(len, buf.length);
+      return buf;
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  static private void delete(File file) {
+    File[] files = file.listFiles();
+    if (files != null) {
+      for (File f : files)
+        delete(f);
+    }
+    file.delete();
+  }
+}
@@ -0,0 +1,88 @@
+package com.thaiopensource.validate.rng.impl;
+
+import com.thaiopensource.util.PropertyMap;
+import com.thaiopensource.util.PropertyMapBuilder;
+import com.thaiopensource.validate.AbstractSchema;
+import com.thaiopensource.validate.Schema;
+import com.thaiopensource.validate.ValidateProperty;
+import com.thaiopensource.validate.Validator;
+import com.thaiopensource.validate.prop.rng.RngProperty;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.DTDHandler;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+/**
+ * A schema that reports no more than <code>RngProperty.MAX_ERRORS</code> errors for each document,
+ * counting together the errors found by the validators of the schema it wraps, such as the errors
+ * found by matching patterns and those found by checking ID/IDREF/IDREFS.  Warnings are not counted.
+ */
+public class MaxErrorsSchema extends AbstractSchema {
+  private final Schema schema;
+
+  public MaxErrorsSchema(Schema schema, PropertyMap properties) {
+    super(properties);
+    this.schema = schema;
+  }
+
+  public Validator createValidator(PropertyMap properties) {
+    Integer maxErrors = properties.get(RngProperty.MAX_ERRORS);
+    ErrorHandler eh = properties.get(ValidateProperty.ERROR_HANDLER);
+    if (maxErrors == null || maxErrors <= 0 || eh == null)
+      return schema.createValidator(properties);
+    LimitingErrorHandler limiter = new LimitingErrorHandler(eh, maxErrors);
+    PropertyMapBuilder builder = new PropertyMapBuilder(properties);
+    builder.put(ValidateProperty.ERROR_HANDLER, limiter);
+    return new MaxErrorsValidator(schema.createValidator(builder.toPropertyMap()), limiter);
+  }
+
+  static private class LimitingErrorHandler implements ErrorHandler {
+    private final ErrorHandler eh;
+    private final int maxErrors;
+    private int errors = 0;
+
+    LimitingErrorHandler(ErrorHandler eh, int maxErrors) {
+      this.eh = eh;
+      this.maxErrors = maxErrors;
+    }
+
+    public void warning(SAXParseException exception) throws SAXException {
+      eh.warning(exception);
+    }
+
+    public void error(SAXParseException exception) throws SAXException {
+      if (errors < maxErrors) {
+        errors++;
+        eh.error(exception);
+      }
+    }
+
+    public void fatalError(SAXParseException exception) throws SAXException {
+      eh.fatalError(exception);
+    }
+  }
+
+  static private class MaxErrorsValidator implements Validator {
+    private final Validator validator;
+    private final LimitingErrorHandler limiter;
+
+    MaxErrorsValidator(Validator validator, LimitingErrorHandler limiter) {
+      this.validator = validator;
+      this.limiter = limiter;
+    }
+
+    public ContentHandler getContentHandler() {
+      return validator.getContentHandler();
+    }
+
+    public DTDHandler getDTDHandler() {
+      return validator.getDTDHandler();
+    }
+
+    public void reset() {
+      validator.reset();
+      limiter.errors = 0;
+    }
+  }
+}
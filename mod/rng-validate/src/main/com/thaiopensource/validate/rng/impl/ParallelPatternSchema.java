@@ -0,0 +1,46 @@
+package com.thaiopensource.validate.rng.impl;
+
+import com.thaiopensource.relaxng.pattern.IdTypeMap;
+import com.thaiopensource.relaxng.pattern.Pattern;
+import com.thaiopensource.relaxng.pattern.SchemaPatternBuilder;
+import com.thaiopensource.relaxng.pattern.ValidatorPatternBuilder;
+import com.thaiopensource.util.PropertyMap;
+import com.thaiopensource.util.Threads;
+import com.thaiopensource.validate.AbstractSchema;
+import com.thaiopensource.validate.ValidateProperty;
+import com.thaiopensource.validate.Validator;
+import com.thaiopensource.validate.prop.rng.RngProperty;
+import org.xml.sax.ErrorHandler;
+
+import java.util.concurrent.Executor;
+
+/**
+ * A schema whose validators split documents and validate the parts using several threads.
+ * ID/IDREF checking, if any, is done by the same validator rather than by combining
+ * with an IdTypeMapSchema, so that all errors are reported in document order.
+ */
+public class ParallelPatternSchema extends AbstractSchema {
+  private final SchemaPatternBuilder spb;
+  private final Pattern start;
+  private final IdTypeMap idTypeMap;
+  private final int splitDepth;
+
+  public ParallelPatternSchema(SchemaPatternBuilder spb, Pattern start, IdTypeMap idTypeMap, int splitDepth,
+                               PropertyMap properties) {
+    super(properties);
+    this.spb = spb;
+    this.start = start;
+    this.idTypeMap = idTypeMap;
+    this.splitDepth = splitDepth;
+  }
+
+  public Validator createValidator(PropertyMap properties) {
+    ErrorHandler eh = properties.get(ValidateProperty.ERROR_HANDLER);
+    int nThreads = Runtime.getRuntime().availableProcessors();
+    Executor executor = properties.get(RngProperty.EXECUTOR);
+    if (executor == null && nThreads > 1)
+      executor = Threads.getSharedExecutor();
+    return new ParallelRngValidator(start, new ValidatorPatternBuilder(spb), idTypeMap, eh, splitDepth,
+                                    executor, nThreads, getProperties().contains(RngProperty.FEASIBLE));
+  }
+}
@@ -0,0 +1,42 @@
+package com.thaiopensource.validate.rng.impl;
+
+import com.thaiopensource.relaxng.pattern.IdTypeMap;
+import com.thaiopensource.relaxng.pattern.Pattern;
+import com.thaiopensource.relaxng.pattern.ValidatorPatternBuilder;
+import com.thaiopensource.relaxng.sax.ParallelPatternValidator;
+import com.thaiopensource.validate.Validator;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.DTDHandler;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.SAXException;
+
+import java.util.concurrent.Executor;
+
+public class ParallelRngValidator extends ParallelPatternValidator implements Validator {
+  private final boolean feasible;
+
+  /**
+   * Creates a validator.  If feasible is true, IDREFs to IDs that do not occur in the document are
+   * not reported, just as with FeasibleIdTypeMapSchema.
+   */
+  public ParallelRngValidator(Pattern pattern, ValidatorPatternBuilder builder, IdTypeMap idTypeMap,
+                              ErrorHandler eh, int splitDepth, Executor executor, int nThreads,
+                              boolean feasible) {
+    super(pattern, builder, idTypeMap, eh, splitDepth, executor, nThreads);
+    this.feasible = feasible;
+  }
+
+  protected void checkMissingIds() throws SAXException {
+    // a feasibly valid document may be completed by adding elements with the missing IDs
+    if (!feasible)
+      super.checkMissingIds();
+  }
+
+  public ContentHandler getContentHandler() {
+    return this;
+  }
+
+  public DTDHandler getDTDHandler() {
+    return this;
+  }
+}
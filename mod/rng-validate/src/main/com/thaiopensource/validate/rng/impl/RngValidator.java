@@ -13,6 +13,10 @@ public class RngValidator extends PatternValidator implements Validator {
     super(pattern, builder, eh);
   }
 
+  public RngValidator(Pattern pattern, ValidatorPatternBuilder builder, ErrorHandler eh, int maxErrors) {
+    super(pattern, builder, eh, maxErrors);
+  }
+
   public ContentHandler getContentHandler() {
     return this;
   }
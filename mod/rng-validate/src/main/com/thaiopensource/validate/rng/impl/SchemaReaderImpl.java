@@ -45,6 +45,7 @@ public abstract class SchemaReaderImpl extends AbstractSchemaReader {
     RngProperty.DATATYPE_LIBRARY_FACTORY,
     RngProperty.CHECK_ID_IDREF,
     RngProperty.FEASIBLE,
+    RngProperty.PARALLEL_SPLIT_DEPTH,
     WrapProperty.ATTRIBUTE_OWNER,
   };
 
@@ -106,18 +107,25 @@ public abstract class SchemaReaderImpl extends AbstractSchemaReader {
       start = FeasibleTransform.transform(spb, start);
     properties = new SimplifiedSchemaPropertyMap(AbstractSchema.filterProperties(properties, supportedPropertyIds),
                                                  start);
-    Schema schema = new PatternSchema(spb, start, properties);
+    IdTypeMap idTypeMap = null;
     if (spb.hasIdTypes() && properties.contains(RngProperty.CHECK_ID_IDREF)) {
       ErrorHandler eh = properties.get(ValidateProperty.ERROR_HANDLER);
-      IdTypeMap idTypeMap = new IdTypeMapBuilder(eh, start).getIdTypeMap();
+      idTypeMap = new IdTypeMapBuilder(eh, start).getIdTypeMap();
       if (idTypeMap == null)
         throw new IncorrectSchemaException();
+    }
+    Integer splitDepth = properties.get(RngProperty.PARALLEL_SPLIT_DEPTH);
+    // the PatternSchema applies MAX_ERRORS itself; the others need it applied to all the errors they report
+    if (splitDepth != null)
+      return new MaxErrorsSchema(new ParallelPatternSchema(spb, start, idTypeMap, splitDepth, properties), properties);
+    Schema schema = new PatternSchema(spb, start, properties);
+    if (idTypeMap != null) {
       Schema idSchema;
       if (properties.contains(RngProperty.FEASIBLE))
         idSchema = new FeasibleIdTypeMapSchema(idTypeMap, properties);
       else
         idSchema = new IdTypeMapSchema(idTypeMap, properties);
-      schema = new CombineSchema(schema, idSchema, properties);
+      schema = new MaxErrorsSchema(new CombineSchema(schema, idSchema, properties), properties);
     }
     return schema;
   }
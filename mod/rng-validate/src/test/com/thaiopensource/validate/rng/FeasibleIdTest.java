@@ -0,0 +1,90 @@
+package com.thaiopensource.validate.rng;
+
+import com.thaiopensource.util.PropertyMapBuilder;
+import com.thaiopensource.validate.ValidateProperty;
+import com.thaiopensource.validate.ValidationDriver;
+import com.thaiopensource.validate.prop.rng.RngProperty;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXParseException;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests that IDREFs to missing IDs are not reported with RngProperty.FEASIBLE, whether or not
+ * documents are split for parallel validation.
+ */
+public class FeasibleIdTest {
+  static private final String SCHEMA
+    = "datatypes d = \"urn:test:datatypes\"\n"
+    + "start = element doc { item* }\n"
+    + "item = element item { attribute id { d:ID }, attribute ref { d:IDREF }? }\n";
+
+  static private final String MISSING_ID
+    = "<doc>\n"
+    + "<item id='a'/>\n"
+    + "<item id='b' ref='x'/>\n"
+    + "<item id='c' ref='a'/>\n"
+    + "</doc>\n";
+
+  static private final String DUPLICATE_ID
+    = "<doc>\n"
+    + "<item id='a'/>\n"
+    + "<item id='a'/>\n"
+    + "</doc>\n";
+
+  @DataProvider(name = "splitDepths")
+  Object[][] splitDepths() {
+    return new Object[][] { { null }, { 1 } };
+  }
+
+  @Test(dataProvider = "splitDepths")
+  public void testMissingId(Integer splitDepth) throws Exception {
+    List<String> errors = validate(splitDepth, false, MISSING_ID);
+    Assert.assertEquals(errors.size(), 1, errors.toString());
+    Assert.assertTrue(errors.get(0).contains("\"x\""), errors.get(0));
+    // a feasibly valid document may be completed by adding an item with the missing ID
+    Assert.assertEquals(validate(splitDepth, true, MISSING_ID), new ArrayList<String>());
+  }
+
+  @Test(dataProvider = "splitDepths")
+  public void testDuplicateId(Integer splitDepth) throws Exception {
+    // duplicate IDs are still reported
+    List<String> errors = validate(splitDepth, false, DUPLICATE_ID);
+    Assert.assertFalse(errors.isEmpty());
+    Assert.assertEquals(validate(splitDepth, true, DUPLICATE_ID), errors);
+  }
+
+  static private List<String> validate(Integer splitDepth, boolean feasible, String document) throws Exception {
+    final List<String> errors = new ArrayList<String>();
+    ErrorHandler eh = new ErrorHandler() {
+      public void warning(SAXParseException exception) {
+      }
+
+      public void error(SAXParseException exception) {
+        errors.add(exception.getMessage());
+      }
+
+      public void fatalError(SAXParseException exception) {
+        errors.add("fatal: " + exception.getMessage());
+      }
+    };
+    PropertyMapBuilder properties = new PropertyMapBuilder();
+    properties.put(ValidateProperty.ERROR_HANDLER, eh);
+    properties.put(RngProperty.DATATYPE_LIBRARY_FACTORY, new IdDatatypeLibraryFactory());
+    RngProperty.CHECK_ID_IDREF.add(properties);
+    if (feasible)
+      RngProperty.FEASIBLE.add(properties);
+    if (splitDepth != null)
+      properties.put(RngProperty.PARALLEL_SPLIT_DEPTH, splitDepth);
+    ValidationDriver driver = new ValidationDriver(properties.toPropertyMap(), CompactSchemaReader.getInstance());
+    Assert.assertTrue(driver.loadSchema(new InputSource(new StringReader(SCHEMA))), errors.toString());
+    driver.validate(new InputSource(new StringReader(document)));
+    return errors;
+  }
+}
@@ -0,0 +1,75 @@
+package com.thaiopensource.validate.rng;
+
+import com.thaiopensource.xml.util.StringSplitter;
+import org.relaxng.datatype.Datatype;
+import org.relaxng.datatype.DatatypeBuilder;
+import org.relaxng.datatype.DatatypeException;
+import org.relaxng.datatype.DatatypeLibrary;
+import org.relaxng.datatype.DatatypeLibraryFactory;
+import org.relaxng.datatype.DatatypeStreamingValidator;
+import org.relaxng.datatype.ValidationContext;
+import org.relaxng.datatype.helpers.ParameterlessDatatypeBuilder;
+import org.relaxng.datatype.helpers.StreamingValidatorImpl;
+
+/**
+ * Provides the ID and IDREF datatypes in the namespace urn:test:datatypes, without depending on
+ * an XML Schema datatype library.
+ */
+class IdDatatypeLibraryFactory implements DatatypeLibraryFactory, DatatypeLibrary {
+  public DatatypeLibrary createDatatypeLibrary(String namespaceURI) {
+    return namespaceURI.equals("urn:test:datatypes") ? this : null;
+  }
+
+  public DatatypeBuilder createDatatypeBuilder(String type) throws DatatypeException {
+    return new ParameterlessDatatypeBuilder(createDatatype(type));
+  }
+
+  public Datatype createDatatype(String type) throws DatatypeException {
+    if (type.equals("ID"))
+      return new IdDatatype(Datatype.ID_TYPE_ID);
+    if (type.equals("IDREF"))
+      return new IdDatatype(Datatype.ID_TYPE_IDREF);
+    throw new DatatypeException();
+  }
+
+  static private class IdDatatype implements Datatype {
+    private final int idType;
+
+    IdDatatype(int idType) {
+      this.idType = idType;
+    }
+
+    public boolean isValid(String str, ValidationContext vc) {
+      return StringSplitter.split(str).length == 1;
+    }
+
+    public void checkValid(String str, ValidationContext vc) throws DatatypeException {
+      if (!isValid(str, vc))
+        throw new DatatypeException();
+    }
+
+    public DatatypeStreamingValidator createStreamingValidator(ValidationContext vc) {
+      return new StreamingValidatorImpl(this, vc);
+    }
+
+    public Object createValue(String str, ValidationContext vc) {
+      return isValid(str, vc) ? str.trim() : null;
+    }
+
+    public boolean sameValue(Object value1, Object value2) {
+      return value1.equals(value2);
+    }
+
+    public int valueHashCode(Object value) {
+      return value.hashCode();
+    }
+
+    public int getIdType() {
+      return idType;
+    }
+
+    public boolean isContextDependent() {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,98 @@
+package com.thaiopensource.validate.rng;
+
+import com.thaiopensource.util.PropertyMapBuilder;
+import com.thaiopensource.validate.ValidateProperty;
+import com.thaiopensource.validate.ValidationDriver;
+import com.thaiopensource.validate.prop.rng.RngProperty;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXParseException;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests that RngProperty.MAX_ERRORS limits all the errors reported for a document.
+ */
+public class MaxErrorsTest {
+  static private final String SCHEMA
+    = "datatypes c = \"urn:test:datatypes\"\n"
+    + "start = element doc { item* }\n"
+    + "item = element item { attribute id { c:ID }, attribute ref { c:IDREF }?, element name { text } }\n";
+
+  static private final String DOCUMENT
+    = "<doc>\n"
+    + "<item id='a'><name/></item>\n"
+    + "<item id='a'><name/></item>\n"
+    + "<item id='b'/>\n"
+    + "<item id='c' ref='x'><name/></item>\n"
+    + "<item id='c'><name/><name/></item>\n"
+    + "<item id='d' ref='a'><name/></item>\n"
+    + "</doc>\n";
+
+  @DataProvider(name = "splitDepths")
+  Object[][] splitDepths() {
+    return new Object[][] { { null }, { 1 } };
+  }
+
+  @Test(dataProvider = "splitDepths")
+  public void testMaxErrors(Integer splitDepth) throws Exception {
+    List<String> all = validate(splitDepth, null);
+    // both the patterns and the IDs have errors
+    Assert.assertTrue(all.size() > 4, all.toString());
+    for (int maxErrors = 1; maxErrors <= all.size() + 1; maxErrors++)
+      Assert.assertEquals(validate(splitDepth, maxErrors), all.subList(0, Math.min(maxErrors, all.size())),
+                          "maxErrors " + maxErrors);
+  }
+
+  static private List<String> validate(Integer splitDepth, Integer maxErrors) throws Exception {
+    ErrorRecorder recorder = new ErrorRecorder();
+    PropertyMapBuilder schemaProperties = new PropertyMapBuilder();
+    schemaProperties.put(ValidateProperty.ERROR_HANDLER, recorder);
+    schemaProperties.put(RngProperty.DATATYPE_LIBRARY_FACTORY, new IdDatatypeLibraryFactory());
+    RngProperty.CHECK_ID_IDREF.add(schemaProperties);
+    if (splitDepth != null)
+      schemaProperties.put(RngProperty.PARALLEL_SPLIT_DEPTH, splitDepth);
+    PropertyMapBuilder instanceProperties = new PropertyMapBuilder();
+    if (maxErrors != null)
+      instanceProperties.put(RngProperty.MAX_ERRORS, maxErrors);
+    ValidationDriver driver = new ValidationDriver(schemaProperties.toPropertyMap(), instanceProperties.toPropertyMap(),
+                                                   CompactSchemaReader.getInstance());
+    Assert.assertTrue(driver.loadSchema(new InputSource(new StringReader(SCHEMA))), recorder.errors.toString());
+    List<String> errors = new ArrayList<String>();
+    for (int i = 0; i < 2; i++) {
+      // the limit applies to each document
+      recorder.errors.clear();
+      Assert.assertFalse(driver.validate(new InputSource(new StringReader(DOCUMENT))));
+      if (i == 0)
+        errors.addAll(recorder.errors);
+      else
+        Assert.assertEquals(recorder.errors, errors);
+    }
+    return errors;
+  }
+
+  static private class ErrorRecorder implements ErrorHandler {
+    private final List<String> errors = new ArrayList<String>();
+
+    public void warning(SAXParseException exception) {
+      errors.add("warning: " + format(exception));
+    }
+
+    public void error(SAXParseException exception) {
+      errors.add(format(exception));
+    }
+
+    public void fatalError(SAXParseException exception) {
+      errors.add("fatal: " + format(exception));
+    }
+
+    static private String format(SAXParseException exception) {
+      return exception.getLineNumber() + ":" + exception.getColumnNumber() + ": " + exception.getMessage();
+    }
+  }
+}
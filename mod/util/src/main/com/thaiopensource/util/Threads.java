@@ -0,0 +1,79 @@
+package com.thaiopensource.util;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Utilities for running tasks on other threads.
+ */
+public class Threads {
+  static private Executor sharedExecutor;
+
+  private Threads() { }
+
+  /**
+   * Returns a factory for daemon threads, so that idle threads never keep the JVM running.
+   */
+  static public ThreadFactory daemonThreadFactory() {
+    return new ThreadFactory() {
+      private final ThreadFactory factory = Executors.defaultThreadFactory();
+
+      public Thread newThread(Runnable r) {
+        Thread thread = factory.newThread(r);
+        thread.setDaemon(true);
+        return thread;
+      }
+    };
+  }
+
+  /**
+   * Returns an executor with a daemon thread for each processor, which is shared by all callers that
+   * are not given an executor of their own.  A task submitted to this executor may have to wait for
+   * tasks submitted by other callers.  A caller that waits for its own tasks should therefore submit
+   * them as <code>FutureTask</code>s and run any that have not yet started itself, so that it cannot
+   * wait for ever if the caller is itself running on one of the threads.
+   */
+  static public synchronized Executor getSharedExecutor() {
+    if (sharedExecutor == null)
+      sharedExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                                                    daemonThreadFactory());
+    return sharedExecutor;
+  }
+
+  /**
+   * Waits for the result of a task.  The current thread continues to wait if it is interrupted,
+   * and its interrupt status is then set again before returning.  An exception thrown by the task
+   * is rethrown if it is an instance of <code>cls</code>, a <code>RuntimeException</code> or an
+   * <code>Error</code>; any other exception is wrapped in a <code>RuntimeException</code>.
+   */
+  static public <T, E extends Exception> T getResult(Future<T> future, Class<E> cls) throws E {
+    boolean interrupted = false;
+    try {
+      for (;;) {
+        try {
+          return future.get();
+        }
+        catch (InterruptedException e) {
+          interrupted = true;
+        }
+        catch (ExecutionException e) {
+          Throwable cause = e.getCause();
+          if (cls.isInstance(cause))
+            throw cls.cast(cause);
+          if (cause instanceof RuntimeException)
+            throw (RuntimeException)cause;
+          if (cause instanceof Error)
+            throw (Error)cause;
+          throw new RuntimeException(cause);
+        }
+      }
+    }
+    finally {
+      if (interrupted)
+        Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -1,5 +1,8 @@
 package com.thaiopensource.util;
 
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+
 /**
  * Utility functions for working with UTF-8.
  */
@@ -28,4 +31,68 @@ public class Utf8 {
     }
     return buf;
   }
+
+  /**
+   * Decodes UTF-8 from one buffer to another, as far as the bytes are
+   * well-formed.  Decoding stops at a byte that does not begin a complete,
+   * well-formed sequence, or when there is no room for the next character;
+   * the positions of both buffers are advanced past what was decoded.
+   * Malformed and incomplete sequences are left for the caller, which will
+   * typically pass them to a <code>CharsetDecoder</code>; for well-formed
+   * input, the result is the same as that of a <code>CharsetDecoder</code>.
+   * Both buffers must be backed by accessible arrays.
+   */
+  static public void decode(ByteBuffer in, CharBuffer out) {
+    byte[] b = in.array();
+    int i = in.arrayOffset() + in.position();
+    final int iEnd = in.arrayOffset() + in.limit();
+    char[] c = out.array();
+    int j = out.arrayOffset() + out.position();
+    final int jEnd = out.arrayOffset() + out.limit();
+    while (i < iEnd && j < jEnd) {
+      int b0 = b[i];
+      if (b0 >= 0) {
+        c[j++] = (char)b0;
+        i++;
+        continue;
+      }
+      if ((b0 & 0xE0) == 0xC0) {
+        if (i + 1 >= iEnd || (b0 & 0x1E) == 0 || !isContinuation(b[i + 1]))
+          break;
+        c[j++] = (char)(((b0 & 0x1F) << 6) | (b[i + 1] & 0x3F));
+        i += 2;
+      }
+      else if ((b0 & 0xF0) == 0xE0) {
+        if (i + 2 >= iEnd || !isContinuation(b[i + 1]) || !isContinuation(b[i + 2]))
+          break;
+        int ch = ((b0 & 0x0F) << 12) | ((b[i + 1] & 0x3F) << 6) | (b[i + 2] & 0x3F);
+        // overlong encodings and surrogates are malformed
+        if (ch < 0x800 || (ch >= 0xD800 && ch <= 0xDFFF))
+          break;
+        c[j++] = (char)ch;
+        i += 3;
+      }
+      else if ((b0 & 0xF8) == 0xF0) {
+        if (i + 3 >= iEnd || j + 1 >= jEnd
+            || !isContinuation(b[i + 1]) || !isContinuation(b[i + 2]) || !isContinuation(b[i + 3]))
+          break;
+        int ch = ((b0 & 0x07) << 18) | ((b[i + 1] & 0x3F) << 12)
+                 | ((b[i + 2] & 0x3F) << 6) | (b[i + 3] & 0x3F);
+        if (ch < 0x10000 || ch > 0x10FFFF)
+          break;
+        ch -= 0x10000;
+        c[j++] = (char)(0xD800 | (ch >> 10));
+        c[j++] = (char)(0xDC00 | (ch & 0x3FF));
+        i += 4;
+      }
+      else
+        break;
+    }
+    in.position(i - in.arrayOffset());
+    out.position(j - out.arrayOffset());
+  }
+
+  static private boolean isContinuation(byte b) {
+    return (b & 0xC0) == 0x80;
+  }
 }
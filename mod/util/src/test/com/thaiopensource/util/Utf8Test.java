@@ -4,6 +4,8 @@ import org.testng.Assert;
 import org.testng.annotations.Test;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 
 /**
  *
@@ -23,4 +25,51 @@ public class Utf8Test {
     }
   }
 
+  @Test
+  public void testDecode() {
+    for (int i = 0; i < 0x10FFFF; i++) {
+      if (Utf16.isSurrogate(i))
+        continue;
+      byte[] bytes = Utf8.encode(i);
+      ByteBuffer in = ByteBuffer.wrap(bytes);
+      CharBuffer out = CharBuffer.allocate(2);
+      Utf8.decode(in, out);
+      Assert.assertEquals(in.position(), bytes.length);
+      out.flip();
+      Assert.assertEquals(out.toString(), i <= 0xFFFF
+                                          ? String.valueOf((char)i)
+                                          : new String(new char[] { Utf16.surrogate1(i), Utf16.surrogate2(i) }));
+    }
+  }
+
+  @Test
+  public void testDecodeStopsAtMalformed() {
+    byte[][] malformed = {
+      { (byte)0x80 },
+      { (byte)0xC0, (byte)0x80 },
+      { (byte)0xC3 },
+      { (byte)0xE0, (byte)0x80, (byte)0x80 },
+      { (byte)0xED, (byte)0xA0, (byte)0x80 },
+      { (byte)0xE2, (byte)0x82 },
+      { (byte)0xF4, (byte)0x90, (byte)0x80, (byte)0x80 },
+      { (byte)0xF8, (byte)0x88, (byte)0x80, (byte)0x80, (byte)0x80 }
+    };
+    for (int i = 0; i < malformed.length; i++) {
+      ByteBuffer in = ByteBuffer.allocate(malformed[i].length + 1);
+      in.put((byte)'a').put(malformed[i]).flip();
+      CharBuffer out = CharBuffer.allocate(10);
+      Utf8.decode(in, out);
+      Assert.assertEquals(in.position(), 1);
+      Assert.assertEquals(out.position(), 1);
+    }
+  }
+
+  @Test
+  public void testDecodeStopsWhenFull() {
+    ByteBuffer in = ByteBuffer.wrap(Utf8.encode(0x10000));
+    CharBuffer out = CharBuffer.allocate(1);
+    Utf8.decode(in, out);
+    Assert.assertEquals(in.position(), 0);
+    Assert.assertEquals(out.position(), 0);
+  }
 }
@@ -0,0 +1,964 @@
+package com.thaiopensource.validate.push;
+
+import com.thaiopensource.util.Localizer;
+import com.thaiopensource.xml.tok.ContentToken;
+import com.thaiopensource.xml.tok.EmptyTokenException;
+import com.thaiopensource.xml.tok.EndOfPrologException;
+import com.thaiopensource.xml.tok.ExtensibleTokenException;
+import com.thaiopensource.xml.tok.InvalidTokenException;
+import com.thaiopensource.xml.tok.PartialTokenException;
+import com.thaiopensource.xml.tok.Position;
+import com.thaiopensource.xml.tok.Token;
+import com.thaiopensource.xml.tok.Tokenizer;
+import com.thaiopensource.xml.util.WellKnownNamespaces;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.helpers.AttributesImpl;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+
+/**
+ * A namespace-aware XML parser to which input is pushed in chunks.  It never waits for input:
+ * each call to <code>write</code> tokenizes as much of the input as is available, reports
+ * the complete tokens to a ContentHandler, and keeps any incomplete token until the next call.
+ * Character data is passed to the ContentHandler directly from the parser's buffer.
+ *
+ * <p>The document type declaration is checked for well-formedness, but is not otherwise processed.
+ * So a reference to an entity other than the predefined entities is reported as a skipped entity
+ * in content, and is ignored in an attribute value; if there is no document type declaration,
+ * it is a fatal error.  Since the declarations in the internal subset could change the document,
+ * for example by defaulting attributes, an internal subset containing any declarations or
+ * parameter entity references is reported as an error; an external subset is reported as a warning.
+ *
+ * <p>A fatal error is reported to the ErrorHandler, and any further input is ignored.
+ */
+class PushParser implements Locator {
+  static private final Localizer localizer = new Localizer(PushParser.class);
+
+  static private final int PROLOG = 0;
+  static private final int CONTENT = 1;
+  static private final int CDATA_SECTION = 2;
+  static private final int EPILOG = 3;
+  static private final int FINISHED = 4;
+
+  // the number of bytes examined for an encoding declaration
+  static private final int MAX_DECL_BYTES = 1024;
+  static private final int INIT_BUF_SIZE = 8192;
+  // a run of character data is passed on before this much has been received, even if it may continue
+  static private final int MAX_PENDING_TEXT = INIT_BUF_SIZE/2;
+  static private final String XMLNS = "xmlns";
+  static private final byte[] XML_DECL_START = { '<', '?', 'x', 'm', 'l' };
+
+  private final ContentHandler contentHandler;
+  private final ErrorHandler errorHandler;
+  private final String systemId;
+  private String encoding;
+
+  private int state = PROLOG;
+  private boolean started = false;
+  private boolean hadDoctype = false;
+  // true until the first token has been parsed
+  private boolean atStart = true;
+  // 0 if not in the document type declaration, 1 outside the internal subset, 2 inside
+  private int doctypeLevel = 0;
+  private int declLevel = 0;
+  private boolean reportedInternalSubset = false;
+  private boolean reportedExternalSubset = false;
+
+  // bytes received before the encoding is known
+  private byte[] detectBuf = null;
+  private int detectLength = 0;
+  private CharsetDecoder decoder = null;
+  // the bytes of an incomplete character
+  private final ByteBuffer leftover = ByteBuffer.allocate(16);
+
+  private char[] buf = new char[INIT_BUF_SIZE];
+  // the char at which the next token starts
+  private int bufStart = 0;
+  private int bufEnd = 0;
+  // character data that has been parsed but not yet passed on, so that a run of character
+  // data split between writes, or by newlines, is reported with a single call to characters;
+  // the chars are moved down over the removed CRs of CRLFs, so textEnd may be less than bufStart
+  private int textStart = -1;
+  private int textEnd = -1;
+  // the position of the char at bufStart
+  private final Position pos = new Position();
+  private final ContentToken token = new ContentToken();
+  private final Token valueToken = new Token();
+  private final char[] refChars = new char[2];
+
+  private final NameTable nameTable = new NameTable();
+  private final AttributesImpl attributes = new AttributesImpl();
+  private final StringBuilder valueBuf = new StringBuilder();
+  private QName[] attributeNames = new QName[8];
+  private int[] attributeIndexes = new int[8];
+
+  private QName[] openElements = new QName[16];
+  private String[] openElementUris = new String[16];
+  private int[] openElementBindings = new int[16];
+  private int depth = 0;
+
+  // namespace bindings in scope; a binding to the empty string undeclares the prefix
+  private String[] bindingPrefixes = new String[8];
+  private String[] bindingUris = new String[8];
+  private int bindingCount = 0;
+
+  PushParser(ContentHandler contentHandler, ErrorHandler errorHandler, String systemId) {
+    this.contentHandler = contentHandler;
+    this.errorHandler = errorHandler;
+    this.systemId = systemId;
+  }
+
+  /**
+   * Specifies the encoding of the bytes to be written, overriding any encoding declaration.
+   * Must be called before any input is written.
+   */
+  void setEncoding(String encoding) {
+    this.encoding = encoding;
+  }
+
+  boolean isFinished() {
+    return state == FINISHED;
+  }
+
+  void write(char[] chars, int off, int len) throws SAXException {
+    if (state == FINISHED)
+      return;
+    start();
+    while (len > 0) {
+      makeRoom();
+      int n = Math.min(len, buf.length - bufEnd);
+      System.arraycopy(chars, off, buf, bufEnd, n);
+      bufEnd += n;
+      off += n;
+      len -= n;
+      parse(false);
+      if (state == FINISHED)
+        return;
+    }
+  }
+
+  void write(byte[] bytes, int off, int len) throws SAXException {
+    if (state == FINISHED)
+      return;
+    start();
+    if (decoder == null) {
+      if (detectBuf == null)
+        detectBuf = new byte[Math.max(len, 64)];
+      else if (detectLength + len > detectBuf.length) {
+        byte[] newDetectBuf = new byte[Math.max(detectLength + len, detectBuf.length * 2)];
+        System.arraycopy(detectBuf, 0, newDetectBuf, 0, detectLength);
+        detectBuf = newDetectBuf;
+      }
+      System.arraycopy(bytes, off, detectBuf, detectLength, len);
+      detectLength += len;
+      if (!detectEncoding(false))
+        return;
+      bytes = detectBuf;
+      off = 0;
+      len = detectLength;
+      detectBuf = null;
+      if (decoder == null)
+        return;
+    }
+    // complete a character whose bytes were split between writes
+    while (leftover.position() > 0 && len > 0) {
+      leftover.put(bytes[off++]);
+      --len;
+      leftover.flip();
+      decode(leftover, false);
+      leftover.compact();
+      if (state == FINISHED)
+        return;
+    }
+    if (len == 0)
+      return;
+    ByteBuffer in = ByteBuffer.wrap(bytes, off, len);
+    decode(in, false);
+    if (in.hasRemaining() && state != FINISHED)
+      leftover.put(in);
+  }
+
+  /**
+   * Signals the end of the input.
+   */
+  void close() throws SAXException {
+    if (state == FINISHED)
+      return;
+    start();
+    if (decoder == null && detectBuf != null) {
+      detectEncoding(true);
+      if (decoder != null) {
+        ByteBuffer in = ByteBuffer.wrap(detectBuf, 0, detectLength);
+        decode(in, false);
+        if (in.hasRemaining() && state != FINISHED)
+          leftover.put(in);
+      }
+      detectBuf = null;
+    }
+    if (decoder != null && state != FINISHED) {
+      leftover.flip();
+      decode(leftover, true);
+      if (state != FINISHED) {
+        makeRoom();
+        CharBuffer out = CharBuffer.wrap(buf, bufEnd, buf.length - bufEnd);
+        decoder.flush(out);
+        bufEnd = out.position();
+      }
+    }
+    if (state == FINISHED)
+      return;
+    parse(true);
+    switch (state) {
+    case FINISHED:
+      return;
+    case EPILOG:
+      state = FINISHED;
+      contentHandler.endDocument();
+      break;
+    case PROLOG:
+      fatal("no_document_element");
+      break;
+    default:
+      fatal("unclosed_element", openElements[depth - 1].qName);
+      break;
+    }
+  }
+
+  private void start() throws SAXException {
+    if (!started) {
+      started = true;
+      contentHandler.setDocumentLocator(this);
+      contentHandler.startDocument();
+    }
+  }
+
+  /**
+   * Determines the encoding from a byte order mark or the encoding declaration.
+   * Returns false if more bytes are needed.
+   */
+  private boolean detectEncoding(boolean isFinal) throws SAXException {
+    byte[] b = detectBuf;
+    int n = detectLength;
+    int skip = 0;
+    String enc = encoding;
+    // a UTF-16 byte order mark takes precedence over a specified encoding
+    if (n >= 2 && b[0] == (byte)0xFE && b[1] == (byte)0xFF) {
+      skip = 2;
+      enc = "UTF-16BE";
+    }
+    else if (n >= 2 && b[0] == (byte)0xFF && b[1] == (byte)0xFE) {
+      skip = 2;
+      enc = "UTF-16LE";
+    }
+    else if (n >= 1 && b[0] == (byte)0xEF) {
+      if (n < 3 && !isFinal)
+        return false;
+      if (n >= 3 && b[1] == (byte)0xBB && b[2] == (byte)0xBF)
+        skip = 3;
+    }
+    if (enc == null) {
+      if (n < 4 && !isFinal)
+        return false;
+      if (n >= 4 && b[0] == 0 && b[1] == '<' && b[2] == 0 && b[3] == '?')
+        enc = "UTF-16BE";
+      else if (n >= 4 && b[0] == '<' && b[1] == 0 && b[2] == '?' && b[3] == 0)
+        enc = "UTF-16LE";
+      else if (startsWithXmlDecl(b, skip, n)) {
+        if (n - skip < XML_DECL_START.length && !isFinal)
+          return false;
+        int declEnd = -1;
+        for (int i = skip + XML_DECL_START.length; i + 1 < n; i++) {
+          if (b[i] == '?' && b[i + 1] == '>') {
+            declEnd = i;
+            break;
+          }
+        }
+        if (declEnd < 0 && n < MAX_DECL_BYTES && !isFinal)
+          return false;
+        if (declEnd >= 0)
+          enc = encodingDeclValue(latin1(b, skip, declEnd));
+      }
+      if (enc == null)
+        enc = "UTF-8";
+    }
+    System.arraycopy(b, skip, b, 0, n - skip);
+    detectLength = n - skip;
+    try {
+      decoder = Charset.forName(enc).newDecoder()
+              .onMalformedInput(CodingErrorAction.REPORT)
+              .onUnmappableCharacter(CodingErrorAction.REPORT);
+    }
+    catch (IllegalCharsetNameException e) {
+      fatal("unsupported_encoding", enc);
+    }
+    catch (UnsupportedCharsetException e) {
+      fatal("unsupported_encoding", enc);
+    }
+    return true;
+  }
+
+  /**
+   * Tests whether the bytes from start to end are, or start with, the beginning of an XML declaration.
+   */
+  static private boolean startsWithXmlDecl(byte[] b, int start, int end) {
+    for (int i = 0; i < XML_DECL_START.length && start + i < end; i++)
+      if (b[start + i] != XML_DECL_START[i])
+        return false;
+    return true;
+  }
+
+  static private String latin1(byte[] b, int start, int end) {
+    char[] chars = new char[end - start];
+    for (int i = start; i < end; i++)
+      chars[i - start] = (char)(b[i] & 0xFF);
+    return new String(chars);
+  }
+
+  /**
+   * Returns the value of the encoding pseudo-attribute in an XML declaration, or null if there is none.
+   */
+  static private String encodingDeclValue(String decl) {
+    int i = decl.indexOf("encoding");
+    if (i < 0)
+      return null;
+    i += 8;
+    int len = decl.length();
+    while (i < len && isWhitespace(decl.charAt(i)))
+      i++;
+    if (i == len || decl.charAt(i) != '=')
+      return null;
+    for (++i; i < len && isWhitespace(decl.charAt(i)); i++)
+      ;
+    if (i == len)
+      return null;
+    char quote = decl.charAt(i);
+    if (quote != '"' && quote != '\'')
+      return null;
+    int end = decl.indexOf(quote, i + 1);
+    if (end < 0)
+      return null;
+    return decl.substring(i + 1, end);
+  }
+
+  static private boolean isWhitespace(char c) {
+    return c == ' ' || c == '\t' || c == '\r' || c == '\n';
+  }
+
+  private void decode(ByteBuffer in, boolean endOfInput) throws SAXException {
+    for (;;) {
+      makeRoom();
+      CharBuffer out = CharBuffer.wrap(buf, bufEnd, buf.length - bufEnd);
+      CoderResult result = decoder.decode(in, out, endOfInput);
+      bufEnd = out.position();
+      parse(false);
+      if (state == FINISHED)
+        return;
+      if (result.isError()) {
+        fatal(result.isMalformed() ? "malformed_input" : "unmappable_character", decoder.charset().name());
+        return;
+      }
+      if (result.isUnderflow())
+        return;
+    }
+  }
+
+  /**
+   * Ensures there's space at the end of the buffer, by discarding the chars that have been parsed
+   * or by making the buffer bigger.
+   */
+  private void makeRoom() {
+    if (buf.length - bufEnd >= INIT_BUF_SIZE/4)
+      return;
+    int keep = textStart >= 0 ? textStart : bufStart;
+    if (keep > 0) {
+      System.arraycopy(buf, keep, buf, 0, bufEnd - keep);
+      bufEnd -= keep;
+      bufStart -= keep;
+      if (textStart >= 0) {
+        textStart -= keep;
+        textEnd -= keep;
+      }
+      if (buf.length - bufEnd >= INIT_BUF_SIZE/4)
+        return;
+    }
+    char[] newBuf = new char[buf.length * 2];
+    System.arraycopy(buf, 0, newBuf, 0, bufEnd);
+    buf = newBuf;
+  }
+
+  private void parse(boolean isFinal) throws SAXException {
+    while (state != FINISHED) {
+      int tok;
+      int tokenEnd;
+      try {
+        switch (state) {
+        case CONTENT:
+          tok = Tokenizer.tokenizeContent(buf, bufStart, bufEnd, token);
+          break;
+        case CDATA_SECTION:
+          tok = Tokenizer.tokenizeCdataSection(buf, bufStart, bufEnd, token);
+          break;
+        default:
+          tok = Tokenizer.tokenizeProlog(buf, bufStart, bufEnd, token);
+          break;
+        }
+        tokenEnd = token.getTokenEnd();
+      }
+      catch (EmptyTokenException e) {
+        if (isFinal || (textStart >= 0 && textEnd - textStart >= MAX_PENDING_TEXT))
+          flushText();
+        return;
+      }
+      catch (PartialTokenException e) {
+        if (isFinal)
+          fatalAt(bufEnd, "unclosed_token");
+        else if (textStart >= 0 && textEnd - textStart >= MAX_PENDING_TEXT)
+          flushText();
+        return;
+      }
+      catch (ExtensibleTokenException e) {
+        if (!isFinal) {
+          if (textStart >= 0 && textEnd - textStart >= MAX_PENDING_TEXT)
+            flushText();
+          return;
+        }
+        tok = e.getTokenType();
+        tokenEnd = bufEnd;
+      }
+      catch (InvalidTokenException e) {
+        reportInvalidToken(e);
+        return;
+      }
+      catch (EndOfPrologException e) {
+        if (state == PROLOG && doctypeLevel == 0)
+          state = CONTENT;
+        else
+          fatalAt(bufStart, state == EPILOG ? "junk_after_document_element" : "syntax_error");
+        continue;
+      }
+      int tokenStart = bufStart;
+      if (state == CONTENT || state == CDATA_SECTION) {
+        if (tok == Tokenizer.TOK_DATA_CHARS || tok == Tokenizer.TOK_DATA_NEWLINE) {
+          Tokenizer.movePosition(buf, bufStart, tokenEnd, pos);
+          bufStart = tokenEnd;
+          appendText(tok, tokenStart, tokenEnd);
+          continue;
+        }
+        flushText();
+      }
+      Tokenizer.movePosition(buf, bufStart, tokenEnd, pos);
+      bufStart = tokenEnd;
+      switch (state) {
+      case CONTENT:
+        contentToken(tok, tokenStart, tokenEnd);
+        break;
+      case CDATA_SECTION:
+        cdataToken(tok, tokenStart, tokenEnd);
+        break;
+      default:
+        prologToken(tok, tokenStart, tokenEnd);
+        break;
+      }
+    }
+  }
+
+  private void appendText(int tok, int start, int end) {
+    if (textStart < 0) {
+      textStart = start;
+      textEnd = start;
+    }
+    if (tok == Tokenizer.TOK_DATA_NEWLINE)
+      buf[textEnd++] = '\n';
+    else {
+      if (textEnd != start)
+        System.arraycopy(buf, start, buf, textEnd, end - start);
+      textEnd += end - start;
+    }
+  }
+
+  private void flushText() throws SAXException {
+    if (textStart >= 0) {
+      int start = textStart;
+      textStart = -1;
+      contentHandler.characters(buf, start, textEnd - start);
+    }
+  }
+
+  private void prologToken(int tok, int start, int end) throws SAXException {
+    boolean atStart = this.atStart;
+    this.atStart = false;
+    if (doctypeLevel > 0) {
+      doctypeToken(tok, start, end);
+      return;
+    }
+    switch (tok) {
+    case Tokenizer.TOK_PROLOG_S:
+    case Tokenizer.TOK_COMMENT:
+      break;
+    case Tokenizer.TOK_PI:
+      processingInstruction(start, end);
+      break;
+    case Tokenizer.TOK_XML_DECL:
+      if (!atStart)
+        fatal("misplaced_xml_decl");
+      break;
+    case Tokenizer.TOK_DECL_OPEN:
+      if (state == PROLOG && !hadDoctype && Tokenizer.matchesXMLString(buf, start + 2, end, "DOCTYPE")) {
+        hadDoctype = true;
+        doctypeLevel = 1;
+      }
+      else
+        fatal("syntax_error");
+      break;
+    default:
+      fatal("syntax_error");
+      break;
+    }
+  }
+
+  private void doctypeToken(int tok, int start, int end) throws SAXException {
+    switch (tok) {
+    case Tokenizer.TOK_OPEN_BRACKET:
+      if (doctypeLevel == 1)
+        doctypeLevel = 2;
+      break;
+    case Tokenizer.TOK_CLOSE_BRACKET:
+      if (doctypeLevel == 2 && declLevel == 0)
+        doctypeLevel = 1;
+      break;
+    case Tokenizer.TOK_DECL_OPEN:
+      if (doctypeLevel == 2) {
+        declLevel++;
+        doctypeNotProcessed(true);
+      }
+      else
+        fatal("syntax_error");
+      break;
+    case Tokenizer.TOK_PARAM_ENTITY_REF:
+      doctypeNotProcessed(true);
+      break;
+    case Tokenizer.TOK_LITERAL:
+      if (doctypeLevel == 1)
+        doctypeNotProcessed(false);
+      break;
+    case Tokenizer.TOK_DECL_CLOSE:
+      if (declLevel > 0)
+        declLevel--;
+      else if (doctypeLevel == 1)
+        doctypeLevel = 0;
+      else
+        fatal("syntax_error");
+      break;
+    case Tokenizer.TOK_XML_DECL:
+    case Tokenizer.TOK_COND_SECT_OPEN:
+    case Tokenizer.TOK_COND_SECT_CLOSE:
+      fatal("syntax_error");
+      break;
+    }
+  }
+
+  /**
+   * Reports, once for each document, that the declarations of the internal subset or the external subset
+   * are not processed.
+   */
+  private void doctypeNotProcessed(boolean internal) throws SAXException {
+    if (internal) {
+      if (!reportedInternalSubset) {
+        reportedInternalSubset = true;
+        errorHandler.error(new SAXParseException(localizer.message("internal_subset_not_processed"), this));
+      }
+    }
+    else if (!reportedExternalSubset) {
+      reportedExternalSubset = true;
+      errorHandler.warning(new SAXParseException(localizer.message("external_subset_not_read"), this));
+    }
+  }
+
+  private void contentToken(int tok, int start, int end) throws SAXException {
+    switch (tok) {
+    case Tokenizer.TOK_START_TAG_NO_ATTS:
+    case Tokenizer.TOK_START_TAG_WITH_ATTS:
+      startElement(tok == Tokenizer.TOK_START_TAG_WITH_ATTS, start);
+      break;
+    case Tokenizer.TOK_EMPTY_ELEMENT_NO_ATTS:
+    case Tokenizer.TOK_EMPTY_ELEMENT_WITH_ATTS:
+      startElement(tok == Tokenizer.TOK_EMPTY_ELEMENT_WITH_ATTS, start);
+      if (state != FINISHED)
+        endElement();
+      break;
+    case Tokenizer.TOK_END_TAG:
+      {
+        QName name = openElements[depth - 1];
+        if (!name.matches(buf, start + 2, token.getNameEnd())) {
+          fatal("mismatched_end_tag", new String(buf, start + 2, token.getNameEnd() - (start + 2)), name.qName);
+          return;
+        }
+        endElement();
+      }
+      break;
+    case Tokenizer.TOK_CDATA_SECT_OPEN:
+      state = CDATA_SECTION;
+      break;
+    case Tokenizer.TOK_MAGIC_ENTITY_REF:
+    case Tokenizer.TOK_CHAR_REF:
+      refChars[0] = token.getRefChar();
+      contentHandler.characters(refChars, 0, 1);
+      break;
+    case Tokenizer.TOK_CHAR_PAIR_REF:
+      token.getRefCharPair(refChars, 0);
+      contentHandler.characters(refChars, 0, 2);
+      break;
+    case Tokenizer.TOK_ENTITY_REF:
+      {
+        String name = new String(buf, start + 1, token.getNameEnd() - (start + 1));
+        if (hadDoctype)
+          contentHandler.skippedEntity(name);
+        else
+          fatal("undefined_entity", name);
+      }
+      break;
+    case Tokenizer.TOK_PI:
+      processingInstruction(start, end);
+      break;
+    case Tokenizer.TOK_XML_DECL:
+      fatal("misplaced_xml_decl");
+      break;
+    case Tokenizer.TOK_COMMENT:
+      break;
+    }
+  }
+
+  private void cdataToken(int tok, int start, int end) throws SAXException {
+    switch (tok) {
+    case Tokenizer.TOK_CDATA_SECT_CLOSE:
+      state = CONTENT;
+      break;
+    }
+  }
+
+  private void processingInstruction(int start, int end) throws SAXException {
+    int nameEnd = token.getNameEnd();
+    String target = new String(buf, start + 2, nameEnd - (start + 2));
+    int dataStart = Tokenizer.skipS(buf, nameEnd, end - 2);
+    contentHandler.processingInstruction(target, new String(buf, dataStart, end - 2 - dataStart));
+  }
+
+  private void startElement(boolean hasAtts, int start) throws SAXException {
+    QName name = nameTable.get(buf, start + 1, token.getNameEnd());
+    int bindingsStart = bindingCount;
+    int nAtts = 0;
+    if (hasAtts) {
+      int n = token.getAttributeSpecifiedCount();
+      if (n > attributeNames.length) {
+        attributeNames = new QName[Math.max(n, attributeNames.length * 2)];
+        attributeIndexes = new int[attributeNames.length];
+      }
+      // declare the namespaces first, since they apply to all the attributes
+      for (int i = 0; i < n; i++) {
+        QName attName = nameTable.get(buf, token.getAttributeNameStart(i), token.getAttributeNameEnd(i));
+        if (attName.isNamespaceDeclaration()) {
+          String prefix = attName.prefix == null ? "" : attName.localName;
+          String uri = attributeValue(i);
+          if (state == FINISHED)
+            return;
+          if (uri.length() == 0 && prefix.length() > 0) {
+            fatal("undeclared_prefix_binding", prefix);
+            return;
+          }
+          bind(prefix, uri);
+          contentHandler.startPrefixMapping(prefix, uri);
+        }
+        else {
+          attributeNames[nAtts] = attName;
+          attributeIndexes[nAtts] = i;
+          nAtts++;
+        }
+      }
+    }
+    String uri = resolve(name.prefix, true);
+    if (uri == null)
+      return;
+    attributes.clear();
+    for (int j = 0; j < nAtts; j++) {
+      QName attName = attributeNames[j];
+      String attUri = resolve(attName.prefix, false);
+      if (attUri == null)
+        return;
+      if (attName.prefix != null) {
+        for (int k = 0, len = attributes.getLength(); k < len; k++) {
+          if (attributes.getURI(k).equals(attUri) && attributes.getLocalName(k).equals(attName.localName)) {
+            fatal("duplicate_namespace_attribute", attName.qName);
+            return;
+          }
+        }
+      }
+      String value = attributeValue(attributeIndexes[j]);
+      if (state == FINISHED)
+        return;
+      attributes.addAttribute(attUri, attName.localName, attName.qName, "CDATA", value);
+    }
+    if (depth == openElements.length) {
+      QName[] newOpenElements = new QName[depth * 2];
+      System.arraycopy(openElements, 0, newOpenElements, 0, depth);
+      openElements = newOpenElements;
+      String[] newOpenElementUris = new String[depth * 2];
+      System.arraycopy(openElementUris, 0, newOpenElementUris, 0, depth);
+      openElementUris = newOpenElementUris;
+      int[] newOpenElementBindings = new int[depth * 2];
+      System.arraycopy(openElementBindings, 0, newOpenElementBindings, 0, depth);
+      openElementBindings = newOpenElementBindings;
+    }
+    openElements[depth] = name;
+    openElementUris[depth] = uri;
+    openElementBindings[depth] = bindingsStart;
+    depth++;
+    contentHandler.startElement(uri, name.localName, name.qName, attributes);
+  }
+
+  private void endElement() throws SAXException {
+    --depth;
+    QName name = openElements[depth];
+    contentHandler.endElement(openElementUris[depth], name.localName, name.qName);
+    int bindingsStart = openElementBindings[depth];
+    while (bindingCount > bindingsStart)
+      contentHandler.endPrefixMapping(bindingPrefixes[--bindingCount]);
+    if (depth == 0)
+      state = EPILOG;
+  }
+
+  /**
+   * Returns the normalized value of an attribute of the current start-tag.
+   */
+  private String attributeValue(int i) throws SAXException {
+    int start = token.getAttributeValueStart(i);
+    int end = token.getAttributeValueEnd(i);
+    if (token.isAttributeNormalized(i))
+      return new String(buf, start, end - start);
+    valueBuf.setLength(0);
+    try {
+      while (start < end) {
+        int tok;
+        int tokenEnd;
+        try {
+          tok = Tokenizer.tokenizeAttributeValue(buf, start, end, valueToken);
+          tokenEnd = valueToken.getTokenEnd();
+        }
+        catch (ExtensibleTokenException e) {
+          tok = e.getTokenType();
+          tokenEnd = end;
+        }
+        switch (tok) {
+        case Tokenizer.TOK_DATA_CHARS:
+          valueBuf.append(buf, start, tokenEnd - start);
+          break;
+        case Tokenizer.TOK_DATA_NEWLINE:
+        case Tokenizer.TOK_ATTRIBUTE_VALUE_S:
+          valueBuf.append(' ');
+          break;
+        case Tokenizer.TOK_MAGIC_ENTITY_REF:
+        case Tokenizer.TOK_CHAR_REF:
+          valueBuf.append(valueToken.getRefChar());
+          break;
+        case Tokenizer.TOK_CHAR_PAIR_REF:
+          valueToken.getRefCharPair(refChars, 0);
+          valueBuf.append(refChars, 0, 2);
+          break;
+        case Tokenizer.TOK_ENTITY_REF:
+          if (!hadDoctype)
+            fatal("undefined_entity", new String(buf, start + 1, valueToken.getNameEnd() - (start + 1)));
+          break;
+        }
+        start = tokenEnd;
+      }
+    }
+    catch (EmptyTokenException e) {
+    }
+    catch (PartialTokenException e) {
+      fatal("syntax_error");
+    }
+    catch (InvalidTokenException e) {
+      fatal("syntax_error");
+    }
+    return valueBuf.toString();
+  }
+
+  private void bind(String prefix, String uri) {
+    if (bindingCount == bindingPrefixes.length) {
+      String[] newBindingPrefixes = new String[bindingCount * 2];
+      System.arraycopy(bindingPrefixes, 0, newBindingPrefixes, 0, bindingCount);
+      bindingPrefixes = newBindingPrefixes;
+      String[] newBindingUris = new String[bindingCount * 2];
+      System.arraycopy(bindingUris, 0, newBindingUris, 0, bindingCount);
+      bindingUris = newBindingUris;
+    }
+    bindingPrefixes[bindingCount] = prefix;
+    bindingUris[bindingCount] = uri;
+    bindingCount++;
+  }
+
+  /**
+   * Returns the namespace URI for a prefix, or null after reporting a fatal error if the prefix
+   * is not declared.
+   */
+  private String resolve(String prefix, boolean isElement) throws SAXException {
+    if (prefix == null) {
+      if (!isElement)
+        return "";
+      prefix = "";
+    }
+    for (int i = bindingCount - 1; i >= 0; i--)
+      if (bindingPrefixes[i].equals(prefix))
+        return bindingUris[i];
+    if (prefix.length() == 0)
+      return "";
+    if (prefix.equals("xml"))
+      return WellKnownNamespaces.XML;
+    fatal("undeclared_prefix", prefix);
+    return null;
+  }
+
+  private void reportInvalidToken(InvalidTokenException e) throws SAXException {
+    switch (e.getType()) {
+    case InvalidTokenException.XML_TARGET:
+      fatalAt(e.getOffset(), "xml_target");
+      break;
+    case InvalidTokenException.DUPLICATE_ATTRIBUTE:
+      fatalAt(e.getOffset(), "duplicate_attribute");
+      break;
+    default:
+      fatalAt(e.getOffset(), "illegal_char");
+      break;
+    }
+  }
+
+  private void fatalAt(int offset, String key) throws SAXException {
+    Tokenizer.movePosition(buf, bufStart, offset, pos);
+    bufStart = offset;
+    fatal(key);
+  }
+
+  private void fatal(String key) throws SAXException {
+    fatal(new SAXParseException(localizer.message(key), this));
+  }
+
+  private void fatal(String key, String arg) throws SAXException {
+    fatal(new SAXParseException(localizer.message(key, arg), this));
+  }
+
+  private void fatal(String key, String arg1, String arg2) throws SAXException {
+    fatal(new SAXParseException(localizer.message(key, arg1, arg2), this));
+  }
+
+  private void fatal(SAXParseException e) throws SAXException {
+    state = FINISHED;
+    errorHandler.fatalError(e);
+  }
+
+  public String getPublicId() {
+    return null;
+  }
+
+  public String getSystemId() {
+    return systemId;
+  }
+
+  public int getLineNumber() {
+    return pos.getLineNumber();
+  }
+
+  public int getColumnNumber() {
+    return pos.getColumnNumber() + 1;
+  }
+
+  static private final class QName {
+    private final String qName;
+    // null if there's no prefix
+    private final String prefix;
+    private final String localName;
+    private final int hash;
+
+    QName(String qName, int hash) {
+      this.qName = qName;
+      this.hash = hash;
+      int colon = qName.indexOf(':');
+      if (colon < 0) {
+        prefix = null;
+        localName = qName;
+      }
+      else {
+        prefix = qName.substring(0, colon);
+        localName = qName.substring(colon + 1);
+      }
+    }
+
+    boolean isNamespaceDeclaration() {
+      return prefix == null ? qName.equals(XMLNS) : prefix.equals(XMLNS);
+    }
+
+    boolean matches(char[] buf, int start, int end) {
+      int len = end - start;
+      if (qName.length() != len)
+        return false;
+      for (int i = 0; i < len; i++)
+        if (qName.charAt(i) != buf[start + i])
+          return false;
+      return true;
+    }
+  }
+
+  /**
+   * Maps the chars of a name to a QName, so that Strings aren't created for names that
+   * have been seen before.  The number of entries is limited, so that a document with
+   * many different names cannot make it grow without bound.
+   */
+  static private final class NameTable {
+    static private final int MAX_ENTRIES = 4096;
+    private QName[] table = new QName[64];
+    private int used = 0;
+
+    QName get(char[] buf, int start, int end) {
+      int h = 0;
+      for (int i = start; i < end; i++)
+        h = h*31 + buf[i];
+      int mask = table.length - 1;
+      int i = h & mask;
+      for (QName name = table[i]; name != null; name = table[i]) {
+        if (name.hash == h && name.matches(buf, start, end))
+          return name;
+        i = (i + 1) & mask;
+      }
+      QName name = new QName(new String(buf, start, end - start), h);
+      if (used < MAX_ENTRIES) {
+        table[i] = name;
+        if (++used * 2 > table.length)
+          rehash();
+      }
+      return name;
+    }
+
+    private void rehash() {
+      QName[] oldTable = table;
+      table = new QName[oldTable.length * 2];
+      int mask = table.length - 1;
+      for (QName name : oldTable) {
+        if (name != null) {
+          int i = name.hash & mask;
+          while (table[i] != null)
+            i = (i + 1) & mask;
+          table[i] = name;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,124 @@
+package com.thaiopensource.validate.push;
+
+import com.thaiopensource.util.PropertyMap;
+import com.thaiopensource.util.PropertyMapBuilder;
+import com.thaiopensource.validate.Schema;
+import com.thaiopensource.validate.ValidateProperty;
+import com.thaiopensource.validate.Validator;
+import com.thaiopensource.xml.sax.CountingErrorHandler;
+import com.thaiopensource.xml.sax.ErrorHandlerImpl;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.SAXException;
+
+/**
+ * Validates a single XML document that is pushed to it in chunks, as they become available.
+ * No thread is needed between chunks: each call to <code>write</code> parses and validates
+ * as much of the document as it can with the input received so far and then returns,
+ * keeping any incomplete markup until the next call.  Errors are reported to the
+ * <code>ErrorHandler</code> during the calls to <code>write</code> and <code>close</code>,
+ * as soon as the part of the document containing them has been received.
+ *
+ * <p>A session is not safe for concurrent access from multiple threads, but calls
+ * may be made from different threads provided that they do not overlap.  Any number of sessions
+ * may be created from the same <code>Schema</code>.
+ *
+ * <p>The input is parsed by a non-blocking namespace-aware parser, which does not read any
+ * external entities; see <code>PushParser</code> for its treatment of document type declarations.
+ * The bytes of the document are decoded using the encoding given by <code>setEncoding</code>,
+ * or else by the byte order mark or encoding declaration.  A well-formedness error is a fatal error:
+ * it makes the document invalid, and the rest of the input is ignored.
+ *
+ * @see PushParser
+ */
+public class ValidationSession {
+  private final CountingErrorHandler eh;
+  private final Validator validator;
+  private final PushParser parser;
+  private boolean closed = false;
+
+  /**
+   * Creates a session to validate a document.
+   *
+   * @param schema the Schema against which to validate the document
+   * @param properties a PropertyMap specifying properties controlling validation;
+   * errors are reported to the ValidateProperty.ERROR_HANDLER property, if there is one
+   * @param systemId the system identifier of the document, used in error messages; may be <code>null</code>
+   */
+  public ValidationSession(Schema schema, PropertyMap properties, String systemId) {
+    ErrorHandler ieh = properties.get(ValidateProperty.ERROR_HANDLER);
+    if (ieh == null)
+      ieh = new ErrorHandlerImpl();
+    eh = new CountingErrorHandler(ieh);
+    PropertyMapBuilder builder = new PropertyMapBuilder(properties);
+    builder.put(ValidateProperty.ERROR_HANDLER, eh);
+    validator = schema.createValidator(builder.toPropertyMap());
+    parser = new PushParser(validator.getContentHandler(), eh, systemId);
+  }
+
+  /**
+   * Specifies the encoding of the document, for example from a MIME type.  This overrides any
+   * encoding declaration.  It must be called before the first chunk of bytes is written.
+   *
+   * @param encoding the name of the encoding
+   */
+  public void setEncoding(String encoding) {
+    parser.setEncoding(encoding);
+  }
+
+  /**
+   * Writes the next chunk of bytes of the document.
+   *
+   * @throws IllegalStateException if the session has been closed
+   * @throws SAXException if the ErrorHandler threw a SAXException
+   */
+  public void write(byte[] b, int off, int len) throws SAXException {
+    checkOpen();
+    parser.write(b, off, len);
+  }
+
+  /**
+   * Writes the next chunk of characters of the document.  This is for a document that
+   * has already been decoded; chunks of characters and of bytes must not be mixed.
+   *
+   * @throws IllegalStateException if the session has been closed
+   * @throws SAXException if the ErrorHandler threw a SAXException
+   */
+  public void write(char[] ch, int off, int len) throws SAXException {
+    checkOpen();
+    parser.write(ch, off, len);
+  }
+
+  /**
+   * Tests whether an error has been found in the document received so far.  This allows
+   * the sender of the document to be stopped early.
+   *
+   * @return <code>true</code> if an error or fatal error has been reported
+   */
+  public boolean hadError() {
+    return eh.getHadErrorOrFatalError();
+  }
+
+  /**
+   * Signals the end of the document, and completes its validation.
+   *
+   * @return <code>true</code> if the document is valid; <code>false</code> otherwise
+   * @throws IllegalStateException if the session has already been closed
+   * @throws SAXException if the ErrorHandler threw a SAXException
+   */
+  public boolean close() throws SAXException {
+    checkOpen();
+    closed = true;
+    try {
+      parser.close();
+    }
+    finally {
+      validator.reset();
+    }
+    return !eh.getHadErrorOrFatalError();
+  }
+
+  private void checkOpen() {
+    if (closed)
+      throw new IllegalStateException("session closed");
+  }
+}
@@ -0,0 +1,488 @@
+package com.thaiopensource.validate.push;
+
+import com.thaiopensource.util.PropertyMap;
+import com.thaiopensource.util.PropertyMapBuilder;
+import com.thaiopensource.validate.AbstractSchema;
+import com.thaiopensource.validate.AbstractSchemaReader;
+import com.thaiopensource.validate.Option;
+import com.thaiopensource.validate.Schema;
+import com.thaiopensource.validate.ValidateProperty;
+import com.thaiopensource.validate.ValidationDriver;
+import com.thaiopensource.validate.Validator;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.DTDHandler;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.transform.sax.SAXSource;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Tests that ValidationSession reports the same errors as ValidationDriver, however the document
+ * is split into chunks.  The schema used records the SAX events that its validators receive, and
+ * reports an error for each element, attribute or run of text called or containing "bad".
+ */
+public class ValidationSessionTest {
+  static private final int[] CHUNK_SIZES = { 1, 3, 7, 4096, Integer.MAX_VALUE };
+
+  static private final String[] DOCUMENTS = {
+    "<doc><a x='1' bad='2'>text</a><bad/>bad text</doc>",
+    "<p:doc xmlns:p='urn:p' xmlns='urn:d'><e a='1' p:bad='x'/><f xmlns=''><bad/></f></p:doc>",
+    "<doc a='&lt;&amp;&#x20AC;&#x1F600;'>&lt;b&gt;&#65;&#x1F600;&quot;&apos;bad</doc>",
+    "<!-- c --><?pi data?><doc><![CDATA[<bad>&]]>after<?pi2 x?><!--c2--><![CDATA[]]><a/></doc><!-- end -->",
+    "<doc>\r\n<a>line1\r\nline2\rline3</a>\r\n<bad/>\r\n<a x='a\r\nb\tc\rd'/>\r\n</doc>\r\n",
+    "<doc>\u00E9\u20AC\uD83D\uDE00<bad/>\uD83D\uDE00bad<a x='\uD83D\uDE00'/></doc>",
+    "<doc>" + repeat("text ", 3000) + "bad</doc>",
+    "<!DOCTYPE doc><doc><bad/></doc>",
+    "<!DOCTYPE doc [ ]>\n<doc>\n<bad/></doc>",
+    repeat("<a>", 200) + "<bad/>" + repeat("</a>", 200),
+  };
+
+  static private final String[] MALFORMED_DOCUMENTS = {
+    "",
+    "<doc>",
+    "<doc></dox>",
+    "<doc a='1' a='2'/>",
+    "<doc>&undefined;</doc>",
+    "<doc/><doc/>",
+    "<doc><p:x/></doc>",
+    "<doc>\u0001</doc>",
+    "<doc><![CDATA[x</doc>",
+    "text<doc/>",
+  };
+
+  /**
+   * An encoding in which to write the documents: the charset, whether a byte order mark is written,
+   * and the encoding declaration, if any.
+   */
+  static private class Encoding {
+    final String charset;
+    final boolean bom;
+    final String declaration;
+
+    Encoding(String charset, boolean bom, String declaredEncoding) {
+      this.charset = charset;
+      this.bom = bom;
+      this.declaration = declaredEncoding == null
+                         ? null
+                         : "<?xml version='1.0' encoding='" + declaredEncoding + "'?>";
+    }
+
+    public String toString() {
+      return charset + (bom ? " with BOM" : "") + (declaration != null ? " " + declaration : "");
+    }
+
+    byte[] encode(String document) {
+      if (declaration != null)
+        document = declaration + document;
+      if (bom)
+        document = "\uFEFF" + document;
+      return document.getBytes(Charset.forName(charset));
+    }
+
+    boolean canEncode(String document) {
+      return Charset.forName(charset).newEncoder().canEncode(document);
+    }
+  }
+
+  static private final Encoding[] ENCODINGS = {
+    new Encoding("UTF-8", false, null),
+    new Encoding("UTF-8", true, null),
+    new Encoding("UTF-8", false, "UTF-8"),
+    new Encoding("UTF-16BE", true, null),
+    new Encoding("UTF-16LE", true, "UTF-16"),
+    new Encoding("UTF-16BE", false, "UTF-16"),
+    new Encoding("UTF-16LE", false, "UTF-16"),
+    new Encoding("ISO-8859-1", false, "ISO-8859-1"),
+  };
+
+  @DataProvider(name = "encoded")
+  public Object[][] encoded() {
+    List<Object[]> result = new ArrayList<Object[]>();
+    for (String document : DOCUMENTS)
+      for (Encoding encoding : ENCODINGS)
+        if (encoding.canEncode(document))
+          result.add(new Object[] { document, encoding });
+    return result.toArray(new Object[result.size()][]);
+  }
+
+  @Test(dataProvider = "encoded")
+  public void testBytes(String document, Encoding encoding) throws SAXException, IOException {
+    byte[] bytes = encoding.encode(document);
+    Result expected = validateWithDriver(new InputSource(new ByteArrayInputStream(bytes)));
+    Assert.assertFalse(expected.valid);
+    for (int chunkSize : CHUNK_SIZES)
+      Assert.assertEquals(validateBytes(bytes, null, chunkSize), expected, encoding + ", chunk size " + chunkSize);
+  }
+
+  @DataProvider(name = "documents")
+  public Object[][] documents() {
+    Object[][] result = new Object[DOCUMENTS.length][];
+    for (int i = 0; i < DOCUMENTS.length; i++)
+      result[i] = new Object[] { DOCUMENTS[i] };
+    return result;
+  }
+
+  @Test(dataProvider = "documents")
+  public void testChars(String document) throws SAXException, IOException {
+    Result expected = validateWithDriver(new InputSource(new StringReader(document)));
+    for (int chunkSize : CHUNK_SIZES)
+      Assert.assertEquals(validateChars(document, chunkSize), expected, "chunk size " + chunkSize);
+  }
+
+  /**
+   * Splits documents with CRLFs, surrogate pairs and multi-byte characters into two writes at each position.
+   */
+  @Test
+  public void testEverySplit() throws SAXException, IOException {
+    for (String document : new String[] { DOCUMENTS[4], DOCUMENTS[5] }) {
+      Result expected = validateWithDriver(new InputSource(new StringReader(document)));
+      char[] chars = document.toCharArray();
+      for (int i = 0; i <= chars.length; i++) {
+        Session session = new Session();
+        session.session.write(chars, 0, i);
+        session.session.write(chars, i, chars.length - i);
+        Assert.assertEquals(session.close(), expected, "split at char " + i);
+      }
+      for (Encoding encoding : new Encoding[] { ENCODINGS[0], ENCODINGS[4] }) {
+        byte[] bytes = encoding.encode(document);
+        for (int i = 0; i <= bytes.length; i++) {
+          Session session = new Session();
+          session.session.write(bytes, 0, i);
+          session.session.write(bytes, i, bytes.length - i);
+          Assert.assertEquals(session.close(), expected, encoding + ", split at byte " + i);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testSpecifiedEncoding() throws SAXException, IOException {
+    String document = "<doc>\u00E9<bad/></doc>";
+    byte[] bytes = document.getBytes("ISO-8859-1");
+    InputSource in = new InputSource(new ByteArrayInputStream(bytes));
+    in.setEncoding("ISO-8859-1");
+    Result expected = validateWithDriver(in);
+    for (int chunkSize : CHUNK_SIZES)
+      Assert.assertEquals(validateBytes(bytes, "ISO-8859-1", chunkSize), expected, "chunk size " + chunkSize);
+  }
+
+  @DataProvider(name = "malformed")
+  public Object[][] malformed() {
+    Object[][] result = new Object[MALFORMED_DOCUMENTS.length][];
+    for (int i = 0; i < MALFORMED_DOCUMENTS.length; i++)
+      result[i] = new Object[] { MALFORMED_DOCUMENTS[i] };
+    return result;
+  }
+
+  @Test(dataProvider = "malformed")
+  public void testMalformed(String document) throws SAXException, IOException {
+    Result expected = validateWithDriver(new InputSource(new StringReader(document)));
+    Assert.assertTrue(expected.fatal);
+    byte[] bytes = document.getBytes("UTF-8");
+    for (int chunkSize : CHUNK_SIZES) {
+      Result actual = validateBytes(bytes, null, chunkSize);
+      Assert.assertFalse(actual.valid);
+      Assert.assertTrue(actual.fatal, "chunk size " + chunkSize);
+      actual = validateChars(document, chunkSize);
+      Assert.assertFalse(actual.valid);
+      Assert.assertTrue(actual.fatal, "chunk size " + chunkSize);
+    }
+  }
+
+  /**
+   * Tests that a document whose internal subset could change what is validated is not valid.
+   */
+  @Test
+  public void testInternalSubset() throws SAXException, IOException {
+    String[] documents = {
+      "<!DOCTYPE doc [<!ATTLIST doc bad CDATA 'x'>]><doc/>",
+      "<!DOCTYPE doc [<!ENTITY e 'bad'>]><doc a='&e;'>&e;</doc>",
+      "<!DOCTYPE doc [<!NOTATION n SYSTEM 'n'><!ENTITY e SYSTEM 'e' NDATA n>]><doc/>",
+      "<!DOCTYPE doc [<!ENTITY % pe ''>%pe;]><doc/>",
+    };
+    for (String document : documents) {
+      for (int chunkSize : CHUNK_SIZES) {
+        Result actual = validateChars(document, chunkSize);
+        Assert.assertFalse(actual.valid, document);
+        Assert.assertFalse(actual.fatal, document);
+        Assert.assertEquals(actual.errors.get(0),
+                            "1:declarations in the internal subset of the document type declaration are not processed");
+      }
+    }
+    // the attribute default is seen by ValidationDriver, which also finds the document invalid
+    Assert.assertFalse(validateWithDriver(new InputSource(new StringReader(documents[0]))).valid);
+  }
+
+  @Test
+  public void testExternalSubset() throws SAXException {
+    Session session = new Session();
+    char[] chars = "<!DOCTYPE doc SYSTEM 'doc.dtd'>\n<doc/>".toCharArray();
+    session.session.write(chars, 0, chars.length);
+    Result result = session.close();
+    Assert.assertTrue(result.valid);
+    Assert.assertEquals(session.recorder.warnings, 1);
+  }
+
+  static private Result validateWithDriver(InputSource in) throws SAXException, IOException {
+    Recorder recorder = new Recorder();
+    PropertyMapBuilder builder = new PropertyMapBuilder();
+    builder.put(ValidateProperty.ERROR_HANDLER, recorder);
+    TranscriptSchema schema = new TranscriptSchema();
+    ValidationDriver driver = new ValidationDriver(builder.toPropertyMap(), new TranscriptSchemaReader(schema));
+    driver.loadSchema(new InputSource());
+    boolean valid;
+    try {
+      valid = driver.validate(in);
+    }
+    catch (SAXParseException e) {
+      // the parser throws the exception after reporting it as a fatal error
+      valid = false;
+    }
+    return new Result(valid, recorder, schema);
+  }
+
+  static private Result validateBytes(byte[] bytes, String encoding, int chunkSize) throws SAXException {
+    Session session = new Session();
+    if (encoding != null)
+      session.session.setEncoding(encoding);
+    for (int i = 0; i < bytes.length; i += chunkSize)
+      session.session.write(bytes, i, Math.min(chunkSize, bytes.length - i));
+    return session.close();
+  }
+
+  static private Result validateChars(String document, int chunkSize) throws SAXException {
+    Session session = new Session();
+    char[] chars = document.toCharArray();
+    for (int i = 0; i < chars.length; i += chunkSize)
+      session.session.write(chars, i, Math.min(chunkSize, chars.length - i));
+    return session.close();
+  }
+
+  static private class Session {
+    final Recorder recorder = new Recorder();
+    final TranscriptSchema schema = new TranscriptSchema();
+    final ValidationSession session;
+
+    Session() {
+      PropertyMapBuilder builder = new PropertyMapBuilder();
+      builder.put(ValidateProperty.ERROR_HANDLER, recorder);
+      session = new ValidationSession(schema, builder.toPropertyMap(), null);
+    }
+
+    Result close() throws SAXException {
+      return new Result(session.close(), recorder, schema);
+    }
+  }
+
+  /**
+   * The outcome of validating a document: its validity, the line numbers and messages of the errors,
+   * whether there was a fatal error, and, if there was not, the events that the validator received.
+   */
+  static private class Result {
+    final boolean valid;
+    final List<String> errors;
+    final boolean fatal;
+    final String transcript;
+
+    Result(boolean valid, Recorder recorder, TranscriptSchema schema) {
+      this.valid = valid;
+      this.errors = recorder.errors;
+      this.fatal = recorder.fatal;
+      // the events before a fatal error depend on how far each parser got
+      this.transcript = fatal ? null : schema.transcript.toString();
+    }
+
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Result))
+        return false;
+      Result other = (Result)obj;
+      if (valid != other.valid || fatal != other.fatal)
+        return false;
+      if (fatal)
+        return true;
+      return errors.equals(other.errors) && transcript.equals(other.transcript);
+    }
+
+    public int hashCode() {
+      return errors.hashCode();
+    }
+
+    public String toString() {
+      return "valid=" + valid + " fatal=" + fatal + " errors=" + errors + " transcript=" + transcript;
+    }
+  }
+
+  static private class Recorder implements ErrorHandler {
+    final List<String> errors = new ArrayList<String>();
+    boolean fatal = false;
+    int warnings = 0;
+
+    public void warning(SAXParseException exception) {
+      warnings++;
+    }
+
+    public void error(SAXParseException exception) {
+      errors.add(exception.getLineNumber() + ":" + exception.getMessage());
+    }
+
+    public void fatalError(SAXParseException exception) {
+      fatal = true;
+    }
+  }
+
+  static private class TranscriptSchemaReader extends AbstractSchemaReader {
+    private final Schema schema;
+
+    TranscriptSchemaReader(Schema schema) {
+      this.schema = schema;
+    }
+
+    public Schema createSchema(SAXSource source, PropertyMap properties) {
+      return schema;
+    }
+
+    public Option getOption(String uri) {
+      return null;
+    }
+  }
+
+  static private class TranscriptSchema extends AbstractSchema {
+    final StringBuilder transcript = new StringBuilder();
+
+    public Validator createValidator(PropertyMap properties) {
+      return new TranscriptValidator(transcript, properties.get(ValidateProperty.ERROR_HANDLER));
+    }
+  }
+
+  /**
+   * Records the events it receives, with adjacent calls to characters coalesced.
+   */
+  static private class TranscriptValidator extends DefaultHandler implements Validator {
+    private final StringBuilder transcript;
+    private final ErrorHandler eh;
+    private final StringBuilder text = new StringBuilder();
+    private final Set<String> endedPrefixes = new TreeSet<String>();
+    private Locator locator;
+
+    TranscriptValidator(StringBuilder transcript, ErrorHandler eh) {
+      this.transcript = transcript;
+      this.eh = eh;
+    }
+
+    public ContentHandler getContentHandler() {
+      return this;
+    }
+
+    public DTDHandler getDTDHandler() {
+      return null;
+    }
+
+    public void reset() {
+      text.setLength(0);
+      endedPrefixes.clear();
+    }
+
+    public void setDocumentLocator(Locator locator) {
+      this.locator = locator;
+    }
+
+    public void startDocument() {
+      transcript.append("start\n");
+    }
+
+    public void endDocument() throws SAXException {
+      flushText();
+      transcript.append("end\n");
+    }
+
+    public void startPrefixMapping(String prefix, String uri) throws SAXException {
+      flushText();
+      transcript.append("xmlns:").append(prefix).append('=').append(uri).append('\n');
+    }
+
+    public void endPrefixMapping(String prefix) {
+      // SAX does not specify the order in which the mappings of an element are ended
+      endedPrefixes.add(prefix);
+    }
+
+    public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+      flushText();
+      transcript.append('<').append('{').append(uri).append('}').append(localName).append(' ').append(qName);
+      Map<String, String> sorted = new TreeMap<String, String>();
+      for (int i = 0; i < atts.getLength(); i++) {
+        sorted.put("{" + atts.getURI(i) + "}" + atts.getLocalName(i) + " " + atts.getQName(i), atts.getValue(i));
+        if (atts.getLocalName(i).equals("bad"))
+          error("bad attribute");
+      }
+      for (Map.Entry<String, String> entry : sorted.entrySet())
+        transcript.append(' ').append(entry.getKey()).append("=[").append(entry.getValue()).append(']');
+      transcript.append('\n');
+      if (localName.equals("bad"))
+        error("bad element");
+    }
+
+    public void endElement(String uri, String localName, String qName) throws SAXException {
+      flushText();
+      transcript.append("</").append(qName).append('\n');
+    }
+
+    public void characters(char[] ch, int start, int length) {
+      text.append(ch, start, length);
+    }
+
+    public void ignorableWhitespace(char[] ch, int start, int length) {
+      text.append(ch, start, length);
+    }
+
+    public void processingInstruction(String target, String data) throws SAXException {
+      flushText();
+      transcript.append("<?").append(target).append(' ').append(data).append('\n');
+    }
+
+    public void skippedEntity(String name) throws SAXException {
+      flushText();
+      transcript.append('&').append(name).append('\n');
+    }
+
+    private void flushText() throws SAXException {
+      for (String prefix : endedPrefixes)
+        transcript.append("/xmlns:").append(prefix).append('\n');
+      endedPrefixes.clear();
+      if (text.length() == 0)
+        return;
+      transcript.append("text[").append(text).append("]\n");
+      if (text.indexOf("bad") >= 0)
+        error("bad text");
+      text.setLength(0);
+    }
+
+    private void error(String message) throws SAXException {
+      eh.error(new SAXParseException(message, locator));
+    }
+  }
+
+  static private String repeat(String s, int n) {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < n; i++)
+      builder.append(s);
+    return builder.toString();
+  }
+}
@@ -0,0 +1,149 @@
+package com.thaiopensource.validate;
+
+import com.thaiopensource.resolver.DependencyCache;
+import com.thaiopensource.resolver.RecordingResolver;
+import com.thaiopensource.util.PropertyId;
+import com.thaiopensource.util.PropertyMap;
+import com.thaiopensource.util.PropertyMapBuilder;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import javax.xml.transform.sax.SAXSource;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A cache of schemas, keyed by the system identifier of the schema, the class of the
+ * <code>SchemaReader</code> and the properties used to create the schema.
+ * A cached schema is used only as long as none of the documents from which it was
+ * created (including any included documents) has changed.  Each time a schema is looked up,
+ * the modification time and length of its local files are checked; at most once in the revalidation
+ * interval, a digest of each small local file is compared as well, and the other documents are checked,
+ * which needs a request to the server for each; see <code>DependencyCache</code>.
+ * The <code>ERROR_HANDLER</code> property is not part of the key; errors and warnings
+ * are reported only when a schema is actually read.  Other property values are compared
+ * using <code>equals</code>, so the same schema read with, for example, different resolver objects
+ * is cached separately.  The number of schemas cached is limited; when the limit is reached,
+ * the least recently used schema is removed.
+ * A single <code>SchemaCache</code> object is safe for concurrent access by multiple threads.
+ *
+ * @see ValidateProperty#SCHEMA_CACHE
+ * @see com.thaiopensource.resolver.Dependencies
+ */
+public class SchemaCache {
+  static private final SchemaCache sharedInstance = new SchemaCache();
+  private final DependencyCache<Key, Schema> cache;
+
+  static private class Key {
+    private final Class<?> schemaReaderClass;
+    private final String systemId;
+    private final Map<PropertyId<?>, Object> properties = new HashMap<PropertyId<?>, Object>();
+    private final int hashCode;
+
+    private Key(SchemaReader sr, String systemId, PropertyMap properties) {
+      this.schemaReaderClass = sr.getClass();
+      this.systemId = systemId;
+      for (int i = 0, len = properties.size(); i < len; i++) {
+        PropertyId<?> pid = properties.getKey(i);
+        if (pid != ValidateProperty.ERROR_HANDLER && pid != ValidateProperty.SCHEMA_CACHE)
+          this.properties.put(pid, properties.get(pid));
+      }
+      this.hashCode = schemaReaderClass.hashCode() ^ systemId.hashCode() ^ this.properties.hashCode();
+    }
+
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key))
+        return false;
+      Key other = (Key)obj;
+      return (hashCode == other.hashCode
+              && schemaReaderClass == other.schemaReaderClass
+              && systemId.equals(other.systemId)
+              && properties.equals(other.properties));
+    }
+
+    public int hashCode() {
+      return hashCode;
+    }
+  }
+
+  /**
+   * Creates a cache that holds at most <code>DependencyCache.DEFAULT_MAX_ENTRIES</code> schemas,
+   * revalidated every <code>DependencyCache.DEFAULT_REVALIDATE_INTERVAL</code> milliseconds.
+   */
+  public SchemaCache() {
+    this(DependencyCache.DEFAULT_MAX_ENTRIES);
+  }
+
+  /**
+   * Creates a cache that holds a limited number of schemas, revalidated every
+   * <code>DependencyCache.DEFAULT_REVALIDATE_INTERVAL</code> milliseconds.
+   *
+   * @param maxSchemas the maximum number of schemas to cache; must be positive
+   */
+  public SchemaCache(int maxSchemas) {
+    this(maxSchemas, DependencyCache.DEFAULT_REVALIDATE_INTERVAL);
+  }
+
+  /**
+   * Creates a cache that holds a limited number of schemas.
+   *
+   * @param maxSchemas the maximum number of schemas to cache; must be positive
+   * @param revalidateInterval the minimum interval in milliseconds between revalidations of a schema;
+   * 0 to revalidate a schema each time it is looked up; negative never to revalidate
+   * @see DependencyCache#DependencyCache(int, long)
+   */
+  public SchemaCache(int maxSchemas, long revalidateInterval) {
+    cache = new DependencyCache<Key, Schema>(maxSchemas, revalidateInterval);
+  }
+
+  /**
+   * Returns a process-wide instance, which holds at most <code>DependencyCache.DEFAULT_MAX_ENTRIES</code>
+   * schemas.
+   *
+   * @return the shared <code>SchemaCache</code>
+   */
+  static public SchemaCache getSharedInstance() {
+    return sharedInstance;
+  }
+
+  /**
+   * Returns a cached schema or creates a schema using a <code>SchemaReader</code>.
+   * A schema is cached only if <code>in</code> specifies the schema by its system identifier
+   * alone, rather than by a byte stream or character stream, and the state of every document
+   * read can be determined.
+   *
+   * @param sr the <code>SchemaReader</code> to use to create the schema
+   * @param in the <code>InputSource</code> for the schema
+   * @param properties the properties to pass to <code>sr</code>
+   * @return the schema; never <code>null</code>
+   * @throws IOException if an I/O error occurred
+   * @throws SAXException if an XMLReader or ErrorHandler threw a SAXException
+   * @throws IncorrectSchemaException if the schema is incorrect
+   * @see SchemaReader#createSchema(SAXSource, PropertyMap)
+   */
+  public Schema createSchema(SchemaReader sr, InputSource in, PropertyMap properties)
+          throws IOException, SAXException, IncorrectSchemaException {
+    String systemId = in.getSystemId();
+    if (systemId == null || in.getByteStream() != null || in.getCharacterStream() != null)
+      return sr.createSchema(new SAXSource(in), properties);
+    Key key = new Key(sr, systemId, properties);
+    Schema schema = cache.get(key);
+    if (schema != null)
+      return schema;
+    RecordingResolver recorder = new RecordingResolver(properties.get(ValidateProperty.RESOLVER));
+    recorder.record(systemId);
+    PropertyMapBuilder builder = new PropertyMapBuilder(properties);
+    builder.put(ValidateProperty.RESOLVER, recorder);
+    schema = sr.createSchema(new SAXSource(in), builder.toPropertyMap());
+    cache.put(key, schema, recorder.finish());
+    return schema;
+  }
+
+  /**
+   * Removes all schemas from this cache.
+   */
+  public void clear() {
+    cache.clear();
+  }
+}
@@ -67,4 +67,15 @@ public class ValidateProperty {
    */
   public static final PropertyId<XMLReaderCreator> XML_READER_CREATOR
           = PropertyId.newInstance("XML_READER_CREATOR", XMLReaderCreator.class);
+
+  /**
+   * Property specifying SchemaCache to be used by <code>ValidationDriver</code> when loading
+   * schemas. The value to which this PropertyId maps must be an instance of SchemaCache.
+   * If this property is not present, schemas are not cached.
+   *
+   * @see SchemaCache
+   * @see ValidationDriver#loadSchema
+   */
+  public static final PropertyId<SchemaCache> SCHEMA_CACHE
+          = PropertyId.newInstance("SCHEMA_CACHE", SchemaCache.class);
 }
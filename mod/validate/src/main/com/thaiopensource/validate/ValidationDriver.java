@@ -1,5 +1,6 @@
 package com.thaiopensource.validate;
 
+import com.thaiopensource.resolver.xml.sax.SAXResolver;
 import com.thaiopensource.util.PropertyMap;
 import com.thaiopensource.util.PropertyMapBuilder;
 import com.thaiopensource.util.UriOrFile;
@@ -24,6 +25,7 @@ import java.io.IOException;
  */
 
 public class ValidationDriver {
+  private SAXResolver resolver;
   private XMLReader xr;
   private final CountingErrorHandler eh;
   private final SchemaReader sr;
@@ -115,15 +117,22 @@ public class ValidationDriver {
    * Loads a schema. Subsequent calls to <code>validate</code> will validate with
    * respect the loaded schema. This can be called more than once to allow
    * multiple documents to be validated against different schemas.
+   * If the schema properties include <code>ValidateProperty.SCHEMA_CACHE</code>,
+   * a cached schema will be used if the documents from which it was created are unchanged.
    *
    * @param in the InputSource for the schema
    * @return <code>true</code> if the schema was loaded successfully; <code>false</code> otherwise
    * @throws IOException if an I/O error occurred
    * @throws SAXException if an XMLReader or ErrorHandler threw a SAXException
+   * @see ValidateProperty#SCHEMA_CACHE
    */
   public boolean loadSchema(InputSource in) throws SAXException, IOException {
     try {
-      schema = sr.createSchema(new SAXSource(in), schemaProperties);
+      SchemaCache cache = schemaProperties.get(ValidateProperty.SCHEMA_CACHE);
+      if (cache != null)
+        schema = cache.createSchema(sr, in, schemaProperties);
+      else
+        schema = sr.createSchema(new SAXSource(in), schemaProperties);
       validator = null;
       return true;
     }
@@ -148,7 +157,8 @@ public class ValidationDriver {
     if (validator == null)
       validator = schema.createValidator(instanceProperties);
     if (xr == null) {
-      xr = ResolverFactory.createResolver(instanceProperties).createXMLReader();
+      resolver = ResolverFactory.createResolver(instanceProperties);
+      xr = resolver.createXMLReader();
       xr.setErrorHandler(eh);
     }
     eh.reset();
@@ -157,7 +167,7 @@ public class ValidationDriver {
     if (dh != null)
       xr.setDTDHandler(dh);
     try {
-      xr.parse(in);
+      resolver.parse(xr, in);
       return !eh.getHadErrorOrFatalError();
     }
     finally {
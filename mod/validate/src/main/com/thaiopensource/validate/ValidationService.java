@@ -0,0 +1,222 @@
+package com.thaiopensource.validate;
+
+import com.thaiopensource.resolver.xml.sax.SAXResolver;
+import com.thaiopensource.util.PropertyMap;
+import com.thaiopensource.util.PropertyMapBuilder;
+import com.thaiopensource.util.Threads;
+import com.thaiopensource.util.UriOrFile;
+import com.thaiopensource.xml.sax.CountingErrorHandler;
+import com.thaiopensource.xml.sax.ErrorHandlerImpl;
+import org.xml.sax.DTDHandler;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Validates many documents concurrently against a single <code>Schema</code>.
+ * Unlike <code>ValidationDriver</code>, this class is safe for access from multiple threads.
+ *
+ * <p>Each document is validated by a separate task.  A task takes a <code>Validator</code> and
+ * <code>XMLReader</code> that no other task is using, or creates them if there are none, and
+ * gives them back, after resetting the <code>Validator</code>, when the document has been validated;
+ * so no more are created than the greatest number of documents validated at one time.
+ * On a JRE that has virtual threads, each task runs in its own virtual
+ * thread; otherwise the tasks are run by a pool of platform threads.  The number of documents
+ * that have been submitted but whose validation has not completed is limited: when the limit
+ * is reached, <code>submit</code> blocks until the validation of a document completes.
+ *
+ * @see ValidationDriver
+ */
+public class ValidationService {
+  static private final int DEFAULT_MAX_IN_FLIGHT = 256;
+  static private final Logger logger = Logger.getLogger(ValidationService.class.getName());
+  private final Schema schema;
+  private final PropertyMap instanceProperties;
+  private final ErrorHandler defaultErrorHandler;
+  private final Semaphore inFlight;
+  private final ExecutorService executor;
+  private final ConcurrentLinkedQueue<Worker> idleWorkers = new ConcurrentLinkedQueue<Worker>();
+
+  /**
+   * Creates a ValidationService.
+   *
+   * @param schema the Schema against which documents are to be validated; must not be <code>null</code>
+   * @param instanceProperties a PropertyMap specifying properties controlling validation;
+   * must not be <code>null</code>
+   * @param maxInFlight the maximum number of documents that may have been submitted without their
+   * validation having completed; must be positive
+   */
+  public ValidationService(Schema schema, PropertyMap instanceProperties, int maxInFlight) {
+    if (maxInFlight <= 0)
+      throw new IllegalArgumentException("maxInFlight must be positive");
+    this.schema = schema;
+    this.instanceProperties = instanceProperties;
+    ErrorHandler eh = instanceProperties.get(ValidateProperty.ERROR_HANDLER);
+    this.defaultErrorHandler = eh == null ? new ErrorHandlerImpl() : eh;
+    this.inFlight = new Semaphore(maxInFlight);
+    this.executor = createExecutor(maxInFlight);
+  }
+
+  /**
+   * Equivalent to ValidationService(schema, instanceProperties, 256).
+   *
+   * @see #ValidationService(Schema,PropertyMap,int)
+   */
+  public ValidationService(Schema schema, PropertyMap instanceProperties) {
+    this(schema, instanceProperties, DEFAULT_MAX_IN_FLIGHT);
+  }
+
+  /**
+   * Submits a document for validation.  The result of the returned <code>Future</code> is
+   * <code>true</code> if the document is valid and <code>false</code> otherwise.  If an
+   * <code>IOException</code> or <code>SAXException</code> is thrown during validation,
+   * the <code>Future</code> throws an <code>ExecutionException</code> whose cause is that exception.
+   *
+   * @param in the InputSource for the document to be validated
+   * @param eh the ErrorHandler to which errors in the document are to be reported; if this is
+   * <code>null</code>, then the <code>ValidateProperty.ERROR_HANDLER</code> property is used, in which
+   * case it will be called from multiple threads
+   * @return a Future for the result of the validation
+   * @throws InterruptedException if the current thread was interrupted while waiting for
+   * the validation of another document to complete
+   * @throws RejectedExecutionException if the service has been shut down
+   */
+  public Future<Boolean> submit(final InputSource in, ErrorHandler eh) throws InterruptedException {
+    final ErrorHandler documentErrorHandler = eh == null ? defaultErrorHandler : eh;
+    inFlight.acquire();
+    try {
+      return executor.submit(new Callable<Boolean>() {
+        public Boolean call() throws SAXException, IOException {
+          try {
+            return validate(in, documentErrorHandler);
+          }
+          finally {
+            inFlight.release();
+          }
+        }
+      });
+    }
+    catch (RejectedExecutionException e) {
+      inFlight.release();
+      throw e;
+    }
+  }
+
+  /**
+   * Submits a document specified by a string that represents either a file or an absolute URI.
+   *
+   * @see #submit(InputSource,ErrorHandler)
+   * @see ValidationDriver#uriOrFileInputSource(String)
+   */
+  public Future<Boolean> submit(String uriOrFile, ErrorHandler eh) throws InterruptedException {
+    return submit(new InputSource(UriOrFile.toUri(uriOrFile)), eh);
+  }
+
+  /**
+   * Stops accepting documents.  Documents that have already been submitted are still validated.
+   */
+  public void shutdown() {
+    executor.shutdown();
+  }
+
+  /**
+   * Blocks until the validation of all submitted documents has completed after a shutdown,
+   * or the timeout occurs.
+   *
+   * @return <code>true</code> if validation completed; <code>false</code> if the timeout elapsed first
+   * @throws InterruptedException if the current thread was interrupted while waiting
+   */
+  public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    return executor.awaitTermination(timeout, unit);
+  }
+
+  private boolean validate(InputSource in, ErrorHandler documentErrorHandler) throws SAXException, IOException {
+    Worker worker = idleWorkers.poll();
+    if (worker == null)
+      worker = new Worker();
+    try {
+      return worker.validate(in, documentErrorHandler);
+    }
+    finally {
+      idleWorkers.add(worker);
+    }
+  }
+
+  /**
+   * The objects used to validate one document at a time, in the same way as by
+   * <code>ValidationDriver</code>.
+   */
+  private class Worker {
+    // errors go to the ErrorHandler of the document being validated
+    private final CountingErrorHandler eh = new CountingErrorHandler();
+    private final Validator validator;
+    private final SAXResolver resolver;
+    private final XMLReader xr;
+
+    Worker() throws SAXException {
+      PropertyMapBuilder builder = new PropertyMapBuilder(instanceProperties);
+      builder.put(ValidateProperty.ERROR_HANDLER, eh);
+      PropertyMap properties = builder.toPropertyMap();
+      validator = schema.createValidator(properties);
+      resolver = ResolverFactory.createResolver(properties);
+      xr = resolver.createXMLReader();
+      xr.setErrorHandler(eh);
+    }
+
+    boolean validate(InputSource in, ErrorHandler documentErrorHandler) throws SAXException, IOException {
+      eh.setErrorHandler(documentErrorHandler);
+      eh.reset();
+      xr.setContentHandler(validator.getContentHandler());
+      DTDHandler dh = validator.getDTDHandler();
+      if (dh != null)
+        xr.setDTDHandler(dh);
+      try {
+        resolver.parse(xr, in);
+        return !eh.getHadErrorOrFatalError();
+      }
+      finally {
+        validator.reset();
+        eh.setErrorHandler(null);
+      }
+    }
+  }
+
+  /**
+   * Uses Executors.newVirtualThreadPerTaskExecutor if it exists; the semaphore then limits the
+   * number of threads.  Otherwise, uses a fixed pool of daemon threads, twice as many as the
+   * number of processors, so that documents whose input is slow to arrive do not leave processors idle.
+   */
+  static private ExecutorService createExecutor(int maxInFlight) {
+    try {
+      Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService)method.invoke(null);
+    }
+    catch (NoSuchMethodException e) {
+      // a JRE before 21
+      logger.log(Level.FINE, "virtual threads not available", e);
+    }
+    catch (IllegalAccessException e) {
+      logger.log(Level.WARNING, "cannot create executor for virtual threads", e);
+    }
+    catch (InvocationTargetException e) {
+      logger.log(Level.WARNING, "cannot create executor for virtual threads", e.getCause());
+    }
+    int nThreads = Math.min(maxInFlight, Runtime.getRuntime().availableProcessors() * 2);
+    return Executors.newFixedThreadPool(nThreads, Threads.daemonThreadFactory());
+  }
+}
@@ -17,6 +17,8 @@ import org.xml.sax.XMLReader;
 import javax.xml.transform.sax.SAXSource;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.io.PushbackReader;
 
 public class AutoSchemaReader extends AbstractSchemaReader {
   private final SchemaReceiverFactory srf;
@@ -38,6 +40,44 @@ public class AutoSchemaReader extends AbstractSchemaReader {
     }
     SAXResolver resolver = ResolverFactory.createResolver(properties);
     InputSource in = resolver.open(source.getInputSource());
+    // look at the start of the document to choose the schema language before parsing,
+    // so that we don't need to buffer the document in case it needs reparsing
+    String namespaceUri;
+    if (in.getCharacterStream() != null) {
+      PushbackReader reader = new PushbackReader(in.getCharacterStream(), NamespaceSniffer.LOOKAHEAD);
+      in.setCharacterStream(reader);
+      namespaceUri = NamespaceSniffer.sniff(reader);
+    }
+    else {
+      PushbackInputStream byteStream = new PushbackInputStream(in.getByteStream(), NamespaceSniffer.LOOKAHEAD);
+      in.setByteStream(byteStream);
+      namespaceUri = NamespaceSniffer.sniff(byteStream);
+    }
+    XMLReader xr = source.getXMLReader();
+    if (xr == null)
+      xr = resolver.createXMLReader();
+    ErrorHandler eh = properties.get(ValidateProperty.ERROR_HANDLER);
+    if (eh != null)
+      xr.setErrorHandler(eh);
+    SchemaReceiver sr = null;
+    if (namespaceUri != null)
+      sr = srf.createSchemaReceiver(namespaceUri, properties);
+    if (sr != null) {
+      SchemaFuture sf;
+      try {
+        sf = sr.installHandlers(xr);
+      }
+      catch (ReparseException e) {
+        // nothing has been parsed yet
+        return e.reparse(new SAXSource(xr, in));
+      }
+      return parse(xr, in, sf);
+    }
+    return parseRewindable(xr, in, properties);
+  }
+
+  private Schema parseRewindable(XMLReader xr, InputSource in, PropertyMap properties)
+          throws IOException, SAXException, IncorrectSchemaException {
     InputSource in2 = new InputSource();
     in2.setSystemId(in.getSystemId());
     in2.setPublicId(in.getPublicId());
@@ -57,26 +97,25 @@ public class AutoSchemaReader extends AbstractSchemaReader {
       rewindable = rewindableByteStream;
     }
     SchemaReceiver sr = new AutoSchemaReceiver(properties, rewindable);
-    XMLReader xr = source.getXMLReader();
-    if (xr == null)
-      xr = resolver.createXMLReader();
-    ErrorHandler eh = properties.get(ValidateProperty.ERROR_HANDLER);
-    if (eh != null)
-      xr.setErrorHandler(eh);
     SchemaFuture sf = sr.installHandlers(xr);
     try {
-      try {
-        xr.parse(in);
-        return sf.getSchema();
-      }
-      catch (ReparseException e) {
-        rewindable.rewind();
-        rewindable.willNotRewind();
-        return e.reparse(new SAXSource(xr, in2));
-      }
-      finally {
-        rewindable.willNotRewind();
-      }
+      return parse(xr, in, sf);
+    }
+    catch (ReparseException e) {
+      rewindable.rewind();
+      rewindable.willNotRewind();
+      return e.reparse(new SAXSource(xr, in2));
+    }
+    finally {
+      rewindable.willNotRewind();
+    }
+  }
+
+  private static Schema parse(XMLReader xr, InputSource in, SchemaFuture sf)
+          throws IOException, SAXException, IncorrectSchemaException {
+    try {
+      xr.parse(in);
+      return sf.getSchema();
     }
     catch (SAXException e) {
       // Work around broken SAX parsers that catch and wrap runtime exceptions thrown by handlers
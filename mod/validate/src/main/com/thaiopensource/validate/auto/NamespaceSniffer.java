@@ -0,0 +1,201 @@
+package com.thaiopensource.validate.auto;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.io.PushbackReader;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Determines the namespace URI of the document element by looking at no more than the first
+ * few KB of a document, without using an XML parser. This is deliberately conservative:
+ * anything out of the ordinary (a DOCTYPE declaration, which might default a namespace
+ * declaration, references in namespace declarations, non-ASCII bytes in an ASCII-compatible encoding)
+ * makes it give up.
+ */
+class NamespaceSniffer {
+  static final int LOOKAHEAD = 4096;
+
+  private final String str;
+  private final boolean asciiOnly;
+  private int pos = 0;
+
+  private NamespaceSniffer(String str, boolean asciiOnly) {
+    this.str = str;
+    this.asciiOnly = asciiOnly;
+  }
+
+  /**
+   * Sniffs a byte stream. The bytes read are pushed back.
+   * @return the namespace URI of the document element, "" if it has none, or null if it could
+   * not be determined
+   */
+  static String sniff(PushbackInputStream in) throws IOException {
+    byte[] buf = new byte[LOOKAHEAD];
+    int len = fill(in, buf);
+    if (len > 0)
+      in.unread(buf, 0, len);
+    String str;
+    boolean asciiOnly = false;
+    try {
+      if (len >= 2 && ((buf[0] == (byte)0xFE && buf[1] == (byte)0xFF) || (buf[0] == 0 && buf[1] == '<')))
+        str = new String(buf, 0, len & ~1, "UTF-16BE");
+      else if (len >= 2 && ((buf[0] == (byte)0xFF && buf[1] == (byte)0xFE) || (buf[0] == '<' && buf[1] == 0)))
+        str = new String(buf, 0, len & ~1, "UTF-16LE");
+      else {
+        int start = 0;
+        if (len >= 3 && buf[0] == (byte)0xEF && buf[1] == (byte)0xBB && buf[2] == (byte)0xBF)
+          start = 3;
+        str = new String(buf, start, len - start, "ISO-8859-1");
+        asciiOnly = true;
+      }
+    }
+    catch (UnsupportedEncodingException e) {
+      return null;
+    }
+    return new NamespaceSniffer(str, asciiOnly).sniff();
+  }
+
+  /**
+   * Sniffs a character stream. The characters read are pushed back.
+   * @return the namespace URI of the document element, "" if it has none, or null if it could
+   * not be determined
+   */
+  static String sniff(PushbackReader in) throws IOException {
+    char[] buf = new char[LOOKAHEAD];
+    int len = fill(in, buf);
+    if (len > 0)
+      in.unread(buf, 0, len);
+    return new NamespaceSniffer(new String(buf, 0, len), false).sniff();
+  }
+
+  private static int fill(InputStream in, byte[] buf) throws IOException {
+    int len = 0;
+    while (len < buf.length) {
+      int n = in.read(buf, len, buf.length - len);
+      if (n < 0)
+        break;
+      len += n;
+    }
+    return len;
+  }
+
+  private static int fill(Reader in, char[] buf) throws IOException {
+    int len = 0;
+    while (len < buf.length) {
+      int n = in.read(buf, len, buf.length - len);
+      if (n < 0)
+        break;
+      len += n;
+    }
+    return len;
+  }
+
+  private String sniff() {
+    if (str.startsWith("\uFEFF"))
+      pos = 1;
+    for (;;) {
+      skipSpace();
+      if (str.startsWith("<?", pos)) {
+        if (!skipPast("?>"))
+          return null;
+      }
+      else if (str.startsWith("<!--", pos)) {
+        if (!skipPast("-->"))
+          return null;
+      }
+      else if (str.startsWith("<!", pos) || !str.startsWith("<", pos))
+        return null;
+      else {
+        pos++;
+        return startTag();
+      }
+    }
+  }
+
+  private String startTag() {
+    String qName = name();
+    if (qName == null)
+      return null;
+    int colon = qName.indexOf(':');
+    String prefix = colon < 0 ? null : qName.substring(0, colon);
+    String ns = prefix == null ? "" : null;
+    for (;;) {
+      boolean hadSpace = skipSpace();
+      if (pos >= str.length())
+        return null;
+      char c = str.charAt(pos);
+      if (c == '>' || c == '/')
+        break;
+      if (!hadSpace)
+        return null;
+      String attName = name();
+      if (attName == null)
+        return null;
+      skipSpace();
+      if (pos >= str.length() || str.charAt(pos) != '=')
+        return null;
+      pos++;
+      skipSpace();
+      if (pos >= str.length())
+        return null;
+      char quote = str.charAt(pos);
+      if (quote != '"' && quote != '\'')
+        return null;
+      int end = str.indexOf(quote, ++pos);
+      if (end < 0)
+        return null;
+      String value = str.substring(pos, end);
+      pos = end + 1;
+      if (value.indexOf('&') >= 0 || value.indexOf('<') >= 0)
+        return null;
+      if (prefix == null ? attName.equals("xmlns") : attName.equals("xmlns:" + prefix))
+        ns = value;
+    }
+    if (asciiOnly) {
+      for (int i = 0; i < pos; i++)
+        if (str.charAt(i) > 0x7F)
+          return null;
+    }
+    return ns;
+  }
+
+  private String name() {
+    int start = pos;
+    for (int len = str.length(); pos < len; pos++) {
+      char c = str.charAt(pos);
+      if (isSpace(c) || c == '=' || c == '>' || c == '/' || c == '<' || c == '"' || c == '\'')
+        break;
+    }
+    if (pos == start)
+      return null;
+    return str.substring(start, pos);
+  }
+
+  private boolean skipPast(String delim) {
+    int i = str.indexOf(delim, pos);
+    if (i < 0)
+      return false;
+    pos = i + delim.length();
+    return true;
+  }
+
+  private boolean skipSpace() {
+    int start = pos;
+    for (int len = str.length(); pos < len && isSpace(str.charAt(pos)); pos++)
+      ;
+    return pos > start;
+  }
+
+  private static boolean isSpace(char c) {
+    switch (c) {
+    case ' ':
+    case '\t':
+    case '\r':
+    case '\n':
+      return true;
+    }
+    return false;
+  }
+}
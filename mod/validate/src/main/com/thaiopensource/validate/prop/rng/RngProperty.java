@@ -8,6 +8,8 @@ import com.thaiopensource.validate.SchemaReader;
 import com.thaiopensource.validate.StringPropertyId;
 import org.relaxng.datatype.DatatypeLibraryFactory;
 
+import java.util.concurrent.Executor;
+
 public class RngProperty {
 
   private RngProperty() { }
@@ -17,6 +19,29 @@ public class RngProperty {
   public static final FlagPropertyId CHECK_ID_IDREF = new FlagPropertyId("CHECK_ID_IDREF");
   public static final FlagPropertyId FEASIBLE = new FlagPropertyId("FEASIBLE");
   public static final StringPropertyId SIMPLIFIED_SCHEMA = new StringPropertyId("SIMPLIFIED_SCHEMA");
+  /**
+   * If present, documents are validated using several threads, by splitting them at the
+   * elements nested at the specified depth; 1 splits at the children of the document element.
+   */
+  public static final PropertyId<Integer> PARALLEL_SPLIT_DEPTH
+          = PropertyId.newInstance("PARALLEL_SPLIT_DEPTH", Integer.class);
+  /**
+   * The executor used to validate the parts of documents split because of PARALLEL_SPLIT_DEPTH.
+   * If absent, an executor shared by all validators is used.  This is an instance property.
+   */
+  public static final PropertyId<Executor> EXECUTOR
+          = PropertyId.newInstance("EXECUTOR", Executor.class);
+  /**
+   * If present, no more than the specified number of errors are reported for each document; 1 stops
+   * at the first error.  The errors found by checking ID/IDREF/IDREFS count towards the limit.
+   * Once the limit is reached, the rest of the document is not matched against the patterns of the
+   * schema, except with PARALLEL_SPLIT_DEPTH, where the whole document is still matched but the errors
+   * beyond the limit are not reported.  The document is still parsed to the end, since a validator
+   * cannot stop the parser, so the parser still reports any well-formedness errors.
+   * This is an instance property.
+   */
+  public static final PropertyId<Integer> MAX_ERRORS
+          = PropertyId.newInstance("MAX_ERRORS", Integer.class);
 
   public static Option getOption(String uri) {
     if (!uri.startsWith(SchemaReader.BASE_URI))
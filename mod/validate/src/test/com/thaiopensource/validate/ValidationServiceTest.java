@@ -0,0 +1,170 @@
+package com.thaiopensource.validate;
+
+import com.thaiopensource.util.PropertyMap;
+import com.thaiopensource.util.PropertyMapBuilder;
+import com.thaiopensource.xml.sax.CountingErrorHandler;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.DTDHandler;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ValidationServiceTest {
+  static private final int N_DOCUMENTS = 200;
+
+  /**
+   * A schema that allows any document without an element named bad.  It counts the validators it
+   * creates, and checks that each is reset before it is used for another document.
+   */
+  static private class CountingSchema extends AbstractSchema {
+    final AtomicInteger created = new AtomicInteger();
+    final AtomicInteger notReset = new AtomicInteger();
+
+    public Validator createValidator(PropertyMap properties) {
+      created.incrementAndGet();
+      return new CountingValidator(properties.get(ValidateProperty.ERROR_HANDLER), notReset);
+    }
+  }
+
+  static private class CountingValidator extends DefaultHandler implements Validator {
+    private final ErrorHandler eh;
+    private final AtomicInteger notReset;
+    private Locator locator;
+    private boolean inUse = false;
+
+    CountingValidator(ErrorHandler eh, AtomicInteger notReset) {
+      this.eh = eh;
+      this.notReset = notReset;
+    }
+
+    public ContentHandler getContentHandler() {
+      return this;
+    }
+
+    public DTDHandler getDTDHandler() {
+      return null;
+    }
+
+    public void reset() {
+      inUse = false;
+      locator = null;
+    }
+
+    public void setDocumentLocator(Locator locator) {
+      this.locator = locator;
+    }
+
+    public void startDocument() {
+      if (inUse)
+        notReset.incrementAndGet();
+      inUse = true;
+    }
+
+    public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+      if (localName.equals("bad"))
+        eh.error(new SAXParseException("bad element", locator));
+    }
+  }
+
+  static private String document(int i) {
+    return i % 3 == 0 ? "<doc><bad/><bad/></doc>" : "<doc><ok/></doc>";
+  }
+
+  @Test
+  public void testValidate() throws Exception {
+    CountingSchema schema = new CountingSchema();
+    int maxInFlight = 4;
+    ValidationService service = new ValidationService(schema, PropertyMap.EMPTY, maxInFlight);
+    List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+    List<CountingErrorHandler> handlers = new ArrayList<CountingErrorHandler>();
+    for (int i = 0; i < N_DOCUMENTS; i++) {
+      CountingErrorHandler eh = new CountingErrorHandler();
+      handlers.add(eh);
+      results.add(service.submit(new InputSource(new StringReader(document(i))), eh));
+    }
+    service.shutdown();
+    Assert.assertTrue(service.awaitTermination(1, TimeUnit.MINUTES));
+    for (int i = 0; i < N_DOCUMENTS; i++) {
+      boolean valid = i % 3 != 0;
+      Assert.assertEquals(results.get(i).get(), Boolean.valueOf(valid), "document " + i);
+      Assert.assertEquals(handlers.get(i).getErrorCount(), valid ? 0 : 2, "document " + i);
+    }
+    // a validator is used again once its document has been validated
+    Assert.assertTrue(schema.created.get() >= 1);
+    Assert.assertTrue(schema.created.get() <= maxInFlight, "created " + schema.created.get());
+    Assert.assertEquals(schema.notReset.get(), 0);
+  }
+
+  @Test
+  public void testDefaultErrorHandler() throws Exception {
+    CountingSchema schema = new CountingSchema();
+    CountingErrorHandler eh = new CountingErrorHandler();
+    PropertyMapBuilder builder = new PropertyMapBuilder();
+    builder.put(ValidateProperty.ERROR_HANDLER, eh);
+    ValidationService service = new ValidationService(schema, builder.toPropertyMap(), 1);
+    Assert.assertFalse(service.submit(new InputSource(new StringReader(document(0))), null).get());
+    Assert.assertTrue(service.submit(new InputSource(new StringReader(document(1))), null).get());
+    service.shutdown();
+    Assert.assertEquals(eh.getErrorCount(), 2);
+    Assert.assertEquals(schema.created.get(), 1);
+  }
+
+  @Test
+  public void testFatalError() throws Exception {
+    CountingSchema schema = new CountingSchema();
+    ValidationService service = new ValidationService(schema, PropertyMap.EMPTY, 1);
+    CountingErrorHandler eh = new CountingErrorHandler();
+    try {
+      service.submit(new InputSource(new StringReader("<doc>")), eh).get();
+      Assert.fail("malformed document accepted");
+    }
+    catch (ExecutionException e) {
+      Assert.assertTrue(e.getCause() instanceof SAXParseException, e.getCause().toString());
+    }
+    Assert.assertEquals(eh.getFatalErrorCount(), 1);
+    // the validator abandoned by the fatal error is reset and used for the next document
+    eh = new CountingErrorHandler();
+    Assert.assertFalse(service.submit(new InputSource(new StringReader(document(0))), eh).get());
+    Assert.assertEquals(eh.getErrorCount(), 2);
+    Assert.assertEquals(eh.getFatalErrorCount(), 0);
+    service.shutdown();
+    Assert.assertEquals(schema.created.get(), 1);
+    Assert.assertEquals(schema.notReset.get(), 0);
+  }
+
+  @Test
+  public void testShutdown() throws Exception {
+    ValidationService service = new ValidationService(new CountingSchema(), PropertyMap.EMPTY, 1);
+    service.shutdown();
+    // a rejected document must not keep its place, or the second submit would block
+    for (int i = 0; i < 2; i++) {
+      try {
+        service.submit(new InputSource(new StringReader(document(1))), null);
+        Assert.fail("document accepted after shutdown");
+      }
+      catch (RejectedExecutionException e) {
+      }
+    }
+    Assert.assertTrue(service.awaitTermination(1, TimeUnit.MINUTES));
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void testMaxInFlight() {
+    new ValidationService(new CountingSchema(), PropertyMap.EMPTY, 0);
+  }
+}
@@ -0,0 +1,110 @@
+package com.thaiopensource.validate.auto;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.PushbackInputStream;
+import java.io.PushbackReader;
+import java.io.StringReader;
+
+public class NamespaceSnifferTest {
+  static private final String NS = "http://relaxng.org/ns/structure/1.0";
+
+  @DataProvider(name = "documents")
+  Object[][] createDocuments() {
+    return new Object[][] {
+            { "<grammar xmlns='" + NS + "'/>", NS },
+            { "<grammar/>", "" },
+            { "<?xml version=\"1.0\"?>\n<grammar\n  xmlns=\"" + NS + "\">", NS },
+            { "<!-- a comment -->\n<?pi data?>\n<!-- > -->\n<grammar xmlns='" + NS + "'/>", NS },
+            { "<rng:grammar xmlns='urn:x' xmlns:rng='" + NS + "'/>", NS },
+            { "<rng:grammar xmlns='" + NS + "'/>", null },
+            { "<x:grammar xmlns:rng='" + NS + "' x='1'/>", null },
+            { "<!DOCTYPE grammar [ <!ATTLIST grammar xmlns CDATA '" + NS + "'> ]>\n<grammar/>", null },
+            { "<!DOCTYPE grammar>\n<grammar xmlns='" + NS + "'/>", null },
+            { "<grammar xmlns='&ns;'/>", null },
+            { "<grammar xmlns='" + NS + "'", null },
+            { "<!-- unclosed comment", null },
+            { "text<grammar/>", null },
+    };
+  }
+
+  @Test(dataProvider = "documents")
+  public void testUtf8(String doc, String expected) throws IOException {
+    checkBytes(doc.getBytes("UTF-8"), expected);
+  }
+
+  @Test(dataProvider = "documents")
+  public void testChars(String doc, String expected) throws IOException {
+    PushbackReader reader = new PushbackReader(new StringReader(doc), NamespaceSniffer.LOOKAHEAD);
+    Assert.assertEquals(NamespaceSniffer.sniff(reader), expected);
+    char[] buf = new char[doc.length() + 1];
+    int len = 0;
+    for (int n; (n = reader.read(buf, len, buf.length - len)) > 0;)
+      len += n;
+    Assert.assertEquals(new String(buf, 0, len), doc);
+  }
+
+  @Test
+  public void testNonAscii() throws IOException {
+    String doc = "<grammar xmlns='urn:\u00E9'/>";
+    // the encoding might not be ASCII-compatible
+    checkBytes(doc.getBytes("UTF-8"), null);
+    Assert.assertEquals(NamespaceSniffer.sniff(new PushbackReader(new StringReader(doc), NamespaceSniffer.LOOKAHEAD)),
+                        "urn:\u00E9");
+  }
+
+  @Test
+  public void testUtf16() throws IOException {
+    String doc = "<?xml version='1.0' encoding='UTF-16'?><grammar xmlns='" + NS + "'/>";
+    checkBytes(doc.getBytes("UTF-16BE"), NS);
+    checkBytes(doc.getBytes("UTF-16LE"), NS);
+    checkBytes(concat(new byte[] { (byte)0xFE, (byte)0xFF }, doc.getBytes("UTF-16BE")), NS);
+    checkBytes(concat(new byte[] { (byte)0xFF, (byte)0xFE }, doc.getBytes("UTF-16LE")), NS);
+    // non-ASCII characters are fine in UTF-16
+    checkBytes("<gr\u00E9 xmlns='urn:\u00E9'/>".getBytes("UTF-16BE"), "urn:\u00E9");
+  }
+
+  @Test
+  public void testUtf8ByteOrderMark() throws IOException {
+    byte[] doc = ("<grammar xmlns='" + NS + "'/>").getBytes("UTF-8");
+    checkBytes(concat(new byte[] { (byte)0xEF, (byte)0xBB, (byte)0xBF }, doc), NS);
+  }
+
+  @Test
+  public void testBeyondLookahead() throws IOException {
+    StringBuilder builder = new StringBuilder();
+    builder.append("<!--");
+    while (builder.length() < NamespaceSniffer.LOOKAHEAD)
+      builder.append("padding ");
+    builder.append("-->");
+    String comment = builder.toString();
+    checkBytes((comment + "<grammar xmlns='" + NS + "'/>").getBytes("UTF-8"), null);
+    // the start-tag must end within the lookahead
+    String doc = "<grammar xmlns='" + NS + "' a='" + comment.substring(4, NamespaceSniffer.LOOKAHEAD) + "'/>";
+    checkBytes(doc.getBytes("UTF-8"), null);
+  }
+
+  static private void checkBytes(byte[] doc, String expected) throws IOException {
+    PushbackInputStream in = new PushbackInputStream(new ByteArrayInputStream(doc), NamespaceSniffer.LOOKAHEAD);
+    Assert.assertEquals(NamespaceSniffer.sniff(in), expected);
+    // the bytes read are pushed back
+    byte[] buf = new byte[doc.length + 1];
+    int len = 0;
+    for (int n; (n = in.read(buf, len, buf.length - len)) > 0;)
+      len += n;
+    Assert.assertEquals(len, doc.length);
+    for (int i = 0; i < len; i++)
+      Assert.assertEquals(buf[i], doc[i]);
+  }
+
+  static private byte[] concat(byte[] b1, byte[] b2) {
+    byte[] b = new byte[b1.length + b2.length];
+    System.arraycopy(b1, 0, b, 0, b1.length);
+    System.arraycopy(b2, 0, b, b1.length, b2.length);
+    return b;
+  }
+}
@@ -1,5 +1,6 @@
 package com.thaiopensource.datatype.xsd;
 
+import org.relaxng.datatype.DatatypeException;
 import org.relaxng.datatype.ValidationContext;
 
 class Base64BinaryDatatype extends BinaryDatatype {
@@ -18,48 +19,89 @@ class Base64BinaryDatatype extends BinaryDatatype {
   }
 
   private static int byteCount(String str) {
-    int nChars = 0;
-    int nPadding = 0;
-    int lastCharWeight = -1;
-    for (int i = 0, len = str.length(); i < len; i++) {
-      char c = str.charAt(i);
-      if (c >= 128)
-        return -1;
+    ByteCounter counter = new ByteCounter();
+    for (int i = 0, len = str.length(); i < len; i++)
+      counter.add(str.charAt(i));
+    return counter.byteCount();
+  }
+
+  /**
+   * Counts the bytes encoded by a sequence of characters, which are passed one at a time.
+   */
+  static private class ByteCounter {
+    private int nChars = 0;
+    private int nPadding = 0;
+    private int lastCharWeight = -1;
+    private boolean invalid = false;
+
+    void add(char c) {
+      if (invalid)
+        return;
+      if (c >= 128) {
+        invalid = true;
+        return;
+      }
       int w = weightTable[c];
       switch (w) {
       case WHITESPACE:
         break;
       case PADDING:
         if (++nPadding > 2)
-          return -1;
+          invalid = true;
         break;
       case INVALID:
-        return -1;
+        invalid = true;
+        break;
       default:
         if (nPadding > 0)
-          return -1;
+          invalid = true;
         lastCharWeight = w;
         nChars++;
         break;
       }
     }
-    if (((nChars + nPadding) & 0x3) != 0)
-      return -1;
-    switch (nPadding) {
-    case 1:
-      // 1 padding char; last quartet specifies 2 bytes = 16 bits = 6 + 6 + 4 bits
-      // lastChar must have 6 - 4 = 2 unused bits
-      if ((lastCharWeight & 0x3) != 0)
+
+    // returns -1 if the characters are not lexically valid
+    int byteCount() {
+      if (invalid)
         return -1;
-      break;
-    case 2:
-      // 2 padding chars; last quartet specifies 1 byte = 8 bits = 6 + 2 bits
-      // lastChar must have 6 - 2 = 4 unused bits
-      if ((lastCharWeight & 0xF) != 0)
+      if (((nChars + nPadding) & 0x3) != 0)
         return -1;
-      break;
+      switch (nPadding) {
+      case 1:
+        // 1 padding char; last quartet specifies 2 bytes = 16 bits = 6 + 6 + 4 bits
+        // lastChar must have 6 - 4 = 2 unused bits
+        if ((lastCharWeight & 0x3) != 0)
+          return -1;
+        break;
+      case 2:
+        // 2 padding chars; last quartet specifies 1 byte = 8 bits = 6 + 2 bits
+        // lastChar must have 6 - 2 = 4 unused bits
+        if ((lastCharWeight & 0xF) != 0)
+          return -1;
+        break;
+      }
+      return ((nChars + nPadding) >> 2)*3 - nPadding;
     }
-    return ((nChars + nPadding) >> 2)*3 - nPadding;
+  }
+
+  MeasuringStreamingValidator createMeasuringStreamingValidator() {
+    final ByteCounter counter = new ByteCounter();
+    return new MeasuringStreamingValidator() {
+      public void addCharacters(char[] buf, int start, int len) {
+        for (int i = 0; i < len; i++)
+          counter.add(buf[start + i]);
+      }
+
+      public void checkValid() throws DatatypeException {
+        if (counter.byteCount() < 0)
+          throw createLexicallyInvalidException();
+      }
+
+      int getLength() {
+        return counter.byteCount();
+      }
+    };
   }
 
   Object getValue(String str, ValidationContext vc) {
@@ -197,9 +197,20 @@ abstract class DatatypeBase implements Datatype2 {
   }
 
   public DatatypeStreamingValidator createStreamingValidator(ValidationContext vc) {
+    DatatypeStreamingValidator sv = createMeasuringStreamingValidator();
+    if (sv != null)
+      return sv;
     return new StreamingValidatorImpl(this, vc);
   }
 
+  /**
+   * Returns a streaming validator that uses constant space, or null if the characters
+   * have to be kept so that they can be checked as a string.
+   */
+  MeasuringStreamingValidator createMeasuringStreamingValidator() {
+    return null;
+  }
+
   protected static Localizer localizer() {
     return DatatypeBuilderImpl.localizer;
   }
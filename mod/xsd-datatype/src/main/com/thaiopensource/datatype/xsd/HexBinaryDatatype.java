@@ -1,5 +1,6 @@
 package com.thaiopensource.datatype.xsd;
 
+import org.relaxng.datatype.DatatypeException;
 import org.relaxng.datatype.ValidationContext;
 
 class HexBinaryDatatype extends BinaryDatatype {
@@ -18,6 +19,41 @@ class HexBinaryDatatype extends BinaryDatatype {
     return i == len;
   }
 
+  /**
+   * Checks the characters in the same way as lexicallyAllows, but a chunk at a time.
+   */
+  MeasuringStreamingValidator createMeasuringStreamingValidator() {
+    return new MeasuringStreamingValidator() {
+      private int nDigits = 0;
+      // true once whitespace follows the digits; then only whitespace is allowed
+      private boolean trailing = false;
+      private boolean invalid = false;
+
+      public void addCharacters(char[] buf, int start, int len) {
+        for (int i = start, end = start + len; i < end && !invalid; i++) {
+          int w = weight(buf[i]);
+          if (w == WHITESPACE) {
+            if (nDigits > 0)
+              trailing = true;
+          }
+          else if (w == INVALID || trailing)
+            invalid = true;
+          else
+            nDigits++;
+        }
+      }
+
+      public void checkValid() throws DatatypeException {
+        if (invalid || (nDigits & 1) != 0)
+          throw createLexicallyInvalidException();
+      }
+
+      int getLength() {
+        return nDigits >> 1;
+      }
+    };
+  }
+
   String getLexicalSpaceKey() {
     return "hex";
   }
@@ -2,18 +2,15 @@ package com.thaiopensource.datatype.xsd;
 
 import org.relaxng.datatype.DatatypeException;
 
-class MaxLengthRestrictDatatype extends ValueRestrictDatatype {
+class MaxLengthRestrictDatatype extends MeasureRestrictDatatype {
   private final int length;
-  private final Measure measure;
 
   MaxLengthRestrictDatatype(DatatypeBase base, int length) {
     super(base);
-    this.measure = base.getMeasure();
     this.length = length;
   }
 
-  void checkRestriction(Object obj) throws DatatypeException {
-    int actualLength = measure.getLength(obj);
+  void checkLength(int actualLength) throws DatatypeException {
     if (actualLength > length)
       throw new DatatypeException(localizer().message("max_length_violation",
                                                       new Object[] { getDescriptionForRestriction(), length, actualLength }));
@@ -0,0 +1,41 @@
+package com.thaiopensource.datatype.xsd;
+
+import org.relaxng.datatype.DatatypeException;
+
+/**
+ * A restriction by one of the length facets.
+ */
+abstract class MeasureRestrictDatatype extends ValueRestrictDatatype {
+  private final Measure measure;
+
+  MeasureRestrictDatatype(DatatypeBase base) {
+    super(base);
+    this.measure = base.getMeasure();
+  }
+
+  void checkRestriction(Object obj) throws DatatypeException {
+    checkLength(measure.getLength(obj));
+  }
+
+  abstract void checkLength(int actualLength) throws DatatypeException;
+
+  MeasuringStreamingValidator createMeasuringStreamingValidator() {
+    final MeasuringStreamingValidator sv = base.createMeasuringStreamingValidator();
+    if (sv == null)
+      return null;
+    return new MeasuringStreamingValidator() {
+      public void addCharacters(char[] buf, int start, int len) {
+        sv.addCharacters(buf, start, len);
+      }
+
+      public void checkValid() throws DatatypeException {
+        sv.checkValid();
+        checkLength(sv.getLength());
+      }
+
+      int getLength() {
+        return sv.getLength();
+      }
+    };
+  }
+}
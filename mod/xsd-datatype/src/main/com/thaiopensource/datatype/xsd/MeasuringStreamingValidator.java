@@ -0,0 +1,27 @@
+package com.thaiopensource.datatype.xsd;
+
+import org.relaxng.datatype.DatatypeException;
+import org.relaxng.datatype.DatatypeStreamingValidator;
+
+/**
+ * A DatatypeStreamingValidator that checks the characters as they are added rather than keeping them,
+ * so that it uses constant space however many characters are added.  It also computes the length
+ * of the value, so that the length facets can be checked in the same way.
+ */
+abstract class MeasuringStreamingValidator implements DatatypeStreamingValidator {
+  /**
+   * Returns the length of the value of the characters added so far, as the Measure of the datatype
+   * would compute it.  Requires checkValid not to throw an exception.
+   */
+  abstract int getLength();
+
+  public boolean isValid() {
+    try {
+      checkValid();
+      return true;
+    }
+    catch (DatatypeException e) {
+      return false;
+    }
+  }
+}
@@ -31,6 +31,47 @@ class TokenDatatype extends DatatypeBase implements Measure {
     return this;
   }
 
+  /**
+   * Computes the length of the whitespace-normalized value as the characters are passed.
+   * This is only for the datatypes whose lexical space is all strings; the subclasses that restrict
+   * the lexical space need the string.
+   */
+  MeasuringStreamingValidator createMeasuringStreamingValidator() {
+    if (!alwaysValid())
+      return null;
+    final boolean collapse = getWhiteSpace() == WHITE_SPACE_COLLAPSE;
+    return new MeasuringStreamingValidator() {
+      private int length = 0;
+      // when collapsing, whether there's been a non-whitespace character and whether it's been followed by whitespace
+      private boolean started = false;
+      private boolean pendingSpace = false;
+
+      public void addCharacters(char[] buf, int start, int len) {
+        for (int i = start, end = start + len; i < end; i++) {
+          char c = buf[i];
+          if (collapse && (c == ' ' || c == '\r' || c == '\n' || c == '\t')) {
+            if (started)
+              pendingSpace = true;
+            continue;
+          }
+          if (pendingSpace) {
+            length++;
+            pendingSpace = false;
+          }
+          started = true;
+          if (!Utf16.isSurrogate1(c))
+            length++;
+        }
+      }
+
+      public void checkValid() { }
+
+      int getLength() {
+        return length;
+      }
+    };
+  }
+
   public int getLength(Object obj) {
     String str = (String)obj;
     int len = str.length();
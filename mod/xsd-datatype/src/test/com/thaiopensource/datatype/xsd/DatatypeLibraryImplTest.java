@@ -5,6 +5,7 @@ import org.relaxng.datatype.Datatype;
 import org.relaxng.datatype.DatatypeBuilder;
 import org.relaxng.datatype.DatatypeException;
 import org.relaxng.datatype.DatatypeLibrary;
+import org.relaxng.datatype.DatatypeStreamingValidator;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
@@ -79,4 +80,52 @@ public class DatatypeLibraryImplTest {
       Assert.assertTrue(message.contains("4"));      
     }
   }
+
+  @Test
+  public void testStreamingValidator() throws DatatypeException {
+    String[] strings = {
+      "", " ", "AAAA", " QUJD\nREVG ", "QUI=", "QQ==", "QR==", "QUJ", "QU=I", "A===", "QUJDRA== ",
+      "00", " 0a1B \t", "0", "0 0", "zz", "a\u00e9b", "  x  y\r\n\tz ", "\ud800\udc00\ud800\udc00",
+    };
+    String[][] types = {
+      { "base64Binary" }, { "hexBinary" }, { "string" }, { "normalizedString" }, { "token" },
+      { "base64Binary", "length", "3" }, { "base64Binary", "maxLength", "2" }, { "hexBinary", "minLength", "1" },
+      { "string", "length", "5" }, { "normalizedString", "maxLength", "4" }, { "token", "minLength", "5" },
+      { "token", "minLength", "2", "maxLength", "4" }, { "string", "length", "2" },
+    };
+    for (String[] type : types) {
+      DatatypeBuilder dtb = lib.createDatatypeBuilder(type[0]);
+      for (int i = 1; i < type.length; i += 2)
+        dtb.addParameter(type[i], type[i + 1], null);
+      Datatype dt = dtb.createDatatype();
+      for (String str : strings) {
+        String expected = checkValid(dt, str);
+        for (int chunkSize = 1; chunkSize <= 3; chunkSize++) {
+          DatatypeStreamingValidator sv = dt.createStreamingValidator(null);
+          char[] chars = str.toCharArray();
+          for (int i = 0; i < chars.length; i += chunkSize)
+            sv.addCharacters(chars, i, Math.min(chunkSize, chars.length - i));
+          String actual = null;
+          try {
+            sv.checkValid();
+          }
+          catch (DatatypeException e) {
+            actual = e.getMessage();
+          }
+          Assert.assertEquals(actual, expected, type[0] + " " + str);
+          Assert.assertEquals(sv.isValid(), expected == null, type[0] + " " + str);
+        }
+      }
+    }
+  }
+
+  static private String checkValid(Datatype dt, String str) {
+    try {
+      dt.checkValid(str, null);
+      return null;
+    }
+    catch (DatatypeException e) {
+      return e.getMessage();
+    }
+  }
 }